@@ -34,6 +34,10 @@ public class Domain extends ArrayList<Domain.State>{
 			return false;
 		}
 
+		public int hashCode(){
+			return this.task.getId().hashCode();
+		}
+
 		public String toString(){
 			return this.task.getId();
 		}
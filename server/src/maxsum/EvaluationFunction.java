@@ -41,6 +41,22 @@ public class EvaluationFunction{
 		
 	}
 
+	//Priority of a task - overridden to evaluate a copy of the task's values
+	protected double getPriority(Task task) {
+		return task.getPriority();
+	}
+
+	//Number of agents needed by a task
+	protected int getGroup(Task task) {
+		return task.getGroup();
+	}
+
+	//Number of agents already allocated to a task
+	protected int getAgentCount(Task task) {
+		return task.getAgents().size();
+	}
+
+
 	//Evaluate a given pair (agent -> task)
 	public Double computeUtility(Variable var, State dom){
 		double score = 0.0;
@@ -61,7 +77,7 @@ public class EvaluationFunction{
 			//Higher task priority gives higher score
 
 			/* Todo: Add more aspects avchieve more complicated evaluation */
-			score = ((-1.0)*energy)/(task.getPriority()+1e-6);
+			score = ((-1.0)*energy)/(this.getPriority(task)+1e-6);
 
 			//The maxsum algrithem iterates many times to find the allocation solution.
 			//In order to enhance the efficiency, each assignemtn will only be evaluated once 
@@ -117,9 +133,10 @@ public class EvaluationFunction{
 		}
 
 		double value = 0.0;
-		if ((vars.size()+task.getAgents().size()) > task.getGroup()) {	
+		int agentCount = this.getAgentCount(task);
+		if ((vars.size()+agentCount) > this.getGroup(task)) {	
 			value =  -10000.0;
-		} else if ((vars.size()+task.getAgents().size())!= task.getGroup()) {
+		} else if ((vars.size()+agentCount)!= this.getGroup(task)) {
 			value = -1000.0;
 
 		} else {
@@ -148,7 +165,7 @@ public class EvaluationFunction{
        	}
 
 		double energy = this.checkEnergyConsume(agent, task);
-		score = ((-1.0)*energy)/(task.getPriority()+1e-6);
+		score = ((-1.0)*energy)/(this.getPriority(task)+1e-6);
 
 
 
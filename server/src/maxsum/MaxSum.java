@@ -72,7 +72,12 @@ public class MaxSum{
 
 
 	public void computeSolution(int steps){
-		setConstantFactors(System.currentTimeMillis());
+		computeSolution(steps, System.currentTimeMillis());
+	}
+
+	//Seed is used for the constant factors that break ties, so a given seed always gives the same solution
+	public void computeSolution(int steps, long seed){
+		setConstantFactors(seed);
 
 		//Iterate to get the converged solution
 		for(int t=0; t<steps; t++){
@@ -51,6 +51,10 @@ public class Variable{
 		return false;
 	}
 
+	public int hashCode() {
+		return this.agent.getId().hashCode();
+	}
+
 
 
 	//Set factor constants
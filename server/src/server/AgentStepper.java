@@ -0,0 +1,177 @@
+package server;
+
+import server.model.Agent;
+import server.model.AgentKinematics;
+import server.model.AgentPositionBuffer;
+import server.model.LocalFrame;
+import server.model.hazard.Hazard;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Steps all agents for a tick.
+ * Agents read their neighbours from the front of the position buffer and write their new state to the back,
+ *  so the result is the same whichever order they are stepped in. In parallel mode the agents are split into
+ *  ranges which are stepped on a fork-join pool.
+ * Each range is stepped in three passes: every agent decides how to move, the kinematics store moves them all
+ *  in one loop over its arrays, then every agent updates its route and is written to the position buffer.
+ * With level of detail enabled only the agents due this tick are stepped, the rest keep their buffered state.
+ * The array of agents (and the position buffer) is only rebuilt when agents are added or removed, so with level of
+ *  detail a tick costs as much as the agents stepped rather than all agents.
+ */
+public class AgentStepper {
+
+    //Below this many agents a range is stepped on the current thread.
+    private static final int MIN_PARALLEL_RANGE = 256;
+
+    private final AgentPositionBuffer buffer;
+    private final AgentKinematics kinematics;
+    private final ForkJoinPool pool;
+    private final LevelOfDetail levelOfDetail;
+    private volatile boolean parallel;
+    private volatile boolean levelOfDetailEnabled;
+    //All agents in buffer order, and the version of the agents collection and local frame they were taken with.
+    private Agent[] agents;
+    private long agentsVersion;
+    private LocalFrame frame;
+    //Kinematics handles and buffer indices of the agents being stepped, in buffer order.
+    private int[] handles;
+    private int[] indices;
+
+    public AgentStepper(AgentPositionBuffer buffer, AgentKinematics kinematics) {
+        this.buffer = buffer;
+        this.kinematics = kinematics;
+        this.agents = new Agent[0];
+        this.agentsVersion = -1;
+        this.handles = new int[0];
+        this.indices = new int[0];
+        this.levelOfDetail = new LevelOfDetail();
+        this.pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        this.parallel = false;
+    }
+
+    /**
+     * Step all agents (or with level of detail, all agents due this tick) and update the position buffer.
+     * @param agentsVersion - Version of the agents collection, which changes whenever an agent is added or removed.
+     * @return The agents that were stepped, in buffer order.
+     */
+    public Agent[] step(Collection<Agent> agentCollection, long agentsVersion, boolean flockingEnabled) {
+        boolean agentsChanged = agentsVersion != this.agentsVersion || kinematics.getLocalFrame() != frame;
+        if (agentsChanged) {
+            agents = agentCollection.toArray(new Agent[0]);
+            this.agentsVersion = agentsVersion;
+            frame = kinematics.getLocalFrame();
+            buffer.sync(agents, frame);
+            if (indices.length < agents.length)
+                indices = new int[agents.length];
+        }
+        Agent[] stepped = agents;
+        if (levelOfDetailEnabled)
+            stepped = selectDue(agentsChanged, flockingEnabled);
+        else
+            for (int i = 0; i < agents.length; i++)
+                indices[i] = i;
+        if (handles.length != stepped.length)
+            handles = new int[stepped.length];
+        for (int i = 0; i < stepped.length; i++)
+            handles[i] = stepped[i].getHandle();
+        if (parallel && stepped.length > MIN_PARALLEL_RANGE)
+            pool.invoke(new StepRange(this, stepped, 0, stepped.length, flockingEnabled));
+        else
+            stepRange(stepped, 0, stepped.length, flockingEnabled);
+        if (stepped.length == agents.length)
+            buffer.swap();
+        else
+            buffer.commit(indices, stepped.length);
+        return stepped;
+    }
+
+    /**
+     * Find the agents due to be stepped this tick, catching them up. The others keep their state in the buffer.
+     * @return The agents due, in buffer order - their buffer indices are left in indices.
+     */
+    private Agent[] selectDue(boolean agentsChanged, boolean flockingEnabled) {
+        levelOfDetail.startTick(flockingEnabled);
+        int count = levelOfDetail.selectDue(agents, agentsChanged, kinematics.takeChanged(), indices);
+        if (count == agents.length)
+            return agents;
+        Agent[] due = new Agent[count];
+        for (int i = 0; i < count; i++)
+            due[i] = agents[indices[i]];
+        return due;
+    }
+
+    /**
+     * Decide when the agents stepped this tick should next be stepped, if level of detail is enabled.
+     * @param agents - Agents stepped this tick.
+     * @param hazardsInRange - Hazards in range of each agent, in the same order.
+     */
+    public void schedule(Agent[] agents, List<List<Hazard>> hazardsInRange) {
+        if (levelOfDetailEnabled)
+            levelOfDetail.schedule(agents, indices, hazardsInRange, buffer);
+    }
+
+    private void stepRange(Agent[] agents, int from, int to, boolean flockingEnabled) {
+        for (int i = from; i < to; i++)
+            agents[i].step(flockingEnabled);
+        kinematics.integrate(handles, from, to);
+        for (int i = from; i < to; i++) {
+            agents[i].finishStep();
+            buffer.write(indices[i]);
+        }
+    }
+
+    private static class StepRange extends RecursiveAction {
+
+        private static final long serialVersionUID = 5561040348988016571L;
+        private final transient AgentStepper stepper;
+        private final transient Agent[] agents;
+        private final int from;
+        private final int to;
+        private final boolean flockingEnabled;
+
+        private StepRange(AgentStepper stepper, Agent[] agents, int from, int to, boolean flockingEnabled) {
+            this.stepper = stepper;
+            this.agents = agents;
+            this.from = from;
+            this.to = to;
+            this.flockingEnabled = flockingEnabled;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= MIN_PARALLEL_RANGE) {
+                stepper.stepRange(agents, from, to, flockingEnabled);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new StepRange(stepper, agents, from, mid, flockingEnabled),
+                        new StepRange(stepper, agents, mid, to, flockingEnabled));
+            }
+        }
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public boolean isLevelOfDetailEnabled() {
+        return levelOfDetailEnabled;
+    }
+
+    /**
+     * Must not be called while agents are being stepped.
+     */
+    public void setLevelOfDetailEnabled(boolean levelOfDetailEnabled) {
+        //Agents are all stepped on the next tick, rather than catching up from when it was last enabled.
+        levelOfDetail.clear();
+        this.levelOfDetailEnabled = levelOfDetailEnabled;
+    }
+
+}
@@ -7,6 +7,7 @@ import maxsum.Domain;
 import maxsum.MaxSum;
 import maxsum.Variable;
 import server.model.Agent;
+import server.model.AllocationIndex;
 import server.model.Coordinate;
 import server.model.MObject;
 import server.model.task.PatrolTask;
@@ -24,15 +25,17 @@ import java.util.logging.Logger;
 
 public class Allocator {
 
-    private final static Task TASK_NONE = new WaypointTask("none", null);
+    private final static Task TASK_NONE = new WaypointTask(null, "none", null);
     private final static Logger LOGGER = Logger.getLogger(Allocator.class.getName());
     private Map<String, String> oldresult = null; // used in runNoMaxsum() for getting previous result created by maxsum
     private Simulator simulator;
     private List<Map<String, String>> tempAllocationHistory; //History of tempAllocation - used for undo/redo.
     private int tempAllocationHistoryIndex; //Current position in history.
+    private final Random random; //Seeded from the simulator so allocations can be replayed.
 
     public Allocator(Simulator simulator) {
         this.simulator = simulator;
+        this.random = new Random(simulator.getSeed());
         tempAllocationHistory = new ArrayList<>();
         tempAllocationHistory.add(simulator.getState().getAllocation());
     }
@@ -47,9 +50,118 @@ public class Allocator {
      * Result is stored in state's temp allocation.
      * This doesn't actually allocate the agents to the tasks,
      *  a call to Allocator#confirmTempAssignemt will do this.
+     * Runs all three steps of the allocation in turn - a server splits them so only preparing and applying the
+     *  allocation hold up the simulation loop (see Input.PrepareAutoAllocation).
      */
     public void runAutoAllocation() {
-        Map<String, String> allocation = new HashMap<>();
+        applyAutoAllocation(solve(prepareAutoAllocation()));
+    }
+
+    /**
+     * An auto allocation to be solved. The agents' and tasks' values it depends on are copied when it is prepared, so
+     *  it can be solved on any thread while the simulation loop carries on changing the state.
+     * The agents and tasks themselves are only used for their ids.
+     */
+    public static class Problem {
+        //Allocation of working agents, which is kept (or the whole allocation if already decided).
+        private final Map<String, String> result;
+        //Null if there is nothing left to solve.
+        private final List<Agent> agents;
+        private final List<Task> tasks;
+        private final Map<Agent, AgentValues> agentValues;
+        private final Map<Task, TaskValues> taskValues;
+        private final long seed;
+
+        private Problem(Map<String, String> result) {
+            this.result = result;
+            this.agents = null;
+            this.tasks = null;
+            this.agentValues = null;
+            this.taskValues = null;
+            this.seed = 0;
+        }
+
+        private Problem(Map<String, String> result, List<Agent> agents, List<Task> tasks, long seed) {
+            this.result = result;
+            this.agents = agents;
+            this.tasks = tasks;
+            this.seed = seed;
+            agentValues = new HashMap<>();
+            for (Agent agent : agents)
+                agentValues.put(agent, new AgentValues(agent));
+            taskValues = new HashMap<>();
+            for (Task task : tasks)
+                taskValues.put(task, new TaskValues(task));
+        }
+    }
+
+    private static class AgentValues {
+        private final Coordinate coordinate;
+        private final double heading;
+        private final double speed;
+
+        private AgentValues(Agent agent) {
+            coordinate = agent.getCoordinate();
+            heading = agent.getHeading();
+            speed = agent.getSpeed();
+        }
+    }
+
+    private static class TaskValues {
+        private final Coordinate coordinate;
+        private final double priority;
+        private final int group;
+        private final int agentCount;
+
+        private TaskValues(Task task) {
+            coordinate = task.getCoordinate().clone();
+            priority = task.getPriority();
+            group = task.getGroup();
+            agentCount = task.getAgents().size();
+        }
+    }
+
+    /**
+     * Evaluates allocations from the values copied into a problem rather than the live agents and tasks.
+     */
+    private static class ProblemEvaluation extends EvaluationFunction {
+        private final Problem problem;
+
+        private ProblemEvaluation(Problem problem) {
+            this.problem = problem;
+        }
+
+        @Override
+        public double checkEnergyConsume(Agent agent, Task task) {
+            if (task == TASK_NONE)
+                return 0.0;
+            AgentValues agentValues = problem.agentValues.get(agent);
+            return Agent.getEnergyConsumption(agentValues.coordinate, problem.taskValues.get(task).coordinate,
+                    agentValues.heading, agentValues.speed);
+        }
+
+        @Override
+        protected double getPriority(Task task) {
+            return problem.taskValues.get(task).priority;
+        }
+
+        @Override
+        protected int getGroup(Task task) {
+            return problem.taskValues.get(task).group;
+        }
+
+        @Override
+        protected int getAgentCount(Task task) {
+            return problem.taskValues.get(task).agentCount;
+        }
+    }
+
+    /**
+     * First step of an auto allocation, run by the simulation loop. Releases the agents to be allocated (working
+     *  agents keep their tasks) and copies the values the allocation depends on.
+     * @return Problem to be solved by Allocator#solve.
+     */
+    public Problem prepareAutoAllocation() {
         List<Agent> agentsToAllocate = new ArrayList<>(simulator.getState().getAgents());
         agentsToAllocate.removeIf(agent -> agent.isManuallyControlled() || agent.isTimedOut());
 
@@ -57,10 +169,41 @@ public class Allocator {
 
         String allocationMethod = simulator.getState().getAllocationMethod();
 
-        if(allocationMethod.equals("maxsum")){
-            allocation = compute(agentsToAllocate, tasksToAllocate, simulator.getState().isEditMode());
-        } else if(allocationMethod.equals("random")) {
-            allocation = randomCompute(agentsToAllocate, tasksToAllocate, simulator.getState().isEditMode());
+        //No allocation is computed if there are no agents or tasks to allocate.
+        if (agentsToAllocate.isEmpty() || tasksToAllocate.isEmpty())
+            return new Problem(null);
+        if(allocationMethod.equals("maxsum"))
+            return prepareMaxSum(agentsToAllocate, tasksToAllocate);
+        else if(allocationMethod.equals("random"))
+            return new Problem(randomCompute(agentsToAllocate, tasksToAllocate));
+        return new Problem(null);
+    }
+
+    /**
+     * Second step of an auto allocation. Only reads the problem, so can be run on any thread.
+     * @return Allocation of agent ids to task ids, or null if there was nothing to allocate.
+     */
+    public Map<String, String> solve(Problem problem) {
+        if (problem.agents == null)
+            return problem.result;
+        return runMaxSum(problem);
+    }
+
+    /**
+     * Last step of an auto allocation, run by the simulation loop. Puts the solved allocation into the temp
+     *  allocation and sets the temp route of each agent to its task. Agents and tasks removed since the allocation was
+     *  prepared are left out.
+     * @param allocation - Allocation given by Allocator#solve.
+     */
+    public void applyAutoAllocation(Map<String, String> allocation) {
+        if(allocation == null)
+            allocation = new HashMap<>();
+        else {
+            allocation = new HashMap<>(allocation);
+            allocation.entrySet().removeIf(entry -> simulator.getState().getAgent(entry.getKey()) == null ||
+                    simulator.getState().getTask(entry.getValue()) == null);
+            if (!simulator.getState().isEditMode())
+                oldresult = allocation;
         }
 
         simulator.getState().setTempAllocation(allocation);
@@ -88,7 +231,7 @@ public class Allocator {
         //Remove allocation to task if monitor or waypoint task (1 to 1 allocation only!)
         Task task = simulator.getState().getTask(taskId);
         if(task.getType() == Task.TASK_WAYPOINT || task.getType() == Task.TASK_MONITOR)
-            simulator.getState().getTempAllocation().entrySet().removeIf(entry -> entry.getValue().equals(taskId));
+            simulator.getState().getTempAllocation().removeTask(taskId);
         //Add new allocation
         simulator.getState().getTempAllocation().put(agentId, taskId);
         //Set agent route to task coordinate.
@@ -105,15 +248,9 @@ public class Allocator {
      * @param agentId - Id of agent.
      */
     public void moveToDroppedAllocation(String agentId) {
-        String taskId;
-        if((taskId = simulator.getState().getAllocation().get(agentId)) != null) {
-            Agent agent = simulator.getState().getAgent(agentId);
-            Task task = simulator.getState().getTask(taskId);
-            agent.setAllocatedTaskId(null);
-            task.removeAgent(agentId);
-            simulator.getState().getDroppedAllocation().put(agentId, taskId);
-            simulator.getState().getAllocation().remove(agentId);
-        }
+        Agent agent = simulator.getState().getAgent(agentId);
+        if(agent != null)
+            simulator.getState().getAllocations().drop(agent);
     }
 
     /**
@@ -130,32 +267,29 @@ public class Allocator {
      * Actually allocates agents to tasks based on new (now current) allocation.
      */
     public void confirmAllocation(Map<String, String> allocation) {
+        AllocationIndex allocations = simulator.getState().getAllocations();
         //Copy allocation to main allocation
-        Map<String, String> newMainAllocation = new HashMap<>(allocation);
-        simulator.getState().setAllocation(newMainAllocation);
+        simulator.getState().setAllocation(allocation);
 
         //Clear agents and tasks
         for(Agent agent : simulator.getState().getAgents())
             if(!agent.isWorking()) {
-                agent.setAllocatedTaskId(null);
+                allocations.release(agent);
                 if(simulator.getState().isFlockingEnabled()) {
                     agent.resume();
                 }
             }
         for(Task task : simulator.getState().getTasks())
-            task.getAgents().clear();
+            allocations.clearAgents(task);
 
         //Allocate agents to tasks
-        for(Map.Entry<String, String> entry : newMainAllocation.entrySet()) {
+        for(Map.Entry<String, String> entry : allocations.getCommitted().entrySet()) {
             Agent agent = simulator.getState().getAgent(entry.getKey());
             Task task = simulator.getState().getTask(entry.getValue());
             if (agent != null && task != null) {
                 //Assign
-                if(agent.getAllocatedTaskId() == null || !agent.getAllocatedTaskId().equals(task.getId())) {
-                    agent.setAllocatedTaskId(task.getId());
+                if(allocations.assign(agent, task))
                     agent.setWorking(false);
-                }
-                task.addAgent(agent);
 
                 //Update agent route
                 agent.setRoute(agent.getTempRoute());
@@ -252,14 +386,17 @@ public class Allocator {
 
     }
 
-    //TODO this should be passed a copy of the state at the time of calling
-    // Rather than access the state directly in case the state changes during processing
     public void run(Map<Agent, Task> assignment, boolean editMode) {
 
         List<Agent> agentList = new ArrayList<>(simulator.getState().getAgents());
+        List<Task> taskList = new ArrayList<>(simulator.getState().getTasks());
 
         //Compute routes
-        Map<String, String> result = compute(agentList, new ArrayList<>(simulator.getState().getTasks()), editMode);
+        Map<String, String> result = null;
+        if (!agentList.isEmpty() && !taskList.isEmpty()) {
+            result = solve(prepareMaxSum(agentList, taskList));
+            if (!editMode) oldresult = result;
+        }
 
         if (result != null) {
             //Assign agents to tasks and vice versa. Also set routes of agents.
@@ -269,8 +406,7 @@ public class Allocator {
                 Task task = simulator.getState().getTask(taskId);
 
                 if (task != null && agent != null) {
-                    task.addAgent(agent);
-                    agent.setAllocatedTaskId(task.getId());
+                    simulator.getState().getAllocations().assign(agent, task);
                     List<Coordinate> route = new ArrayList<>();
                     route.add(task.getCoordinate());
                     agent.setRoute(route);
@@ -280,21 +416,13 @@ public class Allocator {
     }
 
 
-    protected Map<String, String> compute(List<Agent> agents, List<Task> tasks, boolean editMode) {
-        if (!agents.isEmpty() && !tasks.isEmpty()) {
-				Map<String, String> result =  runMaxSum(agents, tasks);
-                if (!editMode) oldresult = result;
-                return result;
-        }
-        return null;
-    }
-
-    protected Map<String, String> randomCompute(List<Agent> agents, List<Task> tasks, boolean editMode) {
+    protected Map<String, String> randomCompute(List<Agent> agents, List<Task> tasks) {
         if (!agents.isEmpty() && !tasks.isEmpty()) {
             HashMap<String, String> result = new HashMap<>();
+            AllocationIndex allocations = simulator.getState().getAllocations();
 
             for (Task task : tasks) {
-                task.clearAgents();
+                allocations.clearAgents(task);
             }
 
             //Make sure the assignments won't be modified if the agent is working
@@ -302,12 +430,12 @@ public class Allocator {
             for (Agent agent : agents) {
                 if (agent.getTask() != null && agent.isWorking()) {
                     if (!tasks.contains(agent.getTask()) && agent.getTask().getAgents().size() >= agent.getTask().getGroup()) {
-                        agent.setAllocatedTaskId(null);
+                        allocations.release(agent);
                         agent.setWorking(false);
                         agent.setSearching(false);
                     } else {
                         workingAgents.add(agent);
-                        agent.getTask().addAgent(agent);
+                        allocations.assign(agent, agent.getTask());
                         result.put(agent.getId(), agent.getTask().getId());
                         if (agent.getTask().getAgents().size() >= agent.getTask().getGroup()) {
                             tasks.remove(agent.getTask());
@@ -315,7 +443,7 @@ public class Allocator {
 
                     }
                 } else {
-                    agent.setAllocatedTaskId(null);
+                    allocations.release(agent);
                     agent.setSearching(false);
                     agent.setWorking(false);
                 }
@@ -326,28 +454,30 @@ public class Allocator {
             }
 
             for (Task task : tasks) {
+                if (agents.isEmpty())
+                    break;
                 if (task.getAgents().size() < task.getGroup()) {
-                    int rnd = new Random().nextInt(agents.size());
+                    int rnd = random.nextInt(agents.size());
                     Agent agent = agents.get(rnd);
                     result.put(agent.getId(), task.getId());
                     agents.remove(agent);
                 }
             }
 
-            if (!editMode) oldresult = result;
             return result;
         }
         return null;
     }
 
-    private Map<String, String> runMaxSum(List<Agent> agents, List<Task> tasks) {
-
-        MaxSum maxsum = new MaxSum();
-        HashMap<Agent, Task> resultObjs = new HashMap<>(); // TEMP solution
+    /**
+     * Release the agents to be allocated by maxsum, keeping working agents on their tasks.
+     */
+    private Problem prepareMaxSum(List<Agent> agents, List<Task> tasks) {
         HashMap<String, String> result = new HashMap<>();
+        AllocationIndex allocations = simulator.getState().getAllocations();
 
         for (Task task : tasks) {
-            task.clearAgents();
+            allocations.clearAgents(task);
         }
 
         //Make sure the assignments won't be modified if the agent is working
@@ -355,21 +485,20 @@ public class Allocator {
         for (Agent agent : agents) {
             if (agent.getTask() != null && agent.isWorking()) {
                 if (!tasks.contains(agent.getTask()) && agent.getTask().getAgents().size() >= agent.getTask().getGroup()) {
-                    agent.setAllocatedTaskId(null);
+                    allocations.release(agent);
                     agent.setWorking(false);
                     agent.setSearching(false);
                 } else {
                     workingAgents.add(agent);
-                    agent.getTask().addAgent(agent);
+                    allocations.assign(agent, agent.getTask());
                     result.put(agent.getId(), agent.getTask().getId());
-                    resultObjs.put(agent, agent.getTask());
                     if (agent.getTask().getAgents().size() >= agent.getTask().getGroup()) {
                         tasks.remove(agent.getTask());
                     }
 
                 }
             } else {
-                agent.setAllocatedTaskId(null);
+                allocations.release(agent);
                 agent.setSearching(false);
                 agent.setWorking(false);
             }
@@ -379,8 +508,25 @@ public class Allocator {
             agents.remove(agent);
         }
 
+        //Values are copied before the tasks of working agents are cleared, as the allocation is evaluated with them.
+        Problem problem = new Problem(result, agents, tasks, random.nextLong());
+        for (Agent agent : workingAgents) {
+            if (agent.getTask() != null) {
+                allocations.clearAgents(agent.getTask());
+            }
+        }
+        return problem;
+    }
+
+    private Map<String, String> runMaxSum(Problem problem) {
+
+        MaxSum maxsum = new MaxSum();
+        HashMap<String, String> result = new HashMap<>(problem.result);
+        List<Agent> agents = problem.agents;
+        List<Task> tasks = problem.tasks;
+
         //Build the factor graph
-        HashMap<Double, Edge> graph = createGraph(agents, tasks);
+        HashMap<Double, Edge> graph = createGraph(problem);
         TreeMap<Double, Edge> edgeGraph = new TreeMap<>(graph);
 
         //Remove cycles to form a cycle-free graph using minimum spanning tree
@@ -416,7 +562,7 @@ public class Allocator {
 
 
         Constraint[] constraints = new Constraint[tasks.size() + 1];
-        EvaluationFunction func = new EvaluationFunction();
+        EvaluationFunction func = new ProblemEvaluation(problem);
 
         for (int i = 0; i < tasks.size(); ++i) {
 
@@ -457,7 +603,7 @@ public class Allocator {
         }
 
         //Compute the maxsum solution
-        maxsum.computeSolution(20);
+        maxsum.computeSolution(20, problem.seed);
         Map<Variable, Domain.State> solution = maxsum.getSolution();
 
         for (int i = 0; i < maxsum.getVariables().size(); ++i) {
@@ -469,13 +615,6 @@ public class Allocator {
 
             if (task != TASK_NONE) { // task is not none
                 result.put(agent.getId(), task.getId());
-                resultObjs.put(agent, task);  // TEMP
-            }
-        }
-
-        for (Agent _agent : resultObjs.keySet()) { // TEMP
-            if (_agent.getTask() != null) {
-                _agent.getTask().clearAgents();
             }
         }
         return result;
@@ -492,9 +631,10 @@ public class Allocator {
         List<String> taskIDs = new ArrayList<>();
         Map<Task, Integer> taskIDsB = new HashMap<>();
         List<Agent> agentRef = new ArrayList<>();
+        AllocationIndex allocations = simulator.getState().getAllocations();
 
         for (Task task : tasks) {
-            task.clearAgents();
+            allocations.clearAgents(task);
         }
 
 
@@ -512,7 +652,7 @@ public class Allocator {
             result.put(agent.getId(), task.getId());
             resultObjs.put(agent, task);
             agentRef.remove(agent);
-            task.addAgent(agent);
+            allocations.assign(agent, task);
             taskIDsB.put(task, taskIDsB.get(task) + 1);
         }
 
@@ -520,17 +660,17 @@ public class Allocator {
         for (Agent agent : agents) {
             if (agent.getTask() != null && agent.isWorking()) {
                 if (!tasks.contains(agent.getTask())) {
-                    agent.setAllocatedTaskId(null);
+                    allocations.release(agent);
                     agent.setSearching(false);
                     agent.setWorking(false);
                 } else {
                     workingAgents.add(agent);
                     taskIDsB.put(agent.getTask(), taskIDsB.get(agent.getTask()) + 1);
-                    agent.getTask().addAgent(agent);
+                    allocations.assign(agent, agent.getTask());
                 }
 
             } else {
-                agent.setAllocatedTaskId(null);
+                allocations.release(agent);
                 agent.setSearching(false);
                 agent.setWorking(false);
             }
@@ -587,17 +727,11 @@ public class Allocator {
                 result.put(maxAgent.getId(), task.getId());
                 resultObjs.put(maxAgent, task);
                 taskIDsB.put(task, taskIDsB.get(task) + 1);
-                task.addAgent(maxAgent);
+                allocations.assign(maxAgent, task);
             }
         }
 
 //		System.out.println("YOLO" + result);
-        //TODO REF setup
-        for (Map.Entry<Agent, Task> ent : resultObjs.entrySet()) {
-            if (ent.getKey() != null && ent.getValue() != null) {
-                ent.getKey().setAllocatedTaskId(ent.getValue().getId());
-            }
-        }
         /* End Yuai */
 
         //System.out.println(result);
@@ -606,13 +740,15 @@ public class Allocator {
 
 
     /* Added by Jack */
-    private HashMap<Double, Edge> createGraph(List<Agent> agents, List<Task> tasks) {
+    private HashMap<Double, Edge> createGraph(Problem problem) {
 
         HashMap<Double, Edge> result = new HashMap<>();
 
-        for (Agent agent : agents) {
-            for (Task task : tasks) {
-                double distance = agent.predictPathLength(agent.getCoordinate(), task.getCoordinate(), agent.getSpeed());
+        for (Agent agent : problem.agents) {
+            AgentValues agentValues = problem.agentValues.get(agent);
+            for (Task task : problem.tasks) {
+                double distance = Agent.predictPathLength(agentValues.coordinate, problem.taskValues.get(task).coordinate,
+                        agentValues.heading, agentValues.speed);
                 result.put(distance, new Edge(agent, task));
             }
         }
@@ -0,0 +1,89 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Runs many independent headless simulations concurrently on a thread pool.
+ * Each run has its own simulator, so runs don't share any state and can use every core.
+ */
+public class BatchRunner {
+
+    private final static Logger LOGGER = Logger.getLogger(BatchRunner.class.getName());
+
+    private final int threads;
+
+    /**
+     * Settings for a single headless run.
+     */
+    public static class Run {
+        private final String scenarioFileName;
+        private final double duration;
+        private final double allocationInterval;
+        private final String allocationMethod;
+        private final String kernel;
+
+        /**
+         * @param allocationMethod - Allocation method to use, or null to use the scenario's.
+         * @param kernel - Kernel to run with, one of the HeadlessRunner KERNEL names.
+         */
+        public Run(String scenarioFileName, double duration, double allocationInterval, String allocationMethod,
+                   String kernel) {
+            this.scenarioFileName = scenarioFileName;
+            this.duration = duration;
+            this.allocationInterval = allocationInterval;
+            this.allocationMethod = allocationMethod;
+            this.kernel = kernel;
+        }
+    }
+
+    public BatchRunner(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Number of threads must be positive - " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Execute all runs and wait for them to finish.
+     * @return KPIs of each run, in the same order as the runs. Failed runs have an error instead of KPIs.
+     */
+    public JsonArray run(List<Run> runs) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<JsonObject>> futures = new ArrayList<>();
+            for (Run run : runs)
+                futures.add(executor.submit(() -> execute(run)));
+
+            JsonArray results = new JsonArray();
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    LOGGER.severe("Run " + i + " failed - " + e.getCause());
+                    JsonObject error = new JsonObject();
+                    error.addProperty("scenario", runs.get(i).scenarioFileName);
+                    error.addProperty("error", String.valueOf(e.getCause()));
+                    results.add(error);
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private JsonObject execute(Run run) {
+        HeadlessRunner runner = new HeadlessRunner(new Simulator(true));
+        runner.setDuration(run.duration);
+        runner.setAllocationInterval(run.allocationInterval);
+        runner.setAllocationMethod(run.allocationMethod);
+        runner.setKernel(run.kernel);
+        return runner.run(run.scenarioFileName);
+    }
+
+}
@@ -0,0 +1,72 @@
+package server;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Queue of commands that change the state. Any thread can submit a command without locking, the simulation loop
+ *  then applies every queued command in the order they were submitted at the start of the next tick. This way only
+ *  one thread changes the state at a time and inputs always land between two ticks in a fixed order.
+ * Submitting a command returns a future for its result, completed once the command has been applied.
+ */
+public class CommandQueue {
+
+    /**
+     * A change to the state.
+     */
+    @FunctionalInterface
+    public interface Command<T> {
+        T apply() throws Exception;
+    }
+
+    private static class Entry<T> {
+        private final Command<T> command;
+        private final CompletableFuture<T> future;
+
+        private Entry(Command<T> command) {
+            this.command = command;
+            this.future = new CompletableFuture<>();
+        }
+
+        private void apply() {
+            try {
+                future.complete(command.apply());
+            } catch (Throwable e) {
+                //Failed commands must still complete their future or the submitter waits forever.
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final Queue<Entry<?>> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Add a command to the end of the queue.
+     * @return Future completed with the command's result (or the exception it threw) once it has been applied.
+     */
+    public <T> CompletableFuture<T> submit(Command<T> command) {
+        Entry<T> entry = new Entry<>(command);
+        queue.add(entry);
+        return entry.future;
+    }
+
+    /**
+     * Apply all queued commands in the order they were submitted, including any submitted while applying.
+     * @return Number of commands applied.
+     */
+    int drain() {
+        int applied = 0;
+        Entry<?> entry;
+        while ((entry = queue.poll()) != null) {
+            entry.apply();
+            applied++;
+        }
+        return applied;
+    }
+
+    public int size() {
+        return queue.size();
+    }
+
+}
@@ -0,0 +1,77 @@
+package server;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import server.model.Agent;
+import server.model.Coordinate;
+import server.model.task.Task;
+
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+/**
+ * Applies drone data messages (position updates, manual control changes etc.) sent by real agents.
+ * Messages arrive through the QueueManager, or from an input log when replaying.
+ */
+public class DroneDataHandler {
+
+    private final static Logger LOGGER = Logger.getLogger(DroneDataHandler.class.getName());
+
+    private final Simulator simulator;
+
+    public DroneDataHandler(Simulator simulator) {
+        this.simulator = simulator;
+    }
+
+    public void handle(byte[] body) {
+        try {
+            JsonObject metaData = JsonParser.parseString(new String(body, StandardCharsets.UTF_8)).getAsJsonObject();
+            String agentID = metaData.get("ID").getAsString();
+            Agent agent = simulator.getState().getAgent(agentID);
+            String content = metaData.get("Content").getAsString();
+            if (agent == null)
+                return;
+            switch (content) {
+                case "Coordinates":
+                    JsonObject coordinates = metaData.get("Coordinates").getAsJsonObject();
+                    Coordinate newCoordinate = new Coordinate(coordinates.get("Latitude").getAsDouble(), coordinates.get("Longitude").getAsDouble());
+                    agent.setCoordinate(newCoordinate);
+                    agent.setHeading(metaData.get("Heading").getAsInt());
+                    agent.heartbeat();
+                    break;
+                case "ManualControl":
+                    boolean manualControl = metaData.get("ManualControl").getAsBoolean();
+                    if (manualControl != agent.isManuallyControlled()) {
+                        agent.toggleManualControl();
+                        if (manualControl) {
+                            String taskID = (metaData.get("MissionID") != null) ? metaData.get("MissionID").getAsString() : null;
+                            if (taskID != null) {
+                                Task task = simulator.getState().getTask(taskID);
+                                simulator.getTaskController().deleteTask(taskID, false);
+                                simulator.getTaskController().updateTaskPosition(taskID, task.getCoordinate().getLatitude(), task.getCoordinate().getLongitude());
+                                LOGGER.info("Manual control: " + agentID);
+                            }
+                        }
+                    }
+                    break;
+                case "MarkFinished":
+                    LOGGER.info("Layout: " + ((metaData.get("FirstSetup").getAsBoolean()) ? 1 : 2) + " mark finished: " + metaData.get(content).getAsInt() + " Drone: " + agentID);
+                    if (simulator.getQueueManager() != null)
+                        simulator.getQueueManager().sendMarkerFinished(metaData.get(content).getAsInt(), agentID);
+                    break;
+                case "POISpotted":
+                    LOGGER.info("Layout: " + ((metaData.get("FirstSetup").getAsBoolean()) ? 1 : 2) + " POI spotted: " + metaData.get(content).getAsInt() + " Drone: " + agentID);
+                    break;
+                case "Log":
+                    LOGGER.info("MSGQ LOG: " + content);
+                    break;
+                default:
+                    break;
+            }
+        }
+        catch(Exception e) {
+            LOGGER.severe("Unable to handle drone meta data delivery: " + e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,413 @@
+package server;
+
+import server.model.Agent;
+import server.model.AgentKinematics;
+import server.model.Coordinate;
+import server.model.State;
+import server.model.task.Task;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.BooleanSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Event driven alternative to stepping the simulation tick by tick, used by headless runs.
+ * Each agent flies its route one leg at a time - it turns on the spot towards the next point at the same rate as
+ *  when ticking, then flies straight to it along a great circle at its own speed (an agent with no speed stays where
+ *  it is). With tick speed set agents instead fly at the speed ticking moves them (STEP_DISTANCE a tick whatever
+ *  their speed), so results can be compared with tick by tick runs. Its position is a function of time along the
+ *  leg, so nothing is done between events:
+ *  - An arrival event is scheduled for the end of each leg, which moves the agent on to its next point or, at its
+ *     final point, steps its task (completing waypoint tasks).
+ *  - A battery event is scheduled for when each agent's battery runs out.
+ *  - Observation events every OBSERVATION_INTERVAL simulated seconds, and any actions scheduled by the caller
+ *     (allocation, the end of the run).
+ * Positions are only worked out when observed - at each event the agents' positions are brought up to date and the
+ *  path flown since they were last observed is swept every SAMPLE_SPACING meters for hazard hits, target discovery
+ *  and coverage. Targets are discovered at the time the agent passed them, hazard hits are decayed from the time
+ *  they are observed.
+ * Flocking, patrol and region tasks and real agents need stepping every tick, so scenarios with them aren't
+ *  supported (see isSupported).
+ */
+public class EventKernel {
+
+    private final static Logger LOGGER = Logger.getLogger(EventKernel.class.getName());
+
+    private static final double EARTH_RADIUS = 6379.1 * 1000; //Meters, as used by the agent kinematics
+    //Rates of the tick by tick model - the unit turning angle and battery consumption are per tick.
+    private static final double TURN_RATE = 0.1 / TickScheduler.TICK_DURATION; //Radians per second
+    private static final double BATTERY_RATE = 0.0001 / TickScheduler.TICK_DURATION; //Per second
+    //Ticking moves agents a fixed distance each tick whatever their speed attribute is set to.
+    private static final double TICK_SPEED = AgentKinematics.STEP_DISTANCE / TickScheduler.TICK_DURATION; //Meters per second
+    private static final double SAMPLE_SPACING = 5; //Meters
+    private static final double OBSERVATION_INTERVAL = 10; //Simulated seconds
+    private static final double EPS = 1e-5;
+
+    /**
+     * Listener told about each position an agent is observed at.
+     */
+    public interface SampleListener {
+        void sample(Agent agent, double lat, double lng);
+    }
+
+    private static class Event implements Comparable<Event> {
+        private final double time;
+        private final long sequence;
+        private final Runnable action;
+
+        private Event(double time, long sequence, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            int byTime = Double.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * The leg an agent is flying (or that it is stationary) since it was last observed.
+     */
+    private static class Motion {
+        //Incremented whenever the agent's leg is replanned, so events for older legs are ignored.
+        private int version;
+        private boolean moving;
+        private double startTime;
+        private double startLat;
+        private double startLng;
+        private double startHeading; //Radians
+        private double bearing; //Radians
+        private double turnEnd;
+        private double length; //Meters
+        private double speed; //Meters per second
+        private Coordinate destination;
+        //Time and distance along the leg the agent was last observed at.
+        private double observedTime;
+        private double observedDistance;
+        private double battery;
+        private double batteryTime;
+    }
+
+    private final Simulator simulator;
+    private final State state;
+    private final PriorityQueue<Event> events;
+    //In the order agents were added, so agents are always observed in the same order.
+    private final Map<Agent, Motion> motions;
+    //Reused to pass one agent to the hazard hit and target discovery checks.
+    private final Agent[] sampled;
+    private SampleListener sampleListener;
+    private boolean tickSpeed;
+    private long sequence;
+    private long processed;
+    //Simulated time hazard hits have been decayed up to.
+    private double decayedTo;
+
+    public EventKernel(Simulator simulator) {
+        this.simulator = simulator;
+        this.state = simulator.getState();
+        this.events = new PriorityQueue<>();
+        this.motions = new LinkedHashMap<>();
+        this.sampled = new Agent[1];
+    }
+
+    /**
+     * @return True if the scenario currently loaded can be run by the event kernel.
+     */
+    public static boolean isSupported(State state) {
+        if (state.isFlockingEnabled())
+            return false;
+        for (Task task : state.getTasks())
+            if (task.getType() == Task.TASK_PATROL || task.getType() == Task.TASK_REGION)
+                return false;
+        for (Agent agent : state.getAgents())
+            if (!agent.isSimulated())
+                return false;
+        return true;
+    }
+
+    public void setSampleListener(SampleListener sampleListener) {
+        this.sampleListener = sampleListener;
+    }
+
+    public boolean isTickSpeed() {
+        return tickSpeed;
+    }
+
+    /**
+     * @param tickSpeed - Whether agents fly at the speed ticking moves them rather than their own speed. Must be set
+     *                  before the kernel is started.
+     */
+    public void setTickSpeed(boolean tickSpeed) {
+        this.tickSpeed = tickSpeed;
+    }
+
+    /**
+     * Plan every agent's first leg and start the periodic observations, from the current time.
+     */
+    public void start() {
+        decayedTo = state.getTime();
+        for (Agent agent : state.getAgents()) {
+            Motion motion = new Motion();
+            motion.battery = agent.getBattery();
+            motion.batteryTime = state.getTime();
+            motions.put(agent, motion);
+            plan(agent, motion);
+            scheduleBatteryEvent(agent, motion);
+        }
+        scheduleObservation(state.getTime() + OBSERVATION_INTERVAL);
+    }
+
+    /**
+     * Schedule an action to be run at the given simulated time, after any events already scheduled for that time.
+     */
+    public void schedule(double time, Runnable action) {
+        events.add(new Event(time, sequence++, action));
+    }
+
+    /**
+     * Run events in time order until the next one is after the given time or the stop condition is met. The
+     *  simulated time is then the time of the last event run.
+     */
+    public void runUntil(double time, BooleanSupplier stop) {
+        while (!events.isEmpty() && events.peek().time <= time && !stop.getAsBoolean()) {
+            Event event = events.poll();
+            advanceTo(event.time);
+            event.action.run();
+            processed++;
+        }
+    }
+
+    /**
+     * Bring every agent's position, heading and battery up to date with the current time.
+     */
+    public void observe() {
+        for (Map.Entry<Agent, Motion> entry : motions.entrySet())
+            observe(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * Replan every agent's leg from where it is now, e.g. after its route or task has been changed.
+     */
+    public void replan() {
+        observe();
+        for (Agent agent : state.getAgents()) {
+            Motion motion = motions.get(agent);
+            if (motion != null)
+                plan(agent, motion);
+        }
+    }
+
+    /**
+     * @return Number of events run.
+     */
+    public long getProcessed() {
+        return processed;
+    }
+
+    private void advanceTo(double time) {
+        state.setTime(time);
+        int decaySteps = (int) Math.floor((time - decayedTo) / TickScheduler.TICK_DURATION + EPS);
+        if (decaySteps > 0) {
+            state.decayHazardHits(decaySteps);
+            decayedTo += decaySteps * TickScheduler.TICK_DURATION;
+        }
+    }
+
+    private void scheduleObservation(double time) {
+        schedule(time, () -> {
+            observe();
+            scheduleObservation(time + OBSERVATION_INTERVAL);
+        });
+    }
+
+    private void scheduleBatteryEvent(Agent agent, Motion motion) {
+        if (motion.battery <= 0)
+            return;
+        schedule(motion.batteryTime + motion.battery / BATTERY_RATE, () -> {
+            observe(agent, motion);
+            LOGGER.info("Agent " + agent.getId() + " has run out of battery.");
+        });
+    }
+
+    /**
+     * Plan the agent's next leg from its current position - it moves if it has a task and a route to follow, as
+     *  when stepped.
+     */
+    private void plan(Agent agent, Motion motion) {
+        double now = state.getTime();
+        motion.version++;
+        motion.moving = false;
+        motion.startTime = motion.observedTime = now;
+        motion.observedDistance = 0;
+        motion.startLat = agent.getLatitude();
+        motion.startLng = agent.getLongitude();
+        motion.startHeading = Math.toRadians(agent.getHeading());
+
+        Task task = agent.getTask();
+        List<Coordinate> route = agent.getRoute();
+        double speed = tickSpeed ? TICK_SPEED : agent.getSpeed();
+        if (task == null || route.isEmpty() || agent.isStopped() || agent.isWorking() || agent.getSearching() ||
+                speed <= 0)
+            return;
+        //Goal is kept at the task's position.
+        route.set(route.size() - 1, task.getCoordinate());
+
+        Coordinate destination = route.get(0);
+        motion.moving = true;
+        motion.destination = destination;
+        motion.speed = speed;
+        motion.bearing = getBearing(motion.startLat, motion.startLng, destination.getLatitude(), destination.getLongitude());
+        motion.length = getDistance(motion.startLat, motion.startLng, destination.getLatitude(), destination.getLongitude());
+        motion.turnEnd = now + getTurn(motion.startHeading, motion.bearing) / TURN_RATE;
+        if (isReached(agent, destination)) {
+            motion.turnEnd = now;
+            motion.length = 0;
+        }
+        int version = motion.version;
+        schedule(motion.turnEnd + motion.length / motion.speed, () -> {
+            if (motion.version == version)
+                arrive(agent, motion);
+        });
+    }
+
+    private void arrive(Agent agent, Motion motion) {
+        observe(agent, motion);
+        //Land exactly on the point rather than just within the arrival distance.
+        agent.place(motion.destination.getLatitude(), motion.destination.getLongitude(), agent.getHeading(), 0, 0);
+        List<Coordinate> route = agent.getRoute();
+        if (route.size() > 1) {
+            route.remove(0);
+            plan(agent, motion);
+            return;
+        }
+        motion.moving = false;
+        Task task = agent.getTask();
+        if (task != null && task.step()) {
+            task.complete();
+            //Other agents on the task are released from it.
+            replan();
+        }
+        else
+            plan(agent, motion);
+    }
+
+    /**
+     * Bring an agent up to date with the current time, sweeping the path it has flown since it was last observed.
+     */
+    private void observe(Agent agent, Motion motion) {
+        double now = state.getTime();
+        if (agent.isSimulated()) {
+            agent.setBattery(Math.max(0, motion.battery - BATTERY_RATE * (now - motion.batteryTime)));
+            motion.battery = agent.getBattery();
+            motion.batteryTime = now;
+        }
+        if (!motion.moving) {
+            sample(agent, agent.getLatitude(), agent.getLongitude());
+            motion.observedTime = now;
+            return;
+        }
+
+        double distance = getDistanceAt(motion, now);
+        //Sample the path since last observed, each point at the time the agent passed it.
+        for (double d = motion.observedDistance + SAMPLE_SPACING; d < distance; d += SAMPLE_SPACING)
+            sampleAt(agent, motion, d, motion.turnEnd + d / motion.speed);
+        double heading = now < motion.turnEnd ? getHeadingAt(motion, now) : motion.bearing;
+        double[] position = getPosition(motion, distance);
+        agent.place(position[0], position[1], Math.toDegrees(heading), distance - motion.observedDistance,
+                now - motion.observedTime);
+        state.setTime(now);
+        sample(agent, position[0], position[1]);
+        motion.observedTime = now;
+        motion.observedDistance = distance;
+    }
+
+    private void sampleAt(Agent agent, Motion motion, double distance, double time) {
+        double[] position = getPosition(motion, distance);
+        agent.place(position[0], position[1], Math.toDegrees(motion.bearing), 0, 0);
+        state.setTime(time);
+        sample(agent, position[0], position[1]);
+    }
+
+    private void sample(Agent agent, double lat, double lng) {
+        sampled[0] = agent;
+        simulator.registerHazardHits(sampled);
+        simulator.getTargetDiscovery().step(sampled);
+        if (sampleListener != null)
+            sampleListener.sample(agent, lat, lng);
+    }
+
+    private static double getDistanceAt(Motion motion, double time) {
+        if (time <= motion.turnEnd)
+            return 0;
+        return Math.min(motion.length, (time - motion.turnEnd) * motion.speed);
+    }
+
+    /**
+     * @return Heading (radians) while turning on the spot towards the leg's bearing.
+     */
+    private static double getHeadingAt(Motion motion, double time) {
+        double diff = motion.bearing - motion.startHeading;
+        diff = Math.atan2(Math.sin(diff), Math.cos(diff));
+        double turned = Math.min(Math.abs(diff), (time - motion.startTime) * TURN_RATE);
+        double heading = motion.startHeading + Math.signum(diff) * turned;
+        return Math.atan2(Math.sin(heading), Math.cos(heading));
+    }
+
+    /**
+     * @return Angle (radians) the agent must turn through to face the bearing - it turns the shorter way.
+     */
+    private static double getTurn(double heading, double bearing) {
+        double diff = bearing - heading;
+        return Math.abs(Math.atan2(Math.sin(diff), Math.cos(diff)));
+    }
+
+    /**
+     * @return Latitude and longitude the given distance along the leg.
+     */
+    private static double[] getPosition(Motion motion, double distance) {
+        if (distance >= motion.length && motion.length > 0)
+            return new double[] {motion.destination.getLatitude(), motion.destination.getLongitude()};
+        double d = distance / EARTH_RADIUS;
+        double lat1 = Math.toRadians(motion.startLat);
+        double lng1 = Math.toRadians(motion.startLng);
+        double lat2 = Math.asin(Math.sin(lat1) * Math.cos(d) + Math.cos(lat1) * Math.sin(d) * Math.cos(motion.bearing));
+        double lng2 = lng1 + Math.atan2(Math.sin(motion.bearing) * Math.sin(d) * Math.cos(lat1),
+                Math.cos(d) - Math.sin(lat1) * Math.sin(lat2));
+        return new double[] {Math.toDegrees(lat2), Math.toDegrees(lng2)};
+    }
+
+    /**
+     * @return Initial bearing from the first position to the second in radians.
+     */
+    private static double getBearing(double lat, double lng, double goalLat, double goalLng) {
+        double lat1 = Math.toRadians(lat);
+        double lat2 = Math.toRadians(goalLat);
+        double dLng = Math.toRadians(goalLng - lng);
+        double y = Math.sin(dLng) * Math.cos(lat2);
+        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(dLng);
+        return Math.atan2(y, x);
+    }
+
+    /**
+     * @return Great circle distance in meters, on the same sphere agents move over.
+     */
+    private static double getDistance(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) + Math.cos(Math.toRadians(lat1)) *
+                Math.cos(Math.toRadians(lat2)) * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private static boolean isReached(Agent agent, Coordinate goal) {
+        return Math.abs(goal.getLatitude() - agent.getLatitude()) < EPS &&
+                Math.abs(goal.getLongitude() - agent.getLongitude()) < EPS;
+    }
+
+}
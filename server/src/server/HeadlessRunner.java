@@ -0,0 +1,295 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import server.model.Agent;
+import server.model.Coordinate;
+import server.model.State;
+import server.model.task.Task;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Runs a scenario without the tick scheduler, stepping the simulation as fast as possible.
+ * Agents are automatically allocated every allocationInterval simulated seconds (and at the start).
+ * The run ends when the duration has passed or, if stopWhenComplete is set, all tasks have been completed.
+ * If eventDriven is set (and the scenario is supported) the run uses the EventKernel, jumping from event to event
+ *  rather than stepping every tick. Agents then fly at their own speed, or with tickSpeed set at the speed ticking
+ *  moves them, which gives the same task completion times as a tick by tick run.
+ * Key performance indicators are returned as a JSON object at the end of the run.
+ */
+public class HeadlessRunner {
+
+    private final static Logger LOGGER = Logger.getLogger(HeadlessRunner.class.getName());
+
+    private static final double DEFAULT_DURATION = 1800; //Simulated seconds
+    private static final double DEFAULT_ALLOCATION_INTERVAL = 30; //Simulated seconds
+    private static final double COVERAGE_CELL_SIZE = 10; //Meters
+    public static final String KERNEL_TICK = "tick";
+    public static final String KERNEL_EVENT = "event";
+    public static final String KERNEL_EVENT_TICK_SPEED = "event-tick-speed";
+
+    private final Simulator simulator;
+    private double duration;
+    private double allocationInterval;
+    private boolean stopWhenComplete;
+    private String allocationMethod;
+    private boolean eventDriven;
+    private boolean tickSpeed;
+
+    public HeadlessRunner(Simulator simulator) {
+        this.simulator = simulator;
+        this.duration = DEFAULT_DURATION;
+        this.allocationInterval = DEFAULT_ALLOCATION_INTERVAL;
+        this.stopWhenComplete = true;
+    }
+
+    /**
+     * Load and run a scenario from the scenario directory.
+     * @param scenarioFileName - Name of scenario file in web/scenarios/.
+     * @return KPIs of the run.
+     */
+    public JsonObject run(String scenarioFileName) {
+        simulator.reset();
+        if (!simulator.loadScenarioMode(scenarioFileName))
+            throw new IllegalArgumentException("Unable to load scenario from file " + scenarioFileName);
+        State state = simulator.getState();
+        if (allocationMethod != null)
+            state.setAllocationMethod(allocationMethod);
+        simulator.prepareSimulation();
+
+        Map<String, Double> initialBattery = new HashMap<>();
+        for (Agent agent : state.getAgents())
+            initialBattery.put(agent.getId(), agent.getBattery());
+        int initialTasks = state.getTasks().size();
+        Set<Long> coveredCells = new HashSet<>();
+        double cosLat0 = Math.cos(Math.toRadians(state.getGameCentre() != null ? state.getGameCentre().getLatitude() : 0));
+
+        boolean events = eventDriven && EventKernel.isSupported(state);
+        if (eventDriven && !events)
+            LOGGER.warning("Scenario " + scenarioFileName + " can't be run with the event kernel, running tick by tick.");
+        LOGGER.info("Running scenario " + scenarioFileName + " headless for " + duration + "s.");
+        long startNanos = System.nanoTime();
+        long steps = events ? runEvents(initialTasks, coveredCells, cosLat0) : runTicks(initialTasks, coveredCells, cosLat0);
+        double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+        state.setInProgress(false);
+        LOGGER.info("Headless run finished after " + steps + (events ? " events" : " ticks") + " in " + wallSeconds + "s.");
+
+        JsonObject kpis = getKpis(scenarioFileName, events ? 0 : steps, wallSeconds, initialBattery, coveredCells.size());
+        kpis.addProperty("kernel", !events ? KERNEL_TICK : tickSpeed ? KERNEL_EVENT_TICK_SPEED : KERNEL_EVENT);
+        if (events)
+            kpis.addProperty("events", steps);
+        return kpis;
+    }
+
+    /**
+     * Step the simulation tick by tick until the run ends.
+     * @return Number of ticks.
+     */
+    private long runTicks(int initialTasks, Set<Long> coveredCells, double cosLat0) {
+        State state = simulator.getState();
+        long ticks = 0;
+        double nextAllocation = 0;
+        while (state.getTime() < duration) {
+            if (state.getTime() >= nextAllocation) {
+                allocate();
+                nextAllocation = allocationInterval > 0 ? nextAllocation + allocationInterval : Double.POSITIVE_INFINITY;
+            }
+            simulator.tick(1);
+            ticks++;
+            for (Agent agent : state.getAgents())
+                coveredCells.add(getCell(agent.getLatitude(), agent.getLongitude(), cosLat0));
+            if (stopWhenComplete && initialTasks > 0 && state.getTasks().isEmpty())
+                break;
+        }
+        return ticks;
+    }
+
+    /**
+     * Run the simulation with the event kernel until the run ends.
+     * @return Number of events.
+     */
+    private long runEvents(int initialTasks, Set<Long> coveredCells, double cosLat0) {
+        State state = simulator.getState();
+        EventKernel kernel = new EventKernel(simulator);
+        kernel.setTickSpeed(tickSpeed);
+        kernel.setSampleListener((agent, lat, lng) -> coveredCells.add(getCell(lat, lng, cosLat0)));
+        allocate();
+        kernel.start();
+        if (allocationInterval > 0)
+            scheduleAllocation(kernel, state.getTime() + allocationInterval);
+        kernel.schedule(duration, kernel::observe);
+        kernel.runUntil(duration, () -> stopWhenComplete && initialTasks > 0 && state.getTasks().isEmpty());
+        kernel.observe();
+        return kernel.getProcessed();
+    }
+
+    private void scheduleAllocation(EventKernel kernel, double time) {
+        if (time >= duration)
+            return;
+        kernel.schedule(time, () -> {
+            //Allocate from the agents' current positions, then fly the new routes.
+            kernel.observe();
+            allocate();
+            kernel.replan();
+            scheduleAllocation(kernel, time + allocationInterval);
+        });
+    }
+
+    private void allocate() {
+        //Auto allocation does nothing (and returns no allocation) without tasks.
+        if (simulator.getState().getTasks().isEmpty())
+            return;
+        Allocator allocator = simulator.getAllocator();
+        allocator.runAutoAllocation();
+        allocator.confirmAllocation(simulator.getState().getTempAllocation());
+    }
+
+    private static long getCell(double lat, double lng, double cosLat0) {
+        double metersPerDegree = Math.toRadians(1) * 6371000;
+        long cx = (long) Math.floor(lng * metersPerDegree * cosLat0 / COVERAGE_CELL_SIZE);
+        long cy = (long) Math.floor(lat * metersPerDegree / COVERAGE_CELL_SIZE);
+        return (cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+    private JsonObject getKpis(String scenarioFileName, long ticks, double wallSeconds,
+                               Map<String, Double> initialBattery, int coveredCells) {
+        State state = simulator.getState();
+        JsonObject kpis = new JsonObject();
+        kpis.addProperty("scenario", scenarioFileName);
+        kpis.addProperty("allocationMethod", state.getAllocationMethod());
+        kpis.addProperty("simulatedSeconds", state.getTime());
+        kpis.addProperty("wallSeconds", wallSeconds);
+        kpis.addProperty("ticks", ticks);
+
+        JsonArray completed = new JsonArray();
+        for (Task task : state.getCompletedTasks()) {
+            JsonObject taskJson = new JsonObject();
+            taskJson.addProperty("id", task.getId());
+            taskJson.addProperty("startTime", task.getStartTime());
+            taskJson.addProperty("completionTime", task.getCompletionTime());
+            completed.add(taskJson);
+        }
+        kpis.addProperty("tasksCompleted", state.getCompletedTasks().size());
+        kpis.addProperty("tasksRemaining", state.getTasks().size());
+        kpis.add("completedTasks", completed);
+
+        kpis.addProperty("coveredArea", coveredCells * COVERAGE_CELL_SIZE * COVERAGE_CELL_SIZE);
+
+        double totalDistance = 0;
+        double totalBattery = 0;
+        JsonArray agents = new JsonArray();
+        for (Agent agent : state.getAgents()) {
+            double batteryUsed = initialBattery.getOrDefault(agent.getId(), agent.getBattery()) - agent.getBattery();
+            JsonObject agentJson = new JsonObject();
+            agentJson.addProperty("id", agent.getId());
+            agentJson.addProperty("distanceFlown", agent.getDistanceTravelled());
+            agentJson.addProperty("batteryUsed", batteryUsed);
+            agents.add(agentJson);
+            totalDistance += agent.getDistanceTravelled();
+            totalBattery += batteryUsed;
+        }
+        kpis.addProperty("distanceFlown", totalDistance);
+        kpis.addProperty("batteryUsed", totalBattery);
+        kpis.add("agents", agents);
+
+        kpis.add("targetDiscovery", simulator.getTargetDiscovery().getStatsJson());
+        kpis.add("coverage", state.getCoverageJson());
+        return kpis;
+    }
+
+    /**
+     * Write KPIs to a JSON file.
+     */
+    public static void writeKpis(JsonElement kpis, String fileName) throws IOException {
+        Files.write(Paths.get(fileName), kpis.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public double getDuration() {
+        return duration;
+    }
+
+    public void setDuration(double duration) {
+        this.duration = duration;
+    }
+
+    public double getAllocationInterval() {
+        return allocationInterval;
+    }
+
+    /**
+     * @param allocationInterval - Simulated seconds between allocations, 0 to only allocate at the start.
+     */
+    public void setAllocationInterval(double allocationInterval) {
+        this.allocationInterval = allocationInterval;
+    }
+
+    public String getAllocationMethod() {
+        return allocationMethod;
+    }
+
+    /**
+     * @param allocationMethod - Allocation method to use instead of the scenario's, or null to use the scenario's.
+     */
+    public void setAllocationMethod(String allocationMethod) {
+        this.allocationMethod = allocationMethod;
+    }
+
+    public boolean isEventDriven() {
+        return eventDriven;
+    }
+
+    /**
+     * @param eventDriven - Whether to run with the event kernel rather than stepping every tick.
+     */
+    public void setEventDriven(boolean eventDriven) {
+        this.eventDriven = eventDriven;
+    }
+
+    public boolean isTickSpeed() {
+        return tickSpeed;
+    }
+
+    /**
+     * @param tickSpeed - Whether the event kernel flies agents at the speed ticking moves them rather than their own.
+     */
+    public void setTickSpeed(boolean tickSpeed) {
+        this.tickSpeed = tickSpeed;
+    }
+
+    /**
+     * @return True if the name is one of the KERNEL names.
+     */
+    public static boolean isKernel(String kernel) {
+        return kernel.equals(KERNEL_TICK) || kernel.equals(KERNEL_EVENT) || kernel.equals(KERNEL_EVENT_TICK_SPEED);
+    }
+
+    /**
+     * Set the kernel by name - KERNEL_TICK, KERNEL_EVENT or KERNEL_EVENT_TICK_SPEED.
+     * @throws IllegalArgumentException - If the name isn't recognised.
+     */
+    public void setKernel(String kernel) {
+        if (!isKernel(kernel))
+            throw new IllegalArgumentException("Unrecognised kernel - " + kernel);
+        setEventDriven(!kernel.equals(KERNEL_TICK));
+        setTickSpeed(kernel.equals(KERNEL_EVENT_TICK_SPEED));
+    }
+
+    public boolean isStopWhenComplete() {
+        return stopWhenComplete;
+    }
+
+    public void setStopWhenComplete(boolean stopWhenComplete) {
+        this.stopWhenComplete = stopWhenComplete;
+    }
+
+}
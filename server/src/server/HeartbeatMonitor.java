@@ -0,0 +1,143 @@
+package server;
+
+import server.model.Agent;
+
+import java.util.*;
+
+/**
+ * Finds agents whose last heartbeat was more than TIMEOUT_MILLIS ago, without checking every agent each tick.
+ * Each agent is kept in a hashed timer wheel at the slot its heartbeat deadline falls in. Heartbeats only update
+ *  the agent's last heartbeat time - the agent is rescheduled lazily when its old deadline comes up and turns out
+ *  to have moved. So each tick only visits the agents whose deadlines fall in the slots that have passed, and a
+ *  connected agent is visited about once per timeout period however often it heartbeats.
+ * The current time is read once per tick and cached, so agents heartbeating every tick don't each read the clock.
+ * An agent that is removed and added again before its old slot comes up gets a new entry, and the old one is
+ *  skipped, so the agent is only ever scheduled once.
+ */
+public class HeartbeatMonitor {
+
+    public static final long TIMEOUT_MILLIS = 20 * 1000;
+
+    private static final long SLOT_MILLIS = 100;
+    //Number of slots - a power of two, spanning more than the timeout so deadlines rarely wrap around the wheel.
+    private static final int WHEEL_SIZE = 256;
+    private static final int MASK = WHEEL_SIZE - 1;
+
+    /**
+     * An agent's place in the wheel - reused each time the agent is rescheduled.
+     */
+    private static class Entry {
+        private final Agent agent;
+
+        private Entry(Agent agent) {
+            this.agent = agent;
+        }
+    }
+
+    private final List<List<Entry>> wheel;
+    private List<Entry> spare;
+    //Entry of each agent being monitored - entries of removed agents are dropped from the wheel when their slot
+    // comes up, as are entries replaced by adding the agent again.
+    private final Map<Agent, Entry> agents;
+    private final List<Agent> expired;
+    //Slot of the time of the last call to expire - it is processed again by the next call as it may not have passed.
+    private long currentSlot;
+    private volatile long now;
+
+    public HeartbeatMonitor() {
+        wheel = new ArrayList<>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++)
+            wheel.add(new ArrayList<>());
+        spare = new ArrayList<>();
+        agents = new IdentityHashMap<>();
+        expired = new ArrayList<>();
+        now = System.currentTimeMillis();
+        currentSlot = now / SLOT_MILLIS;
+    }
+
+    public synchronized void add(Agent agent) {
+        if (agents.containsKey(agent))
+            return;
+        Entry entry = new Entry(agent);
+        agents.put(agent, entry);
+        schedule(entry, agent.getLastHeartbeat() + TIMEOUT_MILLIS);
+    }
+
+    public synchronized void remove(Agent agent) {
+        agents.remove(agent);
+    }
+
+    public synchronized void clear() {
+        agents.clear();
+        for (List<Entry> slot : wheel)
+            slot.clear();
+    }
+
+    /**
+     * Put an agent in the slot its deadline falls in, or the current slot if that has passed. An agent whose deadline
+     *  hasn't quite passed when its slot is processed is checked again the next tick.
+     */
+    private void schedule(Entry entry, long deadline) {
+        long slot = Math.max(deadline / SLOT_MILLIS, currentSlot);
+        wheel.get((int) (slot & MASK)).add(entry);
+    }
+
+    /**
+     * Update the cached current time - called once per tick.
+     */
+    public void setCurrentTime(long now) {
+        this.now = now;
+    }
+
+    /**
+     * @return Time in ms cached at the start of the current tick.
+     */
+    public long currentTimeMillis() {
+        return now;
+    }
+
+    /**
+     * Find the agents whose last heartbeat is more than the timeout before the current time and which are not
+     *  already timed out. Only the agents in the slots from the last call up to the current time are visited.
+     * @return Agents that have timed out - the list is reused by the next call.
+     */
+    public synchronized List<Agent> expire() {
+        expired.clear();
+        long now = this.now;
+        long nowSlot = now / SLOT_MILLIS;
+        //If more than a whole turn of the wheel has passed, every slot is due.
+        long fromSlot = Math.max(currentSlot, nowSlot - WHEEL_SIZE + 1);
+        currentSlot = nowSlot;
+        for (long s = fromSlot; s <= nowSlot; s++) {
+            int index = (int) (s & MASK);
+            List<Entry> due = wheel.get(index);
+            if (due.isEmpty())
+                continue;
+            wheel.set(index, spare);
+            for (int i = 0; i < due.size(); i++) {
+                Entry entry = due.get(i);
+                Agent agent = entry.agent;
+                if (agents.get(agent) != entry)
+                    continue;
+                long deadline = agent.getLastHeartbeat() + TIMEOUT_MILLIS;
+                if (now > deadline) {
+                    if (!agent.isTimedOut())
+                        expired.add(agent);
+                    //Timed out agents are checked again each timeout period until they reconnect.
+                    schedule(entry, now + TIMEOUT_MILLIS);
+                }
+                else {
+                    schedule(entry, deadline);
+                }
+            }
+            due.clear();
+            spare = due;
+        }
+        return expired;
+    }
+
+    public synchronized int size() {
+        return agents.size();
+    }
+
+}
@@ -0,0 +1,1039 @@
+package server;
+
+import server.model.Agent;
+import server.model.Coordinate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An external input that changes the simulation, such as adding an agent or confirming an allocation.
+ * Requests are parsed and checked on the thread that received them, which then submits an input with
+ *  Simulator#apply to be applied by the simulation loop between ticks. Only these small typed inputs reach the loop -
+ *  anything expensive (like solving an allocation) is done by the submitting thread between two inputs.
+ * Inputs are recorded as they are applied so a run can be replayed by an InputReplayer. Each type writes its fields
+ *  and reads them back in its constructor taking a DataInputStream.
+ * @param <T> - Result of applying the input.
+ */
+public abstract class Input<T> {
+
+    static final int ADD_AGENT = 1;
+    static final int REGISTER_AGENT = 2;
+    static final int UPDATE_AGENT = 3;
+    static final int SET_AGENT_TIMED_OUT = 4;
+    static final int ADD_TO_TEMP_ROUTE = 5;
+    static final int EDIT_TEMP_ROUTE = 6;
+    static final int DELETE_FROM_TEMP_ROUTE = 7;
+    static final int MOVE_AGENT = 8;
+    static final int DELETE_AGENT = 9;
+    static final int CREATE_TASK = 10;
+    static final int CREATE_PATROL_TASK = 11;
+    static final int CREATE_REGION_TASK = 12;
+    static final int UPDATE_PATROL_PATH = 13;
+    static final int UPDATE_REGION_CORNERS = 14;
+    static final int UPDATE_TASK = 15;
+    static final int DELETE_TASK = 16;
+    static final int ADD_TARGET = 17;
+    static final int REVEAL_TARGET = 18;
+    static final int DELETE_TARGET = 19;
+    static final int PREPARE_AUTO_ALLOCATION = 20;
+    static final int APPLY_AUTO_ALLOCATION = 21;
+    static final int CONFIRM_ALLOCATION = 22;
+    static final int PUT_IN_TEMP_ALLOCATION = 23;
+    static final int REMOVE_FROM_TEMP_ALLOCATION = 24;
+    static final int UNDO_ALLOCATION = 25;
+    static final int REDO_ALLOCATION = 26;
+    static final int RESET_ALLOCATION = 27;
+    static final int SET_TEMP_ROUTES = 28;
+    static final int START_SANDBOX = 29;
+    static final int LOAD_SCENARIO = 30;
+    static final int START_SIMULATION = 31;
+    static final int SET_PROV_DOC = 32;
+    static final int CHANGE_VIEW = 33;
+    static final int RESET = 34;
+
+    private final int type;
+
+    Input(int type) {
+        this.type = type;
+    }
+
+    int getType() {
+        return type;
+    }
+
+    /**
+     * Apply the input. Called by the simulation loop holding the input lock, or by the replayer.
+     */
+    abstract T apply(Simulator simulator);
+
+    /**
+     * Write the input's fields, to be read back by its constructor when replaying.
+     */
+    void write(DataOutputStream out) throws IOException {}
+
+    /**
+     * Read an input written by Input#write, preceded by its type.
+     */
+    static Input<?> read(DataInputStream in) throws IOException {
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case ADD_AGENT: return new AddAgent(in);
+            case REGISTER_AGENT: return new RegisterAgent(in);
+            case UPDATE_AGENT: return new UpdateAgent(in);
+            case SET_AGENT_TIMED_OUT: return new SetAgentTimedOut(in);
+            case ADD_TO_TEMP_ROUTE: return new AddToTempRoute(in);
+            case EDIT_TEMP_ROUTE: return new EditTempRoute(in);
+            case DELETE_FROM_TEMP_ROUTE: return new DeleteFromTempRoute(in);
+            case MOVE_AGENT: return new MoveAgent(in);
+            case DELETE_AGENT: return new DeleteAgent(in);
+            case CREATE_TASK: return new CreateTask(in);
+            case CREATE_PATROL_TASK: return new CreatePatrolTask(in);
+            case CREATE_REGION_TASK: return new CreateRegionTask(in);
+            case UPDATE_PATROL_PATH: return new UpdatePatrolPath(in);
+            case UPDATE_REGION_CORNERS: return new UpdateRegionCorners(in);
+            case UPDATE_TASK: return new UpdateTask(in);
+            case DELETE_TASK: return new DeleteTask(in);
+            case ADD_TARGET: return new AddTarget(in);
+            case REVEAL_TARGET: return new RevealTarget(in);
+            case DELETE_TARGET: return new DeleteTarget(in);
+            case PREPARE_AUTO_ALLOCATION: return new PrepareAutoAllocation();
+            case APPLY_AUTO_ALLOCATION: return new ApplyAutoAllocation(in);
+            case CONFIRM_ALLOCATION: return new ConfirmAllocation();
+            case PUT_IN_TEMP_ALLOCATION: return new PutInTempAllocation(in);
+            case REMOVE_FROM_TEMP_ALLOCATION: return new RemoveFromTempAllocation(in);
+            case UNDO_ALLOCATION: return new UndoAllocation();
+            case REDO_ALLOCATION: return new RedoAllocation();
+            case RESET_ALLOCATION: return new ResetAllocation();
+            case SET_TEMP_ROUTES: return new SetTempRoutes(in);
+            case START_SANDBOX: return new StartSandbox();
+            case LOAD_SCENARIO: return new LoadScenario(in);
+            case START_SIMULATION: return new StartSimulation();
+            case SET_PROV_DOC: return new SetProvDoc(in);
+            case CHANGE_VIEW: return new ChangeView(in);
+            case RESET: return new Reset();
+            default:
+                throw new IOException("Unknown input type " + type);
+        }
+    }
+
+    public static class AddAgent extends Input<String> {
+        private final double lat;
+        private final double lng;
+        private final double heading;
+
+        public AddAgent(double lat, double lng, double heading) {
+            super(ADD_AGENT);
+            this.lat = lat;
+            this.lng = lng;
+            this.heading = heading;
+        }
+
+        AddAgent(DataInputStream in) throws IOException {
+            this(in.readDouble(), in.readDouble(), in.readDouble());
+        }
+
+        @Override
+        String apply(Simulator simulator) {
+            return simulator.getAgentController().addVirtualAgent(lat, lng, heading).getId();
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeDouble(lat);
+            out.writeDouble(lng);
+            out.writeDouble(heading);
+        }
+    }
+
+    /**
+     * Add a real agent that has registered with the server.
+     */
+    public static class RegisterAgent extends Input<String> {
+        private final double lat;
+        private final double lng;
+
+        public RegisterAgent(double lat, double lng) {
+            super(REGISTER_AGENT);
+            this.lat = lat;
+            this.lng = lng;
+        }
+
+        RegisterAgent(DataInputStream in) throws IOException {
+            this(in.readDouble(), in.readDouble());
+        }
+
+        @Override
+        String apply(Simulator simulator) {
+            //TODO Send heading on register agent
+            return simulator.getAgentController().addRealAgent(lat, lng, 0d).getId();
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeDouble(lat);
+            out.writeDouble(lng);
+        }
+    }
+
+    /**
+     * Change an agent's speed and/or altitude - either may be null to leave it unchanged.
+     */
+    public static class UpdateAgent extends Input<Void> {
+        private final String agentId;
+        private final Double speed;
+        private final Double altitude;
+
+        public UpdateAgent(String agentId, Double speed, Double altitude) {
+            super(UPDATE_AGENT);
+            this.agentId = agentId;
+            this.speed = speed;
+            this.altitude = altitude;
+        }
+
+        UpdateAgent(DataInputStream in) throws IOException {
+            this(in.readUTF(), readNullableDouble(in), readNullableDouble(in));
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            //The agent may have been removed since the request was checked.
+            if (simulator.getState().getAgent(agentId) == null)
+                return null;
+            if (speed != null)
+                simulator.getAgentController().updateAgentSpeed(agentId, speed);
+            if (altitude != null)
+                simulator.getAgentController().updateAgentAltitude(agentId, altitude);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+            writeNullableDouble(out, speed);
+            writeNullableDouble(out, altitude);
+        }
+    }
+
+    /**
+     * @see server.controller.AgentController#setAgentTimedOut
+     */
+    public static class SetAgentTimedOut extends Input<Boolean> {
+        private final String agentId;
+        private final boolean timedOut;
+
+        public SetAgentTimedOut(String agentId, boolean timedOut) {
+            super(SET_AGENT_TIMED_OUT);
+            this.agentId = agentId;
+            this.timedOut = timedOut;
+        }
+
+        SetAgentTimedOut(DataInputStream in) throws IOException {
+            this(in.readUTF(), in.readBoolean());
+        }
+
+        @Override
+        Boolean apply(Simulator simulator) {
+            return simulator.getState().getAgent(agentId) != null &&
+                    simulator.getAgentController().setAgentTimedOut(agentId, timedOut);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+            out.writeBoolean(timedOut);
+        }
+    }
+
+    public static class AddToTempRoute extends Input<Void> {
+        private final String agentId;
+        private final int index;
+        private final Coordinate coordinate;
+
+        public AddToTempRoute(String agentId, int index, Coordinate coordinate) {
+            super(ADD_TO_TEMP_ROUTE);
+            this.agentId = agentId;
+            this.index = index;
+            this.coordinate = coordinate;
+        }
+
+        AddToTempRoute(DataInputStream in) throws IOException {
+            this(in.readUTF(), in.readInt(), readCoordinate(in));
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            if (simulator.getState().getAgent(agentId) != null)
+                simulator.getAgentController().addToAgentTempRoute(agentId, index, coordinate);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+            out.writeInt(index);
+            writeCoordinate(out, coordinate);
+        }
+    }
+
+    public static class EditTempRoute extends Input<Void> {
+        private final String agentId;
+        private final int index;
+        private final Coordinate coordinate;
+
+        public EditTempRoute(String agentId, int index, Coordinate coordinate) {
+            super(EDIT_TEMP_ROUTE);
+            this.agentId = agentId;
+            this.index = index;
+            this.coordinate = coordinate;
+        }
+
+        EditTempRoute(DataInputStream in) throws IOException {
+            this(in.readUTF(), in.readInt(), readCoordinate(in));
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            if (simulator.getState().getAgent(agentId) != null)
+                simulator.getAgentController().editAgentTempRoute(agentId, index, coordinate);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+            out.writeInt(index);
+            writeCoordinate(out, coordinate);
+        }
+    }
+
+    public static class DeleteFromTempRoute extends Input<Void> {
+        private final String agentId;
+        private final int index;
+
+        public DeleteFromTempRoute(String agentId, int index) {
+            super(DELETE_FROM_TEMP_ROUTE);
+            this.agentId = agentId;
+            this.index = index;
+        }
+
+        DeleteFromTempRoute(DataInputStream in) throws IOException {
+            this(in.readUTF(), in.readInt());
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            if (simulator.getState().getAgent(agentId) != null)
+                simulator.getAgentController().deleteFromAgentTempRoute(agentId, index);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+            out.writeInt(index);
+        }
+    }
+
+    /**
+     * Move an agent by a distance in a direction from wherever it is when the input is applied.
+     */
+    public static class MoveAgent extends Input<Void> {
+        private final String agentId;
+        private final double distance;
+        private final double angle;
+
+        public MoveAgent(String agentId, double distance, double angle) {
+            super(MOVE_AGENT);
+            this.agentId = agentId;
+            this.distance = distance;
+            this.angle = angle;
+        }
+
+        MoveAgent(DataInputStream in) throws IOException {
+            this(in.readUTF(), in.readDouble(), in.readDouble());
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            Agent agent = simulator.getState().getAgent(agentId);
+            if (agent != null)
+                agent.setCoordinate(agent.getCoordinate().getCoordinate(distance, angle));
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+            out.writeDouble(distance);
+            out.writeDouble(angle);
+        }
+    }
+
+    public static class DeleteAgent extends Input<Boolean> {
+        private final String agentId;
+
+        public DeleteAgent(String agentId) {
+            super(DELETE_AGENT);
+            this.agentId = agentId;
+        }
+
+        DeleteAgent(DataInputStream in) throws IOException {
+            this(in.readUTF());
+        }
+
+        @Override
+        Boolean apply(Simulator simulator) {
+            return simulator.getAgentController().deleteAgent(agentId);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+        }
+    }
+
+    /**
+     * Create a waypoint or monitor task. Applying it throws an IllegalArgumentException for any other type.
+     */
+    public static class CreateTask extends Input<String> {
+        private final int taskType;
+        private final double lat;
+        private final double lng;
+
+        public CreateTask(int taskType, double lat, double lng) {
+            super(CREATE_TASK);
+            this.taskType = taskType;
+            this.lat = lat;
+            this.lng = lng;
+        }
+
+        CreateTask(DataInputStream in) throws IOException {
+            this(in.readInt(), in.readDouble(), in.readDouble());
+        }
+
+        @Override
+        String apply(Simulator simulator) {
+            return simulator.getTaskController().createTask(taskType, lat, lng).getId();
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(taskType);
+            out.writeDouble(lat);
+            out.writeDouble(lng);
+        }
+    }
+
+    public static class CreatePatrolTask extends Input<String> {
+        private final List<Coordinate> path;
+
+        public CreatePatrolTask(List<Coordinate> path) {
+            super(CREATE_PATROL_TASK);
+            this.path = path;
+        }
+
+        CreatePatrolTask(DataInputStream in) throws IOException {
+            this(readCoordinates(in));
+        }
+
+        @Override
+        String apply(Simulator simulator) {
+            return simulator.getTaskController().createPatrolTask(path).getId();
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            writeCoordinates(out, path);
+        }
+    }
+
+    /**
+     * Create a region task from its corners (north west, north east, south east then south west).
+     */
+    public static class CreateRegionTask extends Input<String> {
+        private final List<Coordinate> corners;
+
+        public CreateRegionTask(List<Coordinate> corners) {
+            super(CREATE_REGION_TASK);
+            this.corners = corners;
+        }
+
+        CreateRegionTask(DataInputStream in) throws IOException {
+            this(readCoordinates(in));
+        }
+
+        @Override
+        String apply(Simulator simulator) {
+            return simulator.getTaskController().createRegionTask(corners.get(0), corners.get(1), corners.get(2), corners.get(3)).getId();
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            writeCoordinates(out, corners);
+        }
+    }
+
+    /**
+     * @see server.controller.TaskController#updatePatrolPath
+     */
+    public static class UpdatePatrolPath extends Input<Boolean> {
+        private final String taskId;
+        private final List<Coordinate> path;
+
+        public UpdatePatrolPath(String taskId, List<Coordinate> path) {
+            super(UPDATE_PATROL_PATH);
+            this.taskId = taskId;
+            this.path = path;
+        }
+
+        UpdatePatrolPath(DataInputStream in) throws IOException {
+            this(in.readUTF(), readCoordinates(in));
+        }
+
+        @Override
+        Boolean apply(Simulator simulator) {
+            return simulator.getState().getTask(taskId) != null &&
+                    simulator.getTaskController().updatePatrolPath(taskId, path);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(taskId);
+            writeCoordinates(out, path);
+        }
+    }
+
+    /**
+     * @see server.controller.TaskController#updateRegionCorners
+     */
+    public static class UpdateRegionCorners extends Input<Boolean> {
+        private final String taskId;
+        private final List<Coordinate> corners;
+
+        public UpdateRegionCorners(String taskId, List<Coordinate> corners) {
+            super(UPDATE_REGION_CORNERS);
+            this.taskId = taskId;
+            this.corners = corners;
+        }
+
+        UpdateRegionCorners(DataInputStream in) throws IOException {
+            this(in.readUTF(), readCoordinates(in));
+        }
+
+        @Override
+        Boolean apply(Simulator simulator) {
+            return simulator.getState().getTask(taskId) != null &&
+                    simulator.getTaskController().updateRegionCorners(taskId, corners);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(taskId);
+            writeCoordinates(out, corners);
+        }
+    }
+
+    /**
+     * Change a task's position, group and/or priority - any may be null to leave it unchanged.
+     */
+    public static class UpdateTask extends Input<Void> {
+        private final String taskId;
+        private final Coordinate position;
+        private final Integer group;
+        private final Double priority;
+
+        public UpdateTask(String taskId, Coordinate position, Integer group, Double priority) {
+            super(UPDATE_TASK);
+            this.taskId = taskId;
+            this.position = position;
+            this.group = group;
+            this.priority = priority;
+        }
+
+        UpdateTask(DataInputStream in) throws IOException {
+            this(in.readUTF(), in.readBoolean() ? readCoordinate(in) : null, in.readBoolean() ? in.readInt() : null,
+                    readNullableDouble(in));
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            if (simulator.getState().getTask(taskId) == null)
+                return null;
+            if (position != null)
+                simulator.getTaskController().updateTaskPosition(taskId, position.getLatitude(), position.getLongitude());
+            if (group != null)
+                simulator.getTaskController().updateTaskGroup(taskId, group);
+            if (priority != null)
+                simulator.getTaskController().updateTaskPriority(taskId, priority);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(taskId);
+            out.writeBoolean(position != null);
+            if (position != null)
+                writeCoordinate(out, position);
+            out.writeBoolean(group != null);
+            if (group != null)
+                out.writeInt(group);
+            writeNullableDouble(out, priority);
+        }
+    }
+
+    public static class DeleteTask extends Input<Boolean> {
+        private final String taskId;
+
+        public DeleteTask(String taskId) {
+            super(DELETE_TASK);
+            this.taskId = taskId;
+        }
+
+        DeleteTask(DataInputStream in) throws IOException {
+            this(in.readUTF());
+        }
+
+        @Override
+        Boolean apply(Simulator simulator) {
+            return simulator.getTaskController().deleteTask(taskId, false);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(taskId);
+        }
+    }
+
+    public static class AddTarget extends Input<String> {
+        private final double lat;
+        private final double lng;
+        private final int targetType;
+
+        public AddTarget(double lat, double lng, int targetType) {
+            super(ADD_TARGET);
+            this.lat = lat;
+            this.lng = lng;
+            this.targetType = targetType;
+        }
+
+        AddTarget(DataInputStream in) throws IOException {
+            this(in.readDouble(), in.readDouble(), in.readInt());
+        }
+
+        @Override
+        String apply(Simulator simulator) {
+            return simulator.getTargetController().addTarget(lat, lng, targetType).getId();
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeDouble(lat);
+            out.writeDouble(lng);
+            out.writeInt(targetType);
+        }
+    }
+
+    public static class RevealTarget extends Input<Void> {
+        private final String targetId;
+
+        public RevealTarget(String targetId) {
+            super(REVEAL_TARGET);
+            this.targetId = targetId;
+        }
+
+        RevealTarget(DataInputStream in) throws IOException {
+            this(in.readUTF());
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            if (simulator.getState().getTarget(targetId) != null)
+                simulator.getTargetController().setTargetVisibility(targetId, true);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(targetId);
+        }
+    }
+
+    public static class DeleteTarget extends Input<Boolean> {
+        private final String targetId;
+
+        public DeleteTarget(String targetId) {
+            super(DELETE_TARGET);
+            this.targetId = targetId;
+        }
+
+        DeleteTarget(DataInputStream in) throws IOException {
+            this(in.readUTF());
+        }
+
+        @Override
+        Boolean apply(Simulator simulator) {
+            return simulator.getTargetController().deleteTarget(targetId);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(targetId);
+        }
+    }
+
+    /**
+     * First step of an auto allocation - see Allocator#prepareAutoAllocation. The returned problem is solved by the
+     *  submitting thread, and the solution applied with an ApplyAutoAllocation input.
+     */
+    public static class PrepareAutoAllocation extends Input<Allocator.Problem> {
+        public PrepareAutoAllocation() {
+            super(PREPARE_AUTO_ALLOCATION);
+        }
+
+        @Override
+        Allocator.Problem apply(Simulator simulator) {
+            return simulator.getAllocator().prepareAutoAllocation();
+        }
+    }
+
+    /**
+     * Last step of an auto allocation - see Allocator#applyAutoAllocation.
+     */
+    public static class ApplyAutoAllocation extends Input<Void> {
+        //Null if there was nothing to allocate.
+        private final Map<String, String> allocation;
+
+        public ApplyAutoAllocation(Map<String, String> allocation) {
+            super(APPLY_AUTO_ALLOCATION);
+            this.allocation = allocation;
+        }
+
+        ApplyAutoAllocation(DataInputStream in) throws IOException {
+            this(readAllocation(in));
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.getAllocator().applyAutoAllocation(allocation);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(allocation != null);
+            if (allocation == null)
+                return;
+            out.writeInt(allocation.size());
+            for (Map.Entry<String, String> entry : allocation.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+        }
+
+        private static Map<String, String> readAllocation(DataInputStream in) throws IOException {
+            if (!in.readBoolean())
+                return null;
+            int size = in.readInt();
+            Map<String, String> allocation = new LinkedHashMap<>();
+            for (int i = 0; i < size; i++)
+                allocation.put(in.readUTF(), in.readUTF());
+            return allocation;
+        }
+    }
+
+    /**
+     * Confirm the temp allocation, making it the main allocation.
+     */
+    public static class ConfirmAllocation extends Input<Void> {
+        public ConfirmAllocation() {
+            super(CONFIRM_ALLOCATION);
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.getAllocator().confirmAllocation(simulator.getState().getTempAllocation());
+            return null;
+        }
+    }
+
+    public static class PutInTempAllocation extends Input<Void> {
+        private final String agentId;
+        private final String taskId;
+
+        public PutInTempAllocation(String agentId, String taskId) {
+            super(PUT_IN_TEMP_ALLOCATION);
+            this.agentId = agentId;
+            this.taskId = taskId;
+        }
+
+        PutInTempAllocation(DataInputStream in) throws IOException {
+            this(in.readUTF(), in.readUTF());
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            if (simulator.getState().getAgent(agentId) != null && simulator.getState().getTask(taskId) != null)
+                simulator.getAllocator().putInTempAllocation(agentId, taskId);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+            out.writeUTF(taskId);
+        }
+    }
+
+    public static class RemoveFromTempAllocation extends Input<Void> {
+        private final String agentId;
+
+        public RemoveFromTempAllocation(String agentId) {
+            super(REMOVE_FROM_TEMP_ALLOCATION);
+            this.agentId = agentId;
+        }
+
+        RemoveFromTempAllocation(DataInputStream in) throws IOException {
+            this(in.readUTF());
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.getAllocator().removeFromTempAllocation(agentId);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(agentId);
+        }
+    }
+
+    public static class UndoAllocation extends Input<Void> {
+        public UndoAllocation() {
+            super(UNDO_ALLOCATION);
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.getAllocator().undoAllocationChange();
+            return null;
+        }
+    }
+
+    public static class RedoAllocation extends Input<Void> {
+        public RedoAllocation() {
+            super(REDO_ALLOCATION);
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.getAllocator().redoAllocationChange();
+            return null;
+        }
+    }
+
+    public static class ResetAllocation extends Input<Void> {
+        public ResetAllocation() {
+            super(RESET_ALLOCATION);
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.getAllocator().resetAllocation();
+            return null;
+        }
+    }
+
+    /**
+     * Set temp routes optimised by the RoutePlanner - see RoutePlanner#setTempRoutes.
+     * @return Number of temp routes changed.
+     */
+    public static class SetTempRoutes extends Input<Integer> {
+        private final List<RoutePlanner.Plan> plans;
+
+        public SetTempRoutes(List<RoutePlanner.Plan> plans) {
+            super(SET_TEMP_ROUTES);
+            this.plans = plans;
+        }
+
+        SetTempRoutes(DataInputStream in) throws IOException {
+            this(readPlans(in));
+        }
+
+        @Override
+        Integer apply(Simulator simulator) {
+            return RoutePlanner.setTempRoutes(simulator.getState(), plans);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(plans.size());
+            for (RoutePlanner.Plan plan : plans) {
+                out.writeUTF(plan.getAgentId());
+                out.writeLong(plan.getVersion());
+                writeCoordinates(out, plan.getRoute());
+            }
+        }
+
+        private static List<RoutePlanner.Plan> readPlans(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            List<RoutePlanner.Plan> plans = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                plans.add(new RoutePlanner.Plan(in.readUTF(), in.readLong(), null, readCoordinates(in)));
+            return plans;
+        }
+    }
+
+    public static class StartSandbox extends Input<Void> {
+        public StartSandbox() {
+            super(START_SANDBOX);
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.startSandboxMode();
+            return null;
+        }
+    }
+
+    /**
+     * @see Simulator#loadScenarioMode
+     */
+    public static class LoadScenario extends Input<Boolean> {
+        private final String fileName;
+
+        public LoadScenario(String fileName) {
+            super(LOAD_SCENARIO);
+            this.fileName = fileName;
+        }
+
+        LoadScenario(DataInputStream in) throws IOException {
+            this(in.readUTF());
+        }
+
+        @Override
+        Boolean apply(Simulator simulator) {
+            return simulator.loadScenarioMode(fileName);
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(fileName);
+        }
+    }
+
+    public static class StartSimulation extends Input<Void> {
+        public StartSimulation() {
+            super(START_SIMULATION);
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.startSimulation();
+            return null;
+        }
+    }
+
+    public static class SetProvDoc extends Input<Void> {
+        private final String docId;
+
+        public SetProvDoc(String docId) {
+            super(SET_PROV_DOC);
+            this.docId = docId;
+        }
+
+        SetProvDoc(DataInputStream in) throws IOException {
+            this(in.readUTF());
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.setProvDoc(docId);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(docId);
+        }
+    }
+
+    /**
+     * @see Simulator#changeView
+     */
+    public static class ChangeView extends Input<Void> {
+        private final boolean toEdit;
+
+        public ChangeView(boolean toEdit) {
+            super(CHANGE_VIEW);
+            this.toEdit = toEdit;
+        }
+
+        ChangeView(DataInputStream in) throws IOException {
+            this(in.readBoolean());
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.changeView(toEdit);
+            return null;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            out.writeBoolean(toEdit);
+        }
+    }
+
+    public static class Reset extends Input<Void> {
+        public Reset() {
+            super(RESET);
+        }
+
+        @Override
+        Void apply(Simulator simulator) {
+            simulator.reset();
+            return null;
+        }
+    }
+
+    private static void writeCoordinate(DataOutputStream out, Coordinate coordinate) throws IOException {
+        out.writeDouble(coordinate.getLatitude());
+        out.writeDouble(coordinate.getLongitude());
+    }
+
+    private static Coordinate readCoordinate(DataInputStream in) throws IOException {
+        return new Coordinate(in.readDouble(), in.readDouble());
+    }
+
+    private static void writeCoordinates(DataOutputStream out, List<Coordinate> coordinates) throws IOException {
+        out.writeInt(coordinates.size());
+        for (Coordinate coordinate : coordinates)
+            writeCoordinate(out, coordinate);
+    }
+
+    private static List<Coordinate> readCoordinates(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        List<Coordinate> coordinates = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            coordinates.add(readCoordinate(in));
+        return coordinates;
+    }
+
+    private static void writeNullableDouble(DataOutputStream out, Double value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeDouble(value);
+    }
+
+    private static Double readNullableDouble(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readDouble() : null;
+    }
+
+}
@@ -0,0 +1,158 @@
+package server;
+
+import server.model.State;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+
+/**
+ * Records every external input to the simulation to an append-only binary log so a run can be replayed exactly
+ *  by an InputReplayer.
+ * The log starts with the simulator's random seed, followed by one record per input. Each record is tagged with
+ *  the number of ticks completed when it was applied (stored as the difference from the previous record).
+ * Records:
+ *  INPUT - Typed input that changes the simulation (see Input), written as its type then its fields.
+ *  DRONE_DATA - Message from a real agent via the message queue.
+ *  TIMEOUT - Agent that timed out (timeouts depend on the wall clock so can't be recomputed).
+ *  DECAY - Tick that was run with a hazard hit decay other than 1 (because the loop was catching up). Written once
+ *   the tick has run, after the inputs and timeouts applied during it, so they are replayed before the tick is.
+ *  END - Hash of the final state, used to check the replay.
+ */
+public class InputRecorder implements Closeable {
+
+    private final static Logger LOGGER = Logger.getLogger(InputRecorder.class.getName());
+
+    static final int MAGIC = 0x4855544C; //HUTL
+    static final int VERSION = 3;
+
+    static final int INPUT = 1;
+    static final int DRONE_DATA = 2;
+    static final int TIMEOUT = 3;
+    static final int DECAY = 4;
+    static final int END = 5;
+
+    private final DataOutputStream out;
+    private long lastTick;
+    private boolean closed;
+
+    public InputRecorder(String fileName, long seed) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        out.writeLong(seed);
+        out.flush();
+        LOGGER.info("Recording simulation inputs to " + fileName);
+    }
+
+    public synchronized void recordInput(long tick, Input<?> input) {
+        try {
+            startRecord(INPUT, tick);
+            out.writeByte(input.getType());
+            input.write(out);
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.severe("Unable to record input - " + e.getMessage());
+        }
+    }
+
+    public synchronized void recordDroneData(long tick, byte[] body) {
+        try {
+            startRecord(DRONE_DATA, tick);
+            writeBytes(body);
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.severe("Unable to record drone data - " + e.getMessage());
+        }
+    }
+
+    public synchronized void recordTimeout(long tick, String agentId) {
+        try {
+            startRecord(TIMEOUT, tick);
+            out.writeUTF(agentId);
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.severe("Unable to record timeout - " + e.getMessage());
+        }
+    }
+
+    public synchronized void recordDecay(long tick, int decaySteps) {
+        try {
+            startRecord(DECAY, tick);
+            writeVarLong(decaySteps);
+            out.flush();
+        } catch (IOException e) {
+            LOGGER.severe("Unable to record decay - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the end record and close the log.
+     * @param tick - Number of ticks completed.
+     * @param state - Final state, hashed so the replay can be checked.
+     */
+    public synchronized void close(long tick, State state) throws IOException {
+        if (closed)
+            return;
+        startRecord(END, tick);
+        out.writeUTF(hashState(state));
+        close();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        out.close();
+    }
+
+    private void startRecord(int type, long tick) throws IOException {
+        if (closed)
+            throw new IOException("Recorder has been closed");
+        out.writeByte(type);
+        writeVarLong(tick - lastTick);
+        lastTick = tick;
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * @return SHA-256 of the state's JSON, as hex.
+     */
+    static String hashState(State state) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(state.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest)
+                hex.append(String.format("%02x", b));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
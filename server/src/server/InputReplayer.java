@@ -0,0 +1,119 @@
+package server;
+
+import com.google.gson.JsonObject;
+import server.model.Agent;
+
+import java.io.*;
+import java.util.logging.Logger;
+
+/**
+ * Replays an input log written by an InputRecorder as fast as possible.
+ * A headless simulator is created with the recorded seed and ticked until each recorded input is due, the input
+ *  is then applied exactly as it was when recorded. The replay ends with the same state as the recorded run,
+ *  which is checked against the state hash at the end of the log.
+ * As there is no tick scheduler, the replay also makes a repeatable workload for regression tests and profiling.
+ */
+public class InputReplayer {
+
+    private final static Logger LOGGER = Logger.getLogger(InputReplayer.class.getName());
+
+    private final String fileName;
+    private Simulator simulator;
+
+    public InputReplayer(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Replay the whole log.
+     * @return Statistics of the replay and whether the final state matches the recorded one.
+     */
+    public JsonObject run() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+            if (in.readInt() != InputRecorder.MAGIC)
+                throw new IOException(fileName + " is not an input log");
+            int version = in.readUnsignedShort();
+            if (version != InputRecorder.VERSION)
+                throw new IOException("Unsupported input log version - " + version);
+            long seed = in.readLong();
+            simulator = new Simulator(true, seed);
+
+            LOGGER.info("Replaying " + fileName + " with seed " + seed);
+            long startNanos = System.nanoTime();
+            long tick = 0;
+            long inputs = 0;
+            String expectedHash = null;
+            int type;
+            while ((type = in.read()) != -1) {
+                tick += InputRecorder.readVarLong(in);
+                while (simulator.getTickCount() < tick)
+                    simulator.tick(1);
+                if (type == InputRecorder.END) {
+                    expectedHash = in.readUTF();
+                    break;
+                }
+                apply(type, in);
+                inputs++;
+            }
+            double wallSeconds = (System.nanoTime() - startNanos) / 1e9;
+            String hash = InputRecorder.hashState(simulator.getState());
+            LOGGER.info("Replayed " + simulator.getTickCount() + " ticks and " + inputs + " inputs in " + wallSeconds + "s.");
+
+            JsonObject result = new JsonObject();
+            result.addProperty("log", fileName);
+            result.addProperty("seed", seed);
+            result.addProperty("ticks", simulator.getTickCount());
+            result.addProperty("inputs", inputs);
+            result.addProperty("wallSeconds", wallSeconds);
+            result.addProperty("ticksPerSecond", wallSeconds > 0 ? simulator.getTickCount() / wallSeconds : 0);
+            result.addProperty("stateHash", hash);
+            if (expectedHash != null) {
+                result.addProperty("expectedStateHash", expectedHash);
+                result.addProperty("matches", expectedHash.equals(hash));
+            }
+            return result;
+        }
+    }
+
+    private void apply(int type, DataInputStream in) throws IOException {
+        switch (type) {
+            case InputRecorder.INPUT:
+                Input<?> input = Input.read(in);
+                try {
+                    input.apply(simulator);
+                } catch (RuntimeException e) {
+                    //The input failed when recorded too, its submitter was given the exception.
+                    LOGGER.warning("Recorded input failed - " + e);
+                }
+                simulator.stateChanged();
+                break;
+            case InputRecorder.DRONE_DATA:
+                simulator.getDroneDataHandler().handle(readBytes(in));
+                break;
+            case InputRecorder.TIMEOUT:
+                Agent agent = simulator.getState().getAgent(in.readUTF());
+                if (agent != null)
+                    agent.setTimedOut(true);
+                break;
+            case InputRecorder.DECAY:
+                simulator.tick((int) InputRecorder.readVarLong(in));
+                break;
+            default:
+                throw new IOException("Unknown record type " + type + " in " + fileName);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) InputRecorder.readVarLong(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return Simulator used by the last replay, holding its final state.
+     */
+    public Simulator getSimulator() {
+        return simulator;
+    }
+
+}
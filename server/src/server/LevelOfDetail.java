@@ -0,0 +1,247 @@
+package server;
+
+import server.model.Agent;
+import server.model.AgentPositionBuffer;
+import server.model.Coordinate;
+import server.model.Route;
+import server.model.SpatialHashGrid;
+import server.model.hazard.Hazard;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides how often each agent is stepped, based on what it is doing:
+ *  - Agents working on a task, flocking, near hazards or other agents or controlled outside the simulation are
+ *     stepped every tick.
+ *  - Agents in transit (facing a destination they won't reach for a while) every TRANSIT_INTERVAL ticks.
+ *  - Idle agents (no task and not flocking) every IDLE_INTERVAL ticks.
+ * When an agent is next stepped, the ticks it skipped are first caught up in one go - an agent in transit moves
+ *  straight on towards its destination and batteries are drained for every tick.
+ * An agent is stepped early if anything that decided its interval has changed since it was last stepped (its
+ *  task, route, position or stopped/working flags, or whether flocking is enabled). Other agents coming near it are
+ *  only noticed once it (or they) are next stepped, at most IDLE_INTERVAL ticks later.
+ * Each tick only the agents scheduled for that tick (kept in a wheel of buckets, one per tick) and those the
+ *  kinematics store marked as changed are checked, so the cost is proportional to the agents stepped rather than
+ *  all agents. Every agent is checked when agents are added or removed or flocking is turned on or off.
+ * Entries are indexed by each agent's kinematics handle.
+ */
+public class LevelOfDetail {
+
+    public static final int TRANSIT_INTERVAL = 4;
+    public static final int IDLE_INTERVAL = 8;
+    //Agents with another agent this close (m) are stepped every tick - the radius flocking agents sense within.
+    public static final double NEIGHBOUR_RADIUS = 50;
+    //Larger than the longest interval, so an agent's bucket isn't reached again before the tick it is due.
+    private static final int WHEEL_SIZE = 16;
+
+    private static class Entry {
+        private final Agent agent;
+        private long lastStep;
+        private long nextStep;
+        //What the interval was decided from - the agent is stepped early if any of these change.
+        private String taskId;
+        private long routeVersion;
+        private double latitude;
+        private double longitude;
+        private boolean stopped;
+        private boolean working;
+        //Destination the agent was in transit to (and moves on towards while caught up) or null.
+        private Coordinate destination;
+        //Index of the agent in the position buffer when it was last stepped.
+        private int index;
+        //Last tick the agent was selected to be stepped, so it is only selected once a tick.
+        private long selected = -1;
+
+        private Entry(Agent agent) {
+            this.agent = agent;
+        }
+    }
+
+    private Entry[] entries;
+    private long tick;
+    private boolean flockingEnabled;
+    private boolean flockingChanged;
+    //Handles of the agents due to be stepped at each tick, in the bucket of the tick modulo WHEEL_SIZE. Buckets may
+    // also hold agents since stepped early or removed, which are skipped.
+    private final int[][] wheel;
+    private final int[] wheelCounts;
+    //Whether every agent should be checked at the next selection, rather than only those scheduled or changed.
+    private boolean checkAll;
+    //Reused for each neighbour query.
+    private final SpatialHashGrid.Result neighbours;
+
+    public LevelOfDetail() {
+        entries = new Entry[64];
+        wheel = new int[WHEEL_SIZE][16];
+        wheelCounts = new int[WHEEL_SIZE];
+        neighbours = new SpatialHashGrid.Result();
+    }
+
+    /**
+     * Forget all agents, so each is stepped next tick.
+     */
+    public void clear() {
+        Arrays.fill(entries, null);
+        Arrays.fill(wheelCounts, 0);
+        checkAll = true;
+    }
+
+    /**
+     * Start a new tick - must be called before any agent is prepared.
+     */
+    void startTick(boolean flockingEnabled) {
+        tick++;
+        flockingChanged = flockingEnabled != this.flockingEnabled;
+        this.flockingEnabled = flockingEnabled;
+    }
+
+    /**
+     * Find whether an agent should be stepped this tick, catching up the ticks it skipped if so.
+     * @return True if the agent should be stepped.
+     */
+    boolean prepare(Agent agent) {
+        Entry entry = getEntry(agent);
+        if (entry == null)
+            return true;
+        if (tick < entry.nextStep && !flockingChanged && !hasChanged(entry))
+            return false;
+        int skipped = (int) (tick - entry.lastStep - 1);
+        if (skipped > 0)
+            agent.catchUp(skipped, entry.destination);
+        return true;
+    }
+
+    /**
+     * Find the agents due to be stepped this tick, catching them up. Only the agents scheduled for this tick and
+     *  those marked as changed are checked, unless every agent has to be.
+     * @param agents - All agents, in buffer order.
+     * @param agentsChanged - Whether agents have been added or removed (or the buffer rebuilt) since the last tick.
+     * @param changed - Handles of the agents marked as changed since the last tick.
+     * @param due - Filled with the buffer indices of the agents due, in order.
+     * @return Number of agents due.
+     */
+    int selectDue(Agent[] agents, boolean agentsChanged, int[] changed, int[] due) {
+        int bucket = (int) (tick % WHEEL_SIZE);
+        int[] scheduled = wheel[bucket];
+        int scheduledCount = wheelCounts[bucket];
+        wheelCounts[bucket] = 0;
+        int count = 0;
+        if (agentsChanged || flockingChanged || checkAll) {
+            checkAll = false;
+            for (int i = 0; i < agents.length; i++) {
+                Entry entry = getEntry(agents[i]);
+                if (entry != null)
+                    entry.index = i;
+                if (prepare(agents[i]))
+                    due[count++] = i;
+            }
+            return count;
+        }
+        for (int s = 0; s < scheduledCount; s++)
+            count = selectIfDue(entries[scheduled[s]], agents, due, count);
+        for (int handle : changed)
+            count = selectIfDue(handle < entries.length ? entries[handle] : null, agents, due, count);
+        Arrays.sort(due, 0, count);
+        return count;
+    }
+
+    /**
+     * Add an agent's buffer index to due if it is due this tick and hasn't been selected already.
+     * @return New number of agents due.
+     */
+    private int selectIfDue(Entry entry, Agent[] agents, int[] due, int count) {
+        //Removed agents are no longer at their index.
+        if (entry == null || entry.selected == tick || entry.index >= agents.length || agents[entry.index] != entry.agent)
+            return count;
+        if (!prepare(entry.agent))
+            return count;
+        entry.selected = tick;
+        due[count] = entry.index;
+        return count + 1;
+    }
+
+    /**
+     * Decide when each of the agents stepped this tick should next be stepped.
+     * @param indices - Buffer index of each agent, in the same order.
+     * @param hazardsInRange - Hazards in range of each agent, in the same order.
+     * @param buffer - Position buffer, swapped this tick, used to find agents near each other.
+     */
+    void schedule(Agent[] agents, int[] indices, List<List<Hazard>> hazardsInRange, AgentPositionBuffer buffer) {
+        for (int i = 0; i < agents.length; i++) {
+            Agent agent = agents[i];
+            int handle = agent.getHandle();
+            Entry entry = getEntry(agent);
+            if (entry == null) {
+                if (handle >= entries.length)
+                    entries = Arrays.copyOf(entries, Math.max(entries.length * 2, handle + 1));
+                entry = entries[handle] = new Entry(agent);
+            }
+            entry.index = indices[i];
+            entry.lastStep = tick;
+            boolean nearHazard = !hazardsInRange.get(i).isEmpty();
+            entry.nextStep = tick + getInterval(entry, agent, nearHazard, buffer);
+
+            int bucket = (int) (entry.nextStep % WHEEL_SIZE);
+            if (wheelCounts[bucket] == wheel[bucket].length)
+                wheel[bucket] = Arrays.copyOf(wheel[bucket], wheelCounts[bucket] * 2);
+            wheel[bucket][wheelCounts[bucket]++] = handle;
+        }
+    }
+
+    private int getInterval(Entry entry, Agent agent, boolean nearHazard, AgentPositionBuffer buffer) {
+        Route route = agent.getRoute();
+        entry.taskId = agent.getAllocatedTaskId();
+        entry.routeVersion = route.getVersion();
+        entry.latitude = agent.getLatitude();
+        entry.longitude = agent.getLongitude();
+        entry.stopped = agent.isStopped();
+        entry.working = agent.isWorking();
+        entry.destination = null;
+
+        if (nearHazard || !agent.isSimulated() || agent.isManuallyControlled() || hasNeighbour(agent, buffer))
+            return 1;
+        if (agent.getTask() == null)
+            return flockingEnabled ? 1 : IDLE_INTERVAL;
+        synchronized (route) {
+            if (agent.isInTransit(TRANSIT_INTERVAL)) {
+                entry.destination = route.get(0);
+                return TRANSIT_INTERVAL;
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * @return True if there is another agent within NEIGHBOUR_RADIUS of the agent.
+     */
+    private boolean hasNeighbour(Agent agent, AgentPositionBuffer buffer) {
+        buffer.query(agent.getLatitude(), agent.getLongitude(), NEIGHBOUR_RADIUS, neighbours);
+        for (int i = 0; i < neighbours.size(); i++)
+            if (buffer.getAgent(neighbours.getIndex(i)) != agent)
+                return true;
+        return false;
+    }
+
+    private boolean hasChanged(Entry entry) {
+        Agent agent = entry.agent;
+        return agent.getRoute().getVersion() != entry.routeVersion || !equals(agent.getAllocatedTaskId(), entry.taskId) ||
+                agent.getLatitude() != entry.latitude || agent.getLongitude() != entry.longitude ||
+                agent.isStopped() != entry.stopped || agent.isWorking() != entry.working;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @return Entry of the agent or null if it hasn't been stepped since it was created (or the entries cleared).
+     */
+    private Entry getEntry(Agent agent) {
+        int handle = agent.getHandle();
+        Entry entry = handle < entries.length ? entries[handle] : null;
+        //Handles are reused once agents are removed (or the kinematics store cleared).
+        return entry != null && entry.agent == agent ? entry : null;
+    }
+
+}
@@ -1,12 +1,8 @@
 package server;
 
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import com.rabbitmq.client.*;
 import com.rabbitmq.client.AMQP.Queue.DeclareOk;
-import server.model.Agent;
-import server.model.Coordinate;
-import server.model.task.Task;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
@@ -110,7 +106,7 @@ public class QueueManager {
 		return true;
 	}
 	
-	private void sendMarkerFinished(int markerID, String droneID){
+	void sendMarkerFinished(int markerID, String droneID){
 		JsonObject data = new JsonObject();
 		
 		data.addProperty("Content", "MarkerFinished");
@@ -131,69 +127,12 @@ public class QueueManager {
 	}
 
 	private Consumer createDroneDataConsumer(Channel channel) {
-		Consumer consumer;
-		consumer = new DefaultConsumer(channel) {
-			JsonObject metaData;
-			JsonParser jsonParser = new JsonParser();
-			Agent agent;
-			Coordinate newCoordinate;
-			String agentID;
-			String content;
-			String taskID;
-
+		return new DefaultConsumer(channel) {
 			@Override
-			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-			    try {
-                    metaData = jsonParser.parse(new String(body, "UTF-8")).getAsJsonObject();
-                    agentID = metaData.get("ID").getAsString();
-                    agent = simulator.getState().getAgent(agentID);
-                    content = metaData.get("Content").getAsString();
-                    if (agent != null) {
-                        switch (content) {
-                            case "Coordinates":
-                                JsonObject coordinates = metaData.get("Coordinates").getAsJsonObject();
-                                newCoordinate = new Coordinate(coordinates.get("Latitude").getAsDouble(), coordinates.get("Longitude").getAsDouble());
-                                agent.setCoordinate(newCoordinate);
-                                agent.setHeading(metaData.get("Heading").getAsInt());
-                                agent.heartbeat();
-                                break;
-                            case "ManualControl":
-                                boolean manualControl;
-                                manualControl = metaData.get("ManualControl").getAsBoolean();
-                                if (manualControl != agent.isManuallyControlled()) {
-                                    agent.toggleManualControl();
-                                    if (manualControl) {
-                                        taskID = (metaData.get("MissionID") != null) ? metaData.get("MissionID").getAsString() : null;
-                                        if (taskID != null) {
-                                            Task task = simulator.getState().getTask(taskID);
-                                            simulator.getTaskController().deleteTask(taskID, false);
-                                            simulator.getTaskController().updateTaskPosition(taskID, task.getCoordinate().getLatitude(), task.getCoordinate().getLongitude());
-                                            LOGGER.info("Manual control: " + agentID);
-                                        }
-                                    }
-                                }
-                                break;
-                            case "MarkFinished":
-                                LOGGER.info("Layout: " + ((metaData.get("FirstSetup").getAsBoolean()) ? 1 : 2) + " mark finished: " + metaData.get(content).getAsInt() + " Drone: " + agentID);
-                                sendMarkerFinished(metaData.get(content).getAsInt(), agentID);
-                                break;
-                            case "POISpotted":
-                                LOGGER.info("Layout: " + ((metaData.get("FirstSetup").getAsBoolean()) ? 1 : 2) + " POI spotted: " + metaData.get(content).getAsInt() + " Drone: " + agentID);
-                                break;
-                            case "Log":
-                                LOGGER.info("MSGQ LOG: " + content);
-                                break;
-                            default:
-                                break;
-                        }
-                    }
-                }
-                catch(Exception e) {
-			        LOGGER.severe("Unable to handle drone meta data delivery: " + e.getMessage());
-                }
+			public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+				simulator.applyDroneData(body);
 			}
 		};
-		return consumer;
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,306 @@
+package server;
+
+import server.model.Agent;
+import server.model.Coordinate;
+import server.model.State;
+import server.model.task.PatrolTask;
+import server.model.task.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.logging.Logger;
+
+/**
+ * Orders the waypoints in agents' routes so that the distance travelled is minimised.
+ * The route is built greedily (nearest neighbour) and then improved with 2-opt and Or-opt
+ *  moves until no improvement is found or the time budget runs out.
+ * Each agent's route is optimised in its own job so the whole fleet is handled concurrently, away from the
+ *  simulation loop - only copying the routes and setting the optimised ones is done by the loop.
+ */
+public class RoutePlanner {
+
+    private final static Logger LOGGER = Logger.getLogger(RoutePlanner.class.getName());
+    private static final long DEFAULT_TIME_BUDGET_MILLIS = 50;
+    private static final int MAX_OR_OPT_SEGMENT = 3;
+    private static final double MIN_IMPROVEMENT = 1e-6;
+
+    private final ExecutorService executor;
+    private long timeBudgetMillis;
+
+    public RoutePlanner() {
+        this.timeBudgetMillis = DEFAULT_TIME_BUDGET_MILLIS;
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "RoutePlanner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Temp route of an agent, copied from the state to be optimised away from the simulation loop.
+     */
+    public static class Plan {
+        private final String agentId;
+        //Version of the temp route it was copied from, so it is only replaced if it hasn't changed since.
+        private final long version;
+        private final Coordinate start;
+        private final List<Coordinate> route;
+
+        public Plan(String agentId, long version, Coordinate start, List<Coordinate> route) {
+            this.agentId = agentId;
+            this.version = version;
+            this.start = start;
+            this.route = route;
+        }
+
+        public String getAgentId() {
+            return agentId;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<Coordinate> getRoute() {
+            return route;
+        }
+    }
+
+    /**
+     * Copy the temp routes that can be optimised. Temp routes are only edited in edit mode, so nothing is copied
+     *  outside it.
+     * Only agents temporarily allocated to waypoint or monitor tasks are optimised - the order of a patrol or region
+     *  route is the task itself.
+     * Called by the simulation loop, the plans can then be optimised on any thread.
+     */
+    public List<Plan> getPlans(State state) {
+        List<Plan> plans = new ArrayList<>();
+        if (!state.isEditMode())
+            return plans;
+        for (Agent agent : state.getAgents()) {
+            String taskId = state.getTempAllocation().get(agent.getId());
+            Task task = taskId != null ? state.getTask(taskId) : null;
+            if (task == null || task instanceof PatrolTask)
+                continue;
+            //Only the points before the final one can be reordered
+            if (agent.getTempRoute().size() < 3)
+                continue;
+            plans.add(new Plan(agent.getId(), agent.getTempRoute().getVersion(), agent.getCoordinate(),
+                    new ArrayList<>(agent.getTempRoute())));
+        }
+        return plans;
+    }
+
+    /**
+     * Optimise each plan in its own job, so the whole fleet is handled concurrently.
+     * The final point of each route is the allocated task so it always stays at the end.
+     * Routes that have not been optimised when the time budget runs out, or whose optimisation failed, are left out.
+     * @return Plans whose routes were reordered.
+     */
+    public List<Plan> optimise(List<Plan> plans) {
+        List<Plan> optimised = new ArrayList<>();
+        if (plans.isEmpty())
+            return optimised;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis);
+        List<Callable<List<Coordinate>>> jobs = new ArrayList<>();
+        for (Plan plan : plans)
+            jobs.add(() -> sequence(plan.start, plan.route, true, deadline));
+
+        try {
+            //Allow a little slack over the budget for the jobs to notice the deadline.
+            List<Future<List<Coordinate>>> results = executor.invokeAll(jobs, timeBudgetMillis * 2, TimeUnit.MILLISECONDS);
+            for (int i = 0; i < results.size(); i++) {
+                Future<List<Coordinate>> result = results.get(i);
+                if (result.isCancelled())
+                    continue;
+                Plan plan = plans.get(i);
+                List<Coordinate> route;
+                try {
+                    route = result.get();
+                } catch (ExecutionException e) {
+                    //Only this agent keeps its original route.
+                    LOGGER.warning("Unable to optimise route of " + plan.agentId + " - " + e.getCause());
+                    continue;
+                }
+                if (!route.equals(plan.route))
+                    optimised.add(new Plan(plan.agentId, plan.version, plan.start, route));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info("Optimised " + optimised.size() + " of " + jobs.size() + " agent routes.");
+        return optimised;
+    }
+
+    /**
+     * Set the optimised temp routes. Called by the simulation loop - a route is only set if the agent is still in the
+     *  state, the state is still in edit mode and the agent's temp route hasn't changed since it was copied.
+     * @return Number of routes that were changed.
+     */
+    public static int setTempRoutes(State state, List<Plan> plans) {
+        if (!state.isEditMode())
+            return 0;
+        int changed = 0;
+        for (Plan plan : plans) {
+            Agent agent = state.getAgent(plan.agentId);
+            if (agent == null || agent.getTempRoute().getVersion() != plan.version)
+                continue;
+            if (!plan.route.equals(agent.getTempRoute())) {
+                agent.setTempRoute(plan.route);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Order a set of waypoints so that the length of the path starting at start and visiting all of them is minimised.
+     * @param start - Position the path starts from, this is never moved.
+     * @param waypoints - Points to visit.
+     * @param fixedEnd - If true the last waypoint is always kept as the end of the path.
+     * @param deadline - Value of System.nanoTime() at which to stop improving the path.
+     * @return New list containing the waypoints in the order to visit them.
+     */
+    public static List<Coordinate> sequence(Coordinate start, List<Coordinate> waypoints, boolean fixedEnd, long deadline) {
+        int n = waypoints.size();
+        if (n < (fixedEnd ? 3 : 2))
+            return new ArrayList<>(waypoints);
+
+        //Node 0 is the start, node i is waypoint i - 1
+        List<Coordinate> nodes = new ArrayList<>(n + 1);
+        nodes.add(start);
+        nodes.addAll(waypoints);
+        double[][] dist = new double[n + 1][n + 1];
+        for (int i = 0; i <= n; i++)
+            for (int j = i + 1; j <= n; j++)
+                dist[i][j] = dist[j][i] = nodes.get(i).getDistance(nodes.get(j));
+
+        int[] path = buildGreedyPath(dist, fixedEnd);
+        //Positions 1..lastFree can be moved, position 0 (start) and the fixed end can not.
+        int lastFree = fixedEnd ? n - 1 : n;
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline)
+            improved = improveTwoOpt(path, dist, lastFree) | improveOrOpt(path, dist, lastFree);
+
+        List<Coordinate> ordered = new ArrayList<>(n);
+        for (int i = 1; i < path.length; i++)
+            ordered.add(nodes.get(path[i]));
+        return ordered;
+    }
+
+    /**
+     * Build a path by always visiting the nearest unvisited node next.
+     */
+    private static int[] buildGreedyPath(double[][] dist, boolean fixedEnd) {
+        int size = dist.length;
+        int freeNodes = fixedEnd ? size - 2 : size - 1;
+        int[] path = new int[size];
+        boolean[] visited = new boolean[size];
+        visited[0] = true;
+        int current = 0;
+        for (int pos = 1; pos <= freeNodes; pos++) {
+            int nearest = -1;
+            for (int node = 1; node <= freeNodes; node++)
+                if (!visited[node] && (nearest == -1 || dist[current][node] < dist[current][nearest]))
+                    nearest = node;
+            path[pos] = nearest;
+            visited[nearest] = true;
+            current = nearest;
+        }
+        if (fixedEnd)
+            path[size - 1] = size - 1;
+        return path;
+    }
+
+    /**
+     * Apply the first improving 2-opt move (reversal of path[i..j]) found for each i.
+     * @return True if the path was improved.
+     */
+    private static boolean improveTwoOpt(int[] path, double[][] dist, int lastFree) {
+        boolean improved = false;
+        for (int i = 1; i < lastFree; i++) {
+            for (int j = i + 1; j <= lastFree; j++) {
+                double before = dist[path[i - 1]][path[i]] + edge(path, dist, j);
+                double after = dist[path[i - 1]][path[j]] + (j + 1 < path.length ? dist[path[i]][path[j + 1]] : 0);
+                if (after < before - MIN_IMPROVEMENT) {
+                    reverse(path, i, j);
+                    improved = true;
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Apply improving Or-opt moves - relocation of a segment of up to MAX_OR_OPT_SEGMENT nodes
+     *  to another position in the path.
+     * @return True if the path was improved.
+     */
+    private static boolean improveOrOpt(int[] path, double[][] dist, int lastFree) {
+        boolean improved = false;
+        for (int len = 1; len <= MAX_OR_OPT_SEGMENT; len++) {
+            for (int i = 1; i + len - 1 <= lastFree; i++) {
+                int j = i + len - 1;
+                int prev = path[i - 1];
+                int first = path[i];
+                int last = path[j];
+                boolean hasNext = j + 1 < path.length;
+                double removeGain = dist[prev][first] + edge(path, dist, j) - (hasNext ? dist[prev][path[j + 1]] : 0);
+                //Try inserting the segment between k and k + 1 (k outside of the segment)
+                for (int k = 0; k <= lastFree; k++) {
+                    if (k >= i - 1 && k <= j)
+                        continue;
+                    boolean hasAfter = k + 1 < path.length;
+                    double insertCost = dist[path[k]][first] + (hasAfter ? dist[last][path[k + 1]] - dist[path[k]][path[k + 1]] : 0);
+                    if (insertCost < removeGain - MIN_IMPROVEMENT) {
+                        moveSegment(path, i, j, k);
+                        improved = true;
+                        break;
+                    }
+                }
+            }
+        }
+        return improved;
+    }
+
+    /**
+     * Length of the edge leaving position pos, or 0 if pos is the end of the path.
+     */
+    private static double edge(int[] path, double[][] dist, int pos) {
+        return pos + 1 < path.length ? dist[path[pos]][path[pos + 1]] : 0;
+    }
+
+    private static void reverse(int[] path, int i, int j) {
+        while (i < j) {
+            int tmp = path[i];
+            path[i++] = path[j];
+            path[j--] = tmp;
+        }
+    }
+
+    /**
+     * Move the segment path[i..j] so that it follows position k.
+     */
+    private static void moveSegment(int[] path, int i, int j, int k) {
+        int len = j - i + 1;
+        int[] segment = new int[len];
+        System.arraycopy(path, i, segment, 0, len);
+        if (k < i) {
+            System.arraycopy(path, k + 1, path, k + 1 + len, i - k - 1);
+            System.arraycopy(segment, 0, path, k + 1, len);
+        } else {
+            System.arraycopy(path, j + 1, path, i, k - j);
+            System.arraycopy(segment, 0, path, k - len + 1, len);
+        }
+    }
+
+    public long getTimeBudgetMillis() {
+        return timeBudgetMillis;
+    }
+
+    public void setTimeBudgetMillis(long timeBudgetMillis) {
+        this.timeBudgetMillis = timeBudgetMillis;
+    }
+
+}
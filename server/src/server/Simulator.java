@@ -1,5 +1,7 @@
 package server;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import server.controller.AgentController;
 import server.controller.ConnectionController;
 import server.controller.TaskController;
@@ -7,8 +9,10 @@ import server.controller.TargetController;
 import server.controller.HazardController;
 import server.model.Agent;
 import server.model.Coordinate;
+import server.model.LocalFrame;
 import server.model.Sensor;
 import server.model.State;
+import server.model.hazard.Hazard;
 import server.model.target.Target;
 import server.model.task.Task;
 import tool.GsonUtils;
@@ -17,6 +21,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
 
@@ -28,6 +34,8 @@ public class Simulator {
 
     private final static String SERVER_CONFIG_FILE = "web/config/serverConfig.json";
     private final static String SCENARIO_DIR_PATH = "web/scenarios/";
+    //Ticks between snapshots while no client is reading them.
+    private final static int IDLE_SNAPSHOT_TICKS = 25;
     private Logger LOGGER = Logger.getLogger(Simulator.class.getName());
 
     private State state;
@@ -40,25 +48,74 @@ public class Simulator {
     private final ConnectionController connectionController;
     private final HazardController hazardController;
     private final Allocator allocator;
+    private final RoutePlanner routePlanner;
+    private final TargetDiscovery targetDiscovery;
+    private final HeartbeatMonitor heartbeatMonitor;
+    private final TileCache tileCache;
+
+    private final TickScheduler tickScheduler;
+    private final boolean headless;
+    //Wall clock agents are timed out against - headless runs have no real agents and no wall clock so have none.
+    private LongSupplier timeoutClock;
+    private final AgentStepper agentStepper;
+    private final DroneDataHandler droneDataHandler;
+
+    //Seed of all random number generators, recorded so a run can be replayed.
+    private final long seed;
+    //Held while a tick or an external input is applied, so each input lands between two ticks.
+    private final Object inputLock = new Object();
+    //External inputs waiting to be applied at the start of the next tick.
+    private final CommandQueue commandQueue = new CommandQueue();
+    private volatile InputRecorder recorder;
+    private volatile long tickCount;
+    //Incremented (holding the input lock) whenever the state may have changed - after every tick and every input.
+    private volatile long stateVersion;
+    //Latest snapshot of the state, published by the simulation loop and read by clients with a single volatile read.
+    private volatile StateSnapshot snapshot = new StateSnapshot(-1, null, null);
+    //Whether a client has read the snapshot since it was published, so the loop should publish a new one.
+    private volatile boolean snapshotRead;
+    //Tick the snapshot was last published at - used by the loop only.
+    private long snapshotTick;
 
-    public static Simulator instance;
+    public Simulator() {
+        this(false);
+    }
 
-    private static final double gameSpeed = 6;
+    /**
+     * @param headless - If true the simulator does not connect to the message queue (used for headless runs).
+     */
+    public Simulator(boolean headless) {
+        this(headless, new Random().nextLong());
+    }
 
-    public Simulator() {
-        instance = this;
+    /**
+     * @param headless - If true the simulator does not connect to the message queue (used for headless runs).
+     * @param seed - Seed of the simulator's random number generators.
+     */
+    public Simulator(boolean headless, long seed) {
+        this.headless = headless;
+        this.seed = seed;
+        this.timeoutClock = headless ? null : System::currentTimeMillis;
 
         state = new State();
         sensor = new Sensor(this);
+        agentStepper = new AgentStepper(sensor.getBuffer(), state.getKinematics());
         connectionController = new ConnectionController(this);
         allocator = new Allocator(this);
-        queueManager = new QueueManager(this);
+        routePlanner = new RoutePlanner();
+        targetDiscovery = new TargetDiscovery(this);
+        heartbeatMonitor = new HeartbeatMonitor();
+        tileCache = new TileCache(state);
+        tickScheduler = new TickScheduler(this);
+        queueManager = headless ? null : new QueueManager(this);
         agentController = new AgentController(this, sensor);
         taskController = new TaskController(this);
         hazardController = new HazardController(this);
         targetController = new TargetController(this);
+        droneDataHandler = new DroneDataHandler(this);
 
-        queueManager.initDroneDataConsumer();
+        if (queueManager != null)
+            queueManager.initDroneDataConsumer();
     }
 
     public static void main(String[] args) {
@@ -71,14 +128,133 @@ public class Simulator {
 
         //Setup GSON
         GsonUtils.registerTypeAdapter(Task.class, Task.taskSerializer);
-        GsonUtils.registerTypeAdapter(State.HazardHitCollection.class, State.hazardHitsSerializer);
+        GsonUtils.registerTypeAdapter(Agent.class, Agent.agentSerializer);
         GsonUtils.create();
 
-        new Simulator().start();
+        if (args.length > 0 && args[0].equals("--headless"))
+            runHeadless(args);
+        else if (args.length > 0 && args[0].equals("--replay"))
+            runReplay(args);
+        else if (args.length > 0 && args[0].equals("--record"))
+            runRecording(args);
+        else
+            new Simulator().start();
+    }
+
+    /**
+     * Start the server and record all inputs to the given file until it is shut down.
+     * Usage: --record inputs.log
+     */
+    private static void runRecording(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: --record <log file>");
+            System.exit(1);
+        }
+        Simulator simulator = new Simulator();
+        try {
+            simulator.startRecording(args[1]);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(simulator::stopRecording));
+        simulator.start();
+    }
+
+    /**
+     * Replay a recorded input log as fast as possible and exit.
+     * Usage: --replay inputs.log [--output result.json]
+     */
+    private static void runReplay(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: --replay <log file> [--output <file>]");
+            System.exit(1);
+        }
+        try {
+            JsonElement result = new InputReplayer(args[1]).run();
+            if (args.length > 3 && args[2].equals("--output"))
+                HeadlessRunner.writeKpis(result, args[3]);
+            else
+                System.out.println(result);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Run a scenario headless from the command line and exit.
+     * If more than one run is requested (--runs or several comma separated allocation methods) the runs are
+     *  executed concurrently and the KPIs of every run are output as an array.
+     * Usage: --headless scenario.json [--duration seconds] [--allocate-every seconds] [--output kpis.json]
+     *  [--runs n] [--threads n] [--allocation-methods maxsum,random] [--kernel tick|event|event-tick-speed]
+     */
+    private static void runHeadless(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: --headless <scenario file> [--duration <seconds>] [--allocate-every <seconds>] [--output <file>]" +
+                    " [--runs <n>] [--threads <n>] [--allocation-methods <method,...>] [--kernel <tick|event|event-tick-speed>]");
+            System.exit(1);
+        }
+        double duration = 1800;
+        double allocationInterval = 30;
+        int runs = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String[] allocationMethods = {null};
+        String output = null;
+        String kernel = HeadlessRunner.KERNEL_TICK;
+        for (int i = 2; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--duration":
+                    duration = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--allocate-every":
+                    allocationInterval = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--output":
+                    output = args[i + 1];
+                    break;
+                case "--runs":
+                    runs = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--allocation-methods":
+                    allocationMethods = args[i + 1].split(",");
+                    break;
+                case "--kernel":
+                    if (!HeadlessRunner.isKernel(args[i + 1]))
+                        throw new IllegalArgumentException("Unrecognised kernel - " + args[i + 1]);
+                    kernel = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unrecognised option - " + args[i]);
+            }
+        }
+
+        List<BatchRunner.Run> batch = new ArrayList<>();
+        for (String allocationMethod : allocationMethods)
+            for (int i = 0; i < runs; i++)
+                batch.add(new BatchRunner.Run(args[1], duration, allocationInterval, allocationMethod, kernel));
+        try {
+            JsonArray results = new BatchRunner(threads).run(batch);
+            JsonElement kpis = results.size() == 1 ? results.get(0) : results;
+            if (output != null)
+                HeadlessRunner.writeKpis(kpis, output);
+            else
+                System.out.println(kpis);
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
     }
 
     public void start() {
         readConfig();
+        synchronized (inputLock) {
+            publishSnapshot();
+        }
         new Thread(connectionController::start).start();
         LOGGER.info("Server ready.");
     }
@@ -107,14 +283,24 @@ public class Simulator {
     }
 
     public void startSimulation() {
+        prepareSimulation();
+        //Headless simulations are stepped by their runner.
+        if (!headless)
+            tickScheduler.start();
+        LOGGER.info("Simulation started.");
+    }
+
+    /**
+     * Get the loaded scenario ready to be stepped.
+     */
+    void prepareSimulation() {
         //Heart beat all virtual agents to prevent time out when user is reading the description.
+        heartbeatMonitor.setCurrentTime(System.currentTimeMillis());
         for(Agent agent : this.state.getAgents())
             if(agent.isSimulated())
                 agent.heartbeat();
         this.agentController.stopAllAgents();
-        new Thread(this::mainLoop).start();
         this.state.setInProgress(true);
-        LOGGER.info("Simulation started.");
     }
 
     public Map<String, String> getScenarioFileListWithGameIds() {
@@ -132,18 +318,27 @@ public class Simulator {
         return scenarios;
     }
 
-    private void mainLoop() {
-        final double waitTime = (int) (1000/(gameSpeed * 5)); //When gameSpeed is 1, should be 200ms.
-        int sleepTime;
-        do {
-            long startTime = System.currentTimeMillis();
-
-            state.incrementTime(0.2);
-
-            //Step agents
-            checkAgentsForTimeout();
-            for (Agent agent : state.getAgents())
-                agent.step(state.isFlockingEnabled());
+    /**
+     * Step the simulation forward by one tick.
+     * @param decaySteps - Number of ticks worth of hazard hit decay to apply. 0 defers the decay to a later tick,
+     *                   the tick scheduler does this while the loop is catching up.
+     */
+    void tick(int decaySteps) {
+        synchronized (inputLock) {
+            //Inputs are applied (and recorded) before anything else so they land before this tick's decay.
+            if (commandQueue.drain() > 0)
+                stateChanged();
+
+            state.incrementTime(TickScheduler.TICK_DURATION);
+            LongSupplier timeoutClock = this.timeoutClock;
+            heartbeatMonitor.setCurrentTime(timeoutClock != null ? timeoutClock.getAsLong() : System.currentTimeMillis());
+
+            //Step agents - agents can only time out if there is a clock to time them out against.
+            if (timeoutClock != null)
+                checkAgentsForTimeout();
+            Agent[] agents = agentStepper.step(state.getAgents(), state.getAgentsVersion(), state.isFlockingEnabled());
+            agentStepper.schedule(agents, registerHazardHits(agents));
+            targetDiscovery.step(agents);
 
             //Step tasks - requires completed tasks array to avoid concurrent modification.
             List<Task> completedTasks = new ArrayList<Task>();
@@ -154,27 +349,119 @@ public class Simulator {
                 task.complete();
 
             //Step hazard hits
-            this.state.decayHazardHits();
+            if(decaySteps > 0)
+                this.state.decayHazardHits(decaySteps);
+            //Decay depends on how far behind the loop was, so it must be recorded to be replayed. It is the tick's
+            // last record, as the replay runs the tick when it reads it.
+            InputRecorder recorder = this.recorder;
+            if (recorder != null && decaySteps != 1)
+                recorder.recordDecay(tickCount, decaySteps);
+            tickCount++;
+
+            stateChanged();
+            //Nobody reading the state doesn't need a new snapshot every tick, but one is still published every few
+            // seconds so the first read after a quiet spell isn't too far behind.
+            if (isServing() && (snapshotRead || tickCount - snapshotTick >= IDLE_SNAPSHOT_TICKS))
+                publishSnapshot();
+        }
+    }
+
+    /**
+     * Queue a drone data message from a real agent to be applied, recording it if inputs are being recorded.
+     */
+    void applyDroneData(byte[] body) {
+        submit(() -> {
+            InputRecorder recorder = this.recorder;
+            if (recorder != null)
+                recorder.recordDroneData(tickCount, body);
+            droneDataHandler.handle(body);
+            return null;
+        });
+    }
 
-            long endTime = System.currentTimeMillis();
-            sleepTime = (int) (waitTime - (endTime - startTime));
-            if (sleepTime < 0) {
-                sleepTime = 0;
+    /**
+     * Submit an input to be applied by the simulation loop, recording it when it is applied if inputs are being
+     *  recorded.
+     * @return Future completed with the input's result once it has been applied.
+     */
+    public <T> CompletableFuture<T> apply(Input<T> input) {
+        return submit(() -> {
+            InputRecorder recorder = this.recorder;
+            if (recorder != null)
+                recorder.recordInput(tickCount, input);
+            return input.apply(this);
+        });
+    }
+
+    /**
+     * Submit a command changing the state. It is applied by the simulation loop at the start of the next tick, after
+     *  all commands submitted before it. If the loop isn't running the command is applied straight away.
+     * @return Future completed once the command has been applied.
+     */
+    public <T> CompletableFuture<T> submit(CommandQueue.Command<T> command) {
+        CompletableFuture<T> future = commandQueue.submit(command);
+        //The loop applies the queue once more after stopping, so checking after submitting can't strand a command.
+        if (!tickScheduler.isRunning())
+            applyCommands();
+        return future;
+    }
+
+    /**
+     * Apply all queued commands now, between two ticks.
+     */
+    void applyCommands() {
+        synchronized (inputLock) {
+            if (commandQueue.drain() > 0) {
+                stateChanged();
+                if (isServing())
+                    publishSnapshot();
             }
-        } while (sleep(sleepTime));
+        }
     }
 
     /**
-     * Check if any agents have timed out or reconnected this step.
+     * Register a hazard hit for each hazard each agent is in range of.
+     * Done after stepping (rather than in each agent's step) so hits are always added in the same order.
+     * @return Hazards in range of each agent.
+     */
+    List<List<Hazard>> registerHazardHits(Agent[] agents) {
+        List<List<Hazard>> hazardsInRange = state.getHazardsInRange(agents);
+        for (int i = 0; i < agents.length; i++) {
+            Agent agent = agents[i];
+            double lat = agent.getLatitude();
+            double lng = agent.getLongitude();
+            List<Hazard> hazards = hazardsInRange.get(i);
+            for (int j = 0; j < hazards.size(); j++)
+                state.addHazardHit(hazards.get(j).getType(), lat, lng);
+
+            //Always add 'no hazard' to track explored areas.
+            state.addHazardHit(Hazard.NONE, lat, lng);
+        }
+        return hazardsInRange;
+    }
+
+    /**
+     * Set the clock agents are timed out against, or null so agents never time out.
+     * Headless simulators have no clock, tests give them one to time agents out when they choose.
+     */
+    void setTimeoutClock(LongSupplier timeoutClock) {
+        synchronized (inputLock) {
+            this.timeoutClock = timeoutClock;
+        }
+    }
+
+    /**
+     * Check if any agents have timed out this step - only agents whose heartbeat deadline has passed are checked.
      */
     private void checkAgentsForTimeout() {
-        for (Agent agent : state.getAgents()) {
-            //Check if agent is timed out
-            if (agent.getMillisSinceLastHeartbeat() > 20 * 1000) {
-                if(!agent.isTimedOut()) {
-                    agent.setTimedOut(true);
-                    LOGGER.info("Lost connection with agent " + agent.getId());
-                }
+        List<Agent> expired = heartbeatMonitor.expire();
+        for (int i = 0; i < expired.size(); i++) {
+            Agent agent = expired.get(i);
+            if(!agent.isTimedOut()) {
+                agent.setTimedOut(true);
+                if (recorder != null)
+                    recorder.recordTimeout(tickCount, agent.getId());
+                LOGGER.info("Lost connection with agent " + agent.getId());
             }
         }
     }
@@ -198,6 +485,8 @@ public class Simulator {
 
     public synchronized void reset() {
         state.reset();
+        targetDiscovery.reset();
+        heartbeatMonitor.clear();
         LOGGER.info("Server reset.");
     }
 
@@ -253,6 +542,68 @@ public class Simulator {
                 }
             }
 
+            if(GsonUtils.hasKey(obj,"localFrameRadius")){
+                Object localFrameRadius = GsonUtils.getValue(obj, "localFrameRadius");
+                if(localFrameRadius instanceof Double) {
+                    Coordinate gameCentre = this.state.getGameCentre();
+                    this.state.setLocalFrame(new LocalFrame(gameCentre.getLatitude(), gameCentre.getLongitude(),
+                            (Double) localFrameRadius));
+                } else {
+                    LOGGER.warning("Expected number for localFrameRadius in scenario file. Received: '" +
+                            localFrameRadius.toString() + "'. Local frame not used.");
+                }
+            }
+
+            if(GsonUtils.hasKey(obj,"parallelStepping")){
+                Object parallelStepping = GsonUtils.getValue(obj, "parallelStepping");
+                if(parallelStepping.getClass() == Boolean.class) {
+                    this.agentStepper.setParallel((Boolean)parallelStepping);
+                } else {
+                    LOGGER.warning("Expected boolean value for parallelStepping in scenario file. Received: '" +
+                            parallelStepping.toString() + "'. Set to false.");
+                }
+            }
+
+            if(GsonUtils.hasKey(obj,"levelOfDetail")){
+                Object levelOfDetail = GsonUtils.getValue(obj, "levelOfDetail");
+                if(levelOfDetail.getClass() == Boolean.class) {
+                    this.agentStepper.setLevelOfDetailEnabled((Boolean)levelOfDetail);
+                } else {
+                    LOGGER.warning("Expected boolean value for levelOfDetail in scenario file. Received: '" +
+                            levelOfDetail.toString() + "'. Set to false.");
+                }
+            }
+
+            if(GsonUtils.hasKey(obj,"maxCatchUpTicks")){
+                Object maxCatchUpTicks = GsonUtils.getValue(obj, "maxCatchUpTicks");
+                if(maxCatchUpTicks instanceof Double && (Double) maxCatchUpTicks >= 0) {
+                    this.tickScheduler.setMaxCatchUpTicks(((Double) maxCatchUpTicks).intValue());
+                } else {
+                    LOGGER.warning("Expected non-negative number for maxCatchUpTicks in scenario file. Received: '" +
+                            maxCatchUpTicks.toString() + "'. Left at " + tickScheduler.getMaxCatchUpTicks() + ".");
+                }
+            }
+
+            if(GsonUtils.hasKey(obj,"coverageRadius")){
+                Object coverageRadius = GsonUtils.getValue(obj, "coverageRadius");
+                if(coverageRadius instanceof Double) {
+                    this.state.setCoverageExtent(this.state.getGameCentre(), (Double) coverageRadius);
+                } else {
+                    LOGGER.warning("Expected number for coverageRadius in scenario file. Received: '" +
+                            coverageRadius.toString() + "'. Explored percentage not given.");
+                }
+            }
+
+            if(GsonUtils.hasKey(obj,"offHeapHazardHits")){
+                Object offHeapHazardHits = GsonUtils.getValue(obj, "offHeapHazardHits");
+                if(offHeapHazardHits.getClass() == Boolean.class) {
+                    this.state.setHazardHitsOffHeap((Boolean)offHeapHazardHits);
+                } else {
+                    LOGGER.warning("Expected boolean value for offHeapHazardHits in scenario file. Received: '" +
+                            offHeapHazardHits.toString() + "'. Set to false.");
+                }
+            }
+
             List<Object> agentsJson = GsonUtils.getValue(obj, "agents");
             if (agentsJson != null) {
                 for (Object agentJSon : agentsJson) {
@@ -292,6 +643,16 @@ public class Simulator {
                 }
             }
 
+            List<Object> tasksJson = GsonUtils.getValue(obj, "tasks");
+            if (tasksJson != null) {
+                for (Object taskJson : tasksJson) {
+                    Double lat = GsonUtils.getValue(taskJson, "lat");
+                    Double lng = GsonUtils.getValue(taskJson, "lng");
+                    int type = GsonUtils.hasKey(taskJson, "type") ? ((Double) GsonUtils.getValue(taskJson, "type")).intValue() : Task.TASK_WAYPOINT;
+                    taskController.createTask(type, lat, lng);
+                }
+            }
+
             return true;
         } catch (IOException e) {
             System.out.println("ERROR IDHAR");
@@ -311,20 +672,89 @@ public class Simulator {
         return null;
     }
 
-    private static boolean sleep(long millis) {
-        try {
-            if (millis > 0) {
-                Thread.sleep(millis);
+    /**
+     * Record all external inputs from now on to the given file.
+     */
+    public void startRecording(String fileName) throws IOException {
+        synchronized (inputLock) {
+            stopRecording();
+            recorder = new InputRecorder(fileName, seed);
+        }
+    }
+
+    /**
+     * Finish the current recording, ending it with a hash of the current state.
+     */
+    public void stopRecording() {
+        synchronized (inputLock) {
+            if (recorder == null)
+                return;
+            try {
+                recorder.close(tickCount, state);
+            } catch (IOException e) {
+                LOGGER.severe("Unable to finish recording - " + e.getMessage());
             }
-            return true;
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-            return false;
+            recorder = null;
         }
     }
 
-    public synchronized String getStateAsString() {
-        return state.toString();
+    public InputRecorder getRecorder() {
+        return recorder;
+    }
+
+    public Object getInputLock() {
+        return inputLock;
+    }
+
+    /**
+     * @return Number of ticks run since the simulator was created.
+     */
+    public long getTickCount() {
+        return tickCount;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public String getStateAsString() {
+        return getStateSnapshot().getJson();
+    }
+
+    /**
+     * Mark the state as changed. Called holding the input lock.
+     */
+    public void stateChanged() {
+        stateVersion++;
+    }
+
+    /**
+     * Get the latest snapshot of the state. Snapshots are only published by the simulation loop (at the end of a tick
+     *  after a client has read the last one and after inputs are applied while the loop is stopped), so reading one
+     *  never locks or waits for it. A client polling the state gets a snapshot at most a tick older than its last
+     *  read.
+     */
+    public StateSnapshot getStateSnapshot() {
+        snapshotRead = true;
+        return snapshot;
+    }
+
+    /**
+     * Take a snapshot of the state for clients to read. Called holding the input lock.
+     */
+    private void publishSnapshot() {
+        //Cleared first so a read while the snapshot is being taken asks for the next one.
+        snapshotRead = false;
+        snapshotTick = tickCount;
+        snapshot = new StateSnapshot(stateVersion, state.toJsonTree().getAsJsonObject(), state.getCoverageJson());
+    }
+
+    /**
+     * Whether the state is being served to clients, so snapshots need to be published. Headless runs stepped without
+     *  the tick scheduler have no clients.
+     */
+    private boolean isServing() {
+        return !headless || tickScheduler.isRunning();
     }
 
     public synchronized State getState() {
@@ -335,6 +765,30 @@ public class Simulator {
         return this.allocator;
     }
 
+    public AgentStepper getAgentStepper() {
+        return agentStepper;
+    }
+
+    public TickScheduler getTickScheduler() {
+        return tickScheduler;
+    }
+
+    public HeartbeatMonitor getHeartbeatMonitor() {
+        return heartbeatMonitor;
+    }
+
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    public TargetDiscovery getTargetDiscovery() {
+        return targetDiscovery;
+    }
+
+    public RoutePlanner getRoutePlanner() {
+        return routePlanner;
+    }
+
     public AgentController getAgentController() {
         return agentController;
     }
@@ -351,4 +805,12 @@ public class Simulator {
         return queueManager;
     }
 
+    public ConnectionController getConnectionController() {
+        return connectionController;
+    }
+
+    public DroneDataHandler getDroneDataHandler() {
+        return droneDataHandler;
+    }
+
 }
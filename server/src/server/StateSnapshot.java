@@ -0,0 +1,68 @@
+package server;
+
+import com.google.gson.JsonObject;
+import tool.GsonUtils;
+
+/**
+ * Immutable copy of the state taken between ticks, so clients can read the state without locking it or the
+ *  simulation. The JSON strings are only built the first time they are asked for, then shared by every client
+ *  reading the same snapshot.
+ */
+public class StateSnapshot {
+
+    private final long version;
+    private final JsonObject state;
+    private final JsonObject coverage;
+    private volatile String json;
+    private volatile String visualizerJson;
+    private volatile String coverageJson;
+
+    StateSnapshot(long version, JsonObject state, JsonObject coverage) {
+        this.version = version;
+        this.state = state;
+        this.coverage = coverage;
+    }
+
+    /**
+     * @return Version of the state the snapshot was taken from.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return The state as served by /state.json.
+     */
+    public String getJson() {
+        String json = this.json;
+        if (json == null)
+            this.json = json = GsonUtils.toJson(state);
+        return json;
+    }
+
+    /**
+     * @return The agents and tasks as served by /visualizer, each on its own line.
+     */
+    public String getVisualizerJson() {
+        String visualizerJson = this.visualizerJson;
+        if (visualizerJson == null)
+            this.visualizerJson = visualizerJson =
+                    GsonUtils.toJson(state.get("agents")) + "\n" + GsonUtils.toJson(state.get("tasks")) + "\n";
+        return visualizerJson;
+    }
+
+    /**
+     * @return The hazard hit coverage as served by /mode/coverage.
+     */
+    public String getCoverageJson() {
+        String coverageJson = this.coverageJson;
+        if (coverageJson == null)
+            this.coverageJson = coverageJson = GsonUtils.toJson(coverage);
+        return coverageJson;
+    }
+
+    public boolean isInProgress() {
+        return state != null && state.get("inProgress").getAsBoolean();
+    }
+
+}
@@ -0,0 +1,144 @@
+package server;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import server.model.Agent;
+import server.model.target.Target;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Reveals hidden targets when they come within an agent's sensor footprint.
+ * The footprint is a circle under the agent whose radius grows with altitude. Each tick the targets within each
+ *  agent's footprint are looked up in the state's target index, so the cost depends on the number of agents
+ *  rather than agents x targets.
+ * The simulated time each target was hidden and discovered is recorded to give the time to discovery.
+ */
+public class TargetDiscovery {
+
+    private final static Logger LOGGER = Logger.getLogger(TargetDiscovery.class.getName());
+
+    //Footprint radius per meter of altitude - tan of half the camera's field of view (90 degrees).
+    private static final double DEFAULT_FOOTPRINT_SCALE = 1.0;
+    private static final double DEFAULT_MIN_FOOTPRINT_RADIUS = 20; //Meters
+
+    private final Simulator simulator;
+    private volatile double footprintScale;
+    private volatile double minFootprintRadius;
+
+    //Simulated time each undiscovered target was hidden at, by target id.
+    private final Map<String, Double> hiddenAt;
+    //Simulated time taken to discover each discovered target, by target id.
+    private final Map<String, Double> timeToDiscovery;
+    //Reused by each lookup in step, which is only called by the tick thread.
+    private final List<Target> inFootprint;
+
+    public TargetDiscovery(Simulator simulator) {
+        this.simulator = simulator;
+        this.footprintScale = DEFAULT_FOOTPRINT_SCALE;
+        this.minFootprintRadius = DEFAULT_MIN_FOOTPRINT_RADIUS;
+        this.hiddenAt = new ConcurrentHashMap<>();
+        this.timeToDiscovery = new ConcurrentHashMap<>();
+        this.inFootprint = new ArrayList<>();
+    }
+
+    /**
+     * Reveal any hidden targets within the footprint of the given agents.
+     * @return Number of targets discovered.
+     */
+    public int step(Agent[] agents) {
+        if (hiddenAt.isEmpty())
+            return 0;
+        double time = simulator.getState().getTime();
+        int discovered = 0;
+        for (Agent agent : agents) {
+            if (agent.isTimedOut())
+                continue;
+            inFootprint.clear();
+            simulator.getState().getTargetsInRange(agent.getLatitude(), agent.getLongitude(),
+                    getFootprintRadius(agent), inFootprint);
+            for (int i = 0; i < inFootprint.size(); i++) {
+                Target target = inFootprint.get(i);
+                if (target.isVisible())
+                    continue;
+                target.setVisible(true);
+                Double hiddenTime = hiddenAt.remove(target.getId());
+                if (hiddenTime != null)
+                    timeToDiscovery.put(target.getId(), time - hiddenTime);
+                discovered++;
+                LOGGER.info("Target " + target.getId() + " discovered by " + agent.getId());
+            }
+        }
+        return discovered;
+    }
+
+    /**
+     * @return radius in meters
+     */
+    public double getFootprintRadius(Agent agent) {
+        return Math.max(minFootprintRadius, agent.getAltitude() * footprintScale);
+    }
+
+    /**
+     * Called when a target is hidden so its time to discovery can be measured.
+     */
+    public void targetHidden(Target target) {
+        hiddenAt.put(target.getId(), simulator.getState().getTime());
+        timeToDiscovery.remove(target.getId());
+    }
+
+    /**
+     * Called when a target is revealed other than by discovery, or is removed.
+     */
+    public void forgetTarget(Target target) {
+        hiddenAt.remove(target.getId());
+    }
+
+    public void reset() {
+        hiddenAt.clear();
+        timeToDiscovery.clear();
+    }
+
+    public Map<String, Double> getTimeToDiscovery() {
+        return timeToDiscovery;
+    }
+
+    public double getFootprintScale() {
+        return footprintScale;
+    }
+
+    public void setFootprintScale(double footprintScale) {
+        this.footprintScale = footprintScale;
+    }
+
+    public double getMinFootprintRadius() {
+        return minFootprintRadius;
+    }
+
+    public void setMinFootprintRadius(double minFootprintRadius) {
+        this.minFootprintRadius = minFootprintRadius;
+    }
+
+    public JsonObject getStatsJson() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("hidden", hiddenAt.size());
+        stats.addProperty("discovered", timeToDiscovery.size());
+        double total = 0;
+        JsonArray targets = new JsonArray();
+        for (Map.Entry<String, Double> entry : timeToDiscovery.entrySet()) {
+            JsonObject target = new JsonObject();
+            target.addProperty("id", entry.getKey());
+            target.addProperty("timeToDiscovery", entry.getValue());
+            targets.add(target);
+            total += entry.getValue();
+        }
+        stats.addProperty("meanTimeToDiscovery", timeToDiscovery.isEmpty() ? 0 : total / timeToDiscovery.size());
+        stats.add("targets", targets);
+        return stats;
+    }
+
+}
@@ -0,0 +1,200 @@
+package server;
+
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Runs the simulation loop at a fixed rate.
+ * Each tick advances the simulation by TICK_DURATION seconds, the speed multiplier controls how many simulated
+ *  seconds pass per real second.
+ * Tick deadlines are absolute (start + n * period) so a slow tick does not push back every tick after it.
+ * If the loop falls behind, ticks are run back to back with expensive phases deferred until it has caught up.
+ * If it falls more than maxCatchUpTicks behind, the backlog is dropped.
+ * While running it is the only thread applying commands from the simulator's command queue.
+ */
+public class TickScheduler implements Runnable {
+
+    private final static Logger LOGGER = Logger.getLogger(TickScheduler.class.getName());
+
+    public static final double TICK_DURATION = 0.2; //Simulated seconds per tick
+    public static final double DEFAULT_SPEED = 6;
+    //Fastest speed with a period of at least a nanosecond.
+    public static final double MAX_SPEED = TimeUnit.SECONDS.toNanos(1) * TICK_DURATION;
+    private static final int DEFAULT_MAX_CATCH_UP_TICKS = 10;
+
+    private final Simulator simulator;
+    private volatile double speed;
+    private volatile int maxCatchUpTicks;
+    private volatile boolean running;
+    private Thread thread;
+
+    //Loop state - used by the loop thread only.
+    private long nextTick;
+    //Number of ticks whose expensive phases have been skipped and still need to be run.
+    private int deferredTicks;
+
+    //Stats - written by the loop thread only.
+    private volatile long ticks;
+    private volatile long overruns;
+    private volatile long droppedTicks;
+    private volatile long deferredPhases;
+    private volatile long lastTickNanos;
+    private volatile long maxTickNanos;
+    private volatile double meanTickNanos;
+
+    public TickScheduler(Simulator simulator) {
+        this.simulator = simulator;
+        this.speed = DEFAULT_SPEED;
+        this.maxCatchUpTicks = DEFAULT_MAX_CATCH_UP_TICKS;
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        thread = new Thread(this, "SimulationLoop");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null)
+            thread.interrupt();
+        thread = null;
+    }
+
+    @Override
+    public void run() {
+        reset(System.nanoTime());
+        while (running) {
+            if (!sleepUntil(runTick(System.nanoTime())))
+                break;
+        }
+        //Apply any commands submitted while the loop was stopping.
+        simulator.applyCommands();
+    }
+
+    /**
+     * Start the loop's clock, with the first tick due at the given time.
+     */
+    void reset(long now) {
+        nextTick = now;
+        deferredTicks = 0;
+    }
+
+    /**
+     * Run the tick that was due at nextTick.
+     * @param now - Value of System.nanoTime() when the tick starts.
+     * @return Value of System.nanoTime() at which the next tick is due.
+     */
+    long runTick(long now) {
+        long period = getPeriodNanos();
+        long behind = (now - nextTick) / period;
+
+        if (behind > maxCatchUpTicks) {
+            //Too far behind to catch up - drop the backlog and carry on from now.
+            droppedTicks += behind;
+            LOGGER.warning("Simulation loop is " + behind + " ticks behind, dropping backlog.");
+            nextTick = now;
+            behind = 0;
+        }
+
+        //Only run expensive phases when not catching up.
+        boolean catchingUp = behind > 0;
+        if (catchingUp) {
+            deferredTicks++;
+            deferredPhases++;
+        }
+        simulator.tick(catchingUp ? 0 : deferredTicks + 1);
+        if (!catchingUp)
+            deferredTicks = 0;
+
+        long duration = System.nanoTime() - now;
+        recordTick(duration, period);
+
+        nextTick += period;
+        return nextTick;
+    }
+
+    private void recordTick(long duration, long period) {
+        ticks++;
+        lastTickNanos = duration;
+        if (duration > maxTickNanos)
+            maxTickNanos = duration;
+        if (duration > period)
+            overruns++;
+        meanTickNanos = ticks == 1 ? duration : meanTickNanos * 0.95 + duration * 0.05;
+    }
+
+    /**
+     * Sleep until System.nanoTime() reaches the given deadline.
+     * @return False if the loop should stop.
+     */
+    private boolean sleepUntil(long deadline) {
+        long remaining;
+        while (running && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted())
+                return false;
+        }
+        return running;
+    }
+
+    /**
+     * @return Real time between ticks, never less than a nanosecond.
+     */
+    long getPeriodNanos() {
+        return Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) * TICK_DURATION / speed));
+    }
+
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Set how many simulated seconds pass per real second. Speeds above MAX_SPEED are clamped to it.
+     * @throws IllegalArgumentException - If the speed isn't a positive number.
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0) || Double.isInfinite(speed))
+            throw new IllegalArgumentException("Speed must be a positive number - " + speed);
+        this.speed = Math.min(speed, MAX_SPEED);
+        LOGGER.info("Simulation speed set to " + this.speed);
+    }
+
+    public int getMaxCatchUpTicks() {
+        return maxCatchUpTicks;
+    }
+
+    /**
+     * Set how many ticks the loop may fall behind before the backlog is dropped. 0 never catches up.
+     * @throws IllegalArgumentException - If negative.
+     */
+    public void setMaxCatchUpTicks(int maxCatchUpTicks) {
+        if (maxCatchUpTicks < 0)
+            throw new IllegalArgumentException("Max catch up ticks can't be negative - " + maxCatchUpTicks);
+        this.maxCatchUpTicks = maxCatchUpTicks;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public JsonObject getStatsJson() {
+        JsonObject stats = new JsonObject();
+        stats.addProperty("speed", speed);
+        stats.addProperty("targetPeriodMs", getPeriodNanos() / 1e6);
+        stats.addProperty("ticks", ticks);
+        stats.addProperty("overruns", overruns);
+        stats.addProperty("droppedTicks", droppedTicks);
+        stats.addProperty("deferredPhases", deferredPhases);
+        stats.addProperty("lastTickMs", lastTickNanos / 1e6);
+        stats.addProperty("meanTickMs", meanTickNanos / 1e6);
+        stats.addProperty("maxTickMs", maxTickNanos / 1e6);
+        return stats;
+    }
+
+}
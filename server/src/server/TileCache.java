@@ -0,0 +1,165 @@
+package server;
+
+import server.model.State;
+import server.model.hazard.Hazard;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders the hazard hit rasters into PNG map tiles (XYZ/web mercator, as used by Google Maps), so clients only fetch
+ *  the tiles in view rather than every hit with each state update.
+ * Rendered tiles are kept in an LRU cache along with the version of the area they cover. A tile is only rendered
+ *  again once the version changes, and the version also gives the tile's ETag so clients can revalidate tiles they
+ *  already have.
+ */
+public class TileCache {
+
+    public static final int TILE_SIZE = 256;
+    public static final int MAX_ZOOM = 22;
+
+    private static final int CAPACITY = 1024;
+    private static final double MAX_OPACITY = 0.6;
+    //Differs between server runs so tiles cached by a client in an earlier run are never matched.
+    private static final String RUN_ID = Long.toHexString(System.currentTimeMillis());
+
+    /**
+     * Layers that can be rendered - the hazard type, whether all cells ever hit are shown and the colour.
+     */
+    public enum Layer {
+        EXPLORED(Hazard.NONE, false, 0x0000FF),
+        FIRE(Hazard.FIRE, false, 0xFF0000),
+        DEBRIS(Hazard.DEBRIS, false, 0x000000),
+        COVERAGE(Hazard.NONE, true, 0x00FF00);
+
+        private final int hazardType;
+        private final boolean explored;
+        private final int colour;
+
+        Layer(int hazardType, boolean explored, int colour) {
+            this.hazardType = hazardType;
+            this.explored = explored;
+            this.colour = colour;
+        }
+
+        /**
+         * @return Layer with the given name (case insensitive) or null if there isn't one.
+         */
+        public static Layer fromName(String name) {
+            for (Layer layer : values())
+                if (layer.name().equalsIgnoreCase(name))
+                    return layer;
+            return null;
+        }
+    }
+
+    public static class Tile {
+        private final String etag;
+        private final byte[] png;
+
+        private Tile(String etag, byte[] png) {
+            this.etag = etag;
+            this.png = png;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public byte[] getPng() {
+            return png;
+        }
+    }
+
+    private final State state;
+    private final Map<String, Tile> tiles;
+
+    public TileCache(State state) {
+        this.state = state;
+        this.tiles = new LinkedHashMap<String, Tile>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Tile> eldest) {
+                return size() > CAPACITY;
+            }
+        };
+    }
+
+    /**
+     * Get a map tile, rendering it if the area it covers has changed since it was last rendered.
+     * @return Tile or null if the coordinates are outside the map.
+     */
+    public Tile getTile(Layer layer, int z, int x, int y) throws IOException {
+        int n = 1 << z;
+        if (z < 0 || z > MAX_ZOOM || x < 0 || x >= n || y < 0 || y >= n)
+            return null;
+        double minLat = toLatitude(y + 1, n), maxLat = toLatitude(y, n);
+        double minLng = toLongitude(x, n), maxLng = toLongitude(x + 1, n);
+
+        String key = layer + "/" + z + "/" + x + "/" + y;
+        String etag = "\"" + RUN_ID + "-" + layer.ordinal() + "-" +
+                state.getHazardHitsVersion(layer.hazardType, minLat, maxLat, minLng, maxLng, layer.explored) + "\"";
+        synchronized (tiles) {
+            Tile tile = tiles.get(key);
+            if (tile != null && tile.etag.equals(etag))
+                return tile;
+        }
+
+        //Each pixel takes the highest weight of the cells overlapping it.
+        float[] weights = new float[TILE_SIZE * TILE_SIZE];
+        double cellHalf = State.HAZARD_HIT_CELL_DEGREES / 2;
+        State.HazardHitVisitor paint = (lat, lng, weight) -> {
+            int fromX = toPixel(toTileX(lng - cellHalf, n) - x), toX = toPixel(toTileX(lng + cellHalf, n) - x);
+            int fromY = toPixel(toTileY(lat + cellHalf, n) - y), toY = toPixel(toTileY(lat - cellHalf, n) - y);
+            for (int py = Math.max(0, fromY); py <= Math.min(TILE_SIZE - 1, toY); py++)
+                for (int px = Math.max(0, fromX); px <= Math.min(TILE_SIZE - 1, toX); px++)
+                    weights[py * TILE_SIZE + px] = Math.max(weights[py * TILE_SIZE + px], weight);
+        };
+        state.forEachHazardHit(layer.hazardType, minLat, maxLat, minLng, maxLng, layer.explored, paint);
+        Tile tile = new Tile(etag, render(weights, layer.colour));
+        synchronized (tiles) {
+            tiles.put(key, tile);
+        }
+        return tile;
+    }
+
+    private static byte[] render(float[] weights, int colour) throws IOException {
+        int[] argb = new int[weights.length];
+        for (int i = 0; i < weights.length; i++)
+            if (weights[i] > 0)
+                argb[i] = ((int) Math.round(weights[i] * MAX_OPACITY * 255) << 24) | colour;
+        BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, TILE_SIZE, TILE_SIZE, argb, 0, TILE_SIZE);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    /**
+     * @return Pixel (in a tile) that a position (in tiles, relative to the tile) falls in.
+     */
+    private static int toPixel(double tiles) {
+        return (int) Math.floor(tiles * TILE_SIZE);
+    }
+
+    private static double toTileX(double lng, int n) {
+        return (lng + 180) / 360 * n;
+    }
+
+    private static double toTileY(double lat, int n) {
+        double latRad = Math.toRadians(lat);
+        return (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * n;
+    }
+
+    private static double toLongitude(int tileX, int n) {
+        return (double) tileX / n * 360 - 180;
+    }
+
+    private static double toLatitude(int tileY, int n) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2.0 * tileY / n))));
+    }
+
+}
@@ -1,10 +1,14 @@
 package server.controller;
 
+import server.Input;
+import server.QueueManager.MessagePublisher;
+import server.RoutePlanner;
 import server.Simulator;
 import server.model.Agent;
 import server.model.AgentVirtual;
 import server.model.Coordinate;
 import server.model.Sensor;
+import server.model.State;
 import server.model.task.PatrolTask;
 import server.model.task.Task;
 import server.model.AgentReal;
@@ -14,8 +18,8 @@ import java.util.Map;
 
 public class AgentController extends AbstractController {
 
-    public static int nextAgentAltitude = 5;
-    private static int uniqueAgentNumber = 1;
+    private int nextAgentAltitude = 5;
+    private int uniqueAgentNumber = 1;
 
     private Sensor sensor;
 
@@ -28,17 +32,27 @@ public class AgentController extends AbstractController {
         return "UAV-" + uniqueAgentNumber++;
     }
 
+    /**
+     * Get the altitude for the next real agent to fly at - each agent flies at a different altitude.
+     */
+    public synchronized int takeNextAgentAltitude() {
+        return nextAgentAltitude++;
+    }
+
     public synchronized Agent addRealAgent(double lat, double lng, double heading) {
-        Agent agent = new AgentReal(generateUID(), new Coordinate(lat, lng), simulator.getQueueManager().createMessagePublisher());
+        MessagePublisher publisher = simulator.getQueueManager() != null ? simulator.getQueueManager().createMessagePublisher() : null;
+        Agent agent = new AgentReal(simulator, generateUID(), new Coordinate(lat, lng), publisher);
         agent.setHeading(heading);
         simulator.getState().add(agent);
+        simulator.getHeartbeatMonitor().add(agent);
         return agent;
     }
 
     public synchronized Agent addVirtualAgent(double lat, double lng, double heading) {
-        Agent agent = new AgentVirtual(generateUID(), new Coordinate(lat, lng), sensor);
+        Agent agent = new AgentVirtual(simulator, generateUID(), new Coordinate(lat, lng), sensor);
         agent.setHeading(heading);
         simulator.getState().add(agent);
+        simulator.getHeartbeatMonitor().add(agent);
         return agent;
     }
 
@@ -54,33 +68,16 @@ public class AgentController extends AbstractController {
             return false;
         }
 
-        if (agent.getTask() != null) {
-            agent.getTask().removeAgent(id);
-            agent.setAllocatedTaskId(null);
-        }
+        simulator.getState().getAllocations().removeAgent(agent);
         agent.getRoute().clear();
 
-        String taskId;
-        if((taskId = simulator.getState().getAllocation().get(id)) != null) {
-            simulator.getState().getAllocation().remove(id);
-            Task task;
-            if((task = simulator.getState().getTask(taskId)) != null)
-                task.removeAgent(id);
-        }
-
-        for (String a : simulator.getState().getAllocation().keySet()) {
-            if (id.equals(a)) {
-                simulator.getState().getAllocation().remove(a);
-                Task task = simulator.getState().getTask(simulator.getState().getAllocation().get(a));
-                task.removeAgent(a);
-            }
-        }
-
         Map<String, String> oldResult = simulator.getAllocator().getOldResult();
         if (oldResult != null)
             oldResult.remove(id);
 
         simulator.getState().remove(agent);
+        simulator.getHeartbeatMonitor().remove(agent);
+        simulator.getState().getKinematics().release(agent.getHandle());
         LOGGER.info("Deleted agent " + id);
         return true;
     }
@@ -133,6 +130,21 @@ public class AgentController extends AbstractController {
             tempRoute.remove(index);
     }
 
+    /**
+     * Reorder the waypoints in every agent's temp route to minimise the distance travelled.
+     * The temp routes are copied and set by the simulation loop but optimised on the calling thread, so optimising
+     *  the whole fleet never holds up a tick. Must not be called by the simulation loop, as it waits for the loop.
+     * @return Number of agents whose temp route was changed, or -1 if not in edit mode.
+     */
+    public int optimiseAgentTempRoutes() {
+        RoutePlanner planner = simulator.getRoutePlanner();
+        State state = simulator.getState();
+        List<RoutePlanner.Plan> plans = simulator.submit(() -> state.isEditMode() ? planner.getPlans(state) : null).join();
+        if (plans == null)
+            return -1;
+        return simulator.apply(new Input.SetTempRoutes(planner.optimise(plans))).join();
+    }
+
     public synchronized boolean setAgentTimedOut(String agentId, boolean timedOut) {
         Agent agent = simulator.getState().getAgent(agentId);
         if(!agent.isSimulated())
@@ -14,16 +14,28 @@ import java.util.logging.Logger;
  */
 public class ConnectionController extends AbstractController {
 
-    private HttpServer httpserver;
+    private final HttpServer httpserver;
+    private final RestHandlerFactory restHandlerFactory;
 
     private Logger LOGGER = Logger.getLogger(ConnectionController.class.getName());
 
     public ConnectionController(Simulator simulator) {
         super(simulator, ConnectionController.class.getName());
+        httpserver = new HttpServer();
+
+        restHandlerFactory = new RestHandlerFactory();
+        restHandlerFactory.registerRestHandler(new RootHandler("/", this.simulator));
+        restHandlerFactory.registerRestHandler(new AgentHandler("/agents", this.simulator));
+        restHandlerFactory.registerRestHandler(new TaskHandler("/tasks", this.simulator));
+        restHandlerFactory.registerRestHandler(new TargetHandler("/targets", this.simulator));
+        restHandlerFactory.registerRestHandler(new AllocationHandler("/allocation", this.simulator));
+        restHandlerFactory.registerRestHandler(new ModeHandler("/mode", this.simulator));
+        restHandlerFactory.registerRestHandler(new VisualizerHandler("/visualizer", this.simulator));
+        restHandlerFactory.registerRestHandler(new TileHandler("/tiles", this.simulator));
     }
 
     public void init(int port) {
-        httpserver = new HttpServer(port);
+        httpserver.setPort(port);
         LOGGER.info("Server port: " + port);
 
         final VirtualHost host = httpserver.getVirtualHost(null);
@@ -45,7 +57,7 @@ public class ConnectionController extends AbstractController {
                     resp.getHeaders().add("Pragma", "no-cache");
                     resp.getHeaders().add("Expires", "0");
 
-                    //Attempt to handle as endpoint
+                    //Attempt to handle as endpoint - handlers change the simulation by submitting inputs to it.
                     if (handleEndpoint(req, resp))
                         return 200;
 
@@ -54,14 +66,6 @@ public class ConnectionController extends AbstractController {
                 }
             });
 
-            RestHandlerFactory.unregisterAllHandlers();
-            RestHandlerFactory.registerRestHandler(new RootHandler("/", this.simulator));
-            RestHandlerFactory.registerRestHandler(new AgentHandler("/agents", this.simulator));
-            RestHandlerFactory.registerRestHandler(new TaskHandler("/tasks", this.simulator));
-            RestHandlerFactory.registerRestHandler(new TargetHandler("/targets", this.simulator));
-            RestHandlerFactory.registerRestHandler(new AllocationHandler("/allocation", this.simulator));
-            RestHandlerFactory.registerRestHandler(new ModeHandler("/mode", this.simulator));
-            RestHandlerFactory.registerRestHandler(new VisualizerHandler("/visualizer", this.simulator));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -89,19 +93,15 @@ public class ConnectionController extends AbstractController {
     }
 
     public void start() {
-        if (httpserver != null) {
-            try {
-                httpserver.start();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        try {
+            httpserver.start();
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
     public void stop() {
-        if (httpserver != null) {
-            httpserver.stop();
-        }
+        httpserver.stop();
     }
 
     /**
@@ -110,9 +110,9 @@ public class ConnectionController extends AbstractController {
      */
     private RestHandler getHandlerForPath(String path) {
         if(path == null || path.equals(""))
-            return RestHandlerFactory.getRestHandler("/");
+            return restHandlerFactory.getRestHandler("/");
 
-        RestHandler handler = RestHandlerFactory.getRestHandler(path);
+        RestHandler handler = restHandlerFactory.getRestHandler(path);
         if(handler != null)
             return handler;
         return getHandlerForPath(path.substring(0, path.lastIndexOf("/")));
@@ -11,7 +11,7 @@ import java.util.Map;
 
 public class HazardController extends AbstractController {
 
-    private static Map<String, Integer> uniqueHazardNumbers = new HashMap<>();
+    private final Map<String, Integer> uniqueHazardNumbers = new HashMap<>();
 
     public HazardController(Simulator simulator) {
         super(simulator, HazardController.class.getName());
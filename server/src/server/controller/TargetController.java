@@ -10,7 +10,7 @@ import java.util.Map;
 
 public class TargetController extends AbstractController {
 
-    private static Map<String, Integer> uniqueTargetNumbers = new HashMap<>();
+    private final Map<String, Integer> uniqueTargetNumbers = new HashMap<>();
 
     public TargetController(Simulator simulator) {
         super(simulator, TargetController.class.getName());
@@ -42,6 +42,10 @@ public class TargetController extends AbstractController {
     public synchronized void setTargetVisibility(String targetId, boolean visible) {
         Target target = simulator.getState().getTarget(targetId);
         target.setVisible(visible);
+        if(visible)
+            simulator.getTargetDiscovery().forgetTarget(target);
+        else
+            simulator.getTargetDiscovery().targetHidden(target);
     }
 
     public synchronized boolean deleteTarget(String id) {
@@ -51,6 +55,7 @@ public class TargetController extends AbstractController {
             return false;
         }
         simulator.getState().remove(target);
+        simulator.getTargetDiscovery().forgetTarget(target);
         LOGGER.info("Deleted agent " + id);
         return true;
     }
@@ -11,11 +11,10 @@ import server.model.task.RegionTask;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class TaskController extends AbstractController {
 
-    private static int uniqueTaskNumber = 1;
+    private int uniqueTaskNumber = 1;
 
     public TaskController(Simulator simulator) {
         super(simulator, TaskController.class.getName());
@@ -30,10 +29,10 @@ public class TaskController extends AbstractController {
         Task task;
         switch (taskType) {
             case Task.TASK_WAYPOINT:
-                task = new WaypointTask(id, new Coordinate(lat, lng));
+                task = new WaypointTask(simulator, id, new Coordinate(lat, lng));
                 break;
             case Task.TASK_MONITOR:
-                task = new MonitorTask(id, new Coordinate(lat, lng));
+                task = new MonitorTask(simulator, id, new Coordinate(lat, lng));
                 break;
             default:
                 throw new IllegalArgumentException("Unable to create task of type " + taskType);
@@ -45,7 +44,7 @@ public class TaskController extends AbstractController {
 
     public synchronized Task createPatrolTask(List<Coordinate> path) {
         String id = generateUID();
-        Task task = PatrolTask.createTask(id, path);
+        Task task = PatrolTask.createTask(simulator, id, path);
         simulator.getState().add(task);
         LOGGER.info("Created new patrol task " + id);
         return task;
@@ -62,7 +61,7 @@ public class TaskController extends AbstractController {
 
     public synchronized Task createRegionTask(Coordinate nw, Coordinate ne, Coordinate se, Coordinate sw) {
         String id = generateUID();
-        Task task = RegionTask.createTask(id, nw, ne, se, sw);
+        Task task = RegionTask.createTask(simulator, id, nw, ne, se, sw);
         simulator.getState().add(task);
         LOGGER.info("Created new region task " + id);
         return task;
@@ -80,7 +79,13 @@ public class TaskController extends AbstractController {
     public synchronized Task updateTaskPosition(String id, double lat, double lng) {
         Task task = simulator.getState().getTask(id);
         if (!task.getCoordinate().equals(new Coordinate(lat, lng))) {
+            Coordinate from = task.getCoordinate().clone();
             task.getCoordinate().set(lat, lng);
+            //Routes hold copies of their points, so waypoints at the task are moved along with it.
+            for (Agent agent : simulator.getState().getAgents()) {
+                agent.getRoute().move(from, task.getCoordinate());
+                agent.getTempRoute().move(from, task.getCoordinate());
+            }
             LOGGER.info("Moved task " + id + " to " + lat + ", " + lng);
         }
         return task;
@@ -93,15 +98,12 @@ public class TaskController extends AbstractController {
             return false;
         }
 
-        removeTaskAllocations(id, simulator.getState().getAllocation());
-        removeTaskAllocations(id, simulator.getState().getTempAllocation());
-
         for(Agent agent : task.getAgents()) {
             agent.setTempRoute(new ArrayList<>());
             agent.setRoute(new ArrayList<>());
             agent.setWorking(false);
-            agent.setAllocatedTaskId("");
         }
+        simulator.getState().getAllocations().removeTask(task);
 
         simulator.getState().remove(task);
         LOGGER.info("Removed task " + id);
@@ -118,14 +120,4 @@ public class TaskController extends AbstractController {
     public synchronized void updateTaskPriority(String taskId, double priority) {
         simulator.getState().getTask(taskId).setPriority(priority);
     }
-
-    private void removeTaskAllocations(String taskId, Map<String, String> allocation) {
-        List<String> keysToRemove = new ArrayList<>();
-        for(Map.Entry<String, String> e : allocation.entrySet()) {
-            if(e.getValue().equals(taskId))
-                keysToRemove.add(e.getKey());
-        }
-        for(String key : keysToRemove)
-            allocation.remove(key);
-    }
 }
@@ -1,7 +1,7 @@
 package server.controller.handler;
 
+import server.Input;
 import server.Simulator;
-import server.model.Agent;
 import server.model.Coordinate;
 import tool.HttpServer.Request;
 import tool.HttpServer.Response;
@@ -57,18 +57,17 @@ public class AgentHandler extends RestHandler {
         double lat = Double.parseDouble(params.get("lat"));
         double lng = Double.parseDouble(params.get("lng"));
         double heading = Double.parseDouble(params.get("heading"));
-        Agent agent = simulator.getAgentController().addVirtualAgent(lat, lng, heading);
-        resp.send(201, "Created new agent " + agent.getId());
+        String agentId = apply(new Input.AddAgent(lat, lng, heading));
+        resp.send(201, "Created new agent " + agentId);
     }
 
     private void handleUpdate(Request req, Response resp, String id) throws IOException {
         if (!agentExists(id, resp))
             return;
         Map<String, String> params = req.getParams();
-        if (params.containsKey("speed"))
-            simulator.getAgentController().updateAgentSpeed(id, Double.parseDouble(params.get("speed")));
-        if (params.containsKey("altitude"))
-            simulator.getAgentController().updateAgentAltitude(id, Double.parseDouble(params.get("altitude")));
+        Double speed = params.containsKey("speed") ? Double.parseDouble(params.get("speed")) : null;
+        Double altitude = params.containsKey("altitude") ? Double.parseDouble(params.get("altitude")) : null;
+        apply(new Input.UpdateAgent(id, speed, altitude));
         resp.sendOkay();
     }
 
@@ -80,7 +79,7 @@ public class AgentHandler extends RestHandler {
         if (!checkParams(params, expectedKeys, resp))
             return;
         boolean timedOut = Boolean.parseBoolean(params.get("timedOut"));
-        if(simulator.getAgentController().setAgentTimedOut(id, timedOut))
+        if(apply(new Input.SetAgentTimedOut(id, timedOut)))
             resp.sendOkay();
         else
             resp.sendError(400, "Unable to updated agent timedOut " + id);
@@ -96,7 +95,7 @@ public class AgentHandler extends RestHandler {
         int index = Integer.parseInt(params.get("index"));
         double lat = Double.parseDouble(params.get("lat"));
         double lng = Double.parseDouble(params.get("lng"));
-        simulator.getAgentController().addToAgentTempRoute(id, index, new Coordinate(lat, lng));
+        apply(new Input.AddToTempRoute(id, index, new Coordinate(lat, lng)));
         resp.sendOkay();
     }
 
@@ -110,7 +109,7 @@ public class AgentHandler extends RestHandler {
         int index = Integer.parseInt(params.get("index"));
         double lat = Double.parseDouble(params.get("lat"));
         double lng = Double.parseDouble(params.get("lng"));
-        simulator.getAgentController().editAgentTempRoute(id, index, new Coordinate(lat, lng));
+        apply(new Input.EditTempRoute(id, index, new Coordinate(lat, lng)));
         resp.sendOkay();
     }
 
@@ -122,14 +121,14 @@ public class AgentHandler extends RestHandler {
         if (!checkParams(params, expectedKeys, resp))
             return;
         int index = Integer.parseInt(params.get("index"));
-        simulator.getAgentController().deleteFromAgentTempRoute(id, index);
+        apply(new Input.DeleteFromTempRoute(id, index));
         resp.sendOkay();
     }
 
     private void handleAgentDelete(Response resp, String id) throws IOException {
         if (!agentExists(id, resp))
             return;
-        if (simulator.getAgentController().deleteAgent(id))
+        if (apply(new Input.DeleteAgent(id)))
             resp.sendOkay();
         else
             resp.sendError(400, "Unable to delete agent " + id);
@@ -1,5 +1,7 @@
 package server.controller.handler;
 
+import server.Allocator;
+import server.Input;
 import server.Simulator;
 import tool.HttpServer.Request;
 import tool.HttpServer.Response;
@@ -36,6 +38,9 @@ public class AllocationHandler extends RestHandler {
             case "reset":
                 handleReset(resp);
                 break;
+            case "optimise-routes":
+                handleOptimiseRoutes(resp);
+                break;
             default:
                 throw new UnregisteredPathException("No method for handling POST request on " + req.getPath());
         }
@@ -46,19 +51,24 @@ public class AllocationHandler extends RestHandler {
         String id = parseId(req.getPath());
         if (!agentExists(id, resp))
             return;
-        simulator.getAllocator().removeFromTempAllocation(id);
+        apply(new Input.RemoveFromTempAllocation(id));
         resp.sendOkay();
     }
 
     private void handleAutoAllocate(Response resp) throws IOException {
         LOGGER.info("Running auto allocation.");
-        simulator.getAllocator().runAutoAllocation();
+        //Solved on this thread, only preparing and applying the allocation hold up the simulation loop.
+        Allocator.Problem problem = apply(new Input.PrepareAutoAllocation());
+        apply(new Input.ApplyAutoAllocation(simulator.getAllocator().solve(problem)));
+        simulator.getAgentController().optimiseAgentTempRoutes();
         LOGGER.info("Finished auto allocation.");
         resp.sendOkay();
     }
 
     private void handleConfirm(Response resp) throws IOException {
-        simulator.getAllocator().confirmAllocation(simulator.getState().getTempAllocation());
+        //The routes agents are given are optimised, including any waypoints added since the allocation was made.
+        simulator.getAgentController().optimiseAgentTempRoutes();
+        apply(new Input.ConfirmAllocation());
         resp.sendOkay();
     }
 
@@ -73,22 +83,31 @@ public class AllocationHandler extends RestHandler {
         String taskId = params.get("taskId");
         if(!taskExists(taskId, resp))
             return;
-        simulator.getAllocator().putInTempAllocation(agentId, taskId);
+        apply(new Input.PutInTempAllocation(agentId, taskId));
         resp.sendOkay();
     }
 
     private void handleUndo(Response resp) throws IOException {
-        simulator.getAllocator().undoAllocationChange();
+        apply(new Input.UndoAllocation());
         resp.sendOkay();
     }
 
     private void handleRedo(Response resp) throws IOException {
-        simulator.getAllocator().redoAllocationChange();
+        apply(new Input.RedoAllocation());
         resp.sendOkay();
     }
 
     private void handleReset(Response resp) throws IOException {
-        simulator.getAllocator().resetAllocation();
+        apply(new Input.ResetAllocation());
         resp.sendOkay();
     }
+
+    private void handleOptimiseRoutes(Response resp) throws IOException {
+        int changed = simulator.getAgentController().optimiseAgentTempRoutes();
+        if (changed < 0) {
+            resp.sendError(400, "Unable to optimise routes - not in edit mode");
+            return;
+        }
+        resp.send(200, "Optimised " + changed + " agent routes");
+    }
 }
@@ -2,6 +2,8 @@ package server.controller.handler;
 
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import server.HeadlessRunner;
+import server.Input;
 import server.Simulator;
 import tool.HttpServer.Request;
 import tool.HttpServer.Response;
@@ -10,11 +12,25 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ModeHandler extends RestHandler {
 
+    //Headless runs each have their own simulator and run in the background, so never touch the server's simulation.
+    private final ExecutorService headlessExecutor;
+    private final Map<String, Future<JsonObject>> headlessRuns;
+    private final AtomicInteger headlessRunCount;
+
     public ModeHandler(String handlerName, Simulator simulator) {
         super(handlerName, simulator);
+        this.headlessExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "HeadlessRunner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.headlessRuns = new ConcurrentHashMap<>();
+        this.headlessRunCount = new AtomicInteger();
     }
 
     @Override
@@ -30,6 +46,12 @@ public class ModeHandler extends RestHandler {
             case "/scenario/start":
                 handleScenarioStart(resp);
                 break;
+            case "/speed":
+                handleSpeed(req, resp);
+                break;
+            case "/headless":
+                handleHeadless(req, resp);
+                break;
             default:
                 throw new UnregisteredPathException("No method for handling POST request on " + req.getPath());
         }
@@ -45,13 +67,22 @@ public class ModeHandler extends RestHandler {
             case "/in-progress":
                 handleInProgress(resp);
                 break;
+            case "/tick-stats":
+                handleTickStats(resp);
+                break;
+            case "/coverage":
+                handleCoverage(resp);
+                break;
+            case "/headless/result":
+                handleHeadlessResult(req, resp);
+                break;
             default:
                 throw new UnregisteredPathException("No method for handling GET request on " + req.getPath());
         }
     }
 
     private void handleSandbox(Response resp) throws IOException {
-        this.simulator.startSandboxMode();
+        apply(new Input.StartSandbox());
         resp.sendOkay();
     }
 
@@ -61,17 +92,100 @@ public class ModeHandler extends RestHandler {
         if (!checkParams(params, expectedKeys, resp))
             return;
         String scenarioFileName = params.get("file-name");
-        if(this.simulator.loadScenarioMode(scenarioFileName))
+        if(apply(new Input.LoadScenario(scenarioFileName)))
             resp.sendOkay();
         else
             resp.sendError(400, "Unable to start scenario from file " + scenarioFileName);
     }
 
     private void handleScenarioStart(Response resp) throws IOException {
-        this.simulator.startSimulation();
+        apply(new Input.StartSimulation());
         resp.sendOkay();
     }
 
+    private void handleSpeed(Request req, Response resp) throws IOException {
+        Map<String, String> params = req.getParams();
+        List<String> expectedKeys = Collections.singletonList("speed");
+        if (!checkParams(params, expectedKeys, resp))
+            return;
+        try {
+            this.simulator.getTickScheduler().setSpeed(Double.parseDouble(params.get("speed")));
+            resp.sendOkay();
+        }
+        catch (IllegalArgumentException e) {
+            resp.sendError(400, "Unable to set speed - " + e.getMessage());
+        }
+    }
+
+    private void handleHeadless(Request req, Response resp) throws IOException {
+        Map<String, String> params = req.getParams();
+        List<String> expectedKeys = Collections.singletonList("file-name");
+        if (!checkParams(params, expectedKeys, resp))
+            return;
+        String scenarioFileName = params.get("file-name");
+        if (!this.simulator.getScenarioFileListWithGameIds().containsKey(scenarioFileName)) {
+            resp.sendError(400, "Unable to run headless - no scenario file " + scenarioFileName);
+            return;
+        }
+        HeadlessRunner runner = new HeadlessRunner(new Simulator(true));
+        try {
+            if (params.containsKey("duration"))
+                runner.setDuration(Double.parseDouble(params.get("duration")));
+            if (params.containsKey("allocate-every"))
+                runner.setAllocationInterval(Double.parseDouble(params.get("allocate-every")));
+            if (params.containsKey("kernel"))
+                runner.setKernel(params.get("kernel"));
+        }
+        catch (IllegalArgumentException e) {
+            resp.sendError(400, "Unable to run headless - " + e.getMessage());
+            return;
+        }
+        String id = "Headless-" + headlessRunCount.incrementAndGet();
+        headlessRuns.put(id, headlessExecutor.submit(() -> runner.run(scenarioFileName)));
+
+        String location = "/mode/headless/result?id=" + id;
+        JsonObject run = new JsonObject();
+        run.addProperty("id", id);
+        run.addProperty("location", location);
+        resp.getHeaders().add("Location", location);
+        resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
+        resp.send(202, run.toString());
+    }
+
+    private void handleHeadlessResult(Request req, Response resp) throws IOException {
+        Map<String, String> params = req.getParams();
+        List<String> expectedKeys = Collections.singletonList("id");
+        if (!checkParams(params, expectedKeys, resp))
+            return;
+        String id = params.get("id");
+        Future<JsonObject> result = headlessRuns.get(id);
+        if (result == null) {
+            resp.sendError(404, "No headless run found for id " + id);
+            return;
+        }
+        if (!result.isDone()) {
+            JsonObject run = new JsonObject();
+            run.addProperty("id", id);
+            run.addProperty("status", "running");
+            resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
+            resp.send(202, run.toString());
+            return;
+        }
+        //Results are only kept until they have been collected.
+        headlessRuns.remove(id);
+        try {
+            resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
+            resp.send(200, result.get().toString());
+        }
+        catch (ExecutionException e) {
+            resp.sendError(400, "Headless run failed - " + e.getCause().getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            resp.sendError(400, "Headless run interrupted");
+        }
+    }
+
     private void handleScenarioList(Response resp) throws IOException {
         Map<String, String> scenarios = this.simulator.getScenarioFileListWithGameIds();
 
@@ -88,8 +202,18 @@ public class ModeHandler extends RestHandler {
         resp.send(200, scenarioListJson);
     }
 
+    private void handleTickStats(Response resp) throws IOException {
+        resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
+        resp.send(200, this.simulator.getTickScheduler().getStatsJson().toString());
+    }
+
+    private void handleCoverage(Response resp) throws IOException {
+        resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
+        resp.send(200, this.simulator.getStateSnapshot().getCoverageJson());
+    }
+
     private void handleInProgress(Response resp) throws IOException {
         resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
-        resp.send(200, Boolean.toString(this.simulator.getState().isInProgress()));
+        resp.send(200, Boolean.toString(this.simulator.getStateSnapshot().isInProgress()));
     }
 }
@@ -1,5 +1,6 @@
 package server.controller.handler;
 
+import server.Input;
 import server.Simulator;
 import tool.HttpServer.Request;
 import tool.HttpServer.Response;
@@ -8,6 +9,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 public abstract class RestHandler {
@@ -91,6 +94,32 @@ public abstract class RestHandler {
         return true;
     }
 
+    /**
+     * Submit an input to the simulation and wait until the simulation loop has applied it.
+     * Handlers run on the server's threads, so they must only change the simulation through inputs.
+     * @return Result of the input.
+     * @throws RuntimeException - Exception thrown applying the input.
+     */
+    <T> T apply(Input<T> input) throws IOException {
+        return await(simulator.apply(input));
+    }
+
+    /**
+     * Wait for a command submitted to the simulation loop.
+     */
+    <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the simulation.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
     boolean agentExists(String agentId, Response resp) throws IOException {
         if (agentId == null || simulator.getState().getAgent(agentId) == null) {
             resp.sendError(404, "No agent found with id " + agentId);
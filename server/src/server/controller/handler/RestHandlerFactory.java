@@ -5,9 +5,9 @@ import java.util.Map;
 
 public class RestHandlerFactory {
 
-    private static final Map<String, RestHandler> restHandlerMap = new HashMap<>();
+    private final Map<String, RestHandler> restHandlerMap = new HashMap<>();
 
-    public static void registerRestHandler(RestHandler restHandler) {
+    public void registerRestHandler(RestHandler restHandler) {
         String name = restHandler.getHandlerName();
         if(!restHandlerMap.containsKey(name))
             restHandlerMap.put(name, restHandler);
@@ -15,11 +15,11 @@ public class RestHandlerFactory {
             throw new IllegalArgumentException("Cannot register REST handler - a handler is already registered under the name " + name);
     }
 
-    public static RestHandler getRestHandler(String name) {
+    public RestHandler getRestHandler(String name) {
         return restHandlerMap.get(name);
     }
 
-    public static void unregisterAllHandlers() {
+    public void unregisterAllHandlers() {
         restHandlerMap.clear();
     }
 
@@ -2,10 +2,9 @@ package server.controller.handler;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import server.Input;
 import server.Simulator;
-import server.controller.AgentController;
 import server.model.Agent;
-import server.model.State;
 import tool.HttpServer.Request;
 import tool.HttpServer.Response;
 
@@ -69,7 +68,7 @@ public class RootHandler extends RestHandler {
         List<String> expectedKeys = Collections.singletonList("id");
         if (!checkParams(params, expectedKeys, resp))
             return;
-        simulator.setProvDoc(params.get("id"));
+        apply(new Input.SetProvDoc(params.get("id")));
         resp.sendOkay();
     }
 
@@ -78,7 +77,7 @@ public class RootHandler extends RestHandler {
         List<String> expectedKeys = Collections.singletonList("edit");
         if (!checkParams(params, expectedKeys, resp))
             return;
-        simulator.changeView(Boolean.parseBoolean(params.get("edit")));
+        apply(new Input.ChangeView(Boolean.parseBoolean(params.get("edit"))));
         resp.sendOkay();
     }
 
@@ -111,11 +110,9 @@ public class RootHandler extends RestHandler {
         Double y = Double.parseDouble(params.get("y"));
         Double a = Double.parseDouble(params.get("a"));
 
-        Agent agent = simulator.getState().getAgent(id);
         double distance = Math.sqrt(x * x + y * y);
         double angle = Math.atan2(x, -y) + a;
-
-        agent.setCoordinate(agent.getCoordinate().getCoordinate(distance, angle));
+        apply(new Input.MoveAgent(id, distance, angle));
         resp.sendOkay();
     }
 
@@ -171,23 +168,19 @@ public class RootHandler extends RestHandler {
         } catch (Exception e) {
             e.printStackTrace();
         }
-        simulator.reset();
+        apply(new Input.Reset());
     }
 
     private void handleReset(Response resp) throws IOException {
-        simulator.reset();
+        apply(new Input.Reset());
         resp.send(200,
                 "<html><head><meta http-equiv='refresh' content='0; url=/' /><script type='text/javascript'>window.setTimeout(function(){window.location='/?'+(new Date()).getTime();},0);</script></head><body></body></html>");
     }
 
     private void handleGetState(Response resp) throws IOException {
-        State state = simulator.getState();
-        synchronized (state) {
-            String stateString = simulator.getStateAsString();
-            resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
-            resp.send(200, stateString);
-        }
-
+        String stateString = simulator.getStateAsString();
+        resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
+        resp.send(200, stateString);
     }
 
     private void handleRegister(Request req, Response resp) throws IOException {
@@ -205,15 +198,16 @@ public class RootHandler extends RestHandler {
         double lat = Double.parseDouble(jsonReq.get("lat").getAsString());
         double lng = Double.parseDouble(jsonReq.get("lon").getAsString());
 
-        //TODO Send heading on register agent
-        Agent agent = simulator.getAgentController().addRealAgent(lat, lng, 0d);
-        simulator.getQueueManager().addQueue("UAV_TaskQueue_" + agent.getId());
-        LOGGER.info("" + agent.getId() + " Registered at lat: " + lat + " lon: " + lng);
+        String agentId = apply(new Input.RegisterAgent(lat, lng));
+        if (simulator.getQueueManager() != null)
+            simulator.getQueueManager().addQueue("UAV_TaskQueue_" + agentId);
+        LOGGER.info("" + agentId + " Registered at lat: " + lat + " lon: " + lng);
 
         JsonObject jsonResp = new JsonObject();
-        jsonResp.addProperty("URI", simulator.getQueueManager().getCloudURI());
-        jsonResp.addProperty("ID", agent.getId());
-        jsonResp.addProperty("Altitude", AgentController.nextAgentAltitude++);
+        if (simulator.getQueueManager() != null)
+            jsonResp.addProperty("URI", simulator.getQueueManager().getCloudURI());
+        jsonResp.addProperty("ID", agentId);
+        jsonResp.addProperty("Altitude", simulator.getAgentController().takeNextAgentAltitude());
 
         resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
         resp.send(200, jsonResp.toString());
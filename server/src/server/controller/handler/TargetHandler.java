@@ -1,7 +1,7 @@
 package server.controller.handler;
 
+import server.Input;
 import server.Simulator;
-import server.model.target.Target;
 import tool.HttpServer.Request;
 import tool.HttpServer.Response;
 
@@ -16,6 +16,16 @@ public class TargetHandler extends RestHandler {
         super(handlerName, simulator);
     }
 
+    @Override
+    public void handleGet(Request req, Response resp) throws IOException, UnregisteredPathException {
+        String rPath = parseRemainingPath(req.getPath());
+        // /targets/discovery
+        if(rPath != null && rPath.equals("/discovery"))
+            resp.send(200, simulator.getTargetDiscovery().getStatsJson().toString());
+        else
+            throw new UnregisteredPathException("No method for handling GET request on " + req.getPath());
+    }
+
     @Override
     public void handlePost(Request req, Response resp) throws IOException {
         String rPath = parseRemainingPath(req.getPath());
@@ -32,7 +42,7 @@ public class TargetHandler extends RestHandler {
         String id = parseId(req.getPath());
         if (!targetExists(id, resp))
             return;
-        if (simulator.getTargetController().deleteTarget(id))
+        if (apply(new Input.DeleteTarget(id)))
             resp.sendOkay();
         else
             resp.sendError(400, "Unable to delete target " + id);
@@ -46,14 +56,14 @@ public class TargetHandler extends RestHandler {
         double lat = Double.parseDouble(params.get("lat"));
         double lng = Double.parseDouble(params.get("lng"));
         int type = Integer.parseInt(params.get("type"));
-        Target target = simulator.getTargetController().addTarget(lat, lng, type);
-        resp.send(201, "Created new target " + target.getId());
+        String targetId = apply(new Input.AddTarget(lat, lng, type));
+        resp.send(201, "Created new target " + targetId);
     }
 
     private void handleReveal(Response resp, String id) throws IOException {
         if (!targetExists(id, resp))
             return;
-        simulator.getTargetController().setTargetVisibility(id, true);
+        apply(new Input.RevealTarget(id));
         resp.sendOkay();
     }
 
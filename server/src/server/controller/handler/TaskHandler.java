@@ -1,8 +1,8 @@
 package server.controller.handler;
 
+import server.Input;
 import server.Simulator;
 import server.model.Coordinate;
-import server.model.task.Task;
 import tool.HttpServer.Request;
 import tool.HttpServer.Response;
 
@@ -43,7 +43,7 @@ public class TaskHandler extends RestHandler {
         String id = parseId(req.getPath());
         if (!taskExists(id, resp))
             return;
-        if (simulator.getTaskController().deleteTask(id, false))
+        if (apply(new Input.DeleteTask(id)))
             resp.sendOkay();
         else
             resp.sendError(400, "Unable to delete task " + id);
@@ -58,8 +58,8 @@ public class TaskHandler extends RestHandler {
         double lat = Double.parseDouble(params.get("lat"));
         double lng = Double.parseDouble(params.get("lng"));
         try {
-            Task task = simulator.getTaskController().createTask(type, lat, lng);
-            resp.send(201, "Created new task " + task.getId());
+            String taskId = apply(new Input.CreateTask(type, lat, lng));
+            resp.send(201, "Created new task " + taskId);
         }
         catch (IllegalArgumentException e) {
             LOGGER.warning("Unable to add task - " + e.getMessage());
@@ -80,9 +80,9 @@ public class TaskHandler extends RestHandler {
             Double lng = Double.parseDouble(pathSplit[i + 1]);
             path.add(new Coordinate(lat, lng));
         }
-        Task task = simulator.getTaskController().createPatrolTask(path);
+        String taskId = apply(new Input.CreatePatrolTask(path));
         resp.getHeaders().add("Content-type", "text");
-        resp.send(201, task.getId());
+        resp.send(201, taskId);
     }
 
     private void handleUpdatePatrol(Request req, Response resp, String id) throws IOException {
@@ -99,7 +99,7 @@ public class TaskHandler extends RestHandler {
             Double lng = Double.parseDouble(pathSplit[i + 1]);
             path.add(new Coordinate(lat, lng));
         }
-        if(simulator.getTaskController().updatePatrolPath(id, path))
+        if(apply(new Input.UpdatePatrolPath(id, path)))
             resp.sendOkay();
         else {
             LOGGER.warning("Unable to update task path.");
@@ -120,9 +120,9 @@ public class TaskHandler extends RestHandler {
             Double lng = Double.parseDouble(pathSplit[i + 1]);
             corners.add(new Coordinate(lat, lng));
         }
-        Task task = simulator.getTaskController().createRegionTask(corners.get(0), corners.get(1), corners.get(2), corners.get(3));
+        String taskId = apply(new Input.CreateRegionTask(corners));
         resp.getHeaders().add("Content-type", "text");
-        resp.send(201, task.getId());
+        resp.send(201, taskId);
     }
 
     private void handleUpdateRegion(Request req, Response resp, String id) throws IOException {
@@ -139,7 +139,7 @@ public class TaskHandler extends RestHandler {
             Double lng = Double.parseDouble(pathSplit[i + 1]);
             corners.add(new Coordinate(lat, lng));
         }
-        if(simulator.getTaskController().updateRegionCorners(id, corners))
+        if(apply(new Input.UpdateRegionCorners(id, corners)))
             resp.sendOkay();
         else {
             LOGGER.warning("Unable to update task path.");
@@ -151,15 +151,15 @@ public class TaskHandler extends RestHandler {
         if (!taskExists(id, resp))
             return;
         Map<String, String> params = req.getParams();
+        Coordinate position = null;
         if (params.containsKey("lat") && params.containsKey("lng")) {
             double lat = Double.parseDouble(params.get("lat"));
             double lng = Double.parseDouble(params.get("lng"));
-            simulator.getTaskController().updateTaskPosition(id, lat, lng);
+            position = new Coordinate(lat, lng);
         }
-        if (params.containsKey("group"))
-            simulator.getTaskController().updateTaskGroup(id, Integer.parseInt(params.get("group")));
-        if (params.containsKey("priority"))
-            simulator.getTaskController().updateTaskPriority(id, Double.parseDouble(params.get("priority")));
+        Integer group = params.containsKey("group") ? Integer.parseInt(params.get("group")) : null;
+        Double priority = params.containsKey("priority") ? Double.parseDouble(params.get("priority")) : null;
+        apply(new Input.UpdateTask(id, position, group, priority));
         resp.sendOkay();
     }
 
@@ -0,0 +1,57 @@
+package server.controller.handler;
+
+import server.Simulator;
+import server.TileCache;
+import tool.HttpServer;
+import tool.HttpServer.Request;
+import tool.HttpServer.Response;
+
+import java.io.IOException;
+
+public class TileHandler extends RestHandler {
+
+    public TileHandler(String handlerName, Simulator simulator) {
+        super(handlerName, simulator);
+    }
+
+    @Override
+    public void handleGet(Request req, Response resp) throws IOException, UnregisteredPathException {
+        String rPath = parseRemainingPath(req.getPath());
+        // /tiles/<layer>/<z>/<x>/<y>.png
+        String[] parts = rPath != null ? rPath.split("/") : new String[0];
+        if (parts.length != 5 || !parts[4].endsWith(".png"))
+            throw new UnregisteredPathException("No method for handling GET request on " + req.getPath());
+
+        TileCache.Layer layer = TileCache.Layer.fromName(parts[1]);
+        if (layer == null) {
+            resp.sendError(404, "No tile layer " + parts[1]);
+            return;
+        }
+        TileCache.Tile tile;
+        try {
+            int z = Integer.parseInt(parts[2]);
+            int x = Integer.parseInt(parts[3]);
+            int y = Integer.parseInt(parts[4].substring(0, parts[4].length() - ".png".length()));
+            tile = simulator.getTileCache().getTile(layer, z, x, y);
+        } catch (NumberFormatException e) {
+            tile = null;
+        }
+        if (tile == null) {
+            resp.sendError(404, "No tile at " + rPath);
+            return;
+        }
+
+        //Clients may keep tiles but must check they are still current, which is a 304 if nothing has changed.
+        resp.getHeaders().replace("Cache-Control", "no-cache, private");
+        if (HttpServer.getConditionalStatus(req, -1, tile.getEtag()) == 304) {
+            resp.getHeaders().add("ETag", tile.getEtag());
+            resp.sendHeaders(304);
+        }
+        else {
+            resp.sendHeaders(200, tile.getPng().length, -1, tile.getEtag(), "image/png", null);
+            if (resp.getBody() != null)
+                resp.getBody().write(tile.getPng());
+        }
+    }
+
+}
@@ -1,7 +1,6 @@
 package server.controller.handler;
 
 import server.Simulator;
-import tool.GsonUtils;
 import tool.HttpServer;
 
 import java.io.IOException;
@@ -14,10 +13,8 @@ public class VisualizerHandler extends RestHandler {
 
     @Override
     public void handleGet(HttpServer.Request req, HttpServer.Response resp) throws IOException {
-        String jsonString = "";
-        //Get agent list as JSON string.
-        jsonString += GsonUtils.toJson(simulator.getState().getAgents()) + "\n";
-        jsonString += GsonUtils.toJson(simulator.getState().getTasks()) + "\n";
+        //Get agent and task lists as JSON strings.
+        String jsonString = simulator.getStateSnapshot().getVisualizerJson();
 
         //Send agent JSON string as response.
         resp.getHeaders().add("Content-type", "application/json; charset=utf-8");
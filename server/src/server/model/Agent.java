@@ -1,15 +1,20 @@
 package server.model;
 
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
 import server.Simulator;
-import server.model.hazard.Hazard;
 import server.model.task.Task;
 
 import java.io.Serializable;
+import java.lang.reflect.Type;
 import java.util.List;
-import java.util.Vector;
 import java.util.logging.Logger;
 
 /**
+ * Position, heading, speed, battery and flags are held in the state's AgentKinematics store, the agent is a view
+ *  onto its entry in the store.
  * @author Feng Wu, Yuai Liu
  */
 public abstract class Agent extends MObject implements Serializable {
@@ -23,39 +28,35 @@ public abstract class Agent extends MObject implements Serializable {
 
     //Used in client
     protected double altitude;
-    protected double battery;
-    protected double heading;
-    private boolean manuallyControlled = false;
-    private final List<Coordinate> route;
-    private final List<Coordinate> tempRoute;
-    protected double speed;
+    private final Route route;
+    private final Route tempRoute;
     private String allocatedTaskId;
     private double timeInAir;
-    private boolean simulated;
-    private boolean timedOut;
-    private boolean working;
 
     //Used in server but not in client
-    private transient long lastHeartbeat;
-    private transient boolean startSearching;
-    private transient boolean stopped;
-
-    public Agent(String id, Coordinate position, boolean simulated) {
-        super(id, position);
-
-        this.simulated = simulated;
-
-        speed = 6.0;
-        heading = 0.0;
-        battery = 1.0;
+    private transient volatile long lastHeartbeat;
+    private final transient Simulator simulator;
+    protected final transient AgentKinematics kinematics;
+    protected final transient int handle;
+    //Whether the current destination should be checked for arrival once the agent has moved this tick.
+    private transient boolean arrivalPending;
+
+    public Agent(Simulator simulator, String id, Coordinate position, boolean simulated) {
+        super(id, null);
+
+        this.simulator = simulator;
+        this.kinematics = simulator != null ? simulator.getState().getKinematics() : new AgentKinematics();
+        this.handle = kinematics.allocate(position.getLatitude(), position.getLongitude(), simulated);
+
+        setSpeed(6.0);
+        setHeading(0.0);
+        setBattery(1.0);
         altitude = 3.0;
         timeInAir = 0.0;
-        route = new Vector<>();
-        tempRoute = new Vector<>();
-        startSearching = false;
-        working = false;
+        route = new Route();
+        route.setChangeListener(() -> kinematics.markChanged(handle));
+        tempRoute = new Route();
         allocatedTaskId = "";
-        timedOut = false;
 
         this.lastHeartbeat = System.currentTimeMillis();
     }
@@ -71,9 +72,12 @@ public abstract class Agent extends MObject implements Serializable {
     abstract void performFlocking();
 
     /**
-     * Step an agent for this tick
+     * Step an agent for this tick.
+     * Virtual agents only record how they want to move, they are moved when the store is integrated. finishStep
+     *  must be called once they have been moved.
      */
     public void step(Boolean flockingEnabled) {
+        arrivalPending = false;
         Task task = this.getTask();
         if (task != null) {
             //Ensure agent's goal is set to task coordinate in case task is moved
@@ -93,48 +97,134 @@ public abstract class Agent extends MObject implements Serializable {
                     moveTowardsDestination();
                     timeInAir += 0.2;
                 }
-                if (isCurrentDestinationReached() && this.route.size() > 1)
-                    this.route.remove(0);
+                arrivalPending = true;
             }
         }
         else if (flockingEnabled){
             performFlocking();
         }
+    }
+
+    /**
+     * Finish stepping an agent once it has been moved - moves on to the next point in its route if it has
+     *  reached the current one.
+     */
+    public void finishStep() {
+        if (arrivalPending && isCurrentDestinationReached() && this.route.size() > 1)
+            this.route.remove(0);
+        arrivalPending = false;
+    }
 
-        //Check for hazard hits
-        for(Hazard hazard : Simulator.instance.getState().getHazards()) {
-            if(hazard.inRange(this.getCoordinate()))
-                Simulator.instance.getState().addHazardHit(hazard.getType(), this.getCoordinate());
+    /**
+     * Whether the agent is moving straight towards its current destination and will not reach it (or need to turn)
+     *  within the given number of ticks, so those ticks can be caught up in one go.
+     */
+    public boolean isInTransit(int ticks) {
+        if (!isSimulated() || isStopped() || isWorking() || getSearching() || getTask() == null)
+            return false;
+        synchronized (route) {
+            if (route.isEmpty())
+                return false;
+            return kinematics.canAdvance(handle, ticks, route.getLatitude(0), route.getLongitude(0));
         }
+    }
 
-        //Always add 'no hazard' to track explored areas.
-        Simulator.instance.getState().addHazardHit(Hazard.NONE, this.getCoordinate());
+    /**
+     * Catch up an agent that has not been stepped for the given number of ticks.
+     * @param destination - Destination the agent was in transit to (and moves straight on towards) or null if it
+     *                    was idle (and stays where it is).
+     */
+    public void catchUp(int ticks, Coordinate destination) {
+        if (destination != null) {
+            kinematics.advance(handle, ticks, true, destination.getLatitude(), destination.getLongitude());
+            timeInAir += 0.2 * ticks;
+        }
+        else
+            kinematics.advance(handle, ticks, false, 0, 0);
+    }
+
+    /**
+     * Move the agent to a position it has flown to, for the event kernel which works out positions itself.
+     * @param heading - Degrees.
+     * @param distance - Distance flown in m since the agent was last placed.
+     * @param flightTime - Time in s spent flying since the agent was last placed.
+     */
+    public void place(double lat, double lng, double heading, double distance, double flightTime) {
+        kinematics.setPosition(handle, lat, lng);
+        kinematics.setHeading(handle, heading);
+        kinematics.addDistanceTravelled(handle, distance);
+        timeInAir += flightTime;
+    }
+
+    /**
+     * @return Handle of the agent in the kinematics store.
+     */
+    public int getHandle() {
+        return handle;
+    }
+
+    /**
+     * @return A new coordinate at the agent's current position - use getLatitude and getLongitude to read the
+     *  position without creating one.
+     */
+    @Override
+    public Coordinate getCoordinate() {
+        return new Coordinate(kinematics.getLatitude(handle), kinematics.getLongitude(handle));
+    }
+
+    @Override
+    public void setCoordinate(Coordinate coordinate) {
+        kinematics.setPosition(handle, coordinate.getLatitude(), coordinate.getLongitude());
+    }
+
+    /**
+     * @return latitude in degrees, without creating a coordinate
+     */
+    public double getLatitude() {
+        return kinematics.getLatitude(handle);
+    }
+
+    /**
+     * @return longitude in degrees, without creating a coordinate
+     */
+    public double getLongitude() {
+        return kinematics.getLongitude(handle);
     }
 
     /**
      * Stop an agent - should maintain its current position.
      */
     public void stop() {
-        this.stopped = true;
+        kinematics.setStopped(handle, true);
     }
 
     /**
      * Un-stop an agent - should now move towards its goal.
      */
     public void resume() {
-        this.stopped = false;
+        kinematics.setStopped(handle, false);
     }
 
     public boolean isStopped() {
-        return this.stopped;
+        return kinematics.isStopped(handle);
     }
 
     public boolean isSimulated() {
-        return simulated;
+        return kinematics.isSimulated(handle);
     }
 
     public void heartbeat() {
-        this.lastHeartbeat = System.currentTimeMillis();
+        heartbeat(System.currentTimeMillis());
+    }
+
+    /**
+     * The last heartbeat never moves back (e.g. to a cached tick time older than a heartbeat from a message), as
+     *  the heartbeat monitor assumes deadlines only get later.
+     * @param now - Current time in ms, e.g. the time cached for this tick.
+     */
+    public void heartbeat(long now) {
+        if (now > this.lastHeartbeat)
+            this.lastHeartbeat = now;
         if(this.isTimedOut()) {
             LOGGER.info("Reconnected with agent " + this.getId());
             this.setTimedOut(false);
@@ -145,24 +235,35 @@ public abstract class Agent extends MObject implements Serializable {
         return System.currentTimeMillis() - this.lastHeartbeat;
     }
 
+    public long getLastHeartbeat() {
+        return lastHeartbeat;
+    }
+
+    /**
+     * @return Time in ms cached at the start of the current tick (or the current time without a simulator).
+     */
+    long getTickTimeMillis() {
+        return simulator != null ? simulator.getHeartbeatMonitor().currentTimeMillis() : System.currentTimeMillis();
+    }
+
     public boolean isManuallyControlled() {
-        return manuallyControlled;
+        return kinematics.isManuallyControlled(handle);
     }
 
     public void toggleManualControl() {
-        manuallyControlled = !manuallyControlled;
+        kinematics.setManuallyControlled(handle, !isManuallyControlled());
     }
 
     public void setWorking(boolean workingStatus) {
-        this.working = workingStatus;
+        kinematics.setWorking(handle, workingStatus);
     }
 
     public boolean isWorking() {
-        return this.working;
+        return kinematics.isWorking(handle);
     }
 
     public double getTime(Coordinate start, Coordinate target) {
-        return this.predictPathLength(start, target, this.getSpeed()) / (this.speed + 1e-6);
+        return this.predictPathLength(start, target, this.getSpeed()) / (this.getSpeed() + 1e-6);
     }
 
     public double getEnergyConsumption(Coordinate start, Coordinate target) {
@@ -170,36 +271,51 @@ public abstract class Agent extends MObject implements Serializable {
         return time * unitTimeBatteryConsumption;
     }
 
-    public void setHeading(double heading) {
-        this.heading = heading;
-    }
-
-    Coordinate getCurrentDestination() {
-        return this.route.get(0);
+    /**
+     * Energy used to fly from start to target, starting at the given heading and flying at the given speed rather than
+     *  the agent's current ones (used to plan from a copy of the agent's values).
+     */
+    public static double getEnergyConsumption(Coordinate start, Coordinate target, double heading, double speed) {
+        return predictPathLength(start, target, heading, speed) / (speed + 1e-6) * unitTimeBatteryConsumption;
     }
 
-    Coordinate getFinalDestination() {
-        return this.route.get(this.route.size() - 1);
+    public void setHeading(double heading) {
+        kinematics.setHeading(handle, heading);
     }
 
     public String getAllocatedTaskId() {
         return allocatedTaskId;
     }
 
-    public void setAllocatedTaskId(String taskId) {
+    /**
+     * Only called by the AllocationIndex, which keeps this in step with the task's agents.
+     */
+    void setAllocatedTaskId(String taskId) {
         this.allocatedTaskId = taskId;
+        kinematics.markChanged(handle);
     }
 
     public Task getTask() {
-        return allocatedTaskId != null ? Simulator.instance.getState().getTask(this.allocatedTaskId) : null;
+        return allocatedTaskId != null ? simulator.getState().getTask(this.allocatedTaskId) : null;
     }
 
     public double getSpeed() {
-        return speed;
+        return kinematics.getSpeed(handle);
     }
 
     public void setSpeed(double speed) {
-        this.speed = speed;
+        kinematics.setSpeed(handle, speed);
+    }
+
+    /**
+     * @return distance travelled in meters since the agent was created
+     */
+    public double getDistanceTravelled() {
+        return kinematics.getDistanceTravelled(handle);
+    }
+
+    void addDistanceTravelled(double distance) {
+        kinematics.addDistanceTravelled(handle, distance);
     }
 
     public double getAltitude() {
@@ -211,86 +327,97 @@ public abstract class Agent extends MObject implements Serializable {
     }
 
     public double getHeading() {
-        return heading;
+        return kinematics.getHeading(handle);
     }
 
     public void setSearching(boolean searching) {
-        this.startSearching = searching;
+        kinematics.setSearching(handle, searching);
     }
 
     public boolean getSearching() {
-        return this.startSearching;
+        return kinematics.isSearching(handle);
     }
 
-    public List<Coordinate> getRoute() {
+    public Route getRoute() {
         return route;
     }
 
     public void setRoute(List<Coordinate> route) {
-        synchronized (this.route) {
-            this.route.clear();
-            this.route.addAll(route);
-        }
+        this.route.replace(route);
     }
 
-    public List<Coordinate> getTempRoute() {
+    public Route getTempRoute() {
         return tempRoute;
     }
 
     public void setTempRoute(List<Coordinate> route) {
-        synchronized (this.tempRoute) {
-            this.tempRoute.clear();
-            this.tempRoute.addAll(route);
-        }
+        this.tempRoute.replace(route);
     }
 
     public boolean isCurrentDestinationReached() {
-        return isReached(this.getCurrentDestination());
+        synchronized (route) {
+            return isReached(route.getLatitude(0), route.getLongitude(0));
+        }
     }
 
     public boolean isFinalDestinationReached() {
-        return isReached(this.getFinalDestination());
+        synchronized (route) {
+            int last = route.size() - 1;
+            return isReached(route.getLatitude(last), route.getLongitude(last));
+        }
     }
 
-    private boolean isReached(Coordinate goal) {
-        if(goal == null)
-            return true;
-        Coordinate position = this.getCoordinate();
-        return Math.abs(goal.getLatitude() - position.getLatitude()) < EPS &&
-                Math.abs(goal.getLongitude() - position.getLongitude()) < EPS;
+    private boolean isReached(double goalLatitude, double goalLongitude) {
+        return Math.abs(goalLatitude - getLatitude()) < EPS &&
+                Math.abs(goalLongitude - getLongitude()) < EPS;
     }
 
     private void onTimeOut() {
-        Simulator.instance.getAllocator().moveToDroppedAllocation(this.getId());
-        Simulator.instance.changeView(true);
+        simulator.getAllocator().moveToDroppedAllocation(this.getId());
+        simulator.changeView(true);
     }
 
     public boolean isTimedOut() {
-        return timedOut;
+        return kinematics.isTimedOut(handle);
     }
 
     public void setTimedOut(boolean timedOut) {
-        if(!this.timedOut && timedOut)
+        if(!isTimedOut() && timedOut)
             this.onTimeOut();
-        this.timedOut = timedOut;
+        kinematics.setTimedOut(handle, timedOut);
         if(!timedOut)
             heartbeat();
     }
 
+    public double getBattery() {
+        return kinematics.getBattery(handle);
+    }
+
     public void setBattery(double battery) {
-        this.battery = battery;
+        kinematics.setBattery(handle, battery);
     }
 
     // This method returns an approximation of the length of a planned path
     // It only calcualtes the coordinates that the agent will cover when it turnning its angle
     // Then the method just estimates the euclidean distance between the point at which the agent stops turning and the goal
     public double predictPathLength(Coordinate start, Coordinate goal, double speed) {
+        return predictPathLength(start, goal, this.getHeading(), speed);
+    }
+
+    /**
+     * Approximate length of the path from start to goal for an agent starting at the given heading.
+     */
+    public static double predictPathLength(Coordinate start, Coordinate goal, double heading, double speed) {
         int turningRouteLength = 0;
 
-        Coordinate aCoordinate = new Coordinate(start.getLatitude(), start.getLongitude());
-        double aHeading = this.heading;
+        //Position is tracked as primitives so no objects are created while turning.
+        double aLatitude = start.getLatitude();
+        double aLongitude = start.getLongitude();
+        double goalLatitude = goal.getLatitude();
+        double goalLongitude = goal.getLongitude();
+        double aHeading = heading;
 
-        double targetDir = aCoordinate.getAngle(goal);
+        double targetDir = Coordinate.getAngle(aLatitude, aLongitude, goalLatitude, goalLongitude);
         double angle = aHeading - targetDir;
 
         // Currently the speed of the agent is fixed, so when the goal is very close to the agent,
@@ -302,13 +429,10 @@ public abstract class Agent extends MObject implements Serializable {
 
             while (Math.abs(angle) > 0.02) {
 
-                targetDir = aCoordinate.getAngle(goal);
+                targetDir = Coordinate.getAngle(aLatitude, aLongitude, goalLatitude, goalLongitude);
 
                 angle = aHeading - targetDir;
 
-                Double updateLatitude;
-                Double updateLongitude;
-
                 if (Math.abs(angle) > 0.02) {
                     if (targetDir > 0) {
                         if (aHeading > 0) {
@@ -343,19 +467,47 @@ public abstract class Agent extends MObject implements Serializable {
                     }
 
 
-                    updateLatitude = aCoordinate.getLatitude() + speed * (Math.sin(aHeading) / (60.0 * 1852.0));
-                    updateLongitude = aCoordinate.getLongitude() + speed * (Math.cos(aHeading) / (60.0 * 1852.0));
+                    double updateLatitude = aLatitude + speed * (Math.sin(aHeading) / (60.0 * 1852.0));
+                    double updateLongitude = aLongitude + speed * (Math.cos(aHeading) / (60.0 * 1852.0));
 
                     turningRouteLength += 1;
-                    aCoordinate.setLatitude(updateLatitude);
-                    aCoordinate.setLongitude(updateLongitude);
+                    aLatitude = updateLatitude;
+                    aLongitude = updateLongitude;
                 }
 
             }
 
-            return turningRouteLength * speed + aCoordinate.getDistance(goal);
+            return turningRouteLength * speed + Coordinate.getDistance(aLatitude, aLongitude, goalLatitude, goalLongitude);
         } else {
             return start.getDistance(goal);
         }
     }
-}
+
+    public JsonObject serialize(JsonSerializationContext context) {
+        JsonObject jsonObj = new JsonObject();
+        jsonObj.add("altitude", context.serialize(altitude));
+        jsonObj.add("battery", context.serialize(getBattery()));
+        jsonObj.add("heading", context.serialize(getHeading()));
+        jsonObj.add("manuallyControlled", context.serialize(isManuallyControlled()));
+        jsonObj.add("route", context.serialize(route));
+        jsonObj.add("tempRoute", context.serialize(tempRoute));
+        jsonObj.add("speed", context.serialize(getSpeed()));
+        jsonObj.add("allocatedTaskId", context.serialize(allocatedTaskId));
+        jsonObj.add("timeInAir", context.serialize(timeInAir));
+        jsonObj.add("simulated", context.serialize(isSimulated()));
+        jsonObj.add("timedOut", context.serialize(isTimedOut()));
+        jsonObj.add("working", context.serialize(isWorking()));
+        jsonObj.add("coordinate", context.serialize(getCoordinate()));
+        jsonObj.add("targetType", context.serialize(getTargetType()));
+        jsonObj.add("id", context.serialize(getId()));
+        return jsonObj;
+    }
+
+    @SuppressWarnings("Convert2Lambda")
+    public static JsonSerializer<Agent> agentSerializer = new JsonSerializer<Agent>() {
+        @Override
+        public JsonElement serialize(Agent agent, Type type, JsonSerializationContext context) {
+            return agent.serialize(context);
+        }
+    };
+}
\ No newline at end of file
@@ -0,0 +1,585 @@
+package server.model;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Columnar store of the kinematic state of every agent in a simulation.
+ * Each agent is given a dense int handle when it is created and its position, heading, speed and battery are kept
+ *  in parallel arrays at that index. Agent objects are views onto the store.
+ * During a tick each agent records how it wants to move (seek a goal or steer to a heading), then
+ *  integrate moves all of them in one loop over the arrays, without creating any objects.
+ * Handles of removed agents are released and given to agents added later, so an agent must not be used once it has
+ *  been released.
+ * The arrays are volatile as they are swapped for larger copies when the store grows, which readers on other threads
+ *  (e.g. serialising the state) must see. Flags are kept in bitsets, a bit per handle. Agents stepped on different
+ *  threads share words of the bitsets, so bits are set with compare and swap to not lose each other's writes.
+ * If a local frame is set, positions are also kept in meters within the frame and agents inside it are turned
+ *  and moved with planar math rather than great circles.
+ */
+public class AgentKinematics {
+
+    static final byte MOTION_NONE = 0;
+    //Turn towards the goal, moving once aligned with it.
+    static final byte MOTION_SEEK = 1;
+    //Turn towards the target heading and move.
+    static final byte MOTION_STEER = 2;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final double EARTH_RADIUS = 6379.1; //km
+    public static final double STEP_DISTANCE = 1; //Meters moved per tick
+    //Largest difference between heading and bearing (radians) at which an agent counts as facing its goal.
+    private static final double ALIGNED_TOLERANCE = 1e-3;
+
+    private int size;
+    private volatile double[] latitude;
+    private volatile double[] longitude;
+    private volatile double[] heading; //Degrees
+    private volatile double[] speed;
+    private volatile double[] battery;
+    private volatile double[] distanceTravelled; //Meters
+    //Position in meters in the local frame - only kept up to date while a frame is set.
+    private volatile double[] x;
+    private volatile double[] y;
+    private volatile LocalFrame frame;
+
+    //Motion requested for this tick - written by each agent's step.
+    private volatile byte[] motion;
+    private volatile double[] goalLatitude;
+    private volatile double[] goalLongitude;
+    private volatile double[] targetHeading; //Radians
+
+    private volatile AtomicLongArray simulated;
+    private volatile AtomicLongArray stopped;
+    private volatile AtomicLongArray searching;
+    private volatile AtomicLongArray working;
+    private volatile AtomicLongArray timedOut;
+    private volatile AtomicLongArray manuallyControlled;
+
+    //Handles released by removed agents, reused before the store grows.
+    private int[] free;
+    private int freeCount;
+
+    //Agents changed from outside their own step since the changes were last taken - a bit per handle and a list of
+    // handles, guarded by the store's lock.
+    private long[] changedBits;
+    private int[] changed;
+    private int changedCount;
+
+    public AgentKinematics() {
+        frame = LocalFrame.NONE;
+        clear();
+    }
+
+    /**
+     * Add an agent to the store.
+     * @return Handle of the agent.
+     */
+    public synchronized int allocate(double lat, double lng, boolean isSimulated) {
+        int handle;
+        if (freeCount > 0)
+            handle = free[--freeCount];
+        else {
+            if (size == latitude.length)
+                grow(size * 2);
+            handle = size++;
+        }
+        setPosition(handle, lat, lng);
+        setBit(simulated, handle, isSimulated);
+        return handle;
+    }
+
+    /**
+     * Remove an agent from the store, so its handle can be given to an agent added later.
+     * The agent must not be used afterwards.
+     */
+    public synchronized void release(int handle) {
+        if (handle >= size)
+            return;
+        for (int i = 0; i < freeCount; i++)
+            if (free[i] == handle)
+                return;
+        //Clear the slot, so the agent given it starts from the same state as one given a new slot.
+        latitude[handle] = longitude[handle] = heading[handle] = speed[handle] = battery[handle] = 0;
+        distanceTravelled[handle] = x[handle] = y[handle] = 0;
+        motion[handle] = MOTION_NONE;
+        goalLatitude[handle] = goalLongitude[handle] = targetHeading[handle] = 0;
+        for (AtomicLongArray flags : new AtomicLongArray[] {simulated, stopped, searching, working, timedOut, manuallyControlled})
+            setBit(flags, handle, false);
+        unmarkChanged(handle);
+        if (freeCount == free.length)
+            free = Arrays.copyOf(free, Math.max(16, freeCount * 2));
+        free[freeCount++] = handle;
+    }
+
+    /**
+     * Remove all agents - handles given out before this are no longer valid.
+     */
+    public synchronized void clear() {
+        size = 0;
+        latitude = new double[INITIAL_CAPACITY];
+        longitude = new double[INITIAL_CAPACITY];
+        heading = new double[INITIAL_CAPACITY];
+        speed = new double[INITIAL_CAPACITY];
+        battery = new double[INITIAL_CAPACITY];
+        distanceTravelled = new double[INITIAL_CAPACITY];
+        x = new double[INITIAL_CAPACITY];
+        y = new double[INITIAL_CAPACITY];
+        motion = new byte[INITIAL_CAPACITY];
+        goalLatitude = new double[INITIAL_CAPACITY];
+        goalLongitude = new double[INITIAL_CAPACITY];
+        targetHeading = new double[INITIAL_CAPACITY];
+        simulated = new AtomicLongArray(INITIAL_CAPACITY / 64);
+        stopped = new AtomicLongArray(INITIAL_CAPACITY / 64);
+        searching = new AtomicLongArray(INITIAL_CAPACITY / 64);
+        working = new AtomicLongArray(INITIAL_CAPACITY / 64);
+        timedOut = new AtomicLongArray(INITIAL_CAPACITY / 64);
+        manuallyControlled = new AtomicLongArray(INITIAL_CAPACITY / 64);
+        free = new int[0];
+        freeCount = 0;
+        changedBits = new long[INITIAL_CAPACITY / 64];
+        changed = new int[INITIAL_CAPACITY];
+        changedCount = 0;
+    }
+
+    private void grow(int capacity) {
+        latitude = Arrays.copyOf(latitude, capacity);
+        longitude = Arrays.copyOf(longitude, capacity);
+        heading = Arrays.copyOf(heading, capacity);
+        speed = Arrays.copyOf(speed, capacity);
+        battery = Arrays.copyOf(battery, capacity);
+        distanceTravelled = Arrays.copyOf(distanceTravelled, capacity);
+        x = Arrays.copyOf(x, capacity);
+        y = Arrays.copyOf(y, capacity);
+        motion = Arrays.copyOf(motion, capacity);
+        goalLatitude = Arrays.copyOf(goalLatitude, capacity);
+        goalLongitude = Arrays.copyOf(goalLongitude, capacity);
+        targetHeading = Arrays.copyOf(targetHeading, capacity);
+        simulated = copyOf(simulated, capacity);
+        stopped = copyOf(stopped, capacity);
+        searching = copyOf(searching, capacity);
+        working = copyOf(working, capacity);
+        timedOut = copyOf(timedOut, capacity);
+        manuallyControlled = copyOf(manuallyControlled, capacity);
+        changedBits = Arrays.copyOf(changedBits, (capacity + 63) / 64);
+        changed = Arrays.copyOf(changed, capacity);
+    }
+
+    private static AtomicLongArray copyOf(AtomicLongArray bits, int capacity) {
+        AtomicLongArray copy = new AtomicLongArray((capacity + 63) / 64);
+        for (int i = 0; i < bits.length(); i++)
+            copy.set(i, bits.get(i));
+        return copy;
+    }
+
+    private static boolean getBit(AtomicLongArray bits, int handle) {
+        return (bits.get(handle >>> 6) & (1L << handle)) != 0;
+    }
+
+    private static void setBit(AtomicLongArray bits, int handle, boolean value) {
+        int word = handle >>> 6;
+        long bit = 1L << handle;
+        long current;
+        do {
+            current = bits.get(word);
+            if (((current & bit) != 0) == value)
+                return;
+        } while (!bits.compareAndSet(word, current, current ^ bit));
+    }
+
+    /**
+     * Record that something the level of detail decides how often the agent is stepped from (its position, task,
+     *  route or flags) has changed.
+     */
+    synchronized void markChanged(int handle) {
+        long bit = 1L << handle;
+        if ((changedBits[handle >>> 6] & bit) != 0)
+            return;
+        changedBits[handle >>> 6] |= bit;
+        changed[changedCount++] = handle;
+    }
+
+    private void unmarkChanged(int handle) {
+        long bit = 1L << handle;
+        if ((changedBits[handle >>> 6] & bit) == 0)
+            return;
+        changedBits[handle >>> 6] &= ~bit;
+        for (int i = 0; i < changedCount; i++) {
+            if (changed[i] == handle) {
+                System.arraycopy(changed, i + 1, changed, i, changedCount - i - 1);
+                changedCount--;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Take the handles of the agents marked as changed since this was last called, each once.
+     */
+    public synchronized int[] takeChanged() {
+        int[] taken = Arrays.copyOf(changed, changedCount);
+        for (int handle : taken)
+            changedBits[handle >>> 6] &= ~(1L << handle);
+        changedCount = 0;
+        return taken;
+    }
+
+    /**
+     * Set the frame used for planar math, or LocalFrame.NONE to always use spherical math.
+     * Must not be called while agents are being stepped.
+     */
+    public synchronized void setLocalFrame(LocalFrame frame) {
+        this.frame = frame;
+        if (frame.isEnabled()) {
+            for (int h = 0; h < size; h++) {
+                x[h] = frame.toX(longitude[h]);
+                y[h] = frame.toY(latitude[h]);
+            }
+        }
+    }
+
+    public LocalFrame getLocalFrame() {
+        return frame;
+    }
+
+    /**
+     * Turn the agent towards the given goal this tick, moving once it is aligned.
+     */
+    void seek(int handle, double goalLat, double goalLng) {
+        motion[handle] = MOTION_SEEK;
+        goalLatitude[handle] = goalLat;
+        goalLongitude[handle] = goalLng;
+    }
+
+    /**
+     * Turn the agent towards the given heading this tick and move.
+     * @param heading - Radians.
+     */
+    void steer(int handle, double heading) {
+        motion[handle] = MOTION_STEER;
+        targetHeading[handle] = heading;
+    }
+
+    /**
+     * Apply the motion requested this tick by each of the given agents and drain the batteries of simulated agents.
+     * Each handle must only be integrated by one thread per tick.
+     * @param handles - Handles of the agents, integrates those in [from, to).
+     */
+    public void integrate(int[] handles, int from, int to) {
+        LocalFrame frame = this.frame;
+        if (frame.isEnabled()) {
+            integrateInFrame(frame, handles, from, to);
+            return;
+        }
+        double[] latitude = this.latitude;
+        double[] longitude = this.longitude;
+        double[] battery = this.battery;
+        byte[] motion = this.motion;
+        AtomicLongArray simulated = this.simulated;
+        for (int i = from; i < to; i++) {
+            int h = handles[i];
+            switch (motion[h]) {
+                case MOTION_SEEK:
+                    if (adjustHeading(h, getBearing(latitude[h], longitude[h], goalLatitude[h], goalLongitude[h])))
+                        moveAlongHeading(h, STEP_DISTANCE);
+                    break;
+                case MOTION_STEER:
+                    adjustHeading(h, targetHeading[h]);
+                    moveAlongHeading(h, STEP_DISTANCE);
+                    break;
+                default:
+                    break;
+            }
+            motion[h] = MOTION_NONE;
+            if (getBit(simulated, h))
+                battery[h] = battery[h] > 0 ? battery[h] - Agent.unitTimeBatteryConsumption : 0;
+        }
+    }
+
+    /**
+     * Same as integrate, but agents inside the frame turn and move with planar math on their positions in meters.
+     */
+    private void integrateInFrame(LocalFrame frame, int[] handles, int from, int to) {
+        double[] x = this.x;
+        double[] y = this.y;
+        double[] battery = this.battery;
+        byte[] motion = this.motion;
+        AtomicLongArray simulated = this.simulated;
+        for (int i = from; i < to; i++) {
+            int h = handles[i];
+            switch (motion[h]) {
+                case MOTION_SEEK:
+                    if (adjustHeading(h, getBearingInFrame(frame, h, goalLatitude[h], goalLongitude[h])))
+                        moveInFrame(frame, h, STEP_DISTANCE);
+                    break;
+                case MOTION_STEER:
+                    adjustHeading(h, targetHeading[h]);
+                    moveInFrame(frame, h, STEP_DISTANCE);
+                    break;
+                default:
+                    break;
+            }
+            motion[h] = MOTION_NONE;
+            if (getBit(simulated, h))
+                battery[h] = battery[h] > 0 ? battery[h] - Agent.unitTimeBatteryConsumption : 0;
+        }
+    }
+
+    /**
+     * @return Bearing from the agent to the goal in radians - planar if both are inside the frame.
+     */
+    private double getBearingInFrame(LocalFrame frame, int h, double goalLat, double goalLng) {
+        double goalX = frame.toX(goalLng);
+        double goalY = frame.toY(goalLat);
+        if (frame.contains(x[h], y[h]) && frame.contains(goalX, goalY))
+            return Math.atan2(goalX - x[h], goalY - y[h]);
+        return getBearing(latitude[h], longitude[h], goalLat, goalLng);
+    }
+
+    /**
+     * @return Bearing from the agent to the goal in radians, as used when the agent seeks the goal.
+     */
+    private double getSeekBearing(int h, double goalLat, double goalLng) {
+        LocalFrame frame = this.frame;
+        if (frame.isEnabled())
+            return getBearingInFrame(frame, h, goalLat, goalLng);
+        return getBearing(latitude[h], longitude[h], goalLat, goalLng);
+    }
+
+    /**
+     * Whether seeking the goal for the given number of ticks would only move the agent straight towards it - the
+     *  agent already faces the goal and won't reach it in that time.
+     */
+    boolean canAdvance(int h, int ticks, double goalLat, double goalLng) {
+        if (Coordinate.getDistance(latitude[h], longitude[h], goalLat, goalLng) <= (ticks + 1) * STEP_DISTANCE)
+            return false;
+        double diff = Math.abs(Math.toRadians(heading[h]) - getSeekBearing(h, goalLat, goalLng));
+        return Math.min(diff, 2 * Math.PI - diff) <= ALIGNED_TOLERANCE;
+    }
+
+    /**
+     * Apply the given number of ticks of motion in one go, for an agent that has not been integrated for a while.
+     * If seeking, the agent moves the distance it would have covered straight towards the goal (canAdvance must
+     *  be true), otherwise it stays where it is. Simulated agents' batteries are drained for every tick.
+     */
+    void advance(int h, int ticks, boolean seek, double goalLat, double goalLng) {
+        if (seek) {
+            heading[h] = Math.toDegrees(getSeekBearing(h, goalLat, goalLng));
+            LocalFrame frame = this.frame;
+            if (frame.isEnabled())
+                moveInFrame(frame, h, ticks * STEP_DISTANCE);
+            else
+                moveAlongHeading(h, ticks * STEP_DISTANCE);
+            heading[h] = Math.toDegrees(getSeekBearing(h, goalLat, goalLng));
+        }
+        if (getBit(simulated, h))
+            battery[h] = Math.max(0, battery[h] - ticks * Agent.unitTimeBatteryConsumption);
+    }
+
+    /**
+     * Move the agent in the direction it is facing - in a straight line inside the frame, along a great circle
+     *  outside it.
+     * @param distance - Distance to move in m.
+     */
+    private void moveInFrame(LocalFrame frame, int h, double distance) {
+        if (frame.contains(x[h], y[h])) {
+            double hdg = Math.toRadians(heading[h]);
+            x[h] += distance * Math.sin(hdg);
+            y[h] += distance * Math.cos(hdg);
+            latitude[h] = frame.toLatitude(y[h]);
+            longitude[h] = frame.toLongitude(x[h]);
+            distanceTravelled[h] += distance;
+        }
+        else {
+            moveAlongHeading(h, distance);
+            x[h] = frame.toX(longitude[h]);
+            y[h] = frame.toY(latitude[h]);
+        }
+    }
+
+    /**
+     * @return Initial bearing from the first position to the second in radians.
+     */
+    private static double getBearing(double lat, double lng, double goalLat, double goalLng) {
+        double lat1 = Math.toRadians(lat);
+        double lng1 = Math.toRadians(lng);
+        double lat2 = Math.toRadians(goalLat);
+        double lng2 = Math.toRadians(goalLng);
+        double dLng = (lng2 - lng1);
+        double y = Math.sin(dLng) * Math.cos(lat2);
+        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1)
+                * Math.cos(lat2) * Math.cos(dLng);
+        return Math.atan2(y, x);
+    }
+
+    /**
+     * Turn the agent by at most the unit turning angle towards the given heading.
+     * @return isAligned - Whether the agent is aligned or needs to continue rotating.
+     */
+    private boolean adjustHeading(int h, double angleToGoal) {
+        boolean isAligned;
+        double hdgRad = Math.toRadians(heading[h]);
+
+        //Calculate difference in clockwise (CW) and counter clockwise (CCW) directions.
+        double diffCW, diffCCW;
+        if(hdgRad < angleToGoal) {
+            diffCW = Math.abs(angleToGoal - hdgRad);
+            diffCCW = 2*Math.PI - diffCW;
+        }
+        else if(hdgRad > angleToGoal) {
+            diffCCW = Math.abs(angleToGoal - hdgRad);
+            diffCW = 2*Math.PI - diffCCW;
+        }
+        else
+            diffCW = diffCCW = 0;
+
+        if(Math.min(diffCW, diffCCW) <= Agent.unitTurningAngle) {
+            hdgRad = angleToGoal;
+            isAligned = true;
+        }
+        else {
+            //Move in direction with smallest difference
+            if(diffCW < diffCCW)
+                hdgRad += Agent.unitTurningAngle;
+            else
+                hdgRad -= Agent.unitTurningAngle;
+            isAligned = false;
+        }
+
+        //Account for crossing -pi/pi threshold.
+        if(hdgRad > Math.PI)
+            hdgRad -= 2*Math.PI;
+        else if(hdgRad < -Math.PI)
+            hdgRad += 2*Math.PI;
+
+        heading[h] = Math.toDegrees(hdgRad);
+        return isAligned;
+    }
+
+    /**
+     * Move the agent in the direction it is facing along a great circle.
+     * @param distance - Distance to move in m.
+     */
+    private void moveAlongHeading(int h, double distance) {
+        double d = (distance/1000)/EARTH_RADIUS;
+        double hdg = Math.toRadians(heading[h]);
+        double lat1 = Math.toRadians(latitude[h]);
+        double lng1 = Math.toRadians(longitude[h]);
+
+        double latDest = Math.asin(
+                Math.sin(lat1) * Math.cos(d) +
+                Math.cos(lat1) * Math.sin(d) * Math.cos(hdg));
+        double lngDest = lng1 + Math.atan2(
+                Math.sin(hdg) * Math.sin(d) * Math.cos(lat1),
+                Math.cos(d) - Math.sin(lat1) * Math.sin(latDest));
+        latitude[h] = Math.toDegrees(latDest);
+        longitude[h] = Math.toDegrees(lngDest);
+        distanceTravelled[h] += distance;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    double getLatitude(int handle) {
+        return latitude[handle];
+    }
+
+    double getLongitude(int handle) {
+        return longitude[handle];
+    }
+
+    void setPosition(int handle, double lat, double lng) {
+        latitude[handle] = lat;
+        longitude[handle] = lng;
+        LocalFrame frame = this.frame;
+        if (frame.isEnabled()) {
+            x[handle] = frame.toX(lng);
+            y[handle] = frame.toY(lat);
+        }
+        markChanged(handle);
+    }
+
+    double getHeading(int handle) {
+        return heading[handle];
+    }
+
+    void setHeading(int handle, double value) {
+        heading[handle] = value;
+    }
+
+    double getSpeed(int handle) {
+        return speed[handle];
+    }
+
+    void setSpeed(int handle, double value) {
+        speed[handle] = value;
+    }
+
+    double getBattery(int handle) {
+        return battery[handle];
+    }
+
+    void setBattery(int handle, double value) {
+        battery[handle] = value;
+    }
+
+    double getDistanceTravelled(int handle) {
+        return distanceTravelled[handle];
+    }
+
+    void addDistanceTravelled(int handle, double distance) {
+        distanceTravelled[handle] += distance;
+    }
+
+    boolean isSimulated(int handle) {
+        return getBit(simulated, handle);
+    }
+
+    boolean isStopped(int handle) {
+        return getBit(stopped, handle);
+    }
+
+    void setStopped(int handle, boolean value) {
+        if (getBit(stopped, handle) != value)
+            markChanged(handle);
+        setBit(stopped, handle, value);
+    }
+
+    boolean isSearching(int handle) {
+        return getBit(searching, handle);
+    }
+
+    void setSearching(int handle, boolean value) {
+        setBit(searching, handle, value);
+    }
+
+    boolean isWorking(int handle) {
+        return getBit(working, handle);
+    }
+
+    void setWorking(int handle, boolean value) {
+        if (getBit(working, handle) != value)
+            markChanged(handle);
+        setBit(working, handle, value);
+    }
+
+    boolean isTimedOut(int handle) {
+        return getBit(timedOut, handle);
+    }
+
+    void setTimedOut(int handle, boolean value) {
+        setBit(timedOut, handle, value);
+    }
+
+    boolean isManuallyControlled(int handle) {
+        return getBit(manuallyControlled, handle);
+    }
+
+    void setManuallyControlled(int handle, boolean value) {
+        if (getBit(manuallyControlled, handle) != value)
+            markChanged(handle);
+        setBit(manuallyControlled, handle, value);
+    }
+
+}
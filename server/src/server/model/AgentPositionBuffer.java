@@ -0,0 +1,166 @@
+package server.model;
+
+/**
+ * Double buffered copy of the agents' positions and headings.
+ * During a tick agents read their neighbours from the front buffer and write their own new state to the
+ *  back buffer, the buffers are then swapped at the end of the tick. An agent's step therefore never depends on
+ *  which of its neighbours have already been stepped, so agents can be stepped in any order (or in parallel).
+ * The front buffer is indexed by a spatial hash grid, rebuilt once per tick (or updated for just the agents stepped),
+ *  for neighbour queries.
+ */
+public class AgentPositionBuffer {
+
+    //Should be at least the sensing radius used by flocking so most queries only check a few cells.
+    private static final double GRID_CELL_SIZE = 50;
+
+    private final SpatialHashGrid grid;
+    private LocalFrame frame;
+    private Agent[] agents;
+    private Frame front;
+    private Frame back;
+
+    private static class Frame {
+        private final double[] latitude;
+        private final double[] longitude;
+        private final double[] heading;
+        private final boolean[] hasTask;
+
+        private Frame(int size) {
+            latitude = new double[size];
+            longitude = new double[size];
+            heading = new double[size];
+            hasTask = new boolean[size];
+        }
+
+        private void capture(int index, Agent agent) {
+            latitude[index] = agent.getLatitude();
+            longitude[index] = agent.getLongitude();
+            heading[index] = agent.getHeading();
+            hasTask[index] = agent.getTask() != null;
+        }
+    }
+
+    public AgentPositionBuffer() {
+        agents = new Agent[0];
+        front = new Frame(0);
+        back = new Frame(0);
+        grid = new SpatialHashGrid(GRID_CELL_SIZE);
+        frame = LocalFrame.NONE;
+    }
+
+    /**
+     * Make sure the buffer holds the given agents (in the given order).
+     * If the agents (or the local frame distances are measured in) have changed since the last tick both frames
+     *  are rebuilt from the agents' current state.
+     */
+    public void sync(Agent[] agents, LocalFrame frame) {
+        if (sameAgents(agents) && frame == this.frame)
+            return;
+        this.frame = frame;
+        Frame newFront = new Frame(agents.length);
+        for (int i = 0; i < agents.length; i++)
+            newFront.capture(i, agents[i]);
+        this.front = newFront;
+        this.back = new Frame(agents.length);
+        this.agents = agents;
+        grid.build(front.latitude, front.longitude, agents.length, frame);
+    }
+
+    private boolean sameAgents(Agent[] agents) {
+        if (agents.length != this.agents.length)
+            return false;
+        for (int i = 0; i < agents.length; i++)
+            if (agents[i] != this.agents[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Write the current state of the agent at the given index to the back buffer.
+     * Each index must only be written by one thread per tick.
+     */
+    public void write(int index) {
+        back.capture(index, agents[index]);
+    }
+
+    /**
+     * Copy the state written to the back buffer for the agents at the given indices to the front buffer, instead of
+     *  swapping, for a tick where only those agents were stepped. The other agents keep their front buffer state, so
+     *  this costs as much as the agents stepped rather than all agents.
+     * @param count - Number of indices to copy, from the start of the array.
+     */
+    public void commit(int[] indices, int count) {
+        for (int c = 0; c < count; c++) {
+            int i = indices[c];
+            front.latitude[i] = back.latitude[i];
+            front.longitude[i] = back.longitude[i];
+            front.heading[i] = back.heading[i];
+            front.hasTask[i] = back.hasTask[i];
+            grid.update(i);
+        }
+    }
+
+    /**
+     * Make the back buffer the new front buffer - should be called once all agents have been stepped.
+     */
+    public void swap() {
+        Frame tmp = front;
+        front = back;
+        back = tmp;
+        grid.build(front.latitude, front.longitude, agents.length, frame);
+    }
+
+    /**
+     * Find the agents within radius of a position, based on the front buffer.
+     * @param radius - Radius in meters.
+     * @return Indices and distances of the agents found, ordered by index.
+     */
+    public SpatialHashGrid.Result query(double lat, double lng, double radius) {
+        return grid.query(lat, lng, radius);
+    }
+
+    /**
+     * Find the agents within radius of a position, based on the front buffer, replacing the contents of result.
+     * @param radius - Radius in meters.
+     * @return result - Indices and distances of the agents found, ordered by index.
+     */
+    public SpatialHashGrid.Result query(double lat, double lng, double radius, SpatialHashGrid.Result result) {
+        return grid.query(lat, lng, radius, result);
+    }
+
+    /**
+     * Find the k agents nearest to a position, based on the front buffer.
+     * @return Indices of the agents found, nearest first.
+     */
+    public int[] nearest(double lat, double lng, int k) {
+        return grid.nearest(lat, lng, k);
+    }
+
+    public int size() {
+        return agents.length;
+    }
+
+    public Agent getAgent(int index) {
+        return agents[index];
+    }
+
+    public double getLatitude(int index) {
+        return front.latitude[index];
+    }
+
+    public double getLongitude(int index) {
+        return front.longitude[index];
+    }
+
+    /**
+     * @return heading in degrees
+     */
+    public double getHeading(int index) {
+        return front.heading[index];
+    }
+
+    public boolean hasTask(int index) {
+        return front.hasTask[index];
+    }
+
+}
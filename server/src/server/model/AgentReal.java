@@ -3,14 +3,15 @@ package server.model;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import server.QueueManager.MessagePublisher;
+import server.Simulator;
 
 public class AgentReal extends Agent {
 
     private transient MessagePublisher messagePublisher;
     private long lastPublish = System.currentTimeMillis();
 
-    public AgentReal(String id, Coordinate coordinate, MessagePublisher messagePublisher) {
-        super(id, coordinate, false);
+    public AgentReal(Simulator simulator, String id, Coordinate coordinate, MessagePublisher messagePublisher) {
+        super(simulator, id, coordinate, false);
         this.messagePublisher = messagePublisher;
     }
 
@@ -21,7 +22,8 @@ public class AgentReal extends Agent {
         } else {
             //TODO make more efficient - is it necessary to continually publish the route if it hasn't changed?
             long now = System.currentTimeMillis();
-            if (now - lastPublish > 1000) {
+            //No publisher without a message queue (when replaying a recording).
+            if (messagePublisher != null && now - lastPublish > 1000) {
                 this.messagePublisher.publishMessage("UAV_TaskQueue_" + this.getId(), this.getRouteTaskJson(true).toString());
                 lastPublish = now;
             }
@@ -1,7 +1,7 @@
 package server.model;
 
-import java.util.ArrayList;
-import java.util.List;
+import server.Simulator;
+
 import java.util.logging.Logger;
 
 public class AgentVirtual extends Agent {
@@ -9,57 +9,45 @@ public class AgentVirtual extends Agent {
     private transient Logger LOGGER = Logger.getLogger(AgentVirtual.class.getName());
 
     private transient Sensor sensor;
+    //Refilled by each flocking step so sensing doesn't create objects - created on first use.
+    private transient Sensor.Neighbours neighbours;
 
-    public AgentVirtual(String id, Coordinate position, Sensor sensor) {
-        super(id, position, true);
+    public AgentVirtual(Simulator simulator, String id, Coordinate position, Sensor sensor) {
+        super(simulator, id, position, true);
         this.sensor = sensor;
     }
 
     @Override
     public void step(Boolean flockingEnabled) {
         super.step(flockingEnabled);
-        //Simulate things that would be done by a real drone
+        //Simulate things that would be done by a real drone - battery is drained when the store is integrated.
         if(!isTimedOut())
-            heartbeat();
-        this.battery = this.battery > 0 ? this.battery - unitTimeBatteryConsumption : 0;
+            heartbeat(getTickTimeMillis());
     }
 
     @Override
     void moveTowardsDestination() {
         //Align agent, if aligned then moved towards target
-        if(!isStopped() && this.adjustHeadingTowardsGoal())
-            this.moveAlongHeading(1);
+        if(!isStopped()) {
+            Route route = getRoute();
+            synchronized (route) {
+                kinematics.seek(handle, route.getLatitude(0), route.getLongitude(0));
+            }
+        }
     }
 
     @Override
     void performFlocking() {
-        //Align agent, if aligned then moved towards target
-        if(!isStopped() && this.adjustFlockingHeading())
-            this.moveAlongHeading(1);
-    }
-
-    /**
-     * Adjust heading of agent towards the heading that will take it towards its goal.
-     * @return isAligned - Whether the agent is aligned or needs to continue rotating.
-     */
-    private boolean adjustHeadingTowardsGoal() {
-        double lat1 = Math.toRadians(this.getCoordinate().getLatitude());
-        double lng1 = Math.toRadians(this.getCoordinate().getLongitude());
-        double lat2 = Math.toRadians(this.getCurrentDestination().getLatitude());
-        double lng2 = Math.toRadians(this.getCurrentDestination().getLongitude());
-        double dLng = (lng2 - lng1);
-        double y = Math.sin(dLng) * Math.cos(lat2);
-        double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1)
-                * Math.cos(lat2) * Math.cos(dLng);
-        double angleToGoal = Math.atan2(y, x);
-        return adjustHeading(angleToGoal);
+        //Align agent with its neighbours and move
+        if(!isStopped())
+            kinematics.steer(handle, this.getFlockingHeading());
     }
 
     /**
-     * Adjust heading of agent towards the average heading of its neighbours.
-     * @return isAligned - Whether the agent is aligned or needs to continue rotating.
+     * Find the heading that aligns the agent with the average heading of its neighbours.
+     * @return heading in radians
      */
-    private boolean adjustFlockingHeading() {
+    private double getFlockingHeading() {
         double xSum = 0.0;
         double ySum = 0.0;
         double magnitude = 0.0;
@@ -69,21 +57,27 @@ public class AgentVirtual extends Agent {
         double yRepulse = 0.0;
         double xAttract = 0.0;
         double yAttract = 0.0;
-        double targetHeading = Math.toRadians(this.heading);
+        double targetHeading = Math.toRadians(this.getHeading());
 
-        List<Agent> neighbours = this.sensor.senseNeighbours(this, 50.0);
+        //Neighbours are read from the position buffer so the result doesn't depend on the order agents are stepped in.
+        //Neighbours within 5m repulse, the rest attract - both are found from the same 50m query.
+        AgentPositionBuffer buffer = this.sensor.getBuffer();
+        if (neighbours == null)
+            neighbours = this.sensor.createNeighbours();
+        this.sensor.senseNeighbours(this, 50.0, neighbours);
 
         if (neighbours.size() > 0) {
 
-            for (Agent neighbour : neighbours) {
+            for (int n = 0; n < neighbours.size(); n++) {
+                int neighbour = neighbours.getIndex(n);
                 double multiplier = 1;
-                if (neighbour.getTask() != null) {
+                if (buffer.hasTask(neighbour)) {
                     multiplier = 100;
                 }
                 else {
                     multiplier = 1;
                 }
-                double neighbourHeading = Math.toRadians(neighbour.getHeading());
+                double neighbourHeading = Math.toRadians(buffer.getHeading(neighbour));
                 xSum += Math.cos(neighbourHeading) * multiplier;
                 ySum += Math.sin(neighbourHeading) * multiplier;
             }
@@ -91,38 +85,36 @@ public class AgentVirtual extends Agent {
             xAlign = xSum/magnitude;
             yAlign = ySum/magnitude;
 
-            List<Agent> tooCloseNeighbours = this.sensor.senseNeighbours(this, 5.0);
-            List<Agent> notTooClose = new ArrayList<>(neighbours);
-
-            if (tooCloseNeighbours.size() > 0) {
-                notTooClose.removeAll(tooCloseNeighbours);
-
-                xSum = 0.0;
-                ySum = 0.0;
-
-                for(Agent neighbour : tooCloseNeighbours) {
-                    double lat1 = Math.toRadians(this.getCoordinate().getLatitude());
-                    double lng1 = Math.toRadians(this.getCoordinate().getLongitude());
-                    double lat2 = Math.toRadians(neighbour.getCoordinate().getLatitude());
-                    double lng2 = Math.toRadians(neighbour.getCoordinate().getLongitude());
-                    double dLng = (lng2 - lng1);
-                    ySum -= Math.sin(dLng) * Math.cos(lat2);
-                    xSum -= Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1)
-                            * Math.cos(lat2) * Math.cos(dLng);
-                    magnitude = Math.sqrt(xSum * xSum + ySum * ySum);
-                    xRepulse = xSum/magnitude;
-                    yRepulse = ySum/magnitude;
-                }
+            double lat1 = Math.toRadians(this.getLatitude());
+            double lng1 = Math.toRadians(this.getLongitude());
+
+            xSum = 0.0;
+            ySum = 0.0;
+
+            for(int n = 0; n < neighbours.size(); n++) {
+                if(neighbours.getDistance(n) > 5.0)
+                    continue;
+                int neighbour = neighbours.getIndex(n);
+                double lat2 = Math.toRadians(buffer.getLatitude(neighbour));
+                double lng2 = Math.toRadians(buffer.getLongitude(neighbour));
+                double dLng = (lng2 - lng1);
+                ySum -= Math.sin(dLng) * Math.cos(lat2);
+                xSum -= Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1)
+                        * Math.cos(lat2) * Math.cos(dLng);
+                magnitude = Math.sqrt(xSum * xSum + ySum * ySum);
+                xRepulse = xSum/magnitude;
+                yRepulse = ySum/magnitude;
             }
 
             xSum = 0.0;
             ySum = 0.0;
 
-            for(Agent neighbour : notTooClose) {
-                double lat1 = Math.toRadians(this.getCoordinate().getLatitude());
-                double lng1 = Math.toRadians(this.getCoordinate().getLongitude());
-                double lat2 = Math.toRadians(neighbour.getCoordinate().getLatitude());
-                double lng2 = Math.toRadians(neighbour.getCoordinate().getLongitude());
+            for(int n = 0; n < neighbours.size(); n++) {
+                if(neighbours.getDistance(n) <= 5.0)
+                    continue;
+                int neighbour = neighbours.getIndex(n);
+                double lat2 = Math.toRadians(buffer.getLatitude(neighbour));
+                double lng2 = Math.toRadians(buffer.getLongitude(neighbour));
                 double dLng = (lng2 - lng1);
                 ySum += Math.sin(dLng) * Math.cos(lat2);
                 xSum += Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1)
@@ -137,74 +129,7 @@ public class AgentVirtual extends Agent {
                     xAlign + 0.5 * xAttract + xRepulse
             );
         }
-        adjustHeading(targetHeading);
-        return true;
-    }
-
-    /**
-     * Adjust heading of agent.
-     * @return isAligned - Whether the agent is aligned or needs to continue rotating.
-     */
-    private boolean adjustHeading(double angleToGoal) {
-        Boolean isAligned;
-        double hdgRad = Math.toRadians(this.heading);
-
-        //Calculate difference in clockwise (CW) and counter clockwise (CCW) directions.
-        double diffCW, diffCCW;
-        if(hdgRad < angleToGoal) {
-            diffCW = Math.abs(angleToGoal - hdgRad);
-            diffCCW = 2*Math.PI - diffCW;
-        }
-        else if(hdgRad > angleToGoal) {
-            diffCCW = Math.abs(angleToGoal - hdgRad);
-            diffCW = 2*Math.PI - diffCCW;
-        }
-        else
-            diffCW = diffCCW = 0;
-
-        if(Math.min(diffCW, diffCCW) <= unitTurningAngle) {
-            hdgRad = angleToGoal;
-            isAligned = true;
-        }
-        else {
-            //Move in direction with smallest difference
-            if(diffCW < diffCCW)
-                hdgRad += unitTurningAngle;
-            else
-                hdgRad -= unitTurningAngle;
-            isAligned = false;
-        }
-
-        //Account for crossing -pi/pi threshold.
-        if(hdgRad > Math.PI)
-            hdgRad -= 2*Math.PI;
-        else if(hdgRad < -Math.PI)
-            hdgRad += 2*Math.PI;
-
-        this.heading = Math.toDegrees(hdgRad);
-        return isAligned;
-    }
-
-    /**
-     * Move agent in direction it is currently facing.
-      * @param distance - Distance to move in m.
-     */
-    private void moveAlongHeading(double distance) {
-        double r = 6379.1; //Radius of earth in km
-        double d = (distance/1000)/r;
-        double hdg = Math.toRadians(this.heading);
-        double lat1 = Math.toRadians(this.getCoordinate().getLatitude());
-        double lng1 = Math.toRadians(this.getCoordinate().getLongitude());
-
-        double latDest = Math.asin(
-                Math.sin(lat1) * Math.cos(d) +
-                Math.cos(lat1) * Math.sin(d) * Math.cos(hdg));
-        double lngDest = lng1 + Math.atan2(
-                Math.sin(hdg) * Math.sin(d) * Math.cos(lat1),
-                Math.cos(d) - Math.sin(lat1) * Math.sin(latDest));
-        latDest = Math.toDegrees(latDest);
-        lngDest = Math.toDegrees(lngDest);
-        this.setCoordinate(new Coordinate(latDest, lngDest));
+        return targetHeading;
     }
 
 }
@@ -0,0 +1,220 @@
+package server.model;
+
+import server.model.task.Task;
+
+import java.util.*;
+
+/**
+ * Which agents are allocated to which tasks. Holds the committed allocation (the one agents follow), the temporary
+ *  allocation (being edited on the client until it is confirmed) and the dropped allocation (allocations of agents
+ *  that timed out). Each keeps its agent to task map along with the reverse task to agents map, so finding or
+ *  removing the allocations of a task doesn't scan every allocation.
+ * It is also the only writer of each agent's allocated task and each task's agents, so the two stay in step - if an
+ *  agent is in a task's agents then the task is the agent's allocated task.
+ */
+public class AllocationIndex {
+
+    /**
+     * Passed to the methods that change a task's agents, so only the allocation index can call them.
+     */
+    public static final class Token {
+        private Token() {
+        }
+    }
+
+    private static final Token TOKEN = new Token();
+
+    /**
+     * An allocation of agent ids to task ids. Serialized as a plain map, reads go straight to the agent to task map.
+     * Views of the allocation (entries, keys, values and a task's agent ids) are copies taken under the lock, so they
+     *  can be iterated on any thread while the allocation is being changed.
+     */
+    public static class Allocation extends AbstractMap<String, String> {
+
+        private Map<String, String> taskByAgent;
+        private final Map<String, Set<String>> agentsByTask;
+
+        private Allocation() {
+            taskByAgent = new HashMap<>();
+            agentsByTask = new HashMap<>();
+        }
+
+        @Override
+        public synchronized String get(Object agentId) {
+            return taskByAgent.get(agentId);
+        }
+
+        @Override
+        public synchronized boolean containsKey(Object agentId) {
+            return taskByAgent.containsKey(agentId);
+        }
+
+        @Override
+        public synchronized int size() {
+            return taskByAgent.size();
+        }
+
+        @Override
+        public synchronized String put(String agentId, String taskId) {
+            String oldTaskId = taskByAgent.put(agentId, taskId);
+            if (oldTaskId != null)
+                unlink(agentId, oldTaskId);
+            agentsByTask.computeIfAbsent(taskId, k -> new LinkedHashSet<>()).add(agentId);
+            return oldTaskId;
+        }
+
+        @Override
+        public synchronized String remove(Object agentId) {
+            String taskId = taskByAgent.remove(agentId);
+            if (taskId != null)
+                unlink((String) agentId, taskId);
+            return taskId;
+        }
+
+        @Override
+        public synchronized void clear() {
+            taskByAgent.clear();
+            agentsByTask.clear();
+        }
+
+        /**
+         * Replace the whole allocation with a copy of the given one.
+         */
+        public synchronized void replace(Map<String, String> allocation) {
+            Map<String, String> copy = new HashMap<>(allocation);
+            agentsByTask.clear();
+            taskByAgent = copy;
+            for (Map.Entry<String, String> entry : copy.entrySet())
+                agentsByTask.computeIfAbsent(entry.getValue(), k -> new LinkedHashSet<>()).add(entry.getKey());
+        }
+
+        /**
+         * @return Copy of the ids of the agents allocated to the given task.
+         */
+        public synchronized Set<String> getAgentIds(String taskId) {
+            Set<String> agentIds = agentsByTask.get(taskId);
+            return agentIds != null ? Collections.unmodifiableSet(new LinkedHashSet<>(agentIds)) : Collections.emptySet();
+        }
+
+        /**
+         * Remove all allocations to the given task.
+         */
+        public synchronized void removeTask(String taskId) {
+            Set<String> agentIds = agentsByTask.remove(taskId);
+            if (agentIds != null)
+                for (String agentId : agentIds)
+                    taskByAgent.remove(agentId);
+        }
+
+        private void unlink(String agentId, String taskId) {
+            Set<String> agentIds = agentsByTask.get(taskId);
+            if (agentIds != null && agentIds.remove(agentId) && agentIds.isEmpty())
+                agentsByTask.remove(taskId);
+        }
+
+        /**
+         * @return Copy of the allocation's entries.
+         */
+        @Override
+        public synchronized Set<Entry<String, String>> entrySet() {
+            return Collections.unmodifiableMap(new HashMap<>(taskByAgent)).entrySet();
+        }
+    }
+
+    private final Allocation committed;
+    private final Allocation temp;
+    private final Allocation dropped;
+
+    public AllocationIndex() {
+        committed = new Allocation();
+        temp = new Allocation();
+        dropped = new Allocation();
+    }
+
+    public Allocation getCommitted() {
+        return committed;
+    }
+
+    public Allocation getTemp() {
+        return temp;
+    }
+
+    public Allocation getDropped() {
+        return dropped;
+    }
+
+    public synchronized void clear() {
+        committed.clear();
+        temp.clear();
+        dropped.clear();
+    }
+
+    /**
+     * Allocate an agent to a task - sets the agent's allocated task and adds it to the task's agents.
+     * @return True if the agent's allocated task has changed.
+     */
+    public synchronized boolean assign(Agent agent, Task task) {
+        boolean changed = !task.getId().equals(agent.getAllocatedTaskId());
+        if (changed) {
+            Task oldTask = agent.getTask();
+            if (oldTask != null)
+                oldTask.removeAgent(TOKEN, agent.getId());
+            agent.setAllocatedTaskId(task.getId());
+        }
+        task.addAgent(TOKEN, agent);
+        return changed;
+    }
+
+    /**
+     * Clear an agent's allocated task and remove it from the task's agents.
+     */
+    public synchronized void release(Agent agent) {
+        Task task = agent.getTask();
+        if (task != null)
+            task.removeAgent(TOKEN, agent.getId());
+        agent.setAllocatedTaskId(null);
+    }
+
+    /**
+     * Empty a task's agents without clearing their allocated task. Used while computing a new allocation - the agents
+     *  already working on the task are added back to it and the rest are released.
+     */
+    public synchronized void clearAgents(Task task) {
+        task.clearAgents(TOKEN);
+    }
+
+    /**
+     * Move an agent's committed allocation to the dropped allocation and release the agent from its task.
+     */
+    public synchronized void drop(Agent agent) {
+        String taskId = committed.remove(agent.getId());
+        if (taskId != null) {
+            release(agent);
+            dropped.put(agent.getId(), taskId);
+        }
+    }
+
+    /**
+     * Remove all allocations of an agent that is being deleted.
+     */
+    public synchronized void removeAgent(Agent agent) {
+        release(agent);
+        committed.remove(agent.getId());
+        temp.remove(agent.getId());
+        dropped.remove(agent.getId());
+    }
+
+    /**
+     * Remove all allocations to a task that is being deleted. The task keeps its agents (so a completed task still
+     *  shows who completed it) but they are no longer allocated to it.
+     */
+    public synchronized void removeTask(Task task) {
+        committed.removeTask(task.getId());
+        temp.removeTask(task.getId());
+        dropped.removeTask(task.getId());
+        for (Agent agent : task.getAgents())
+            if (task.getId().equals(agent.getAllocatedTaskId()))
+                agent.setAllocatedTaskId("");
+    }
+
+}
@@ -50,8 +50,16 @@ public class Coordinate implements Serializable {
      * @return radian
      */
     public double getAngle(Coordinate coordinate) {
-        double north_south_distance = (coordinate.getLatitude() - latitude) * 60.0 * 1852.0;
-        double east_west_distance = Math.cos(latitude * Math.PI / 180.0) * (coordinate.getLongitude() - longitude) * 60.0 * 1852.0;
+        return getAngle(latitude, longitude, coordinate.latitude, coordinate.longitude);
+    }
+
+    /**
+     * Get the angle from one position (in degrees) to another, without creating coordinates.
+     * @return radian
+     */
+    public static double getAngle(double lat1, double lng1, double lat2, double lng2) {
+        double north_south_distance = (lat2 - lat1) * 60.0 * 1852.0;
+        double east_west_distance = Math.cos(lat1 * Math.PI / 180.0) * (lng2 - lng1) * 60.0 * 1852.0;
         return Math.atan2(north_south_distance, east_west_distance);
     }
 
@@ -59,12 +67,19 @@ public class Coordinate implements Serializable {
      * Get distance to coordinate in meters.
      */
     public double getDistance(Coordinate coordinate) {
+        return getDistance(this.latitude, this.longitude, coordinate.latitude, coordinate.longitude);
+    }
+
+    /**
+     * Get distance between two positions (in degrees) in meters.
+     */
+    public static double getDistance(double lat1, double lng1, double lat2, double lng2) {
         final int R = 6371;
 
-        double latDistance = Math.toRadians(this.latitude - coordinate.latitude);
-        double lonDistance = Math.toRadians(this.longitude - coordinate.longitude);
+        double latDistance = Math.toRadians(lat1 - lat2);
+        double lonDistance = Math.toRadians(lng1 - lng2);
         double a = Math.sin(latDistance / 2) * Math.sin(latDistance / 2)
-                + Math.cos(Math.toRadians(coordinate.latitude)) * Math.cos(Math.toRadians(this.latitude))
+                + Math.cos(Math.toRadians(lat2)) * Math.cos(Math.toRadians(lat1))
                 * Math.sin(lonDistance / 2) * Math.sin(lonDistance / 2);
         double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
         return R * c * 1000;
@@ -76,11 +91,27 @@ public class Coordinate implements Serializable {
      * @return c
      */
     public Coordinate getCoordinate(double distance, double angle) {
+        return new Coordinate(offsetLatitude(latitude, distance, angle), offsetLongitude(latitude, longitude, distance, angle));
+    }
+
+    /**
+     * @param distance meter
+     * @param angle    radian
+     * @return latitude of the position distance away from lat at angle
+     */
+    public static double offsetLatitude(double lat, double distance, double angle) {
         double north_south_distance = distance * Math.sin(angle);
+        return lat + north_south_distance / (60.0 * 1852.0);
+    }
+
+    /**
+     * @param distance meter
+     * @param angle    radian
+     * @return longitude of the position distance away from (lat, lng) at angle
+     */
+    public static double offsetLongitude(double lat, double lng, double distance, double angle) {
         double east_west_distance = distance * Math.cos(angle);
-        double lat = latitude + north_south_distance / (60.0 * 1852.0);
-        double lng = longitude + east_west_distance / (60.0 * 1852.0 * Math.cos(latitude * Math.PI / 180.0));
-        return new Coordinate(lat, lng);
+        return lng + east_west_distance / (60.0 * 1852.0 * Math.cos(lat * Math.PI / 180.0));
     }
 
     /**
@@ -89,15 +120,33 @@ public class Coordinate implements Serializable {
      * @return double array containing x, y
      */
     public double[] toCartesian(double lat0) {
-        double x = 6371 * Math.toRadians(this.longitude) * Math.cos(Math.toRadians(lat0));
-        double y = 6371 * Math.toRadians(this.latitude);
-        return new double[]{x, y};
+        return new double[]{toCartesianX(this.longitude, lat0), toCartesianY(this.latitude)};
+    }
+
+    /**
+     * @return x in km of a longitude, see toCartesian
+     */
+    public static double toCartesianX(double lng, double lat0) {
+        return 6371 * Math.toRadians(lng) * Math.cos(Math.toRadians(lat0));
+    }
+
+    /**
+     * @return y in km of a latitude, see toCartesian
+     */
+    public static double toCartesianY(double lat) {
+        return 6371 * Math.toRadians(lat);
     }
 
     public static Coordinate fromCartesian(double x, double y, double lat0) {
-        double lat = Math.toDegrees(y/6371);
-        double lng = Math.toDegrees(x/(6371 * Math.cos(Math.toRadians(lat0))));
-        return new Coordinate(lat, lng);
+        return new Coordinate(latitudeFromCartesian(y), longitudeFromCartesian(x, lat0));
+    }
+
+    public static double latitudeFromCartesian(double y) {
+        return Math.toDegrees(y/6371);
+    }
+
+    public static double longitudeFromCartesian(double x, double lat0) {
+        return Math.toDegrees(x/(6371 * Math.cos(Math.toRadians(lat0))));
     }
 
     public static Coordinate findCentre(List<Coordinate> coordinates) {
@@ -135,7 +184,7 @@ public class Coordinate implements Serializable {
 
     @Override
     public int hashCode() {
-        return (new Double(latitude).hashCode() ^ new Double(longitude).hashCode());
+        return Double.hashCode(latitude) ^ Double.hashCode(longitude);
     }
 
     public JsonObject getJSON() {
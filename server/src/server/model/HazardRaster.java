@@ -0,0 +1,377 @@
+package server.model;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hazard hits of one type held in a raster of fixed size cells, 1/CELLS_PER_DEGREE degrees square (about 10m).
+ * The raster is split into square tiles which are only allocated when a cell in them is first hit, so memory depends
+ *  on the area that has been flown over rather than how long agents have been flying. Tiles can be held off heap.
+ * Each cell holds the decay step it was last hit at, and its weight is worked out from that when it is read. Cells
+ *  that will decay are kept in a wheel of buckets by the step they expire at, so advancing the decay only visits the
+ *  cells expiring in the steps passed. A cell that is hit again is left in its old bucket and moved to its new one
+ *  when the old one comes up.
+ * Coverage statistics (cells covered now and ever, explored area) are updated as cells are hit and expire.
+ * Each tile has a version that changes when a cell in it is covered or expires, so rendered map tiles can be reused
+ *  until the area under them changes. As the weights of decaying cells change every step, tiles holding them only get
+ *  a new version every RENDER_STEPS steps.
+ * Not thread safe - access is synchronized by State.
+ */
+class HazardRaster {
+
+    //Decay steps between new versions of the tiles with decaying cells.
+    private static final int RENDER_STEPS = 50;
+    private static int rasterCount = 0;
+
+    private static final int CELLS_PER_DEGREE = 10000;
+    static final double CELL_DEGREES = 1.0 / CELLS_PER_DEGREE;
+
+    private static final int TILE_BITS = 6;
+    private static final int TILE_SIZE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+    private static final int INITIAL_BUCKET_CAPACITY = 16;
+    //Most buckets in the expiry wheel - cells living longer than this are rescheduled as the wheel turns.
+    private static final int MAX_WHEEL_SIZE = 4096;
+    private static final double METERS_PER_DEGREE = 6371000 * Math.PI / 180;
+
+    //Unique to this raster, so its versions are never confused with those of a raster it replaced.
+    private final int id;
+    private final double decayRate;
+    //Steps a hit lasts before its weight drops to 0, or -1 if hits don't decay.
+    private final long lifetime;
+
+    private LongHashMap<Tile> tiles;
+    private final List<Tile> tileList;
+    private boolean offHeap;
+    //Last tile version given out.
+    private long version;
+
+    //Total decay steps so far.
+    private long step;
+    //Keys of the cells expiring at each step (modulo the wheel size).
+    private long[][] buckets;
+    private int[] bucketSizes;
+    private long[] spare;
+
+    //Cells with a weight above 0.
+    private int coveredCells;
+    //Cells that have ever been hit.
+    private int exploredCells;
+    private double exploredArea;
+    //Explored area within the extent (a circle) - only counted if an extent has been set.
+    private double extentLat;
+    private double extentLng;
+    private double extentRadius;
+    private double exploredAreaInExtent;
+
+    /**
+     * @param decayRate - Weight lost by each hit each decay step.
+     */
+    HazardRaster(double decayRate) {
+        synchronized (HazardRaster.class) {
+            this.id = ++rasterCount;
+        }
+        this.decayRate = decayRate;
+        this.lifetime = getLifetime(decayRate);
+        this.tileList = new ArrayList<>();
+        clear();
+    }
+
+    /**
+     * @return First age (in steps) at which the weight of a hit has dropped to 0, or -1 if it never does.
+     */
+    private static long getLifetime(double decayRate) {
+        if (decayRate <= 0)
+            return -1;
+        long lifetime = Math.max(1, (long) Math.ceil(1 / decayRate));
+        while (lifetime > 1 && getWeight(decayRate, lifetime - 1) <= 0)
+            lifetime--;
+        while (getWeight(decayRate, lifetime) > 0)
+            lifetime++;
+        return lifetime;
+    }
+
+    private static double getWeight(double decayRate, long age) {
+        return 1 - decayRate * age;
+    }
+
+    void clear() {
+        tiles = new LongHashMap<>();
+        tileList.clear();
+        step = 0;
+        coveredCells = 0;
+        exploredCells = 0;
+        exploredArea = 0;
+        extentRadius = -1;
+        exploredAreaInExtent = 0;
+        if (lifetime == -1)
+            return;
+        int wheelSize = Integer.highestOneBit((int) Math.min(lifetime, MAX_WHEEL_SIZE - 1)) * 2;
+        buckets = new long[wheelSize][];
+        bucketSizes = new int[wheelSize];
+        spare = new long[INITIAL_BUCKET_CAPACITY];
+    }
+
+    /**
+     * @param offHeap - If true tiles allocated from now on are held in direct buffers outside the java heap.
+     */
+    void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * Set the circle explored percentages are given for, and count the area already explored in it.
+     * @param radius - Radius in meters, or -1 for no extent.
+     */
+    void setExtent(double lat, double lng, double radius) {
+        this.extentLat = lat;
+        this.extentLng = lng;
+        this.extentRadius = radius;
+        this.exploredAreaInExtent = 0;
+        if (radius < 0)
+            return;
+        for (Tile tile : tileList)
+            for (int i = 0; i < TILE_SIZE * TILE_SIZE; i++)
+                if (tile.hitSteps.get(i) != 0 && inExtent(tile.getRow(i), tile.getCol(i)))
+                    exploredAreaInExtent += getCellArea(tile.getRow(i));
+    }
+
+    /**
+     * Register a hit at the given position, setting the weight of its cell back to 1.
+     */
+    void put(double lat, double lng) {
+        int row = toCell(lat), col = toCell(lng);
+        Tile tile = getTile(row, col);
+        int i = ((row & TILE_MASK) << TILE_BITS) | (col & TILE_MASK);
+        int previous = tile.hitSteps.get(i);
+        //Steps are held offset by 1 so 0 means never hit.
+        tile.hitSteps.put(i, (int) (step + 1));
+        if (previous == 0) {
+            tile.exploredVersion = ++version;
+            exploredCells++;
+            double area = getCellArea(row);
+            exploredArea += area;
+            if (extentRadius >= 0 && inExtent(row, col))
+                exploredAreaInExtent += area;
+        }
+        //A cell that is still covered is already in the wheel.
+        else if (isCovered(previous - 1)) {
+            return;
+        }
+        coveredCells++;
+        tile.coveredCells++;
+        tile.version = ++version;
+        if (lifetime != -1)
+            schedule(cellKey(row, col), step + lifetime);
+    }
+
+    private boolean isCovered(long hitStep) {
+        return lifetime == -1 || hitStep + lifetime > step;
+    }
+
+    private Tile getTile(int row, int col) {
+        int tileRow = row >> TILE_BITS, tileCol = col >> TILE_BITS;
+        long key = tileKey(tileRow, tileCol);
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile(tileRow, tileCol, offHeap);
+            tiles.put(key, tile);
+            tileList.add(tile);
+        }
+        return tile;
+    }
+
+    private void schedule(long key, long expiryStep) {
+        int b = (int) (expiryStep & (buckets.length - 1));
+        long[] bucket = buckets[b];
+        if (bucket == null)
+            bucket = buckets[b] = new long[INITIAL_BUCKET_CAPACITY];
+        else if (bucketSizes[b] == bucket.length)
+            bucket = buckets[b] = Arrays.copyOf(bucket, bucket.length * 2);
+        bucket[bucketSizes[b]++] = key;
+    }
+
+    /**
+     * Advance the decay by a number of steps - the cells whose weight drops to 0 are no longer covered.
+     * Only the cells in the buckets of the steps passed are visited.
+     */
+    void decay(int steps) {
+        if (steps <= 0 || lifetime == -1)
+            return;
+        long from = step + 1;
+        step += steps;
+        //If the wheel has been turned more than once every bucket is due.
+        from = Math.max(from, step - buckets.length + 1);
+        for (long s = from; s <= step; s++) {
+            int b = (int) (s & (buckets.length - 1));
+            int n = bucketSizes[b];
+            if (n == 0)
+                continue;
+            long[] due = buckets[b];
+            buckets[b] = spare;
+            bucketSizes[b] = 0;
+            for (int j = 0; j < n; j++) {
+                int row = (int) (due[j] >> 32), col = (int) due[j];
+                Tile tile = tiles.get(tileKey(row >> TILE_BITS, col >> TILE_BITS));
+                long expiryStep = tile.hitSteps.get(((row & TILE_MASK) << TILE_BITS) | (col & TILE_MASK)) - 1 + lifetime;
+                if (expiryStep <= step) {
+                    coveredCells--;
+                    tile.coveredCells--;
+                    tile.version = ++version;
+                }
+                else {
+                    schedule(due[j], expiryStep);
+                }
+            }
+            spare = due;
+        }
+        if (step / RENDER_STEPS != (step - steps) / RENDER_STEPS)
+            for (Tile tile : tileList)
+                if (tile.coveredCells > 0)
+                    tile.version = ++version;
+    }
+
+    /**
+     * Weight of a cell that was last hit at a given step - from 1 down to (not including) 0.
+     */
+    private float getWeight(long hitStep) {
+        return lifetime == -1 ? 1 : (float) getWeight(decayRate, step - hitStep);
+    }
+
+    /**
+     * Call the visitor with the centre and weight of every covered cell in an area.
+     * @param explored - If true visit every cell that has ever been hit (with weight 1) rather than covered cells.
+     */
+    void forEachIn(double minLat, double maxLat, double minLng, double maxLng, boolean explored,
+                   State.HazardHitVisitor visitor) {
+        int minRow = toCell(minLat), maxRow = toCell(maxLat);
+        int minCol = toCell(minLng), maxCol = toCell(maxLng);
+        for (Tile tile : tileList) {
+            if (!tile.overlaps(minRow, maxRow, minCol, maxCol) || (!explored && tile.coveredCells == 0))
+                continue;
+            int fromRow = Math.max(minRow, tile.getRow(0)), toRow = Math.min(maxRow, tile.getRow(0) + TILE_MASK);
+            int fromCol = Math.max(minCol, tile.getCol(0)), toCol = Math.min(maxCol, tile.getCol(0) + TILE_MASK);
+            for (int row = fromRow; row <= toRow; row++) {
+                for (int col = fromCol; col <= toCol; col++) {
+                    int value = tile.hitSteps.get(((row & TILE_MASK) << TILE_BITS) | (col & TILE_MASK));
+                    if (value == 0 || (!explored && !isCovered(value - 1)))
+                        continue;
+                    visitor.visit(toDegrees(row), toDegrees(col), explored ? 1 : getWeight(value - 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a version for an area that changes whenever cells in it are covered or expire (or are first hit if
+     *  explored is true).
+     */
+    String getVersion(double minLat, double maxLat, double minLng, double maxLng, boolean explored) {
+        int minRow = toCell(minLat), maxRow = toCell(maxLat);
+        int minCol = toCell(minLng), maxCol = toCell(maxLng);
+        long areaVersion = 0;
+        for (Tile tile : tileList)
+            if (tile.overlaps(minRow, maxRow, minCol, maxCol))
+                areaVersion = Math.max(areaVersion, explored ? tile.exploredVersion : tile.version);
+        return id + "-" + areaVersion;
+    }
+
+    int getCoveredCells() {
+        return coveredCells;
+    }
+
+    int getExploredCells() {
+        return exploredCells;
+    }
+
+    /**
+     * @return area of the cells that have ever been hit in square meters
+     */
+    double getExploredArea() {
+        return exploredArea;
+    }
+
+    /**
+     * @return percentage of the extent that has been explored, or -1 if there is no extent.
+     */
+    double getExploredPercentage() {
+        if (extentRadius < 0)
+            return -1;
+        if (extentRadius == 0)
+            return 0;
+        return Math.min(100, 100 * exploredAreaInExtent / (Math.PI * extentRadius * extentRadius));
+    }
+
+    int getTileCount() {
+        return tileList.size();
+    }
+
+    private boolean inExtent(int row, int col) {
+        return Coordinate.getDistance(extentLat, extentLng, toDegrees(row), toDegrees(col)) <= extentRadius;
+    }
+
+    private static double getCellArea(int row) {
+        double side = METERS_PER_DEGREE / CELLS_PER_DEGREE;
+        return side * side * Math.cos(Math.toRadians(toDegrees(row)));
+    }
+
+    /**
+     * Positions are rounded to the nearest cell centre - the same 4 decimal places (about 10m) hits were keyed by.
+     */
+    private static int toCell(double degrees) {
+        return (int) Math.round(degrees * CELLS_PER_DEGREE);
+    }
+
+    private static double toDegrees(int cell) {
+        return cell / (double) CELLS_PER_DEGREE;
+    }
+
+    private static long cellKey(int row, int col) {
+        return ((long) row << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    private static long tileKey(int tileRow, int tileCol) {
+        return ((long) tileRow << 32) | (tileCol & 0xFFFFFFFFL);
+    }
+
+    private static class Tile {
+        private final int row;
+        private final int col;
+        //Decay step each cell was last hit at plus 1, or 0 if it has never been hit.
+        private final IntBuffer hitSteps;
+        private int coveredCells;
+        private long version;
+        private long exploredVersion;
+
+        private Tile(int row, int col, boolean offHeap) {
+            this.row = row;
+            this.col = col;
+            int cells = TILE_SIZE * TILE_SIZE;
+            if (offHeap)
+                hitSteps = ByteBuffer.allocateDirect(cells * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            else
+                hitSteps = IntBuffer.allocate(cells);
+        }
+
+        /**
+         * @return raster row of the cell at index i in the tile
+         */
+        private int getRow(int i) {
+            return (row << TILE_BITS) + (i >> TILE_BITS);
+        }
+
+        private int getCol(int i) {
+            return (col << TILE_BITS) + (i & TILE_MASK);
+        }
+
+        private boolean overlaps(int minRow, int maxRow, int minCol, int maxCol) {
+            return getRow(0) <= maxRow && getRow(0) + TILE_MASK >= minRow
+                    && getCol(0) <= maxCol && getCol(0) + TILE_MASK >= minCol;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package server.model;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collection of objects indexed by id, so finding an object by id doesn't scan the whole collection.
+ * Objects are also kept in the order they were added, so iterating (and so serializing the state) gives the same
+ *  order as before. Both maps are concurrent - iterating while REST threads add or remove objects doesn't throw,
+ *  it may or may not see the changes made since it started.
+ * Ids are unique - adding an object with the id of one already in the collection throws.
+ */
+class IdRegistry<T extends IdObject> extends AbstractCollection<T> {
+
+    private static class Entry<T> {
+        private final long order;
+        private final T item;
+
+        private Entry(long order, T item) {
+            this.order = order;
+            this.item = item;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry<T>> byId;
+    private final ConcurrentSkipListMap<Long, T> byOrder;
+    private final AtomicLong nextOrder;
+    //Increased after every add, remove and clear.
+    private final AtomicLong version;
+
+    IdRegistry() {
+        byId = new ConcurrentHashMap<>();
+        byOrder = new ConcurrentSkipListMap<>();
+        nextOrder = new AtomicLong();
+        version = new AtomicLong();
+    }
+
+    /**
+     * @return Object with the given id or null if there isn't one.
+     */
+    public T get(String id) {
+        Entry<T> entry = id != null ? byId.get(id) : null;
+        return entry != null ? entry.item : null;
+    }
+
+    @Override
+    public boolean add(T item) {
+        Entry<T> entry = new Entry<>(nextOrder.getAndIncrement(), item);
+        if (byId.putIfAbsent(item.getId(), entry) != null)
+            throw new RuntimeException("Cannot add item to list - list already contains item with given id.");
+        byOrder.put(entry.order, item);
+        version.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remove the object with the same id as the given object.
+     * @return True if there was an object with the id.
+     */
+    @Override
+    public boolean remove(Object o) {
+        if (!(o instanceof IdObject))
+            return false;
+        Entry<T> entry = byId.remove(((IdObject) o).getId());
+        if (entry == null)
+            return false;
+        byOrder.remove(entry.order);
+        version.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof IdObject && get(((IdObject) o).getId()) == o;
+    }
+
+    @Override
+    public void clear() {
+        byId.clear();
+        byOrder.clear();
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return Version of the collection, which changes whenever an object is added or removed.
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    @Override
+    public int size() {
+        return byId.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return byId.isEmpty();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        Iterator<T> it = byOrder.values().iterator();
+        //Removing through the iterator has to remove from both maps.
+        return new Iterator<T>() {
+            private T last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return last = it.next();
+            }
+
+            @Override
+            public void remove() {
+                if (last == null)
+                    throw new IllegalStateException();
+                IdRegistry.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,100 @@
+package server.model;
+
+/**
+ * Local tangent plane anchored at the game centre, used to replace spherical distance and bearing calculations
+ *  with planar ones near the centre.
+ * Positions are projected to meters east (x) and north (y) of the anchor. Within the frame's radius the error of
+ *  the projection is far smaller than the distances agents move each tick, outside it the haversine/great circle
+ *  calculations in Coordinate are used instead.
+ * NONE is a frame that contains nothing, so everything falls back to the spherical calculations.
+ */
+public class LocalFrame {
+
+    public static final LocalFrame NONE = new LocalFrame(0, 0, -1);
+
+    private static final double EARTH_RADIUS = 6371000; //Meters - the same as Coordinate.getDistance
+
+    private final double latitude;
+    private final double longitude;
+    private final double radius;
+    private final double metersPerDegreeLat;
+    private final double metersPerDegreeLng;
+
+    /**
+     * @param radius - Radius in meters around the anchor in which planar math is used.
+     */
+    public LocalFrame(double latitude, double longitude, double radius) {
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radius = radius;
+        this.metersPerDegreeLat = EARTH_RADIUS * Math.PI / 180;
+        this.metersPerDegreeLng = metersPerDegreeLat * Math.cos(Math.toRadians(latitude));
+    }
+
+    public boolean isEnabled() {
+        return radius >= 0;
+    }
+
+    /**
+     * @return meters east of the anchor
+     */
+    public double toX(double lng) {
+        return (lng - longitude) * metersPerDegreeLng;
+    }
+
+    /**
+     * @return meters north of the anchor
+     */
+    public double toY(double lat) {
+        return (lat - latitude) * metersPerDegreeLat;
+    }
+
+    public double toLongitude(double x) {
+        return longitude + x / metersPerDegreeLng;
+    }
+
+    public double toLatitude(double y) {
+        return latitude + y / metersPerDegreeLat;
+    }
+
+    /**
+     * @param x - Meters east of the anchor.
+     * @param y - Meters north of the anchor.
+     */
+    public boolean contains(double x, double y) {
+        return x * x + y * y <= radius * radius && radius >= 0;
+    }
+
+    public boolean containsPosition(double lat, double lng) {
+        return contains(toX(lng), toY(lat));
+    }
+
+    /**
+     * Get the distance between two positions (in degrees) in meters - planar if both are in the frame.
+     */
+    public double getDistance(double lat1, double lng1, double lat2, double lng2) {
+        if (radius >= 0) {
+            double x1 = toX(lng1), y1 = toY(lat1);
+            double x2 = toX(lng2), y2 = toY(lat2);
+            if (contains(x1, y1) && contains(x2, y2)) {
+                double dx = x2 - x1;
+                double dy = y2 - y1;
+                return Math.sqrt(dx * dx + dy * dy);
+            }
+        }
+        return Coordinate.getDistance(lat1, lng1, lat2, lng2);
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+}
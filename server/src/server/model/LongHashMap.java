@@ -0,0 +1,115 @@
+package server.model;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from primitive long keys to objects, so looking up a key doesn't box it.
+ * Open addressing with linear probing, removal shifts later entries back so there are no tombstones.
+ * Not thread safe.
+ */
+class LongHashMap<V> {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values;
+    private boolean[] used;
+    private int size;
+
+    LongHashMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    private LongHashMap(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        used = new boolean[capacity];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask)
+            if (keys[i] == key)
+                return (V) values[i];
+        return null;
+    }
+
+    void put(long key, V value) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            resize(keys.length * 2);
+            put(key, value);
+            return;
+        }
+        used[i] = true;
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    void remove(long key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (used[i] && keys[i] != key)
+            i = (i + 1) & mask;
+        if (!used[i])
+            return;
+        //Shift back any later entries in the probe sequence that would no longer be found.
+        int gap = i;
+        for (int j = (gap + 1) & mask; used[j]; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        used[gap] = false;
+        values[gap] = null;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[capacity];
+        values = new Object[capacity];
+        used = new boolean[capacity];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                @SuppressWarnings("unchecked")
+                V value = (V) oldValues[i];
+                put(oldKeys[i], value);
+            }
+        }
+    }
+
+    LongHashMap<V> copy() {
+        LongHashMap<V> copy = new LongHashMap<>(0);
+        copy.keys = Arrays.copyOf(keys, keys.length);
+        copy.values = Arrays.copyOf(values, values.length);
+        copy.used = Arrays.copyOf(used, used.length);
+        copy.size = size;
+        return copy;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    int size() {
+        return size;
+    }
+
+}
@@ -0,0 +1,228 @@
+package server.model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Bucketed grid index for objects that don't move (or rarely move) such as hazards and targets.
+ * Each object can have an extent (radius in meters) and is stored in every cell its extent overlaps, so the
+ *  objects that could contain a point are found by looking in a single cell.
+ * Objects must be updated (or removed and re-added) if they move.
+ * Safe to query while objects are being added or removed - changes are made to a private copy of the cells, which
+ *  is published the next time the index is queried. Adding or removing an object only copies the cells it touches,
+ *  so loading many objects between queries costs one copy of the cell table rather than one per object. Queries
+ *  only lock to publish changes and looking up a cell doesn't create any objects.
+ */
+public class MObjectIndex<T extends MObject> {
+
+    private static final double EARTH_RADIUS = 6371000; //Meters
+
+    private final double cellSize;
+    private final ToDoubleFunction<T> extent;
+    //Never modified once published, along with the lists in it.
+    private volatile LongHashMap<List<T>> cells;
+    //Cells changes are made to, guarded by this. The lists in it are shared with cells so are replaced, not modified.
+    private LongHashMap<List<T>> pendingCells;
+    //Whether pendingCells has changes that haven't been published to cells.
+    private volatile boolean changed;
+    //Cells each object is stored in, used to remove objects.
+    private final Map<T, long[]> objectCells;
+    private volatile double cosLat0;
+    private volatile LocalFrame frame;
+
+    /**
+     * @param cellSize - Width of each cell in meters.
+     * @param extent - Radius of an object in meters (0 for points).
+     */
+    public MObjectIndex(double cellSize, ToDoubleFunction<T> extent) {
+        this.cellSize = cellSize;
+        this.extent = extent;
+        this.cells = new LongHashMap<>();
+        this.pendingCells = new LongHashMap<>();
+        this.objectCells = new ConcurrentHashMap<>();
+        this.cosLat0 = Double.NaN;
+        this.frame = LocalFrame.NONE;
+    }
+
+    /**
+     * Set the frame used to measure distances in queries.
+     */
+    public void setLocalFrame(LocalFrame frame) {
+        this.frame = frame;
+    }
+
+    public synchronized void add(T object) {
+        Coordinate position = object.getCoordinate();
+        if (Double.isNaN(cosLat0))
+            cosLat0 = Math.cos(Math.toRadians(position.getLatitude()));
+        double radius = extent.applyAsDouble(object);
+        long[] keys = getCellKeys(position.getLatitude(), position.getLongitude(), radius);
+        for (long key : keys) {
+            List<T> cell = pendingCells.get(key);
+            List<T> newCell = cell != null ? new ArrayList<>(cell) : new ArrayList<>(1);
+            newCell.add(object);
+            pendingCells.put(key, newCell);
+        }
+        objectCells.put(object, keys);
+        changed = true;
+    }
+
+    public synchronized boolean remove(T object) {
+        long[] keys = objectCells.remove(object);
+        if (keys == null)
+            return false;
+        for (long key : keys) {
+            List<T> newCell = new ArrayList<>(pendingCells.get(key));
+            newCell.remove(object);
+            if (newCell.isEmpty())
+                pendingCells.remove(key);
+            else
+                pendingCells.put(key, newCell);
+        }
+        changed = true;
+        return true;
+    }
+
+    /**
+     * Re-index an object after it has moved or changed size.
+     */
+    public synchronized void update(T object) {
+        remove(object);
+        add(object);
+    }
+
+    public synchronized void clear() {
+        cells = new LongHashMap<>();
+        pendingCells = new LongHashMap<>();
+        changed = false;
+        objectCells.clear();
+        cosLat0 = Double.NaN;
+    }
+
+    /**
+     * Get the published cells, publishing any changes made since they were last published.
+     */
+    private LongHashMap<List<T>> getCells() {
+        if (changed)
+            publish();
+        return cells;
+    }
+
+    private synchronized void publish() {
+        if (changed) {
+            cells = pendingCells.copy();
+            changed = false;
+        }
+    }
+
+    /**
+     * Get the objects whose extent might contain the given position.
+     * This is a superset of the objects that actually contain the position and must be filtered by the caller.
+     * The list is a snapshot which must not be modified, iterating it by index avoids creating an iterator.
+     */
+    public List<T> getCandidates(double lat, double lng) {
+        if (Double.isNaN(cosLat0))
+            return Collections.emptyList();
+        List<T> cell = getCells().get(key(toCell(projectX(lng)), toCell(projectY(lat))));
+        return cell != null ? cell : Collections.emptyList();
+    }
+
+    /**
+     * Get all objects whose extent is within radius of a position.
+     * @param radius - Radius in meters.
+     */
+    public List<T> query(double lat, double lng, double radius) {
+        return query(lat, lng, radius, new ArrayList<>());
+    }
+
+    /**
+     * Get all objects whose extent is within radius of a position, adding them to the given list.
+     * Doesn't create any objects if the list has room, so a list can be reused across queries.
+     * @param radius - Radius in meters.
+     * @param result - List to add the objects to, which should be empty.
+     * @return result
+     */
+    public List<T> query(double lat, double lng, double radius, List<T> result) {
+        if (Double.isNaN(cosLat0))
+            return result;
+        LongHashMap<List<T>> cells = getCells();
+        LocalFrame frame = this.frame;
+        double x = projectX(lng);
+        double y = projectY(lat);
+        double rx = getXRadius(lat, radius);
+        int minX = toCell(x - rx), maxX = toCell(x + rx);
+        int minY = toCell(y - radius), maxY = toCell(y + radius);
+        //Objects with an extent can be in several of the cells, so need to be checked against those already found.
+        boolean multiCell = minX != maxX || minY != maxY;
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                List<T> cell = cells.get(key(cx, cy));
+                if (cell == null)
+                    continue;
+                for (int i = 0; i < cell.size(); i++) {
+                    T object = cell.get(i);
+                    if (multiCell && containsIdentity(result, object))
+                        continue;
+                    Coordinate position = object.getCoordinate();
+                    double distance = frame.getDistance(lat, lng, position.getLatitude(), position.getLongitude());
+                    if (distance <= radius + extent.applyAsDouble(object))
+                        result.add(object);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean containsIdentity(List<?> list, Object object) {
+        for (int i = 0; i < list.size(); i++)
+            if (list.get(i) == object)
+                return true;
+        return false;
+    }
+
+    public int size() {
+        return objectCells.size();
+    }
+
+    /**
+     * Get the keys of all cells overlapped by a circle.
+     */
+    private long[] getCellKeys(double lat, double lng, double radius) {
+        double x = projectX(lng);
+        double y = projectY(lat);
+        double rx = getXRadius(lat, radius);
+        int minX = toCell(x - rx), maxX = toCell(x + rx);
+        int minY = toCell(y - radius), maxY = toCell(y + radius);
+        long[] keys = new long[(maxX - minX + 1) * (maxY - minY + 1)];
+        int i = 0;
+        for (int cx = minX; cx <= maxX; cx++)
+            for (int cy = minY; cy <= maxY; cy++)
+                keys[i++] = key(cx, cy);
+        return keys;
+    }
+
+    /**
+     * Scale the x extent of a radius to account for the difference between the position and the reference latitude.
+     */
+    private double getXRadius(double lat, double radius) {
+        return radius * cosLat0 / Math.max(Math.cos(Math.toRadians(lat)), 1e-6);
+    }
+
+    private double projectX(double lng) {
+        return EARTH_RADIUS * Math.toRadians(lng) * cosLat0;
+    }
+
+    private double projectY(double lat) {
+        return EARTH_RADIUS * Math.toRadians(lat);
+    }
+
+    private int toCell(double meters) {
+        return (int) Math.floor(meters / cellSize);
+    }
+
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+
+}
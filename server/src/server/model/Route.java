@@ -0,0 +1,300 @@
+package server.model;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Waypoints of an agent's route, packed into a double array (latitude then longitude of each point) rather than held
+ *  as coordinate objects. The points are kept in a ring so moving on to the next point doesn't shift the rest.
+ * The array can be shared - with a Path (e.g. the points of a patrol, followed from any point around it) or with the
+ *  route it was copied from. A shared array is never written to, it is only copied if the route is changed other than
+ *  by moving on to its next point or dropping its last.
+ * Coordinates read from the route are copies, so changing one doesn't change the route. Every change to the route
+ *  increases its version, so readers can find whether it has changed without comparing the points.
+ * Methods are synchronized on the route, as were those of the Vector it replaces.
+ */
+public class Route extends AbstractList<Coordinate> implements RandomAccess, Serializable {
+
+    private static final long serialVersionUID = 5561040348988016571L;
+    private static final double[] EMPTY = new double[0];
+
+    /**
+     * Immutable list of points packed into a double array, shared by every route following it.
+     */
+    public static final class Path extends AbstractList<Coordinate> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = 5561040348988016571L;
+        private final double[] points;
+
+        public Path(List<? extends Coordinate> coordinates) {
+            points = new double[coordinates.size() * 2];
+            for (int i = 0; i < coordinates.size(); i++) {
+                Coordinate coordinate = coordinates.get(i);
+                points[i * 2] = coordinate.getLatitude();
+                points[i * 2 + 1] = coordinate.getLongitude();
+            }
+        }
+
+        @Override
+        public Coordinate get(int index) {
+            return new Coordinate(getLatitude(index), getLongitude(index));
+        }
+
+        public double getLatitude(int index) {
+            return points[index * 2];
+        }
+
+        public double getLongitude(int index) {
+            return points[index * 2 + 1];
+        }
+
+        @Override
+        public int size() {
+            return points.length / 2;
+        }
+    }
+
+    private double[] points;
+    //Ring index of the first point.
+    private int first;
+    private int size;
+    //Whether the points array is shared with a path or another route, so must be copied before it is written to.
+    private boolean shared;
+    private long version;
+    //Told of every change, e.g. so the level of detail knows the agent's route has changed.
+    private transient Runnable changeListener;
+
+    public Route() {
+        points = EMPTY;
+    }
+
+    /**
+     * Set the listener run (holding the route's lock) on every change to the route.
+     */
+    void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    @Override
+    public synchronized Coordinate get(int index) {
+        int i = getIndex(index);
+        return new Coordinate(points[i * 2], points[i * 2 + 1]);
+    }
+
+    /**
+     * Read a point's latitude without creating a coordinate.
+     */
+    public synchronized double getLatitude(int index) {
+        return points[getIndex(index) * 2];
+    }
+
+    /**
+     * Read a point's longitude without creating a coordinate.
+     */
+    public synchronized double getLongitude(int index) {
+        return points[getIndex(index) * 2 + 1];
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return Number of changes made to the route since it was created.
+     */
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    @Override
+    public synchronized Coordinate set(int index, Coordinate coordinate) {
+        int i = getIndex(index);
+        Coordinate old = new Coordinate(points[i * 2], points[i * 2 + 1]);
+        //Setting a point to where it already is (e.g. the goal to the task each tick) isn't a change.
+        if (old.getLatitude() == coordinate.getLatitude() && old.getLongitude() == coordinate.getLongitude())
+            return old;
+        if (shared) {
+            reallocate(getCapacity());
+            i = index;
+        }
+        points[i * 2] = coordinate.getLatitude();
+        points[i * 2 + 1] = coordinate.getLongitude();
+        changed();
+        return old;
+    }
+
+    @Override
+    public synchronized void add(int index, Coordinate coordinate) {
+        if (index < 0 || index > size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        int capacity = getCapacity();
+        if (index == 0 && !shared && size < capacity)
+            first = first == 0 ? capacity - 1 : first - 1;
+        else if (index == size && !shared && size < capacity) {
+            //Nothing to move - the point goes in the free slot after the last.
+        }
+        else {
+            //Unwrap the ring so the points after the index can be shifted along in one go.
+            if (shared || first + size >= capacity)
+                reallocate(size < capacity ? capacity : Math.max(capacity * 2, 4));
+            int at = first + index;
+            System.arraycopy(points, at * 2, points, at * 2 + 2, (size - index) * 2);
+        }
+        size++;
+        int i = getIndex(index);
+        points[i * 2] = coordinate.getLatitude();
+        points[i * 2 + 1] = coordinate.getLongitude();
+        modCount++;
+        changed();
+    }
+
+    @Override
+    public synchronized Coordinate remove(int index) {
+        Coordinate old = get(index);
+        if (index == 0)
+            first = first + 1 == getCapacity() ? 0 : first + 1;
+        else if (index < size - 1) {
+            if (shared || first + size > getCapacity())
+                reallocate(getCapacity());
+            int at = first + index;
+            System.arraycopy(points, at * 2 + 2, points, at * 2, (size - index - 1) * 2);
+        }
+        size--;
+        if (size == 0)
+            first = 0;
+        modCount++;
+        changed();
+        return old;
+    }
+
+    @Override
+    public synchronized void clear() {
+        if (shared) {
+            points = EMPTY;
+            shared = false;
+        }
+        first = 0;
+        size = 0;
+        modCount++;
+        changed();
+    }
+
+    /**
+     * Replace the points of the route with the given ones. Paths and other routes are shared rather than copied.
+     */
+    public void replace(List<? extends Coordinate> coordinates) {
+        if (coordinates == this)
+            return;
+        if (coordinates instanceof Path) {
+            follow((Path) coordinates, 0);
+            return;
+        }
+        if (coordinates instanceof Route) {
+            Route other = (Route) coordinates;
+            double[] points;
+            int first, size;
+            //Read the other route under its own lock so the two routes are never locked together.
+            synchronized (other) {
+                other.shared = true;
+                points = other.points;
+                first = other.first;
+                size = other.size;
+            }
+            synchronized (this) {
+                this.points = points;
+                this.first = first;
+                this.size = size;
+                this.shared = true;
+                modCount++;
+                changed();
+            }
+            return;
+        }
+        synchronized (this) {
+            int size = coordinates.size();
+            if (shared || getCapacity() < size) {
+                points = size == 0 ? EMPTY : new double[size * 2];
+                shared = false;
+            }
+            for (int i = 0; i < size; i++) {
+                Coordinate coordinate = coordinates.get(i);
+                points[i * 2] = coordinate.getLatitude();
+                points[i * 2 + 1] = coordinate.getLongitude();
+            }
+            this.first = 0;
+            this.size = size;
+            modCount++;
+            changed();
+        }
+    }
+
+    /**
+     * Follow all the points of a path around from the given point, back round to the point before it.
+     * The path is shared rather than copied.
+     */
+    public synchronized void follow(Path path, int start) {
+        points = path.points;
+        shared = true;
+        size = path.size();
+        first = size == 0 ? 0 : start;
+        modCount++;
+        changed();
+    }
+
+    /**
+     * @return True if the route is all of the path's points from the given point, as set by follow.
+     */
+    public synchronized boolean isFollowing(Path path, int start) {
+        return points == path.points && first == start && size == path.size();
+    }
+
+    /**
+     * Move every point at one position to another.
+     */
+    public synchronized void move(Coordinate from, Coordinate to) {
+        for (int index = 0; index < size; index++) {
+            int i = getIndex(index);
+            if (points[i * 2] == from.getLatitude() && points[i * 2 + 1] == from.getLongitude())
+                set(index, to);
+        }
+    }
+
+    private void changed() {
+        version++;
+        Runnable changeListener = this.changeListener;
+        if (changeListener != null)
+            changeListener.run();
+    }
+
+    private int getCapacity() {
+        return points.length / 2;
+    }
+
+    /**
+     * @return Index in the ring of the point at the given index in the route.
+     */
+    private int getIndex(int index) {
+        if (index < 0 || index >= size)
+            throw new ArrayIndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        int i = first + index;
+        int capacity = getCapacity();
+        return i >= capacity ? i - capacity : i;
+    }
+
+    /**
+     * Copy the points to a new array that the route owns, unwrapped so the first point is at the start.
+     */
+    private void reallocate(int capacity) {
+        double[] copy = new double[capacity * 2];
+        int head = Math.min(size, getCapacity() - first);
+        System.arraycopy(points, first * 2, copy, 0, head * 2);
+        System.arraycopy(points, 0, copy, head * 2, (size - head) * 2);
+        points = copy;
+        first = 0;
+        shared = false;
+    }
+
+}
@@ -9,9 +9,11 @@ import java.util.logging.Logger;
 public class Sensor {
     private static final Logger LOGGER = Logger.getLogger(Sensor.class.getName());
     private Simulator simulator;
+    private final AgentPositionBuffer buffer;
 
     public Sensor(Simulator simulator){
         this.simulator = simulator;
+        this.buffer = new AgentPositionBuffer();
     }
 
     /**
@@ -21,12 +23,93 @@ public class Sensor {
      */
     public List<Agent> senseNeighbours(Agent agent, Double sensingRadius){
         List<Agent> neighbours = new ArrayList<>();
-        for (Agent neighbour : this.simulator.getState().getAgents()){
-            if (neighbour != agent &&
-                    agent.getCoordinate().getDistance(neighbour.getCoordinate()) <= sensingRadius){
-                neighbours.add(neighbour);
-            }
-        }
+        Neighbours sensed = senseNeighbours(agent, sensingRadius.doubleValue());
+        for (int i = 0; i < sensed.size(); i++)
+            neighbours.add(buffer.getAgent(sensed.getIndex(i)));
+        return neighbours;
+    }
+
+    /**
+     * Find the agents within sensingRadius of a specific agent, using the positions in the front position
+     *  buffer (i.e. the positions at the start of this tick).
+     * The distance to each neighbour is returned so neighbours within any smaller radius can be found from
+     *  the same result.
+     * @return neighbours - Buffer indices (in ascending order) and distances of the neighbours.
+     */
+    public Neighbours senseNeighbours(Agent agent, double sensingRadius){
+        return senseNeighbours(agent, sensingRadius, createNeighbours());
+    }
+
+    /**
+     * Find the agents within sensingRadius of a specific agent, replacing the contents of the given neighbours.
+     * Reusing the same neighbours for each call means sensing doesn't create any objects.
+     * @return neighbours
+     */
+    public Neighbours senseNeighbours(Agent agent, double sensingRadius, Neighbours neighbours){
+        buffer.query(agent.getLatitude(), agent.getLongitude(), sensingRadius, neighbours.result);
+        neighbours.excludeSelf(agent);
         return neighbours;
     }
+
+    /**
+     * @return Empty neighbours to be filled by senseNeighbours.
+     */
+    public Neighbours createNeighbours() {
+        return new Neighbours();
+    }
+
+    /**
+     * Find the k agents nearest to a specific agent, using the positions in the front position buffer.
+     * @return neighbours - Nearest agents, nearest first.
+     */
+    public List<Agent> senseNearestNeighbours(Agent agent, int k){
+        List<Agent> neighbours = new ArrayList<>(k);
+        //Ask for one extra as the agent itself will be found
+        for (int index : buffer.nearest(agent.getLatitude(), agent.getLongitude(), k + 1))
+            if (buffer.getAgent(index) != agent && neighbours.size() < k)
+                neighbours.add(buffer.getAgent(index));
+        return neighbours;
+    }
+
+    /**
+     * Neighbours of an agent found by the sensor - excludes the agent itself.
+     */
+    public class Neighbours {
+        private final SpatialHashGrid.Result result;
+        private int self;
+
+        private Neighbours() {
+            this.result = new SpatialHashGrid.Result();
+            this.self = -1;
+        }
+
+        private void excludeSelf(Agent agent) {
+            self = -1;
+            for (int i = 0; i < result.size(); i++)
+                if (buffer.getAgent(result.getIndex(i)) == agent)
+                    self = i;
+        }
+
+        public int size() {
+            return self == -1 ? result.size() : result.size() - 1;
+        }
+
+        /**
+         * @return buffer index of the i'th neighbour
+         */
+        public int getIndex(int i) {
+            return result.getIndex(self != -1 && i >= self ? i + 1 : i);
+        }
+
+        /**
+         * @return distance to the i'th neighbour in meters
+         */
+        public double getDistance(int i) {
+            return result.getDistance(self != -1 && i >= self ? i + 1 : i);
+        }
+    }
+
+    public AgentPositionBuffer getBuffer() {
+        return buffer;
+    }
 }
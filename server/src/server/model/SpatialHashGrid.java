@@ -0,0 +1,335 @@
+package server.model;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over a set of points, used to find the points near a position without checking every point.
+ * Positions are projected to meters (equirectangular, around the latitude of the first point) and put in
+ *  square cells which are stored in a hash table, so only cells that contain points use memory.
+ * The grid is rebuilt from scratch by calling build - this is O(n) and is intended to be done once per tick. Points
+ *  that move can instead be moved to their new cell one at a time by calling update.
+ * Distances are planar for points inside the local frame the grid was built with.
+ */
+public class SpatialHashGrid {
+
+    private static final double EARTH_RADIUS = 6371000; //Meters
+    //Extra distance searched to account for the difference between the projected and real distance.
+    private static final double SEARCH_MARGIN = 1.01;
+
+    private final double cellSize;
+    private double cosLat0;
+    private LocalFrame frame;
+
+    private int size;
+    private double[] latitude;
+    private double[] longitude;
+    private int[] cellX;
+    private int[] cellY;
+    //Hash table of cells - head[hash] is the first point in the chain, next[point] and prev[point] are the next and
+    // previous points in the chain (-1 at either end).
+    private int[] head;
+    private int[] next;
+    private int[] prev;
+    private int mask;
+
+    /**
+     * Points found by a query, ordered by index.
+     * A result can be passed back to query to be refilled, so repeated queries don't create any objects once its
+     *  arrays have grown to fit.
+     */
+    public static class Result {
+        private int[] indices;
+        private double[] distances;
+        private int count;
+        //Candidate points checked by a query, kept between queries to avoid reallocating it.
+        private int[] candidates;
+
+        public Result() {
+            this.indices = new int[16];
+            this.distances = new double[16];
+            this.candidates = new int[16];
+        }
+
+        public int size() {
+            return count;
+        }
+
+        public int getIndex(int i) {
+            return indices[i];
+        }
+
+        /**
+         * @return distance in meters
+         */
+        public double getDistance(int i) {
+            return distances[i];
+        }
+    }
+
+    public SpatialHashGrid(double cellSize) {
+        this.cellSize = cellSize;
+        this.frame = LocalFrame.NONE;
+        this.latitude = new double[0];
+        this.longitude = new double[0];
+        this.cellX = new int[0];
+        this.cellY = new int[0];
+        this.next = new int[0];
+        this.prev = new int[0];
+        this.head = new int[1];
+        Arrays.fill(head, -1);
+    }
+
+    /**
+     * Rebuild the grid for the given points. The arrays are referenced (not copied) so must not be changed until
+     *  the next call to build.
+     */
+    public void build(double[] latitude, double[] longitude, int size) {
+        build(latitude, longitude, size, LocalFrame.NONE);
+    }
+
+    /**
+     * Rebuild the grid for the given points, measuring distances in the given frame.
+     */
+    public void build(double[] latitude, double[] longitude, int size, LocalFrame frame) {
+        this.frame = frame;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.size = size;
+        this.cosLat0 = Math.cos(Math.toRadians(size > 0 ? latitude[0] : 0));
+
+        if (cellX.length < size) {
+            cellX = new int[size];
+            cellY = new int[size];
+            next = new int[size];
+            prev = new int[size];
+        }
+        int tableSize = Integer.highestOneBit(Math.max(1, size) * 2 - 1) << 1;
+        if (head.length != tableSize)
+            head = new int[tableSize];
+        mask = tableSize - 1;
+        Arrays.fill(head, -1);
+
+        for (int i = 0; i < size; i++)
+            link(i, toCell(projectX(longitude[i])), toCell(projectY(latitude[i])));
+    }
+
+    /**
+     * Move a point to its cell after its position has changed in the arrays the grid was built with.
+     */
+    public void update(int i) {
+        int cx = toCell(projectX(longitude[i]));
+        int cy = toCell(projectY(latitude[i]));
+        if (cx == cellX[i] && cy == cellY[i])
+            return;
+        if (prev[i] != -1)
+            next[prev[i]] = next[i];
+        else
+            head[hash(cellX[i], cellY[i])] = next[i];
+        if (next[i] != -1)
+            prev[next[i]] = prev[i];
+        link(i, cx, cy);
+    }
+
+    /**
+     * Add a point to the front of its cell's chain.
+     */
+    private void link(int i, int cx, int cy) {
+        cellX[i] = cx;
+        cellY[i] = cy;
+        int h = hash(cx, cy);
+        next[i] = head[h];
+        prev[i] = -1;
+        if (head[h] != -1)
+            prev[head[h]] = i;
+        head[h] = i;
+    }
+
+    /**
+     * Find all points within radius of a position.
+     * @param radius - Radius in meters.
+     * @return Points found, ordered by index. Includes any point at the given position.
+     */
+    public Result query(double lat, double lng, double radius) {
+        return query(lat, lng, radius, new Result());
+    }
+
+    /**
+     * Find all points within radius of a position, replacing the contents of the given result.
+     * @param radius - Radius in meters.
+     * @return result - Points found, ordered by index. Includes any point at the given position.
+     */
+    public Result query(double lat, double lng, double radius, Result result) {
+        double x = projectX(lng);
+        double y = projectY(lat);
+        double searchRadius = radius * SEARCH_MARGIN + 1;
+        int minX = toCell(x - searchRadius), maxX = toCell(x + searchRadius);
+        int minY = toCell(y - searchRadius), maxY = toCell(y + searchRadius);
+
+        int[] candidates = result.candidates;
+        int count = 0;
+        if ((long) (maxX - minX + 1) * (maxY - minY + 1) > size) {
+            //Searching the cells would take longer than checking every point.
+            if (candidates.length < size)
+                candidates = new int[size];
+            for (int i = 0; i < size; i++)
+                candidates[count++] = i;
+        }
+        else {
+            for (int cx = minX; cx <= maxX; cx++) {
+                for (int cy = minY; cy <= maxY; cy++) {
+                    for (int i = head[hash(cx, cy)]; i != -1; i = next[i]) {
+                        if (cellX[i] != cx || cellY[i] != cy)
+                            continue;
+                        if (count == candidates.length)
+                            candidates = Arrays.copyOf(candidates, count * 2);
+                        candidates[count++] = i;
+                    }
+                }
+            }
+            sort(candidates, count);
+        }
+        result.candidates = candidates;
+
+        if (result.indices.length < count) {
+            result.indices = new int[candidates.length];
+            result.distances = new double[candidates.length];
+        }
+        int[] indices = result.indices;
+        double[] distances = result.distances;
+        int found = 0;
+        for (int c = 0; c < count; c++) {
+            int i = candidates[c];
+            double distance = frame.getDistance(lat, lng, latitude[i], longitude[i]);
+            if (distance <= radius) {
+                indices[found] = i;
+                distances[found++] = distance;
+            }
+        }
+        result.count = found;
+        return result;
+    }
+
+    /**
+     * Find the k points nearest to a position.
+     * Searches rings of cells around the position until k points have been found and no unsearched cell could
+     *  contain a nearer point. If the points are spread so thinly that the rings would cover more cells than there
+     *  are points, every point is checked instead.
+     * @return Indices of the nearest points, ordered by distance (nearest first, then by index).
+     */
+    public int[] nearest(double lat, double lng, int k) {
+        k = Math.min(k, size);
+        if (k <= 0)
+            return new int[0];
+        int[] best = new int[k];
+        double[] bestDistances = new double[k];
+        int found = 0;
+
+        int ocx = toCell(projectX(lng));
+        int ocy = toCell(projectY(lat));
+        int checked = 0;
+        for (int ring = 0; checked < size; ring++) {
+            //Nearest possible distance of a point in this ring
+            if (found == k && (ring - 1) * cellSize > bestDistances[k - 1] * SEARCH_MARGIN + 1)
+                break;
+            if ((long) (2 * ring + 1) * (2 * ring + 1) > 2L * size) {
+                found = 0;
+                for (int i = 0; i < size; i++)
+                    found = insert(i, frame.getDistance(lat, lng, latitude[i], longitude[i]), best, bestDistances, found);
+                break;
+            }
+            for (int cx = ocx - ring; cx <= ocx + ring; cx++) {
+                //Only the edge of the ring - the cells inside have already been searched.
+                int step = cx == ocx - ring || cx == ocx + ring ? 1 : 2 * ring;
+                for (int cy = ocy - ring; cy <= ocy + ring; cy += Math.max(1, step)) {
+                    for (int i = head[hash(cx, cy)]; i != -1; i = next[i]) {
+                        if (cellX[i] != cx || cellY[i] != cy)
+                            continue;
+                        checked++;
+                        found = insert(i, frame.getDistance(lat, lng, latitude[i], longitude[i]), best, bestDistances, found);
+                    }
+                }
+            }
+        }
+        return Arrays.copyOf(best, found);
+    }
+
+    /**
+     * Insert a point into the nearest points found so far, in order of distance then index, dropping the furthest if
+     *  they are full.
+     * @return New number of points found.
+     */
+    private static int insert(int i, double distance, int[] best, double[] bestDistances, int found) {
+        int k = best.length;
+        if (found == k && !isNearer(distance, i, bestDistances[k - 1], best[k - 1]))
+            return found;
+        int pos = found < k ? found++ : k - 1;
+        while (pos > 0 && isNearer(distance, i, bestDistances[pos - 1], best[pos - 1])) {
+            best[pos] = best[pos - 1];
+            bestDistances[pos] = bestDistances[pos - 1];
+            pos--;
+        }
+        best[pos] = i;
+        bestDistances[pos] = distance;
+        return found;
+    }
+
+    private static boolean isNearer(double distance, int i, double otherDistance, int other) {
+        return distance < otherDistance || (distance == otherDistance && i < other);
+    }
+
+    /**
+     * Sort the first n values in place. Arrays.sort allocates a buffer to merge the sorted runs that come from
+     *  each cell's chain, so a heap sort (insertion sort for the usual few values) is used instead.
+     */
+    private static void sort(int[] a, int n) {
+        if (n <= 32) {
+            for (int i = 1; i < n; i++) {
+                int v = a[i];
+                int j = i - 1;
+                for (; j >= 0 && a[j] > v; j--)
+                    a[j + 1] = a[j];
+                a[j + 1] = v;
+            }
+            return;
+        }
+        for (int i = n / 2 - 1; i >= 0; i--)
+            siftDown(a, i, n);
+        for (int end = n - 1; end > 0; end--) {
+            int v = a[0];
+            a[0] = a[end];
+            a[end] = v;
+            siftDown(a, 0, end);
+        }
+    }
+
+    private static void siftDown(int[] a, int i, int n) {
+        int v = a[i];
+        while (2 * i + 1 < n) {
+            int child = 2 * i + 1;
+            if (child + 1 < n && a[child + 1] > a[child])
+                child++;
+            if (a[child] <= v)
+                break;
+            a[i] = a[child];
+            i = child;
+        }
+        a[i] = v;
+    }
+
+    private double projectX(double lng) {
+        return EARTH_RADIUS * Math.toRadians(lng) * cosLat0;
+    }
+
+    private double projectY(double lat) {
+        return EARTH_RADIUS * Math.toRadians(lat);
+    }
+
+    private int toCell(double meters) {
+        return (int) Math.floor(meters / cellSize);
+    }
+
+    private int hash(int cx, int cy) {
+        return ((cx * 73856093) ^ (cy * 19349663)) & mask;
+    }
+
+}
@@ -2,27 +2,26 @@ package server.model;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonSerializationContext;
-import com.google.gson.JsonSerializer;
 import server.Allocator;
 import server.model.hazard.Hazard;
 import server.model.target.Target;
 import server.model.task.Task;
 import tool.GsonUtils;
 
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class State {
 
     public static final int GAME_TYPE_SANDBOX = 0;
     public static final int GAME_TYPE_SCENARIO = 1;
+    //Size of the cells hazard hits are held in.
+    public static final double HAZARD_HIT_CELL_DEGREES = HazardRaster.CELL_DEGREES;
     private final static transient Logger LOGGER = Logger.getLogger(Allocator.class.getName());
     private boolean inProgress;
 
@@ -36,14 +35,15 @@ public class State {
 
     private String prov_doc;
 
-    private final Collection<Agent> agents;
-    private final Collection<Task> tasks;
+    //Registries indexed by id - serialized as plain arrays.
+    private final IdRegistry<Agent> agents;
+    private final IdRegistry<Task> tasks;
     private final Collection<Task> completedTasks;
-    private final Collection<Hazard> hazards;
+    private final IdRegistry<Hazard> hazards;
 
     //State information for scenarios
     private Coordinate gameCentre;
-    private final Collection<Target> targets;
+    private final IdRegistry<Target> targets;
 
     //Updated on server but only used on client.
     @SuppressWarnings("unused")
@@ -51,24 +51,39 @@ public class State {
     @SuppressWarnings("unused")
     private boolean allocationRedoAvailable;
 
-    private Map<String, String> allocation;
+    //Views of the allocation index, serialized as plain maps.
+    private final Map<String, String> allocation;
     //Allocation that is WIP (i.e. not confirmed by user).
-    private Map<String, String> tempAllocation;
+    private final Map<String, String> tempAllocation;
     //Allocation created from dropped out agents.
-    private Map<String, String> droppedAllocation;
+    private final Map<String, String> droppedAllocation;
+    private final transient AllocationIndex allocations;
 
-    private HazardHitCollection hazardHits;
+    //Not sent with the state - served as map tiles instead.
+    private transient HazardHitCollection hazardHits;
+
+    //Spatial indices of hazards and targets, kept in sync by add and remove.
+    private final transient MObjectIndex<Hazard> hazardIndex;
+    private final transient MObjectIndex<Target> targetIndex;
+    //Kinematic state of the agents, the agents are views onto it.
+    private final transient AgentKinematics kinematics;
+    //Frame for planar distance and bearing math around the game centre - NONE unless the scenario enables it.
+    private transient volatile LocalFrame localFrame;
 
     public State() {
-        agents = new ArrayList<>();
-        tasks = new ArrayList<>();
+        agents = new IdRegistry<>();
+        tasks = new IdRegistry<>();
         completedTasks = new ArrayList<>();
-        targets = new ArrayList<>();
-        hazards = new ArrayList<>();
-        allocation = new ConcurrentHashMap<>();
-        tempAllocation = new ConcurrentHashMap<>();
-        droppedAllocation = new ConcurrentHashMap<>();
+        targets = new IdRegistry<>();
+        hazards = new IdRegistry<>();
+        allocations = new AllocationIndex();
+        allocation = allocations.getCommitted();
+        tempAllocation = allocations.getTemp();
+        droppedAllocation = allocations.getDropped();
         hazardHits = new HazardHitCollection();
+        hazardIndex = new MObjectIndex<>(100, Hazard::getSize);
+        targetIndex = new MObjectIndex<>(100, target -> 0);
+        kinematics = new AgentKinematics();
 
         allocationUndoAvailable = false;
         allocationRedoAvailable = false;
@@ -82,13 +97,16 @@ public class State {
         inProgress = false;
 
         agents.clear();
+        kinematics.clear();
         tasks.clear();
         completedTasks.clear();
         targets.clear();
         hazards.clear();
-        allocation.clear();
-        tempAllocation.clear();
+        hazardIndex.clear();
+        targetIndex.clear();
+        allocations.clear();
         hazardHits.clear();
+        setLocalFrame(LocalFrame.NONE);
 
         hazardHits.init();
     }
@@ -98,68 +116,67 @@ public class State {
         return GsonUtils.toJson(this);
     }
 
+    /**
+     * @return The state as a JSON tree, which stays the same as the state changes.
+     */
+    public synchronized JsonElement toJsonTree() {
+        return GsonUtils.toJsonTree(this);
+    }
+
+    public AgentKinematics getKinematics() {
+        return kinematics;
+    }
+
     public Target getTarget(String targetId) {
-        return getById(targets, targetId);
+        return targets.get(targetId);
     }
 
     public Task getTask(String taskId) {
-        return getById(tasks, taskId);
+        return tasks.get(taskId);
     }
 
     public Agent getAgent(String agentId) {
-        return getById(agents, agentId);
+        return agents.get(agentId);
     }
 
     public Hazard getHazard(String hazardId) {
-        return getById(hazards, hazardId);
+        return hazards.get(hazardId);
     }
 
     public void add(IdObject item) {
-        if(item instanceof Target)
-            add(targets, (Target) item);
+        if(item instanceof Target) {
+            targets.add((Target) item);
+            targetIndex.add((Target) item);
+        }
         else if(item instanceof  Task)
-            add(tasks, (Task) item);
+            tasks.add((Task) item);
         else if(item instanceof Agent)
-            add(agents, (Agent) item);
-        else if(item instanceof Hazard)
-            add(hazards, (Hazard) item);
+            agents.add((Agent) item);
+        else if(item instanceof Hazard) {
+            hazards.add((Hazard) item);
+            hazardIndex.add((Hazard) item);
+        }
         else
             throw new RuntimeException("Cannot add item to state, unrecognised class - " + item.getClass().getSimpleName());
     }
 
     public void remove(IdObject item) {
-        if(item instanceof Target)
-            remove(targets, (Target) item);
+        if(item instanceof Target) {
+            if(targets.remove(item))
+                targetIndex.remove((Target) item);
+        }
         else if(item instanceof  Task)
-            remove(tasks, (Task) item);
+            tasks.remove(item);
         else if(item instanceof  Agent)
-            remove(agents, (Agent) item);
+            agents.remove(item);
+        else if(item instanceof Hazard) {
+            if(hazards.remove(item))
+                hazardIndex.remove((Hazard) item);
+        }
         else
             throw new RuntimeException("Cannot remove item from state, unrecognised class - " + item.getClass().getSimpleName());
     }
 
-    private <T extends IdObject> void add(Collection<T> items, T item) {
-        if(getById(items, item.getId()) != null)
-            throw new RuntimeException("Cannot add item to list - list already contains item with given id.");
-        items.add(item);
-    }
-
-    private <T extends IdObject> boolean remove(Collection<T> items, T item) {
-        if((item = getById(items, item.getId())) == null)
-            return false;
-        items.remove(item);
-        return true;
-    }
-
-    private <T extends IdObject> T getById(Collection<T> items, String id) {
-        List<T> matching = items.stream().filter(o -> o.getId().equals(id)).collect(Collectors.toList());
-        if(matching.size() == 0)
-            return null;
-        if(matching.size() > 1)
-            throw new RuntimeException("Two objects found with same id!");
-        return matching.get(0);
-    }
-
     //Getters and setters below
     public synchronized double getTime() {
         return time;
@@ -205,10 +222,28 @@ public class State {
         this.gameType = gameType;
     }
 
+    public synchronized Coordinate getGameCentre() {
+        return gameCentre;
+    }
+
     public synchronized void setGameCentre(Coordinate gameCentre) {
         this.gameCentre = gameCentre;
     }
 
+    public LocalFrame getLocalFrame() {
+        return localFrame;
+    }
+
+    /**
+     * Set the frame used for planar math by the agents' kinematics and the hazard and target indices.
+     */
+    public synchronized void setLocalFrame(LocalFrame localFrame) {
+        this.localFrame = localFrame;
+        kinematics.setLocalFrame(localFrame);
+        hazardIndex.setLocalFrame(localFrame);
+        targetIndex.setLocalFrame(localFrame);
+    }
+
     public synchronized void setAllocationMethod(String allocationMethod) {
         this.allocationMethod = allocationMethod;
     }
@@ -237,8 +272,61 @@ public class State {
         return agents;
     }
 
-    public Map<String, String> getAllocation() {
-        return allocation;
+    /**
+     * @return Version of the agents collection, which changes whenever an agent is added or removed.
+     */
+    public long getAgentsVersion() {
+        return agents.getVersion();
+    }
+
+    public AllocationIndex getAllocations() {
+        return allocations;
+    }
+
+    public AllocationIndex.Allocation getAllocation() {
+        return allocations.getCommitted();
+    }
+
+    /**
+     * Find the hazards each agent is in range of, using the hazard index.
+     * @return Hazards in range of agents[i] at index i.
+     */
+    public List<List<Hazard>> getHazardsInRange(Agent[] agents) {
+        List<List<Hazard>> inRange = new ArrayList<>(agents.length);
+        for (Agent agent : agents) {
+            double lat = agent.getLatitude();
+            double lng = agent.getLongitude();
+            List<Hazard> found = null;
+            LocalFrame frame = localFrame;
+            List<Hazard> candidates = hazardIndex.getCandidates(lat, lng);
+            for (int i = 0; i < candidates.size(); i++) {
+                Hazard hazard = candidates.get(i);
+                if (hazard.inRange(lat, lng, frame)) {
+                    if (found == null)
+                        found = new ArrayList<>(2);
+                    found.add(hazard);
+                }
+            }
+            inRange.add(found != null ? found : Collections.emptyList());
+        }
+        return inRange;
+    }
+
+    /**
+     * Find the targets within radius of a position, using the target index.
+     * @param radius - Radius in meters.
+     */
+    public List<Target> getTargetsInRange(Coordinate position, double radius) {
+        return targetIndex.query(position.getLatitude(), position.getLongitude(), radius);
+    }
+
+    /**
+     * Find the targets within radius of a position, adding them to the given list so it can be reused.
+     * @param radius - Radius in meters.
+     * @param result - Empty list to add the targets to.
+     */
+    public List<Target> getTargetsInRange(double lat, double lng, double radius, List<Target> result) {
+        return targetIndex.query(lat, lng, radius, result);
     }
 
     public Collection<Hazard> getHazards() {
@@ -246,22 +334,22 @@ public class State {
     }
 
     public void setAllocation(Map<String, String> allocation) {
-        this.allocation = allocation;
+        allocations.getCommitted().replace(allocation);
     }
 
-    public Map<String, String> getTempAllocation() {
-        return tempAllocation;
+    public AllocationIndex.Allocation getTempAllocation() {
+        return allocations.getTemp();
     }
 
     public void setTempAllocation(Map<String, String> tempAllocation) {
         if(tempAllocation == null)
-            this.tempAllocation.clear();
+            allocations.getTemp().clear();
         else
-            this.tempAllocation = tempAllocation;
+            allocations.getTemp().replace(tempAllocation);
     }
 
-    public Map<String, String> getDroppedAllocation() {
-        return droppedAllocation;
+    public AllocationIndex.Allocation getDroppedAllocation() {
+        return allocations.getDropped();
     }
 
     public synchronized void setProvDoc(String prov_doc) {
@@ -276,6 +364,10 @@ public class State {
         this.allocationRedoAvailable = allocationRedoAvailable;
     }
 
+    public Collection<Task> getCompletedTasks() {
+        return completedTasks;
+    }
+
     public void addCompletedTask(Task task) {
         this.completedTasks.add(task);
     }
@@ -289,91 +381,125 @@ public class State {
     }
 
     public synchronized void addHazardHit(int type, Coordinate location) {
-        hazardHits.add(type, location);
+        hazardHits.add(type, location.getLatitude(), location.getLongitude());
     }
 
-    public void decayHazardHits() {
-        hazardHits.decayAll();
+    /**
+     * Register a hazard hit at a position without creating a coordinate.
+     */
+    public synchronized void addHazardHit(int type, double lat, double lng) {
+        hazardHits.add(type, lat, lng);
     }
 
-    private class HazardHit {
-        private Coordinate location;
-        private double weight;
-        private transient double decayRate;
+    /**
+     * Decay all hazard hits - only the hits that expire in these steps are visited, weights are worked out when read.
+     * @param steps - Number of ticks worth of decay to apply.
+     */
+    public synchronized void decayHazardHits(int steps) {
+        hazardHits.decayAll(steps);
+    }
 
-        private HazardHit(Coordinate location, double decayRate) {
-            this.location = location;
-            this.weight = 1;
-            this.decayRate = decayRate;
-        }
+    /**
+     * Get coverage statistics for each hazard type (-1 is explored area) - cells with a weight above 0, cells and
+     *  area (m^2) ever hit, percentage of the coverage extent explored (if set) and tiles allocated.
+     */
+    public synchronized JsonObject getCoverageJson() {
+        return hazardHits.getCoverageJson();
+    }
 
-        private boolean decay() {
-            this.weight -= decayRate;
-            return this.weight < 0;
-        }
+    /**
+     * Set the circle around a position that explored percentages are given for.
+     * @param radius - Radius in meters.
+     */
+    public synchronized void setCoverageExtent(Coordinate centre, double radius) {
+        for (HazardRaster raster : hazardHits.hazardHits.values())
+            raster.setExtent(centre.getLatitude(), centre.getLongitude(), radius);
+    }
+
+    /**
+     * @param offHeap - If true hazard hit tiles allocated from now on are held outside the java heap.
+     */
+    public synchronized void setHazardHitsOffHeap(boolean offHeap) {
+        for (HazardRaster raster : hazardHits.hazardHits.values())
+            raster.setOffHeap(offHeap);
+    }
+
+    /**
+     * Get a version of the hazard hits of a type in an area, which changes whenever the hits in the area are
+     *  covered or expire. Decaying hits only give a new version every few steps.
+     * @param explored - If true the version only changes when cells are first hit.
+     */
+    public synchronized String getHazardHitsVersion(int type, double minLat, double maxLat, double minLng,
+                                                    double maxLng, boolean explored) {
+        return hazardHits.hazardHits.get(type).getVersion(minLat, maxLat, minLng, maxLng, explored);
+    }
+
+    /**
+     * Call the visitor with the cell centre and weight of every hazard hit of a type in an area.
+     * @param explored - If true visit every cell ever hit (with weight 1) rather than those with a weight above 0.
+     */
+    public synchronized void forEachHazardHit(int type, double minLat, double maxLat, double minLng, double maxLng,
+                                              boolean explored, HazardHitVisitor visitor) {
+        hazardHits.hazardHits.get(type).forEachIn(minLat, maxLat, minLng, maxLng, explored, visitor);
+    }
+
+    public interface HazardHitVisitor {
+        void visit(double lat, double lng, float weight);
     }
 
     public class HazardHitCollection {
-        private transient Map<Integer, Map<Coordinate, HazardHit>> hazardHits;
+        private transient Map<Integer, HazardRaster> hazardHits;
 
         private HazardHitCollection() {
             this.hazardHits = new ConcurrentHashMap<>();
         }
 
         private void init() {
-            hazardHits.put(Hazard.NONE, new ConcurrentHashMap<>());
-            hazardHits.put(Hazard.FIRE, new ConcurrentHashMap<>());
-            hazardHits.put(Hazard.DEBRIS, new ConcurrentHashMap<>());
+            hazardHits.put(Hazard.NONE, new HazardRaster(getDecayRate(Hazard.NONE)));
+            hazardHits.put(Hazard.FIRE, new HazardRaster(getDecayRate(Hazard.FIRE)));
+            hazardHits.put(Hazard.DEBRIS, new HazardRaster(getDecayRate(Hazard.DEBRIS)));
         }
 
-        private void add(int type, Coordinate location) {
-            if(this.hazardHits.containsKey(type)) {
-                /* Hits should only be registered if they are far enough from all
-                 * other hits. This is done by storing a rounded coordinate to provide
-                 * a quick way to see if a hit is far enough away from all the other hits.
-                 *
-                 * The actual coordinate is kept, and this is the one that should be rendered
-                 * so the heatmap does not appear 'blocky'.
-                 */
-                double lat = location.latitude;
-                double lng = location.longitude;
-                double roundedLat = Math.round(lat * 10000D) / 10000D;
-                double roundedLng = Math.round(lng * 10000D) / 10000D;
-                Coordinate roundedCoord = new Coordinate(roundedLat, roundedLng);
-                Map<Coordinate, HazardHit> coordMap = this.hazardHits.get(type);
-                HazardHit hit;
-                if(type == -1)
-                    hit = new HazardHit(location, 0.001);
-                else
-                    hit = new HazardHit(location, 0);
-                coordMap.put(roundedCoord, hit);
-            }
-            else {
+        private void add(int type, double lat, double lng) {
+            //Hits are held in a raster of about 10m cells, so a hit near an earlier one just resets its cell's weight.
+            HazardRaster raster = this.hazardHits.get(type);
+            if(raster != null)
+                raster.put(lat, lng);
+            else
                 LOGGER.severe("Could not register hazard hit - not list for hazard type " + type);
-            }
         }
 
-        private void decayAll() {
-            for(Map<Coordinate, HazardHit> m : hazardHits.values()) {
-                for(Map.Entry<Coordinate, HazardHit> e : m.entrySet())
-                    if(e.getValue().decay())
-                        m.remove(e.getKey());
-            }
+        private void decayAll(int steps) {
+            for(HazardRaster raster : hazardHits.values())
+                raster.decay(steps);
         }
 
         private void clear() {
             hazardHits.clear();
         }
-    }
 
-    public static JsonSerializer hazardHitsSerializer = new JsonSerializer<HazardHitCollection>() {
-        @Override
-        public JsonElement serialize(HazardHitCollection hazardHitCollection, Type type, JsonSerializationContext context) {
-            JsonObject jsonObject = new JsonObject();
-            jsonObject.add("-1", context.serialize(hazardHitCollection.hazardHits.get(-1).values()));
-            jsonObject.add("0", context.serialize(hazardHitCollection.hazardHits.get(0).values()));
-            jsonObject.add("1", context.serialize(hazardHitCollection.hazardHits.get(1).values()));
-            return jsonObject;
+        private JsonObject getCoverageJson() {
+            JsonObject coverage = new JsonObject();
+            for (Map.Entry<Integer, HazardRaster> entry : hazardHits.entrySet()) {
+                HazardRaster raster = entry.getValue();
+                JsonObject stats = new JsonObject();
+                stats.addProperty("coveredCells", raster.getCoveredCells());
+                stats.addProperty("exploredCells", raster.getExploredCells());
+                stats.addProperty("exploredArea", raster.getExploredArea());
+                if (raster.getExploredPercentage() >= 0)
+                    stats.addProperty("exploredPercentage", raster.getExploredPercentage());
+                stats.addProperty("tiles", raster.getTileCount());
+                coverage.add(entry.getKey().toString(), stats);
+            }
+            return coverage;
         }
-    };
+    }
+
+    /**
+     * Explored area (no hazard) hits fade over time, hazard hits stay.
+     * @return Weight lost by each hit each tick.
+     */
+    private static double getDecayRate(int type) {
+        return type == Hazard.NONE ? 0.001 : 0;
+    }
 }
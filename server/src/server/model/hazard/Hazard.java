@@ -1,6 +1,7 @@
 package server.model.hazard;
 
 import server.model.Coordinate;
+import server.model.LocalFrame;
 import server.model.MObject;
 
 public abstract class Hazard extends MObject {
@@ -21,11 +22,30 @@ public abstract class Hazard extends MObject {
     public abstract void step();
 
     public boolean inRange(Coordinate position) {
-        return getCoordinate().getDistance(position) < size;
+        return inRange(position.getLatitude(), position.getLongitude());
+    }
+
+    public boolean inRange(double lat, double lng) {
+        return inRange(lat, lng, LocalFrame.NONE);
+    }
+
+    /**
+     * @param frame - Frame to measure the distance in.
+     */
+    public boolean inRange(double lat, double lng, LocalFrame frame) {
+        Coordinate position = getCoordinate();
+        return frame.getDistance(position.getLatitude(), position.getLongitude(), lat, lng) < size;
     }
 
     public int getType() {
         return type;
     }
 
+    /**
+     * @return radius in meters
+     */
+    public int getSize() {
+        return size;
+    }
+
 }
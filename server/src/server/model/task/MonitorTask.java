@@ -1,11 +1,12 @@
 package server.model.task;
 
+import server.Simulator;
 import server.model.Coordinate;
 
 public class MonitorTask extends Task {
 
-    public MonitorTask(String id, Coordinate coordinate) {
-        super(id, Task.TASK_MONITOR, coordinate);
+    public MonitorTask(Simulator simulator, String id, Coordinate coordinate) {
+        super(simulator, id, Task.TASK_MONITOR, coordinate);
     }
 
     @Override
@@ -5,27 +5,50 @@ import com.google.gson.JsonSerializationContext;
 import server.Simulator;
 import server.model.Agent;
 import server.model.Coordinate;
+import server.model.Route;
 
 import java.util.*;
 
 public class PatrolTask extends Task {
 
-    private final List<Coordinate> points;
-    //Map of the last point that each agent visited
-    private final Map<String, Integer> lastPointMap;
+    private Route.Path points;
+    //Distance along the route from the first point to each point, in meters - recalculated when the points change.
+    private double[] arcLength;
+    //Progress of each working agent around the route, by agent id.
+    private final Map<String, Cursor> cursors;
     private final List<Agent> workingAgents;
     private double totalPathDistance;
 
-    public PatrolTask(String id, int type, List<Coordinate> points, Coordinate centrePoint) {
-        super(id, type, centrePoint);
-        this.points = points;
+    //Reused each tick by sortSpacing - order holds indices into workingAgents, kept sorted by progress.
+    private double[] positions;
+    private int[] order;
+    //Index of the edges for nearest point queries - built when first needed after the points change.
+    private volatile SegmentIndex segmentIndex;
+
+    /**
+     * Progress of an agent around the patrol - the last point it visited plus its distance from that point.
+     */
+    private static class Cursor {
+        private int lastPoint;
+        private double offset;
+
+        private Cursor(int lastPoint) {
+            this.lastPoint = lastPoint;
+        }
+    }
+
+    public PatrolTask(Simulator simulator, String id, int type, List<Coordinate> points, Coordinate centrePoint) {
+        super(simulator, id, type, centrePoint);
+        this.points = new Route.Path(points);
         this.workingAgents = new ArrayList<>();
-        this.lastPointMap = new HashMap<>();
-        this.totalPathDistance = calcualteRouteLength();
+        this.cursors = new HashMap<>();
+        this.positions = new double[0];
+        this.order = new int[0];
+        calculateArcLengths();
     }
 
-    public static PatrolTask createTask(String id, List<Coordinate> points) {
-        return new PatrolTask(id, Task.TASK_PATROL, points, getCentre(points));
+    public static PatrolTask createTask(Simulator simulator, String id, List<Coordinate> points) {
+        return new PatrolTask(simulator, id, Task.TASK_PATROL, points, getCentre(points));
     }
 
     private static Coordinate getCentre(List<Coordinate> points) {
@@ -35,17 +58,23 @@ public class PatrolTask extends Task {
     @Override
     boolean perform() {
         for (Agent agent : getAgents()) {
-            if(agent.isWorking() && !workingAgents.contains(agent)) {
-                lastPointMap.put(agent.getId(), points.indexOf(getPreviousPoint(agent)));
-                workingAgents.add(agent);
-            }
+            Cursor cursor = cursors.get(agent.getId());
             if(agent.isWorking()) {
-                updateAgentRoute(agent);
+                if(cursor == null) {
+                    cursor = new Cursor(points.indexOf(getPreviousPoint(agent)));
+                    cursors.put(agent.getId(), cursor);
+                    workingAgents.add(agent);
+                    resetOrder();
+                }
+                updateAgentRoute(agent, cursor);
                 if(agent.isCurrentDestinationReached())
-                    lastPointMap.put(agent.getId(), lastPointMap.get(agent.getId()) < points.size() - 1 ? lastPointMap.get(agent.getId()) + 1 : 0);
+                    cursor.lastPoint = cursor.lastPoint < points.size() - 1 ? cursor.lastPoint + 1 : 0;
             }
-            else
+            else if(cursor != null) {
+                cursors.remove(agent.getId());
                 workingAgents.remove(agent);
+                resetOrder();
+            }
         }
         sortSpacing();
         return false;
@@ -59,71 +88,85 @@ public class PatrolTask extends Task {
     private void sortSpacing() {
         double tolerance = 0.05;
 
-        if(workingAgents.size() > 1) {
-            double spacing = 1D/workingAgents.size();
-            List<Agent> sortedAgents = new ArrayList<>(workingAgents);
-            Map<String, Double> agentPositions = new HashMap<>();
-            for(Agent agent : workingAgents)
-                agentPositions.put(agent.getId(), getAgentRelativePosition(agent));
-
-            //Sort agents by their progress around the patrol
-            Collections.sort(sortedAgents, new Comparator<Agent>() {
-                @Override
-                public int compare(Agent o1, Agent o2) {
-                    return agentPositions.get(o1.getId()).compareTo(agentPositions.get(o2.getId()));
-                }
-            });
+        int n = workingAgents.size();
+        if(n > 1) {
+            double spacing = 1D/n;
+            double[] positions = this.positions;
+            int[] order = this.order;
+            for(int i = 0; i < n; i++)
+                positions[i] = getAgentRelativePosition(workingAgents.get(i));
+
+            //Sort agents by their progress around the patrol - the order from the last tick is kept so this is
+            // usually already (or nearly) sorted.
+            for(int i = 1; i < n; i++) {
+                int index = order[i];
+                double position = positions[index];
+                int j = i - 1;
+                for(; j >= 0 && positions[order[j]] > position; j--)
+                    order[j + 1] = order[j];
+                order[j + 1] = index;
+            }
 
-            for (int i = 0; i < sortedAgents.size(); i++) {
+            for (int i = 0; i < n; i++) {
                 //Keep first agent moving
-                if(i == sortedAgents.size() - 1) {
-                    Agent agent = sortedAgents.get(i);
-                    if(agent.isStopped() && !Simulator.instance.getState().isEditMode())
+                if(i == n - 1) {
+                    Agent agent = workingAgents.get(order[i]);
+                    if(agent.isStopped() && !simulator.getState().isEditMode())
                         agent.resume();
                 }
                 else {
                     //Start/stop other agents if they are too close to the agent in front
-                    Agent agent = sortedAgents.get(i);
-                    Agent next = sortedAgents.get(i + 1);
+                    Agent agent = workingAgents.get(order[i]);
 
-                    double dBetween = agentPositions.get(next.getId()) - agentPositions.get(agent.getId());
+                    double dBetween = positions[order[i + 1]] - positions[order[i]];
 
                     if(dBetween < spacing - tolerance) {
                         if(!agent.isStopped())
                             agent.stop();
                     }
-                    else if(agent.isStopped() && !Simulator.instance.getState().isEditMode())
+                    else if(agent.isStopped() && !simulator.getState().isEditMode())
                         agent.resume();
                 }
             }
         }
     }
 
+    /**
+     * Start the spacing order again from the order of workingAgents, after agents have been added or removed.
+     */
+    private void resetOrder() {
+        int n = workingAgents.size();
+        if(positions.length < n) {
+            positions = new double[Math.max(n, positions.length * 2)];
+            order = new int[positions.length];
+        }
+        for(int i = 0; i < n; i++)
+            order[i] = i;
+    }
+
     /**
      * Get the progress of an agent around the patrol.
      * @param agent - Should be a working agent.
      * @return double between 0 and 1 where 0 is the start of the patrol and 1 is the end.
      */
     private double getAgentRelativePosition(Agent agent) {
-        int lastPointIndex = lastPointMap.get(agent.getId());
-        double absDistance = 0;
-        for (int i = 0; i < points.size(); i++) {
-            Coordinate point = points.get(i);
-            if(i == lastPointIndex || i == points.size() - 1) {
-                absDistance += point.getDistance(agent.getCoordinate());
-                break;
-            }
-            absDistance += point.getDistance(points.get(i + 1));
-        }
-        return absDistance/totalPathDistance;
+        Cursor cursor = cursors.get(agent.getId());
+        int lastPointIndex = Math.min(cursor.lastPoint, points.size() - 1);
+        cursor.offset = Coordinate.getDistance(points.getLatitude(lastPointIndex), points.getLongitude(lastPointIndex),
+                agent.getLatitude(), agent.getLongitude());
+        return (arcLength[lastPointIndex] + cursor.offset)/totalPathDistance;
     }
 
-    private void updateAgentRoute(Agent agent) {
-        List<Coordinate> route = new ArrayList<>();
-        if(lastPointMap.get(agent.getId()) < points.size() - 1)
-            route.addAll(points.subList(lastPointMap.get(agent.getId()) + 1, points.size()));
-        route.addAll(points.subList(0, lastPointMap.get(agent.getId()) + 1));
-        agent.setRoute(route);
+    /**
+     * Set the agent's route to go around the patrol from the point after the last one it visited.
+     * The route follows the patrol's shared points rather than copying them, and is only changed if it isn't
+     *  already that.
+     */
+    private void updateAgentRoute(Agent agent, Cursor cursor) {
+        int next = cursor.lastPoint < points.size() - 1 ? cursor.lastPoint + 1 : 0;
+        Route route = agent.getRoute();
+        if(!route.isFollowing(points, next))
+            route.follow(points, next);
     }
 
     public List<Coordinate> getPoints() {
@@ -135,20 +178,8 @@ public class PatrolTask extends Task {
      * Gets the edge that the agent is on (or closest to) and returns the start point of that edge.
      */
     private Coordinate getPreviousPoint(Agent agent) {
-        Coordinate nearest = null;
-        double nearestDist = 0;
-        double lat0 = this.getCoordinate().getLatitude();
-        for(int i = 0; i < points.size() - 1; i++) {
-            Coordinate p1 = this.points.get(i);
-            Coordinate p2 = this.points.get(i+1);
-            double[] res = getNearestPointOnEdge(p1, p2, agent.getCoordinate(), lat0);
-            double dist = res[2];
-            if(nearest == null || dist < nearestDist) {
-                nearest = p1;
-                nearestDist = dist;
-            }
-        }
-        return nearest;
+        int edge = getSegmentIndex().nearest(agent.getLatitude(), agent.getLongitude(), new double[3]);
+        return edge != -1 ? points.get(edge) : null;
     }
 
     /**
@@ -157,108 +188,54 @@ public class PatrolTask extends Task {
      * Uses the final point in the agent's route (or temp route if in edit mode) or position as a fallback.
      */
     public Coordinate getNearestPointAbsolute(Agent agent) {
-        Coordinate nearest = null;
-        double nearestDist = 0;
-        double lat0 = this.getCoordinate().getLatitude();
         Coordinate agentPos = agent.getCoordinate();
-        if(Simulator.instance.getState().isEditMode() && agent.getTempRoute().size() > 1)
+        if(simulator.getState().isEditMode() && agent.getTempRoute().size() > 1)
             agentPos = agent.getTempRoute().get(agent.getTempRoute().size() - 2);
-        else if(!Simulator.instance.getState().isEditMode() && agent.getRoute().size() > 1)
+        else if(!simulator.getState().isEditMode() && agent.getRoute().size() > 1)
             agentPos = agent.getRoute().get(agent.getRoute().size() - 2);
-        for(int i = 0; i < points.size() - 1; i++) {
-            Coordinate p1 = this.points.get(i);
-            Coordinate p2 = this.points.get(i+1);
-            double[] res = getNearestPointOnEdge(p1, p2, agentPos, lat0);
-            double lat = res[0];
-            double lng = res[1];
-            double dist = res[2];
-            if(nearest == null || dist < nearestDist) {
-                nearest = new Coordinate(lat, lng);
-                nearestDist = dist;
-            }
-        }
-        return nearest;
+        double[] res = new double[3];
+        int edge = getSegmentIndex().nearest(agentPos.getLatitude(), agentPos.getLongitude(), res);
+        return edge != -1 ? new Coordinate(res[0], res[1]) : null;
     }
 
     /**
-     * Get the point on a line between two points p1 and p2 that is closest to another point p.
-     * @param p1 - Start of line
-     * @param p2 - End of line
-     * @param p - Reference point
-     * @param lat0 - Reference latitude for cartesian conversion
-     * @return nearest point (lat, lng) and distance to that point from p
+     * Get the index of the route's edges, building it if the points or the task's position have changed.
      */
-    private double[] getNearestPointOnEdge(Coordinate p1, Coordinate p2, Coordinate p, double lat0) {
-        double[] c0 = p.toCartesian(lat0);
-        double x0 = c0[0];
-        double y0 = c0[1];
-
-        double[] c1 = p1.toCartesian(lat0);
-        double[] c2 = p2.toCartesian(lat0);
-        double x1 = c1[0];
-        double y1 = c1[1];
-        double x2 = c2[0];
-        double y2 = c2[1];
-        double a = y1 - y2;
-        double b = x2 - x1;
-        double c = x1*y2 - x2*y1;
-        double xNearest = (b*(b*x0 - a*y0) - a*c)/(a*a + b*b);
-        double yNearest = (a*(-b*x0 + a*y0) - b*c)/(a*a + b*b);
-        double r = getPositionOnLine(x1, y1, x2, y2, xNearest, yNearest);
-        if(r < 0) {
-            xNearest = x1;
-            yNearest = y1;
-        }
-        else if (r > 1) {
-            xNearest = x2;
-            yNearest = y2;
+    private SegmentIndex getSegmentIndex() {
+        SegmentIndex index = segmentIndex;
+        double lat0 = this.getCoordinate().getLatitude();
+        if (index == null || index.getLat0() != lat0) {
+            synchronized (this) {
+                //Another thread may have built it while this one waited for the lock.
+                index = segmentIndex;
+                if (index == null || index.getLat0() != lat0) {
+                    index = new SegmentIndex(points, lat0);
+                    segmentIndex = index;
+                }
+            }
         }
-        Coordinate nearest = Coordinate.fromCartesian(xNearest, yNearest, lat0);
-        double dist = nearest.getDistance(p);
-        return new double[]{nearest.getLatitude(), nearest.getLongitude(), dist};
-    }
-
-    /**
-     * Get the position of a point p (x,y) relative to two other points p1 (x1, y1) and p2 (x2, y2).
-     * p, p1 and p2 are assumed to be co-linear.
-     * @return   < 0 if p is beyond p1 e.g. p-p1---p2
-     *         0 < 1 if p is between   e.g.   p1-p-p2
-     *           > 1 if p is beyond p2 e.g.   p1---p2-p
-     */
-    private double getPositionOnLine(double x1, double y1, double x2, double y2, double x, double y) {
-        double dx = x2 - x1;
-        double dy = y2 - y1;
-        double dxy = Math.sqrt(dx*dx + dy*dy);
-
-        // Distance from p to p1
-        double dxp1 = x - x1;
-        double dyp1 = y - y1;
-        double dxyp1 = Math.sqrt(dxp1*dxp1 + dyp1*dyp1);
-        if(dxyp1 > dxy)
-            return dxyp1/dxy;
-
-        // Distance from p to p2
-        double dxp2 = x - x2;
-        double dyp2 = y - y2;
-        double dxyp2 = Math.sqrt(dxp2*dxp2 + dyp2*dyp2);
-        if(dxyp2 > dxy)
-            return -(dxyp2/dxy - 1);
-        return dxyp1/dxy;
+        return index;
     }
 
-    private double calcualteRouteLength() {
-        double distance = 0;
+    private void calculateArcLengths() {
+        double[] arcLength = new double[points.size()];
         for(int i = 0; i < points.size() - 1; i++)
-            distance += points.get(i).getDistance(points.get(i + 1));
-        return distance;
+            arcLength[i + 1] = arcLength[i] + Coordinate.getDistance(points.getLatitude(i), points.getLongitude(i),
+                    points.getLatitude(i + 1), points.getLongitude(i + 1));
+        this.arcLength = arcLength;
+        this.totalPathDistance = points.isEmpty() ? 0 : arcLength[points.size() - 1];
     }
 
     public void updatePoints(List<Coordinate> points) {
         synchronized (this) {
-            this.points.clear();
-            this.points.addAll(points);
+            //Agents following the old points keep them until their routes are next updated.
+            this.points = new Route.Path(points);
             this.setCoordinate(getCentre(points));
-            this.totalPathDistance = calcualteRouteLength();
+            calculateArcLengths();
+            segmentIndex = null;
+            //Progress is measured along the old points, so is found again for each agent.
+            cursors.clear();
+            workingAgents.clear();
             perform();
         }
     }
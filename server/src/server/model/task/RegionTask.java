@@ -2,6 +2,7 @@ package server.model.task;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonSerializationContext;
+import server.Simulator;
 import server.model.Coordinate;
 
 import java.util.ArrayList;
@@ -13,17 +14,17 @@ public class RegionTask extends PatrolTask {
     private static final double baseStep = 40;
     private Coordinate nw, ne, se, sw;
 
-    public RegionTask(String id, List<Coordinate> route, Coordinate centrePoint, Coordinate nw, Coordinate ne, Coordinate se, Coordinate sw) {
-        super(id, Task.TASK_REGION, route, centrePoint);
+    public RegionTask(Simulator simulator, String id, List<Coordinate> route, Coordinate centrePoint, Coordinate nw, Coordinate ne, Coordinate se, Coordinate sw) {
+        super(simulator, id, Task.TASK_REGION, route, centrePoint);
         this.nw = nw;
         this.ne = ne;
         this.se = se;
         this.sw = sw;
     }
 
-    public static RegionTask createTask(String id, Coordinate nw, Coordinate ne, Coordinate se, Coordinate sw) {
+    public static RegionTask createTask(Simulator simulator, String id, Coordinate nw, Coordinate ne, Coordinate se, Coordinate sw) {
         List<Coordinate> route = createRoute(nw, ne, se, sw);
-        return new RegionTask(id, route, getCentre(Arrays.asList(nw, ne, se, sw)), nw, ne, se, sw);
+        return new RegionTask(simulator, id, route, getCentre(Arrays.asList(nw, ne, se, sw)), nw, ne, se, sw);
     }
 
     private static Coordinate getCentre(List<Coordinate> corners) {
@@ -0,0 +1,267 @@
+package server.model.task;
+
+import server.model.Coordinate;
+import server.model.Route;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the edges of a route, used to find the edge nearest to a position without checking every edge.
+ * Points are projected to cartesian coords (km, see Coordinate.toCartesian) around a reference latitude and each
+ *  edge is stored in every cell its bounding box overlaps. A query searches rings of cells outwards from the
+ *  position until no unsearched cell could hold a nearer edge, so on long routes (e.g. region sweeps) only the
+ *  few edges near the position are checked.
+ * The index is built once for a set of points and never changes - a new index is built when the points do.
+ */
+class SegmentIndex {
+
+    //Extra distance searched to account for the difference between the projected and real distance.
+    private static final double SEARCH_MARGIN = 1.01;
+    //Most cells along each axis, so a route that is long and thin (little area) can't give a huge grid.
+    private static final int MAX_CELLS_PER_AXIS = 1024;
+
+    private final double lat0;
+    private final int edgeCount;
+    //Projected end points of each edge - edge i is from point i to point i + 1.
+    private final double[] x;
+    private final double[] y;
+
+    private final double minX;
+    private final double minY;
+    private final double cellSize; //km
+    private final int nx;
+    private final int ny;
+    //Edges in each cell - those in cell c are cellEdges[cellStart[c]] to cellEdges[cellStart[c + 1] - 1].
+    private final int[] cellStart;
+    private final int[] cellEdges;
+
+    //Query that last checked each edge, so edges in several cells are only checked once per query.
+    private final int[] checkedBy;
+    private int queryCount;
+    //State of the current query.
+    private int checked;
+    private int best;
+    private double bestDistance;
+    private double bestLat;
+    private double bestLng;
+
+    /**
+     * @param lat0 - Reference latitude for cartesian conversion.
+     */
+    SegmentIndex(Route.Path points, double lat0) {
+        this.lat0 = lat0;
+        this.edgeCount = Math.max(0, points.size() - 1);
+        this.x = new double[points.size()];
+        this.y = new double[points.size()];
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < points.size(); i++) {
+            x[i] = Coordinate.toCartesianX(points.getLongitude(i), lat0);
+            y[i] = Coordinate.toCartesianY(points.getLatitude(i));
+            minX = Math.min(minX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxX = Math.max(maxX, x[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        this.checkedBy = new int[edgeCount];
+
+        if (edgeCount == 0) {
+            this.minX = this.minY = 0;
+            this.cellSize = 1;
+            this.nx = this.ny = 0;
+            this.cellStart = new int[1];
+            this.cellEdges = new int[0];
+            return;
+        }
+
+        //About one edge per cell - sized by area rather than edge length as a sweep's long rows would give huge
+        // cells holding many rows. Falls back to the average edge length for a straight route (no area).
+        double width = maxX - minX, height = maxY - minY;
+        double size = Math.sqrt(width * height / edgeCount);
+        if (size == 0) {
+            double length = 0;
+            for (int i = 0; i < edgeCount; i++)
+                length += Math.hypot(x[i + 1] - x[i], y[i + 1] - y[i]);
+            size = length / edgeCount;
+        }
+        //No more cells along an axis than there are edges.
+        int maxCells = Math.min(edgeCount, MAX_CELLS_PER_AXIS);
+        size = Math.max(size, Math.max(width, height) / maxCells);
+        this.cellSize = size > 0 ? size : 1;
+        this.minX = minX;
+        this.minY = minY;
+        this.nx = toCell(width) + 1;
+        this.ny = toCell(height) + 1;
+
+        //Count the edges in each cell, then fill them in (in edge order).
+        int cells = nx * ny;
+        int[] cellStart = new int[cells + 1];
+        for (int i = 0; i < edgeCount; i++)
+            for (int cell : getCells(i))
+                cellStart[cell + 1]++;
+        for (int c = 0; c < cells; c++)
+            cellStart[c + 1] += cellStart[c];
+        int[] cellEdges = new int[cellStart[cells]];
+        int[] next = Arrays.copyOf(cellStart, cells);
+        for (int i = 0; i < edgeCount; i++)
+            for (int cell : getCells(i))
+                cellEdges[next[cell]++] = i;
+        this.cellStart = cellStart;
+        this.cellEdges = cellEdges;
+    }
+
+    /**
+     * @return Cells overlapped by the bounding box of edge i.
+     */
+    private int[] getCells(int i) {
+        int minCx = toCell(Math.min(x[i], x[i + 1]) - minX), maxCx = toCell(Math.max(x[i], x[i + 1]) - minX);
+        int minCy = toCell(Math.min(y[i], y[i + 1]) - minY), maxCy = toCell(Math.max(y[i], y[i + 1]) - minY);
+        int[] cells = new int[(maxCx - minCx + 1) * (maxCy - minCy + 1)];
+        int c = 0;
+        for (int cx = minCx; cx <= maxCx; cx++)
+            for (int cy = minCy; cy <= maxCy; cy++)
+                cells[c++] = cx * ny + cy;
+        return cells;
+    }
+
+    double getLat0() {
+        return lat0;
+    }
+
+    /**
+     * Find the edge nearest to a position, and the nearest point on it.
+     * If several edges are equally near the first is used.
+     * @param result - Set to the nearest point (lat, lng) and distance (m) to that point from the position.
+     * @return Index of the first point of the nearest edge, or -1 if there are no edges.
+     */
+    synchronized int nearest(double lat, double lng, double[] result) {
+        if (edgeCount == 0)
+            return -1;
+        if (++queryCount == Integer.MAX_VALUE) {
+            Arrays.fill(checkedBy, 0);
+            queryCount = 1;
+        }
+        double x0 = Coordinate.toCartesianX(lng, lat0);
+        double y0 = Coordinate.toCartesianY(lat);
+        //Positions far outside the grid are searched from just outside it - no nearer than they really are, so the
+        // rings still bound the distance to the edges.
+        int pcx = (int) Math.max(-1, Math.min(nx, Math.floor((x0 - minX) / cellSize)));
+        int pcy = (int) Math.max(-1, Math.min(ny, Math.floor((y0 - minY) / cellSize)));
+
+        best = -1;
+        checked = 0;
+        //Rings nearer than this don't overlap the grid.
+        int ring = Math.max(0, Math.max(Math.max(-pcx, pcx - (nx - 1)), Math.max(-pcy, pcy - (ny - 1))));
+        for (; checked < edgeCount; ring++) {
+            //Every cell in this ring is at least (ring - 1) cells from the position.
+            if (best != -1 && (ring - 1) * cellSize * 1000 > bestDistance * SEARCH_MARGIN + 1)
+                break;
+            int fromCx = Math.max(0, pcx - ring), toCx = Math.min(nx - 1, pcx + ring);
+            int fromCy = Math.max(0, pcy - ring), toCy = Math.min(ny - 1, pcy + ring);
+            for (int cx = fromCx; cx <= toCx; cx++) {
+                if (cx == pcx - ring || cx == pcx + ring) {
+                    for (int cy = fromCy; cy <= toCy; cy++)
+                        searchCell(cx, cy, x0, y0, lat, lng, result);
+                }
+                else {
+                    //Only the top and bottom of the ring - the inside has already been searched.
+                    if (pcy - ring >= 0 && pcy - ring < ny)
+                        searchCell(cx, pcy - ring, x0, y0, lat, lng, result);
+                    if (ring > 0 && pcy + ring >= 0 && pcy + ring < ny)
+                        searchCell(cx, pcy + ring, x0, y0, lat, lng, result);
+                }
+            }
+        }
+        result[0] = bestLat;
+        result[1] = bestLng;
+        result[2] = bestDistance;
+        return best;
+    }
+
+    private void searchCell(int cx, int cy, double x0, double y0, double lat, double lng, double[] result) {
+        int cell = cx * ny + cy;
+        for (int e = cellStart[cell]; e < cellStart[cell + 1]; e++) {
+            int i = cellEdges[e];
+            if (checkedBy[i] == queryCount)
+                continue;
+            checkedBy[i] = queryCount;
+            checked++;
+            nearestOnEdge(i, x0, y0, lat, lng, result);
+            if (best == -1 || result[2] < bestDistance || (result[2] == bestDistance && i < best)) {
+                best = i;
+                bestDistance = result[2];
+                bestLat = result[0];
+                bestLng = result[1];
+            }
+        }
+    }
+
+    /**
+     * Get the point on edge i that is closest to a position (x0, y0).
+     * @param result - Set to the nearest point (lat, lng) and distance (m) to that point from the position.
+     */
+    private void nearestOnEdge(int i, double x0, double y0, double lat, double lng, double[] result) {
+        double x1 = x[i], y1 = y[i];
+        double x2 = x[i + 1], y2 = y[i + 1];
+        double a = y1 - y2;
+        double b = x2 - x1;
+        double c = x1*y2 - x2*y1;
+        double xNearest, yNearest;
+        if (a == 0 && b == 0) {
+            //Both ends are the same point.
+            xNearest = x1;
+            yNearest = y1;
+        }
+        else {
+            xNearest = (b*(b*x0 - a*y0) - a*c)/(a*a + b*b);
+            yNearest = (a*(-b*x0 + a*y0) - b*c)/(a*a + b*b);
+            double r = getPositionOnLine(x1, y1, x2, y2, xNearest, yNearest);
+            if(r < 0) {
+                xNearest = x1;
+                yNearest = y1;
+            }
+            else if (r > 1) {
+                xNearest = x2;
+                yNearest = y2;
+            }
+        }
+        double nearestLat = Coordinate.latitudeFromCartesian(yNearest);
+        double nearestLng = Coordinate.longitudeFromCartesian(xNearest, lat0);
+        result[0] = nearestLat;
+        result[1] = nearestLng;
+        result[2] = Coordinate.getDistance(nearestLat, nearestLng, lat, lng);
+    }
+
+    /**
+     * Get the position of a point p (x,y) relative to two other points p1 (x1, y1) and p2 (x2, y2).
+     * p, p1 and p2 are assumed to be co-linear.
+     * @return   < 0 if p is beyond p1 e.g. p-p1---p2
+     *         0 < 1 if p is between   e.g.   p1-p-p2
+     *           > 1 if p is beyond p2 e.g.   p1---p2-p
+     */
+    private static double getPositionOnLine(double x1, double y1, double x2, double y2, double x, double y) {
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double dxy = Math.sqrt(dx*dx + dy*dy);
+
+        // Distance from p to p1
+        double dxp1 = x - x1;
+        double dyp1 = y - y1;
+        double dxyp1 = Math.sqrt(dxp1*dxp1 + dyp1*dyp1);
+        if(dxyp1 > dxy)
+            return dxyp1/dxy;
+
+        // Distance from p to p2
+        double dxp2 = x - x2;
+        double dyp2 = y - y2;
+        double dxyp2 = Math.sqrt(dxp2*dxp2 + dyp2*dyp2);
+        if(dxyp2 > dxy)
+            return -(dxyp2/dxy - 1);
+        return dxyp1/dxy;
+    }
+
+    private int toCell(double km) {
+        return (int) Math.floor(km / cellSize);
+    }
+
+}
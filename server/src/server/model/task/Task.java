@@ -3,15 +3,18 @@ package server.model.task;
 import com.google.gson.*;
 import server.Simulator;
 import server.model.Agent;
+import server.model.AllocationIndex;
 import server.model.Coordinate;
 import server.model.MObject;
 
 import java.io.Serializable;
 import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 /**
  * @author Feng Wu, Yuai Liu
@@ -31,7 +34,8 @@ public abstract class Task extends MObject implements Serializable {
     public static final int TASK_REGION = 3;
 
     //Used in client
-    private final List<Agent> agents; //Serialised to just agent ids.
+    private final Map<String, Agent> agents; //By id, in the order added. Serialised to just agent ids.
+    private final transient Collection<Agent> agentsView;
     protected int group;
     protected double priority;
     private int type;
@@ -39,15 +43,20 @@ public abstract class Task extends MObject implements Serializable {
     // Not on client but used on server
     protected transient int status;
     protected transient double startTime;
+    protected transient double completionTime;
+    protected final transient Simulator simulator;
 
-    public Task(String id, int type, Coordinate coordinate) {
+    public Task(Simulator simulator, String id, int type, Coordinate coordinate) {
         super(id, coordinate);
 
+        this.simulator = simulator;
+
         this.type = type;
 
         group = 1;
         priority = 1.0;
-        agents = new ArrayList<>();
+        agents = new LinkedHashMap<>();
+        agentsView = Collections.unmodifiableCollection(agents.values());
     }
 
     /**
@@ -61,7 +70,8 @@ public abstract class Task extends MObject implements Serializable {
             agent.setWorking(false);
             agent.setSearching(false);
         }
-        Simulator.instance.getTaskController().deleteTask(this.getId(), true);
+        completionTime = simulator.getState().getTime();
+        simulator.getTaskController().deleteTask(this.getId(), true);
         LOGGER.info("Task " + this.getId() + " has been completed");
     }
 
@@ -81,7 +91,7 @@ public abstract class Task extends MObject implements Serializable {
 
             if (hasAnyAgentArrived) {
                 setStatus(Task.STATUS_DOING);
-                setStartTime(Simulator.instance.getState().getTime());
+                setStartTime(simulator.getState().getTime());
             }
         }
 
@@ -98,24 +108,42 @@ public abstract class Task extends MObject implements Serializable {
         return status == Task.STATUS_DONE;
     }
 
-    public List<Agent> getAgents() {
-        return agents;
+    /**
+     * @return Agents allocated to the task, in the order they were added - changed through the AllocationIndex.
+     */
+    public Collection<Agent> getAgents() {
+        return agentsView;
     }
 
-    public void addAgent(Agent agent) {
-        //Only add agent if none of the existing agents have the same id.
-        if (agents.stream().noneMatch(o -> o.getId().equalsIgnoreCase(agent.getId())))
-            agents.add(agent);
+    /**
+     * Add an agent unless an agent with the same id has already been added.
+     * @param token - Only the AllocationIndex has one, as it keeps this in step with the agent's allocated task.
+     */
+    public void addAgent(AllocationIndex.Token token, Agent agent) {
+        checkToken(token);
+        agents.putIfAbsent(agent.getId(), agent);
     }
 
-    public void removeAgent(String agentId) {
-        agents.removeAll(agents.stream().filter(o -> o.getId().equals(agentId)).collect(Collectors.toList()));
+    /**
+     * @param token - Only the AllocationIndex has one.
+     */
+    public void removeAgent(AllocationIndex.Token token, String agentId) {
+        checkToken(token);
+        agents.remove(agentId);
     }
 
-    public void clearAgents() {
+    /**
+     * @param token - Only the AllocationIndex has one.
+     */
+    public void clearAgents(AllocationIndex.Token token) {
+        checkToken(token);
         agents.clear();
     }
 
+    private static void checkToken(AllocationIndex.Token token) {
+        Objects.requireNonNull(token, "A task's agents can only be changed through the AllocationIndex");
+    }
+
     public int getGroup() {
         return group;
     }
@@ -148,6 +176,10 @@ public abstract class Task extends MObject implements Serializable {
         return this.startTime;
     }
 
+    public double getCompletionTime() {
+        return this.completionTime;
+    }
+
     public int getType() {
         return this.type;
     }
@@ -157,7 +189,7 @@ public abstract class Task extends MObject implements Serializable {
 
         //Serialise agents to list of ids
         JsonArray agentsJson = new JsonArray();
-        for(Agent agent : agents)
+        for(Agent agent : agents.values())
             agentsJson.add(new JsonPrimitive(agent.getId()));
         jsonObj.add("agents", agentsJson);
 
@@ -1,11 +1,12 @@
 package server.model.task;
 
+import server.Simulator;
 import server.model.Coordinate;
 
 public class WaypointTask extends Task {
 
-    public WaypointTask(String id, Coordinate coordinate) {
-        super(id, Task.TASK_WAYPOINT, coordinate);
+    public WaypointTask(Simulator simulator, String id, Coordinate coordinate) {
+        super(simulator, id, Task.TASK_WAYPOINT, coordinate);
     }
 
     @Override
@@ -0,0 +1,77 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.model.Agent;
+import server.model.task.Task;
+
+class AgentStepperTest {
+
+	private static final double LAT = 50.93;
+	private static final double LNG = -1.40;
+	private static final int AGENTS = 600;
+	private static final int TICKS = 150;
+
+	@Test
+	@DisplayName("Should move flocking agents to the same positions whether stepped sequentially or in parallel")
+	void matchesSequentialFlocking()
+	{
+		assertSamePositions(createFlock(false, false), createFlock(true, false));
+	}
+
+	@Test
+	@DisplayName("Should move flocking agents to the same positions in parallel with level of detail enabled")
+	void matchesSequentialFlockingWithLevelOfDetail()
+	{
+		assertSamePositions(createFlock(false, true), createFlock(true, true));
+	}
+
+	private static void assertSamePositions(Simulator sequential, Simulator parallel)
+	{
+		for (int tick = 0; tick < TICKS; tick++) {
+			sequential.tick(1);
+			parallel.tick(1);
+		}
+		double moved = 0;
+		for (Agent agent : sequential.getState().getAgents()) {
+			Agent other = parallel.getState().getAgent(agent.getId());
+			assertEquals(agent.getLatitude(), other.getLatitude(), 0, "Latitude of " + agent.getId() + " should match");
+			assertEquals(agent.getLongitude(), other.getLongitude(), 0, "Longitude of " + agent.getId() + " should match");
+			assertEquals(agent.getHeading(), other.getHeading(), 0, "Heading of " + agent.getId() + " should match");
+			moved += agent.getDistanceTravelled();
+		}
+		assertTrue(moved > 0, "Agents should have moved");
+	}
+
+	/**
+	 * Create a simulator with a tightly packed flock, some of whose agents are heading to tasks.
+	 */
+	private static Simulator createFlock(boolean parallel, boolean levelOfDetail)
+	{
+		Simulator simulator = new Simulator(true, 1);
+		simulator.getAgentStepper().setParallel(parallel);
+		simulator.getAgentStepper().setLevelOfDetailEnabled(levelOfDetail);
+		simulator.getState().setFlockingEnabled(true);
+		Random random = new Random(2);
+		for (int i = 0; i < AGENTS; i++) {
+			Agent agent = simulator.getAgentController().addVirtualAgent(LAT + random.nextDouble() * 0.004,
+					LNG + random.nextDouble() * 0.006, random.nextDouble() * 360 - 180);
+			if (i % 10 == 0) {
+				Task task = simulator.getTaskController().createTask(Task.TASK_WAYPOINT,
+						LAT + random.nextDouble() * 0.01, LNG + random.nextDouble() * 0.01);
+				simulator.getState().getAllocations().assign(agent, task);
+				simulator.getState().getAllocation().put(agent.getId(), task.getId());
+				agent.setRoute(Collections.singletonList(task.getCoordinate()));
+			}
+		}
+		return simulator;
+	}
+
+}
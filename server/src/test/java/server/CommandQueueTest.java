@@ -0,0 +1,115 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class CommandQueueTest {
+
+	@Test
+	@DisplayName("Should apply commands in the order they were submitted")
+	void appliesInOrder()
+	{
+		CommandQueue queue = new CommandQueue();
+		List<Integer> applied = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			int n = i;
+			queue.submit(() -> applied.add(n));
+		}
+		assertTrue(applied.isEmpty(), "Commands should not be applied until the queue is drained");
+		assertEquals(5, queue.size(), "Every command should be queued");
+		assertEquals(5, queue.drain(), "Every command should be applied");
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4), applied, "Commands should be applied in the order they were submitted");
+		assertEquals(0, queue.size(), "Queue should be empty after draining");
+	}
+
+	@Test
+	@DisplayName("Should apply commands submitted while draining after those already queued")
+	void appliesNestedLast()
+	{
+		CommandQueue queue = new CommandQueue();
+		List<String> applied = new ArrayList<>();
+		queue.submit(() -> {
+			applied.add("a");
+			return queue.submit(() -> applied.add("c"));
+		});
+		queue.submit(() -> applied.add("b"));
+		assertEquals(3, queue.drain(), "Command submitted while draining should be applied in the same drain");
+		assertEquals(Arrays.asList("a", "b", "c"), applied, "Command submitted while draining should be applied last");
+	}
+
+	@Test
+	@DisplayName("Should complete each future with its command's result or exception")
+	void completesFutures() throws Exception
+	{
+		CommandQueue queue = new CommandQueue();
+		Object result = new Object();
+		IllegalStateException error = new IllegalStateException();
+		CompletableFuture<Object> ok = queue.submit(() -> result);
+		CompletableFuture<Object> failed = queue.submit(() -> {
+			throw error;
+		});
+		List<String> applied = new ArrayList<>();
+		queue.submit(() -> applied.add("after"));
+		assertFalse(ok.isDone(), "Future should not complete before its command is applied");
+
+		queue.drain();
+		assertSame(result, ok.get(), "Future should complete with the command's result");
+		assertTrue(failed.isCompletedExceptionally(), "Future of a failed command should complete exceptionally");
+		assertSame(error, assertThrows(ExecutionException.class, failed::get).getCause(), "Future should complete with the command's exception");
+		assertEquals(Collections.singletonList("after"), applied, "A failed command should not stop later commands");
+	}
+
+	@Test
+	@DisplayName("Should keep the order each thread submitted its commands in")
+	void keepsOrderPerThread() throws Exception
+	{
+		CommandQueue queue = new CommandQueue();
+		int threads = 4, commands = 2000;
+		List<int[]> applied = new ArrayList<>();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> submitters = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			Thread submitter = new Thread(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < commands; i++) {
+					int n = i;
+					queue.submit(() -> applied.add(new int[] {thread, n}));
+				}
+			});
+			submitter.start();
+			submitters.add(submitter);
+		}
+		start.countDown();
+		int drained = 0;
+		while (submitters.stream().anyMatch(Thread::isAlive))
+			drained += queue.drain();
+		for (Thread submitter : submitters)
+			submitter.join();
+		drained += queue.drain();
+
+		assertEquals(threads * commands, drained, "Every command should be applied once");
+		int[] next = new int[threads];
+		for (int[] command : applied)
+			assertEquals(next[command[0]]++, command[1], "Commands of thread " + command[0] + " should be applied in the order submitted");
+	}
+
+}
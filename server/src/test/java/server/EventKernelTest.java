@@ -0,0 +1,180 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.model.Agent;
+import server.model.AgentVirtual;
+import server.model.Coordinate;
+import server.model.task.Task;
+
+class EventKernelTest {
+
+	private static final double LAT = 50.93;
+	private static final double LNG = -1.40;
+	//Ticking moves agents one meter a tick.
+	private static final double TICK_SPEED = 1 / TickScheduler.TICK_DURATION;
+
+	@Test
+	@DisplayName("Should complete a waypoint straight ahead once the agent has flown to it at its own speed")
+	void arrivesAtOwnSpeed()
+	{
+		for (double speed : new double[] {6, 12}) {
+			Simulator simulator = new Simulator(true, 1);
+			Task task = addAgentWithTask(simulator, new Coordinate(LAT + 0.002, LNG));
+			task.getAgents().iterator().next().setSpeed(speed);
+			double distance = new Coordinate(LAT, LNG).getDistance(task.getCoordinate());
+			assertEquals(distance / speed, runUntilDone(simulator, task, false), 0.1, "Agent should fly at " + speed + " m/s");
+		}
+	}
+
+	@Test
+	@DisplayName("Should fly at the speed ticking moves agents with tick speed set, whatever their own speed")
+	void arrivesAtTickSpeed()
+	{
+		Simulator simulator = new Simulator(true, 1);
+		Task task = addAgentWithTask(simulator, new Coordinate(LAT + 0.002, LNG));
+		task.getAgents().iterator().next().setSpeed(12);
+		double distance = new Coordinate(LAT, LNG).getDistance(task.getCoordinate());
+		assertEquals(distance / TICK_SPEED, runUntilDone(simulator, task, true), 0.1, "Agent should fly at " + TICK_SPEED + " m/s");
+	}
+
+	@Test
+	@DisplayName("Should leave agents with no speed where they are")
+	void staysWithoutSpeed()
+	{
+		Simulator simulator = new Simulator(true, 1);
+		Task task = addAgentWithTask(simulator, new Coordinate(LAT + 0.002, LNG));
+		Agent agent = task.getAgents().iterator().next();
+		agent.setSpeed(0);
+		EventKernel kernel = new EventKernel(simulator);
+		kernel.start();
+		kernel.runUntil(1000, () -> false);
+		assertEquals(Task.STATUS_TODO, task.getStatus(), "Task should not be completed");
+		assertEquals(LAT, agent.getLatitude(), 1e-9, "Agent should not move");
+	}
+
+	@Test
+	@DisplayName("Should complete waypoints at the same time as stepping tick by tick with tick speed set")
+	void matchesTicks()
+	{
+		//Straight ahead, off to one side and behind, so the agent also has to turn.
+		for (double[] offset : new double[][] {{0.002, 0}, {0.001, 0.003}, {-0.0015, -0.0005}}) {
+			Coordinate goal = new Coordinate(LAT + offset[0], LNG + offset[1]);
+
+			Simulator ticked = new Simulator(true, 1);
+			Task tickedTask = addAgentWithTask(ticked, goal);
+			for (int tick = 0; tick < 10000 && tickedTask.getStatus() != Task.STATUS_DONE; tick++)
+				ticked.tick(1);
+
+			Simulator evented = new Simulator(true, 1);
+			Task eventedTask = addAgentWithTask(evented, goal);
+			EventKernel kernel = new EventKernel(evented);
+			kernel.setTickSpeed(true);
+			kernel.start();
+			kernel.runUntil(10000 * TickScheduler.TICK_DURATION, () -> eventedTask.getStatus() == Task.STATUS_DONE);
+
+			assertEquals(Task.STATUS_DONE, tickedTask.getStatus(), "Task should be completed by ticking");
+			assertEquals(Task.STATUS_DONE, eventedTask.getStatus(), "Task should be completed by events");
+			//Ticks only notice arrival at the end of a tick, within a meter of the goal.
+			assertEquals(tickedTask.getCompletionTime(), eventedTask.getCompletionTime(), 3 * TickScheduler.TICK_DURATION,
+					"Task at " + goal + " should be completed at the same time");
+		}
+	}
+
+	@Test
+	@DisplayName("Should follow the route one leg at a time")
+	void followsRoute()
+	{
+		Simulator simulator = new Simulator(true, 1);
+		Coordinate corner = new Coordinate(LAT + 0.001, LNG);
+		Task task = addAgentWithTask(simulator, new Coordinate(LAT + 0.001, LNG + 0.0015));
+		Agent agent = task.getAgents().iterator().next();
+		agent.setRoute(Arrays.asList(corner, task.getCoordinate()));
+		List<Coordinate> samples = new ArrayList<>();
+
+		EventKernel kernel = new EventKernel(simulator);
+		kernel.setSampleListener((sampled, lat, lng) -> samples.add(new Coordinate(lat, lng)));
+		kernel.start();
+		kernel.runUntil(1000, () -> task.getStatus() == Task.STATUS_DONE);
+
+		assertEquals(Task.STATUS_DONE, task.getStatus(), "Task should be completed");
+		assertEquals(task.getCoordinate().getLatitude(), agent.getLatitude(), 1e-9, "Agent should end on the task");
+		assertEquals(task.getCoordinate().getLongitude(), agent.getLongitude(), 1e-9, "Agent should end on the task");
+		for (Coordinate sample : samples)
+			assertTrue(sample.getLongitude() <= LNG + 1e-9 || sample.getLatitude() >= corner.getLatitude() - 1e-9,
+					"Agent should not cut the corner, but was at " + sample);
+	}
+
+	@Test
+	@DisplayName("Should run scheduled actions in time order, and in the order scheduled at the same time")
+	void ordersActions()
+	{
+		Simulator simulator = new Simulator(true, 1);
+		EventKernel kernel = new EventKernel(simulator);
+		List<String> run = new ArrayList<>();
+		kernel.schedule(2, () -> run.add("c"));
+		kernel.schedule(1, () -> run.add("a"));
+		kernel.schedule(1, () -> run.add("b"));
+		kernel.schedule(3, () -> run.add("d"));
+
+		kernel.runUntil(2, () -> false);
+		assertEquals(Arrays.asList("a", "b", "c"), run, "Actions up to the time should be run in order");
+		assertEquals(2, simulator.getState().getTime(), 1e-9, "Time should be that of the last action run");
+		kernel.runUntil(10, () -> run.size() >= 3);
+		assertEquals(3, run.size(), "No actions should be run once the stop condition is met");
+		assertEquals(3, kernel.getProcessed(), "Every action run should be counted");
+	}
+
+	@Test
+	@DisplayName("Should only support scenarios that don't need stepping every tick")
+	void checksSupport()
+	{
+		Simulator simulator = new Simulator(true, 1);
+		addAgentWithTask(simulator, new Coordinate(LAT + 0.001, LNG));
+		assertTrue(EventKernel.isSupported(simulator.getState()), "Waypoint tasks should be supported");
+		simulator.getState().setFlockingEnabled(true);
+		assertFalse(EventKernel.isSupported(simulator.getState()), "Flocking should not be supported");
+		simulator.getState().setFlockingEnabled(false);
+		simulator.getTaskController().createPatrolTask(Arrays.asList(new Coordinate(LAT, LNG), new Coordinate(LAT + 0.001, LNG)));
+		assertFalse(EventKernel.isSupported(simulator.getState()), "Patrol tasks should not be supported");
+	}
+
+	/**
+	 * Run the event kernel until the task is completed.
+	 * @return Time the task was completed at.
+	 */
+	private static double runUntilDone(Simulator simulator, Task task, boolean tickSpeed)
+	{
+		EventKernel kernel = new EventKernel(simulator);
+		kernel.setTickSpeed(tickSpeed);
+		kernel.start();
+		kernel.runUntil(1000, () -> task.getStatus() == Task.STATUS_DONE);
+		assertEquals(Task.STATUS_DONE, task.getStatus(), "Task should be completed once the agent arrives");
+		return task.getCompletionTime();
+	}
+
+	/**
+	 * Add an agent at (LAT, LNG) facing north, allocated to a new waypoint task at the goal.
+	 */
+	private static Task addAgentWithTask(Simulator simulator, Coordinate goal)
+	{
+		Agent agent = new AgentVirtual(simulator, "UAV-1", new Coordinate(LAT, LNG), null);
+		simulator.getState().add(agent);
+		Task task = simulator.getTaskController().createTask(Task.TASK_WAYPOINT, goal.getLatitude(), goal.getLongitude());
+		simulator.getState().getAllocations().assign(agent, task);
+		simulator.getState().getAllocation().put(agent.getId(), task.getId());
+		agent.setRoute(Collections.singletonList(task.getCoordinate()));
+		return task;
+	}
+
+}
@@ -0,0 +1,128 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.model.Agent;
+import server.model.AgentVirtual;
+import server.model.Coordinate;
+
+class HeartbeatMonitorTest {
+
+	private static final long TIMEOUT = HeartbeatMonitor.TIMEOUT_MILLIS;
+
+	@Test
+	@DisplayName("Should time out an agent once the timeout has passed since its last heartbeat")
+	void expiresAfterTimeout()
+	{
+		HeartbeatMonitor monitor = new HeartbeatMonitor();
+		Agent agent = createAgent(null, "UAV-1");
+		long start = agent.getLastHeartbeat();
+		monitor.add(agent);
+
+		monitor.setCurrentTime(start + TIMEOUT);
+		assertTrue(monitor.expire().isEmpty(), "Agent should not time out at its deadline");
+		monitor.setCurrentTime(start + TIMEOUT + 1);
+		assertEquals(Collections.singletonList(agent), monitor.expire(), "Agent should time out just after its deadline");
+	}
+
+	@Test
+	@DisplayName("Should push the deadline back when an agent heartbeats")
+	void heartbeatPostponesTimeout()
+	{
+		HeartbeatMonitor monitor = new HeartbeatMonitor();
+		Agent agent = createAgent(null, "UAV-1");
+		long start = agent.getLastHeartbeat();
+		monitor.add(agent);
+
+		monitor.setCurrentTime(start + TIMEOUT / 2);
+		monitor.expire();
+		agent.heartbeat(start + TIMEOUT / 2);
+		monitor.setCurrentTime(start + TIMEOUT + 1);
+		assertTrue(monitor.expire().isEmpty(), "Agent should not time out after heartbeating");
+		monitor.setCurrentTime(start + TIMEOUT / 2 + TIMEOUT + 1);
+		assertEquals(Collections.singletonList(agent), monitor.expire(), "Agent should time out a timeout after its last heartbeat");
+	}
+
+	@Test
+	@DisplayName("Should not time out agents that have been removed")
+	void ignoresRemovedAgents()
+	{
+		HeartbeatMonitor monitor = new HeartbeatMonitor();
+		Agent agent = createAgent(null, "UAV-1");
+		monitor.add(agent);
+		monitor.remove(agent);
+		monitor.setCurrentTime(agent.getLastHeartbeat() + TIMEOUT * 2);
+		assertTrue(monitor.expire().isEmpty(), "Removed agent should not time out");
+		assertEquals(0, monitor.size(), "Monitor should be empty");
+	}
+
+	@Test
+	@DisplayName("Should only schedule an agent once when it is removed and added again before its old deadline")
+	void readdsAgentOnce()
+	{
+		HeartbeatMonitor monitor = new HeartbeatMonitor();
+		Agent agent = createAgent(null, "UAV-1");
+		long start = agent.getLastHeartbeat();
+		monitor.add(agent);
+		monitor.remove(agent);
+		monitor.add(agent);
+		monitor.add(agent);
+
+		monitor.setCurrentTime(start + TIMEOUT + 1);
+		assertEquals(Collections.singletonList(agent), monitor.expire(), "Agent should time out once");
+		agent.heartbeat(start + TIMEOUT + 1);
+		monitor.setCurrentTime(start + 2 * TIMEOUT + 2);
+		assertEquals(Collections.singletonList(agent), monitor.expire(), "Agent should still time out once after being rescheduled");
+		assertEquals(1, monitor.size(), "Agent should only be monitored once");
+	}
+
+	@Test
+	@DisplayName("Should time out the same agents as checking every agent")
+	void matchesBruteForce()
+	{
+		Simulator simulator = new Simulator(true, 1);
+		HeartbeatMonitor monitor = new HeartbeatMonitor();
+		List<Agent> agents = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			Agent agent = createAgent(simulator, "UAV-" + i);
+			agents.add(agent);
+			monitor.add(agent);
+		}
+		Random random = new Random(1);
+		long now = agents.get(agents.size() - 1).getLastHeartbeat();
+		for (int tick = 0; tick < 2000; tick++) {
+			//Mostly single ticks, with the odd jump of more than a whole turn of the wheel.
+			now += random.nextInt(50) == 0 ? 30000 + random.nextInt(30000) : 200;
+			monitor.setCurrentTime(now);
+			for (Agent agent : agents)
+				if (random.nextInt(agent.isTimedOut() ? 400 : 120) == 0)
+					agent.heartbeat(now);
+
+			Set<Agent> expected = new HashSet<>();
+			for (Agent agent : agents)
+				if (!agent.isTimedOut() && now - agent.getLastHeartbeat() > TIMEOUT)
+					expected.add(agent);
+			Set<Agent> found = new HashSet<>(monitor.expire());
+			assertEquals(expected, found, "Monitor should time out the agents past their deadline at tick " + tick);
+			for (Agent agent : found)
+				agent.setTimedOut(true);
+		}
+	}
+
+	private static Agent createAgent(Simulator simulator, String id)
+	{
+		return new AgentVirtual(simulator, id, new Coordinate(50.0, -1.0), null);
+	}
+
+}
@@ -0,0 +1,85 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+
+import server.model.Agent;
+import server.model.task.Task;
+import tool.GsonUtils;
+
+class InputReplayerTest {
+
+	private static final double LAT = 50.93;
+	private static final double LNG = -1.40;
+
+	private File log;
+	private Simulator simulator;
+	//Time agents are timed out against.
+	private long now;
+
+	@BeforeEach
+	void setUp() throws Exception
+	{
+		//States are hashed from their JSON.
+		GsonUtils.registerTypeAdapter(Task.class, Task.taskSerializer);
+		GsonUtils.registerTypeAdapter(Agent.class, Agent.agentSerializer);
+		GsonUtils.create();
+		log = Files.createTempFile("inputs", ".log").toFile();
+		log.deleteOnExit();
+		now = System.currentTimeMillis();
+		simulator = new Simulator(true, 42);
+		simulator.setTimeoutClock(() -> now);
+		simulator.startRecording(log.getPath());
+		simulator.apply(new Input.StartSandbox()).get();
+		for (int i = 0; i < 4; i++)
+			simulator.apply(new Input.AddAgent(LAT + i * 0.001, LNG, 0)).get();
+		simulator.apply(new Input.CreateTask(Task.TASK_WAYPOINT, LAT + 0.003, LNG + 0.002)).get();
+		simulator.apply(new Input.ApplyAutoAllocation(simulator.getAllocator().solve(simulator.apply(new Input.PrepareAutoAllocation()).get()))).get();
+		simulator.apply(new Input.ConfirmAllocation()).get();
+	}
+
+	@Test
+	@DisplayName("Should replay to the same state as the recorded run, including ticks run while catching up")
+	void replaysCatchUp() throws Exception
+	{
+		for (int i = 0; i < 100; i++)
+			simulator.tick(i % 5 == 0 ? 0 : (i % 5 == 1 ? 2 : 1));
+		assertReplayMatches();
+	}
+
+	@Test
+	@DisplayName("Should replay agents timing out in a tick run while catching up before the tick's agents are stepped")
+	void replaysTimeoutWhileCatchingUp() throws Exception
+	{
+		for (int i = 0; i < 20; i++)
+			simulator.tick(1);
+		simulator.tick(0);
+		now += HeartbeatMonitor.TIMEOUT_MILLIS + 1000;
+		simulator.tick(2);
+		for (Agent agent : simulator.getState().getAgents())
+			assertTrue(agent.isTimedOut(), "Agent " + agent.getId() + " should have timed out");
+		for (int i = 0; i < 20; i++)
+			simulator.tick(1);
+		assertReplayMatches();
+	}
+
+	private void assertReplayMatches() throws Exception
+	{
+		simulator.stopRecording();
+		String hash = InputRecorder.hashState(simulator.getState());
+		JsonObject result = new InputReplayer(log.getPath()).run();
+		assertEquals(simulator.getTickCount(), result.get("ticks").getAsLong(), "Replay should run as many ticks");
+		assertEquals(hash, result.get("stateHash").getAsString(), "Replay should end with the same state");
+		assertTrue(result.get("matches").getAsBoolean(), "Replay should match the hash recorded at the end of the log");
+	}
+
+}
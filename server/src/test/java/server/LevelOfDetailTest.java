@@ -0,0 +1,217 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.model.Agent;
+import server.model.AgentKinematics;
+import server.model.AgentPositionBuffer;
+import server.model.AgentVirtual;
+import server.model.Coordinate;
+import server.model.LocalFrame;
+import server.model.hazard.FireHazard;
+import server.model.hazard.Hazard;
+import server.model.task.Task;
+
+class LevelOfDetailTest {
+
+	private static final double LAT = 50.93;
+	private static final double LNG = -1.40;
+
+	private Simulator simulator;
+	private LevelOfDetail levelOfDetail;
+	private AgentPositionBuffer buffer;
+
+	@BeforeEach
+	void setUp()
+	{
+		simulator = new Simulator(true, 1);
+		levelOfDetail = new LevelOfDetail();
+		buffer = new AgentPositionBuffer();
+	}
+
+	@Test
+	@DisplayName("Should step every agent the first tick it is seen")
+	void stepsNewAgents()
+	{
+		Agent agent = createAgent("UAV-1", LAT, LNG);
+		levelOfDetail.startTick(false);
+		assertTrue(levelOfDetail.prepare(agent), "New agent should be stepped");
+		schedule(agent);
+		levelOfDetail.clear();
+		levelOfDetail.startTick(false);
+		assertTrue(levelOfDetail.prepare(agent), "Agent should be stepped once the entries are cleared");
+	}
+
+	@Test
+	@DisplayName("Should step idle agents every idle interval and drain their batteries for the skipped ticks")
+	void stepsIdleAgentsSlowly()
+	{
+		Agent agent = createAgent("UAV-1", LAT, LNG);
+		double battery = agent.getBattery();
+		assertEquals(LevelOfDetail.IDLE_INTERVAL, countTicksUntilStepped(agent, false), "Idle agent should be stepped every idle interval");
+		assertEquals(battery - (LevelOfDetail.IDLE_INTERVAL - 1) * 0.0001, agent.getBattery(), 1e-9,
+				"Battery should be drained for each skipped tick");
+		assertEquals(LAT, agent.getLatitude(), 0, "Idle agent should not move while caught up");
+		assertEquals(1, countTicksUntilStepped(agent, true), "Idle agent should be stepped every tick while flocking");
+	}
+
+	@Test
+	@DisplayName("Should step agents in transit every transit interval and move them on for the skipped ticks")
+	void stepsAgentsInTransit()
+	{
+		Agent agent = createAgent("UAV-1", LAT, LNG);
+		Task task = simulator.getTaskController().createTask(Task.TASK_WAYPOINT, LAT + 0.01, LNG);
+		simulator.getState().getAllocations().assign(agent, task);
+		agent.setRoute(Collections.singletonList(task.getCoordinate()));
+		double distance = agent.getCoordinate().getDistance(task.getCoordinate());
+
+		assertEquals(LevelOfDetail.TRANSIT_INTERVAL, countTicksUntilStepped(agent, false), "Agent in transit should be stepped every transit interval");
+		assertEquals(distance - (LevelOfDetail.TRANSIT_INTERVAL - 1), agent.getCoordinate().getDistance(task.getCoordinate()), 0.01,
+				"Agent should move straight on for each skipped tick");
+
+		agent.setRoute(Collections.singletonList(new Coordinate(LAT, LNG + 0.01)));
+		assertEquals(1, countTicksUntilStepped(agent, false), "Agent that has to turn should be stepped every tick");
+	}
+
+	@Test
+	@DisplayName("Should step agents near hazards or other agents every tick")
+	void stepsBusyAgents()
+	{
+		Agent agent = createAgent("UAV-1", LAT, LNG);
+		Agent near = createAgent("UAV-2", LAT + 0.0003, LNG);
+		Agent far = createAgent("UAV-3", LAT + 0.01, LNG);
+		buffer.sync(new Agent[] {agent, near, far}, LocalFrame.NONE);
+		levelOfDetail.startTick(false);
+		levelOfDetail.schedule(new Agent[] {agent, near, far}, new int[] {0, 1, 2},
+				Arrays.asList(Collections.<Hazard>emptyList(), Collections.<Hazard>emptyList(), Collections.singletonList(new FireHazard("hazard-1", new Coordinate(LAT + 0.01, LNG)))),
+				buffer);
+		levelOfDetail.startTick(false);
+		assertTrue(levelOfDetail.prepare(agent), "Agent with a neighbour should be stepped every tick");
+		assertTrue(levelOfDetail.prepare(near), "Agent with a neighbour should be stepped every tick");
+		assertTrue(levelOfDetail.prepare(far), "Agent near a hazard should be stepped every tick");
+
+		assertEquals(LevelOfDetail.IDLE_INTERVAL, countTicksUntilStepped(far, false), "Agent on its own should be stepped every idle interval");
+	}
+
+	@Test
+	@DisplayName("Should step an agent early when anything its interval was decided from changes")
+	void stepsEarlyOnChange()
+	{
+		Agent agent = createAgent("UAV-1", LAT, LNG);
+		schedule(agent);
+		levelOfDetail.startTick(false);
+		assertFalse(levelOfDetail.prepare(agent), "Idle agent should not be stepped the next tick");
+
+		agent.stop();
+		levelOfDetail.startTick(false);
+		assertTrue(levelOfDetail.prepare(agent), "Stopping the agent should step it early");
+		schedule(agent);
+
+		agent.setCoordinate(new Coordinate(LAT + 0.001, LNG));
+		levelOfDetail.startTick(false);
+		assertTrue(levelOfDetail.prepare(agent), "Moving the agent should step it early");
+		schedule(agent);
+
+		agent.setRoute(Collections.singletonList(new Coordinate(LAT, LNG)));
+		levelOfDetail.startTick(false);
+		assertTrue(levelOfDetail.prepare(agent), "Changing the agent's route should step it early");
+		schedule(agent);
+
+		levelOfDetail.startTick(true);
+		assertTrue(levelOfDetail.prepare(agent), "Enabling flocking should step every agent early");
+	}
+
+	@Test
+	@DisplayName("Should only select agents scheduled for the tick or marked as changed, unless the agents change")
+	void selectsDueAgents()
+	{
+		Agent[] agents = new Agent[20];
+		for (int i = 0; i < agents.length; i++)
+			agents[i] = createAgent("UAV-" + i, LAT + i * 0.01, LNG);
+		AgentKinematics kinematics = simulator.getState().getKinematics();
+		buffer.sync(agents, LocalFrame.NONE);
+		int[] due = new int[agents.length];
+		assertEquals(agents.length, select(agents, true, kinematics, due), "Every agent should be selected when the agents change");
+
+		agents[7].setRoute(Collections.singletonList(new Coordinate(LAT, LNG + 0.01)));
+		agents[3].setCoordinate(new Coordinate(LAT + 0.001, LNG));
+		agents[12].setHeading(90);
+		assertEquals(2, select(agents, false, kinematics, due), "Only changed agents should be selected");
+		assertEquals(Arrays.asList(3, 7), Arrays.asList(due[0], due[1]), "Changed agents should be selected in buffer order");
+
+		for (int tick = 2; tick < LevelOfDetail.IDLE_INTERVAL; tick++)
+			assertEquals(0, select(agents, false, kinematics, due), "No agent should be selected before it is due");
+		assertEquals(agents.length - 2, select(agents, false, kinematics, due), "Agents should be selected once due");
+
+		Agent[] removed = Arrays.copyOf(agents, agents.length - 1);
+		buffer.sync(removed, LocalFrame.NONE);
+		assertEquals(2, select(removed, false, kinematics, due), "Agents stepped early should be selected once due again");
+		agents[agents.length - 1].stop();
+		assertEquals(0, select(removed, false, kinematics, due), "Removed agents should not be selected");
+	}
+
+	/**
+	 * Select the agents due this tick and schedule them, as the agent stepper does.
+	 * @return Number of agents selected, their buffer indices are left in due.
+	 */
+	private int select(Agent[] agents, boolean agentsChanged, AgentKinematics kinematics, int[] due)
+	{
+		levelOfDetail.startTick(false);
+		int count = levelOfDetail.selectDue(agents, agentsChanged, kinematics.takeChanged(), due);
+		Agent[] selected = new Agent[count];
+		List<List<Hazard>> hazardsInRange = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			selected[i] = agents[due[i]];
+			buffer.write(due[i]);
+			hazardsInRange.add(Collections.emptyList());
+		}
+		buffer.commit(due, count);
+		levelOfDetail.schedule(selected, due, hazardsInRange, buffer);
+		return count;
+	}
+
+	/**
+	 * Schedule the agent, then count the ticks until it is next stepped.
+	 */
+	private int countTicksUntilStepped(Agent agent, boolean flockingEnabled)
+	{
+		levelOfDetail.startTick(flockingEnabled);
+		levelOfDetail.prepare(agent);
+		schedule(agent);
+		for (int ticks = 1; ticks <= 100; ticks++) {
+			levelOfDetail.startTick(flockingEnabled);
+			if (levelOfDetail.prepare(agent)) {
+				schedule(agent);
+				return ticks;
+			}
+		}
+		return -1;
+	}
+
+	private void schedule(Agent agent)
+	{
+		Agent[] agents = {agent};
+		buffer.sync(agents, LocalFrame.NONE);
+		buffer.write(0);
+		buffer.swap();
+		List<List<Hazard>> hazardsInRange = Collections.singletonList(Collections.emptyList());
+		levelOfDetail.schedule(agents, new int[] {0}, hazardsInRange, buffer);
+	}
+
+	private Agent createAgent(String id, double lat, double lng)
+	{
+		return new AgentVirtual(simulator, id, new Coordinate(lat, lng), null);
+	}
+
+}
@@ -0,0 +1,90 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.model.Coordinate;
+import server.model.LocalFrame;
+
+class LocalFrameTest {
+
+	private static final double LAT = 50.93;
+	private static final double LNG = -1.40;
+	private static final double RADIUS = 2000;
+
+	@Test
+	@DisplayName("Should convert positions to meters and back")
+	void roundTrips()
+	{
+		LocalFrame frame = new LocalFrame(LAT, LNG, RADIUS);
+		Random random = new Random(1);
+		for (int i = 0; i < 1000; i++) {
+			double lat = LAT + (random.nextDouble() - 0.5) * 0.02;
+			double lng = LNG + (random.nextDouble() - 0.5) * 0.02;
+			assertEquals(lat, frame.toLatitude(frame.toY(lat)), 1e-12, "Latitude should survive the round trip");
+			assertEquals(lng, frame.toLongitude(frame.toX(lng)), 1e-12, "Longitude should survive the round trip");
+		}
+		assertEquals(0, frame.toX(LNG), 0, "Anchor should be at the origin");
+		assertEquals(0, frame.toY(LAT), 0, "Anchor should be at the origin");
+		assertTrue(frame.toX(LNG + 0.001) > 0, "x should increase to the east");
+		assertTrue(frame.toY(LAT + 0.001) > 0, "y should increase to the north");
+	}
+
+	@Test
+	@DisplayName("Should give planar distances close to the haversine distance inside the frame")
+	void matchesHaversineInside()
+	{
+		LocalFrame frame = new LocalFrame(LAT, LNG, RADIUS);
+		Random random = new Random(2);
+		int compared = 0;
+		for (int i = 0; i < 1000; i++) {
+			Coordinate a = randomCoordinate(random);
+			Coordinate b = randomCoordinate(random);
+			if (!frame.containsPosition(a.getLatitude(), a.getLongitude()) || !frame.containsPosition(b.getLatitude(), b.getLongitude()))
+				continue;
+			double planar = frame.getDistance(a.getLatitude(), a.getLongitude(), b.getLatitude(), b.getLongitude());
+			double expected = a.getDistance(b);
+			assertEquals(expected, planar, expected * 1e-3, "Planar distance should be within 0.1% of the haversine distance");
+			compared++;
+		}
+		assertTrue(compared > 100, "Enough pairs should fall inside the frame");
+	}
+
+	@Test
+	@DisplayName("Should use the haversine distance when either position is outside the frame")
+	void fallsBackOutside()
+	{
+		LocalFrame frame = new LocalFrame(LAT, LNG, RADIUS);
+		Coordinate inside = new Coordinate(LAT + 0.001, LNG);
+		Coordinate outside = new Coordinate(LAT + 0.05, LNG);
+		assertTrue(frame.containsPosition(inside.getLatitude(), inside.getLongitude()), "Position should be inside the frame");
+		assertFalse(frame.containsPosition(outside.getLatitude(), outside.getLongitude()), "Position should be outside the frame");
+		assertEquals(inside.getDistance(outside),
+				frame.getDistance(inside.getLatitude(), inside.getLongitude(), outside.getLatitude(), outside.getLongitude()),
+				"Distance to a position outside the frame should be the haversine distance");
+	}
+
+	@Test
+	@DisplayName("Should contain nothing when disabled")
+	void noneContainsNothing()
+	{
+		assertFalse(LocalFrame.NONE.isEnabled(), "NONE should not be enabled");
+		assertFalse(LocalFrame.NONE.contains(0, 0), "NONE should not contain its own anchor");
+		Coordinate a = new Coordinate(LAT, LNG);
+		Coordinate b = new Coordinate(LAT + 0.001, LNG + 0.001);
+		assertEquals(a.getDistance(b), LocalFrame.NONE.getDistance(a.getLatitude(), a.getLongitude(), b.getLatitude(), b.getLongitude()),
+				"NONE should always give the haversine distance");
+	}
+
+	private static Coordinate randomCoordinate(Random random)
+	{
+		return new Coordinate(LAT + (random.nextDouble() - 0.5) * 0.04, LNG + (random.nextDouble() - 0.5) * 0.06);
+	}
+
+}
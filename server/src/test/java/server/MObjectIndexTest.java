@@ -0,0 +1,92 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.model.Coordinate;
+import server.model.MObjectIndex;
+import server.model.hazard.FireHazard;
+import server.model.hazard.Hazard;
+
+class MObjectIndexTest {
+
+	@Test
+	@DisplayName("Should find the same hazards in range as checking every hazard")
+	void matchesBruteForce()
+	{
+		Random random = new Random(1);
+		MObjectIndex<Hazard> index = new MObjectIndex<>(100, Hazard::getSize);
+		List<Hazard> hazards = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			Hazard hazard = new FireHazard("Hazard-" + i, randomCoordinate(random), 20 + random.nextInt(300));
+			hazards.add(hazard);
+			index.add(hazard);
+		}
+
+		for (int i = 0; i < 1000; i++) {
+			Coordinate position = randomCoordinate(random);
+			HashSet<Hazard> expected = new HashSet<>();
+			for (Hazard hazard : hazards)
+				if (hazard.inRange(position))
+					expected.add(hazard);
+			HashSet<Hazard> found = new HashSet<>();
+			for (Hazard hazard : index.getCandidates(position.getLatitude(), position.getLongitude()))
+				if (hazard.inRange(position))
+					found.add(hazard);
+			assertEquals(expected, found, "Index should find every hazard in range of " + position);
+		}
+	}
+
+	@Test
+	@DisplayName("Should not return objects after they are removed")
+	void removesObjects()
+	{
+		MObjectIndex<Hazard> index = new MObjectIndex<>(100, Hazard::getSize);
+		Hazard hazard = new FireHazard("Hazard-1", new Coordinate(50.0, -1.0), 150);
+		index.add(hazard);
+		assertEquals(1, index.query(50.0, -1.0, 10).size(), "Hazard should be found before removal");
+		index.remove(hazard);
+		assertEquals(0, index.query(50.0, -1.0, 10).size(), "Hazard should not be found after removal");
+	}
+
+	@Test
+	@DisplayName("Should publish changes made between queries without changing candidates already returned")
+	void publishesChanges()
+	{
+		MObjectIndex<Hazard> index = new MObjectIndex<>(100, Hazard::getSize);
+		List<Hazard> hazards = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Hazard hazard = new FireHazard("Hazard-" + i, new Coordinate(50.0, -1.0), 50);
+			hazards.add(hazard);
+			index.add(hazard);
+		}
+		List<Hazard> candidates = index.getCandidates(50.0, -1.0);
+		assertEquals(hazards, candidates, "Every hazard added before the query should be a candidate");
+
+		index.remove(hazards.get(0));
+		index.remove(hazards.get(3));
+		Hazard added = new FireHazard("Hazard-5", new Coordinate(50.0, -1.0), 50);
+		index.add(added);
+		assertEquals(hazards, candidates, "Candidates already returned should not change");
+		assertEquals(new HashSet<>(Arrays.asList(hazards.get(1), hazards.get(2), hazards.get(4), added)),
+				new HashSet<>(index.getCandidates(50.0, -1.0)), "Changes should be published by the next query");
+		assertEquals(4, index.size(), "Size should count the hazards left");
+
+		index.clear();
+		assertEquals(0, index.query(50.0, -1.0, 10).size(), "Nothing should be found once cleared");
+	}
+
+	private static Coordinate randomCoordinate(Random random)
+	{
+		return new Coordinate(50.9 + random.nextDouble() * 0.02, -1.4 + random.nextDouble() * 0.03);
+	}
+
+}
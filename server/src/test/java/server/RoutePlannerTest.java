@@ -0,0 +1,69 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.model.Agent;
+import server.model.AgentVirtual;
+import server.model.Coordinate;
+import server.model.task.Task;
+
+class RoutePlannerTest {
+
+	private static final long BUDGET = 1_000_000_000L;
+
+	@Test
+	@DisplayName("Should visit waypoints along a line in order")
+	void sequencesWaypointsAlongLine()
+	{
+		Coordinate start = new Coordinate(50.0, -1.0);
+		Coordinate a = new Coordinate(50.001, -1.0);
+		Coordinate b = new Coordinate(50.002, -1.0);
+		Coordinate c = new Coordinate(50.003, -1.0);
+		Coordinate end = new Coordinate(50.004, -1.0);
+		List<Coordinate> route = RoutePlanner.sequence(start, Arrays.asList(c, a, b, end), true, System.nanoTime() + BUDGET);
+		assertEquals(Arrays.asList(a, b, c, end), route, "Waypoints should be ordered by distance along the line");
+	}
+
+	@Test
+	@DisplayName("Should keep the final waypoint at the end of the route")
+	void keepsFixedEnd()
+	{
+		Coordinate start = new Coordinate(50.0, -1.0);
+		Coordinate near = new Coordinate(50.001, -1.0);
+		Coordinate far = new Coordinate(50.005, -1.0);
+		Coordinate end = new Coordinate(50.006, -1.0);
+		List<Coordinate> route = RoutePlanner.sequence(start, Arrays.asList(far, near, end), true, System.nanoTime() + BUDGET);
+		assertEquals(end, route.get(route.size() - 1), "Task point should remain the final destination");
+		assertEquals(near, route.get(0), "Nearest waypoint should be visited first");
+	}
+
+	@Test
+	@DisplayName("Should optimise the temp route of every agent allocated in edit mode, and nothing outside it")
+	void optimisesFleetTempRoutes()
+	{
+		Simulator simulator = new Simulator(true, 1);
+		Agent agent = new AgentVirtual(simulator, "UAV-1", new Coordinate(50.0, -1.0), null);
+		simulator.getState().add(agent);
+		Task task = simulator.getTaskController().createTask(Task.TASK_WAYPOINT, 50.004, -1.0);
+		simulator.getState().setEditMode(true);
+		simulator.getAllocator().putInTempAllocation(agent.getId(), task.getId());
+		Coordinate a = new Coordinate(50.001, -1.0);
+		Coordinate b = new Coordinate(50.002, -1.0);
+		Coordinate c = new Coordinate(50.003, -1.0);
+		for (Coordinate waypoint : Arrays.asList(c, a, b))
+			simulator.getAgentController().addToAgentTempRoute(agent.getId(), agent.getTempRoute().size() - 1, waypoint);
+
+		assertEquals(1, simulator.getAgentController().optimiseAgentTempRoutes(), "Agent's temp route should be changed");
+		assertEquals(Arrays.asList(a, b, c, task.getCoordinate()), agent.getTempRoute(), "Waypoints should be visited in order, ending at the task");
+		assertEquals(0, simulator.getAgentController().optimiseAgentTempRoutes(), "Optimised route should be left as it is");
+
+		simulator.getState().setEditMode(false);
+		assertEquals(-1, simulator.getAgentController().optimiseAgentTempRoutes(), "Routes should not be optimised outside edit mode");
+	}
+}
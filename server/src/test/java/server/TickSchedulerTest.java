@@ -0,0 +1,107 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class TickSchedulerTest {
+
+	private static final long START = 1_000_000_000L;
+
+	//Decay steps of each tick run.
+	private List<Integer> ticks;
+	private TickScheduler scheduler;
+
+	@BeforeEach
+	void setUp()
+	{
+		ticks = new ArrayList<>();
+		Simulator simulator = new Simulator(true, 1) {
+			@Override
+			void tick(int decaySteps)
+			{
+				ticks.add(decaySteps);
+			}
+		};
+		scheduler = new TickScheduler(simulator);
+		scheduler.reset(START);
+	}
+
+	@Test
+	@DisplayName("Should reject speeds that aren't positive numbers")
+	void rejectsInvalidSpeeds()
+	{
+		for (double speed : new double[] {0, -1, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY})
+			assertThrows(IllegalArgumentException.class, () -> scheduler.setSpeed(speed), "Speed " + speed + " should be rejected");
+		assertEquals(TickScheduler.DEFAULT_SPEED, scheduler.getSpeed(), "Rejected speeds should not change the speed");
+		assertThrows(IllegalArgumentException.class, () -> scheduler.setMaxCatchUpTicks(-1), "Negative max catch up ticks should be rejected");
+	}
+
+	@Test
+	@DisplayName("Should change the period with the speed, and clamp huge speeds to a period of a nanosecond")
+	void changesPeriod()
+	{
+		long second = TimeUnit.SECONDS.toNanos(1);
+		scheduler.setSpeed(1);
+		assertEquals((long) (second * TickScheduler.TICK_DURATION), scheduler.getPeriodNanos(), "Period should be a tick's duration at speed 1");
+		scheduler.setSpeed(2);
+		assertEquals((long) (second * TickScheduler.TICK_DURATION / 2), scheduler.getPeriodNanos(), "Period should halve at double speed");
+
+		scheduler.setSpeed(Double.MAX_VALUE);
+		assertEquals(TickScheduler.MAX_SPEED, scheduler.getSpeed(), "Huge speeds should be clamped");
+		assertEquals(1, scheduler.getPeriodNanos(), "Period should never be less than a nanosecond");
+		scheduler.setSpeed(TickScheduler.MAX_SPEED * 0.9);
+		assertEquals(1, scheduler.getPeriodNanos(), "Period should never be less than a nanosecond");
+		assertEquals(START + 1, scheduler.runTick(START + 5), "Loop should keep ticking at the fastest speed");
+	}
+
+	@Test
+	@DisplayName("Should defer expensive phases while catching up, then run them with the skipped decay")
+	void catchesUp()
+	{
+		scheduler.setSpeed(1);
+		long period = scheduler.getPeriodNanos();
+		assertEquals(START + period, scheduler.runTick(START), "Next tick should be due a period later");
+
+		//A slow tick leaves the loop three ticks behind, which it catches up without sleeping.
+		long now = START + 4 * period + period / 2;
+		long next = START + period;
+		while (next <= now)
+			next = scheduler.runTick(now);
+		assertEquals(Arrays.asList(1, 0, 0, 0, 4), ticks, "Expensive phases should be skipped while behind, then decay the skipped ticks");
+		assertEquals(START + 5 * period, next, "Loop should be back on its schedule");
+		assertEquals(3, scheduler.getStatsJson().get("deferredPhases").getAsInt(), "Deferred ticks should be counted");
+		assertEquals(0, scheduler.getStatsJson().get("droppedTicks").getAsInt(), "No ticks should be dropped");
+	}
+
+	@Test
+	@DisplayName("Should drop the backlog when too far behind")
+	void dropsBacklog()
+	{
+		scheduler.setSpeed(1);
+		scheduler.setMaxCatchUpTicks(2);
+		long period = scheduler.getPeriodNanos();
+		scheduler.runTick(START);
+
+		long now = START + 10 * period;
+		assertEquals(now + period, scheduler.runTick(now), "Loop should carry on from now");
+		assertEquals(Arrays.asList(1, 1), ticks, "Ticks should run in full once the backlog is dropped");
+		assertEquals(9, scheduler.getStatsJson().get("droppedTicks").getAsInt(), "Dropped ticks should be counted");
+
+		scheduler.setMaxCatchUpTicks(0);
+		scheduler.setSpeed(2);
+		now += 2 * period;
+		assertTrue(scheduler.runTick(now) > now, "Loop should never catch up with no catch up ticks allowed");
+		assertEquals(Arrays.asList(1, 1, 1), ticks, "Ticks should run in full");
+	}
+
+}
@@ -0,0 +1,111 @@
+package server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.controller.handler.TileHandler;
+import server.model.hazard.Hazard;
+import tool.HttpServer;
+
+class TileCacheTest {
+
+	private static final double LAT = 50.93;
+	private static final double LNG = -1.40;
+	private static final int ZOOM = 16;
+
+	@Test
+	@DisplayName("Should reuse a tile until a cell under it changes")
+	void reusesUnchangedTiles() throws Exception
+	{
+		Simulator simulator = new Simulator(true, 1);
+		TileCache cache = simulator.getTileCache();
+		simulator.getState().addHazardHit(Hazard.FIRE, LAT, LNG);
+		TileCache.Tile tile = cache.getTile(TileCache.Layer.FIRE, ZOOM, tileX(LNG), tileY(LAT));
+		assertSame(tile, cache.getTile(TileCache.Layer.FIRE, ZOOM, tileX(LNG), tileY(LAT)), "Unchanged tile should not be rendered again");
+
+		simulator.getState().addHazardHit(Hazard.FIRE, LAT + 0.1, LNG);
+		assertSame(tile, cache.getTile(TileCache.Layer.FIRE, ZOOM, tileX(LNG), tileY(LAT)), "A hit in another tile should not change the tile");
+
+		simulator.getState().addHazardHit(Hazard.FIRE, LAT + 0.0002, LNG);
+		TileCache.Tile changed = cache.getTile(TileCache.Layer.FIRE, ZOOM, tileX(LNG), tileY(LAT));
+		assertNotEquals(tile.getEtag(), changed.getEtag(), "A hit in the tile should change its ETag");
+		assertNotEquals(tile.getEtag(), cache.getTile(TileCache.Layer.DEBRIS, ZOOM, tileX(LNG), tileY(LAT)).getEtag(),
+				"Layers should never share an ETag");
+	}
+
+	@Test
+	@DisplayName("Should not give tiles outside the map")
+	void rejectsOutsideMap() throws Exception
+	{
+		TileCache cache = new Simulator(true, 1).getTileCache();
+		assertNull(cache.getTile(TileCache.Layer.FIRE, 2, 4, 0), "x beyond the map should have no tile");
+		assertNull(cache.getTile(TileCache.Layer.FIRE, 2, 0, -1), "Negative y should have no tile");
+		assertNull(cache.getTile(TileCache.Layer.FIRE, TileCache.MAX_ZOOM + 1, 0, 0), "Zoom beyond the maximum should have no tile");
+	}
+
+	@Test
+	@DisplayName("Should answer a request for a tile the client already has with 304")
+	void revalidatesWithEtag() throws Exception
+	{
+		Simulator simulator = new Simulator(true, 1);
+		TileHandler handler = new TileHandler("/tiles", simulator);
+		String path = "/tiles/fire/" + ZOOM + "/" + tileX(LNG) + "/" + tileY(LAT) + ".png";
+		simulator.getState().addHazardHit(Hazard.FIRE, LAT, LNG);
+
+		String first = get(handler, path, null);
+		assertTrue(first.startsWith("HTTP/1.1 200"), "First request should get the tile");
+		String etag = getHeader(first, "ETag");
+		assertTrue(getHeader(first, "Cache-Control").contains("no-cache"), "Clients should revalidate the tile");
+
+		String revalidated = get(handler, path, etag);
+		assertTrue(revalidated.startsWith("HTTP/1.1 304"), "Unchanged tile should not be sent again");
+		assertEquals(etag, getHeader(revalidated, "ETag"), "304 should repeat the ETag");
+
+		simulator.getState().addHazardHit(Hazard.FIRE, LAT + 0.0002, LNG);
+		String changed = get(handler, path, etag);
+		assertTrue(changed.startsWith("HTTP/1.1 200"), "Changed tile should be sent again");
+		assertNotEquals(etag, getHeader(changed, "ETag"), "Changed tile should have a new ETag");
+	}
+
+	private static String get(TileHandler handler, String path, String etag) throws Exception
+	{
+		String request = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n" +
+				(etag != null ? "If-None-Match: " + etag + "\r\n" : "") + "\r\n";
+		HttpServer server = new HttpServer();
+		HttpServer.Request req = server.new Request(new ByteArrayInputStream(request.getBytes(StandardCharsets.US_ASCII)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HttpServer.Response resp = server.new Response(out);
+		handler.handle(req, resp);
+		return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static String getHeader(String response, String name)
+	{
+		for (String line : response.split("\r\n"))
+			if (line.regionMatches(true, 0, name + ":", 0, name.length() + 1))
+				return line.substring(name.length() + 1).trim();
+		return null;
+	}
+
+	private static int tileX(double lng)
+	{
+		return (int) Math.floor((lng + 180) / 360 * (1 << ZOOM));
+	}
+
+	private static int tileY(double lat)
+	{
+		double latRad = Math.toRadians(lat);
+		return (int) Math.floor((1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * (1 << ZOOM));
+	}
+
+}
@@ -0,0 +1,89 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class AgentKinematicsTest {
+
+	@Test
+	@DisplayName("Should give released handles to agents added later, starting from a cleared slot")
+	void reusesReleasedHandles()
+	{
+		AgentKinematics kinematics = new AgentKinematics();
+		int first = kinematics.allocate(50, -1, true);
+		int second = kinematics.allocate(51, -2, true);
+		kinematics.setHeading(first, 90);
+		kinematics.setStopped(first, true);
+		kinematics.addDistanceTravelled(first, 10);
+
+		kinematics.release(first);
+		kinematics.release(first);
+		int reused = kinematics.allocate(52, -3, false);
+		assertEquals(first, reused, "Released handle should be reused");
+		assertEquals(2, kinematics.size(), "Store should not grow while handles are free");
+		assertEquals(52, kinematics.getLatitude(reused), 0, "Reused slot should have the new position");
+		assertEquals(0, kinematics.getHeading(reused), 0, "Reused slot should not keep the old heading");
+		assertEquals(0, kinematics.getDistanceTravelled(reused), 0, "Reused slot should not keep the old distance");
+		assertFalse(kinematics.isStopped(reused), "Reused slot should not keep the old flags");
+		assertFalse(kinematics.isSimulated(reused), "Reused slot should have the new agent's flags");
+		assertTrue(kinematics.isSimulated(second), "Other slots should be untouched");
+		assertEquals(2, kinematics.allocate(53, -4, true), "Store should grow once no handles are free");
+	}
+
+	@Test
+	@DisplayName("Should not report released agents as changed")
+	void forgetsReleasedChanges()
+	{
+		AgentKinematics kinematics = new AgentKinematics();
+		for (int i = 0; i < 4; i++)
+			kinematics.allocate(50, -1, true);
+		kinematics.takeChanged();
+
+		kinematics.setStopped(1, true);
+		kinematics.setStopped(2, true);
+		kinematics.setStopped(3, true);
+		kinematics.release(2);
+		assertArrayEquals(new int[] {1, 3}, kinematics.takeChanged(), "Released agent should not be taken as changed");
+		assertArrayEquals(new int[0], kinematics.takeChanged(), "Changes should only be taken once");
+	}
+
+	@Test
+	@DisplayName("Should keep every agent's flags when agents sharing a word are changed on different threads")
+	void setsFlagsConcurrently() throws InterruptedException
+	{
+		AgentKinematics kinematics = new AgentKinematics();
+		int agents = 256;
+		for (int i = 0; i < agents; i++)
+			kinematics.allocate(50, -1, true);
+		int threadCount = 4;
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < threadCount; t++) {
+			int offset = t;
+			threads.add(new Thread(() -> {
+				for (int round = 0; round < 1000; round++)
+					for (int h = offset; h < agents; h += threadCount)
+						kinematics.setWorking(h, round % 2 == 0);
+			}));
+		}
+		for (Thread thread : threads)
+			thread.start();
+		for (Thread thread : threads)
+			thread.join();
+		for (int h = 0; h < agents; h++)
+			assertFalse(kinematics.isWorking(h), "Agent " + h + " should have its last flag value");
+
+		for (int h = 0; h < agents; h += 3)
+			kinematics.setSearching(h, true);
+		for (int h = 0; h < agents; h++)
+			assertEquals(h % 3 == 0, kinematics.isSearching(h), "Only agents set searching should be");
+	}
+
+}
@@ -0,0 +1,176 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.Simulator;
+import server.model.task.Task;
+
+class AllocationIndexTest {
+
+	@Test
+	@DisplayName("Should move an agent between tasks' agents when it is allocated again")
+	void putMovesAgent()
+	{
+		AllocationIndex.Allocation allocation = new AllocationIndex().getCommitted();
+		assertNull(allocation.put("UAV-1", "task-1"), "First allocation should replace nothing");
+		allocation.put("UAV-2", "task-1");
+		assertEquals(new LinkedHashSet<>(Arrays.asList("UAV-1", "UAV-2")), allocation.getAgentIds("task-1"),
+				"Both agents should be allocated to the task");
+
+		assertEquals("task-1", allocation.put("UAV-1", "task-2"), "Allocating again should replace the old task");
+		assertEquals(Collections.singleton("UAV-2"), allocation.getAgentIds("task-1"), "Agent should leave its old task");
+		assertEquals(Collections.singleton("UAV-1"), allocation.getAgentIds("task-2"), "Agent should join its new task");
+
+		assertEquals("task-1", allocation.remove("UAV-2"), "Removing should give the agent's task");
+		assertTrue(allocation.getAgentIds("task-1").isEmpty(), "Task should have no agents left");
+	}
+
+	@Test
+	@DisplayName("Should rebuild the task's agents when the allocation is replaced")
+	void replaceRebuildsTasks()
+	{
+		AllocationIndex.Allocation allocation = new AllocationIndex().getTemp();
+		allocation.put("UAV-1", "task-1");
+		Map<String, String> replacement = new HashMap<>();
+		replacement.put("UAV-2", "task-2");
+		replacement.put("UAV-3", "task-2");
+		allocation.replace(replacement);
+		replacement.put("UAV-4", "task-2");
+
+		assertEquals(2, allocation.size(), "Allocation should be a copy of the replacement");
+		assertTrue(allocation.getAgentIds("task-1").isEmpty(), "Old allocations should be gone");
+		assertEquals(new HashSet<>(Arrays.asList("UAV-2", "UAV-3")), allocation.getAgentIds("task-2"),
+				"Agents of the replacement should be allocated to its tasks");
+	}
+
+	@Test
+	@DisplayName("Should remove every allocation to a task")
+	void removesTask()
+	{
+		AllocationIndex.Allocation allocation = new AllocationIndex().getDropped();
+		allocation.put("UAV-1", "task-1");
+		allocation.put("UAV-2", "task-1");
+		allocation.put("UAV-3", "task-2");
+		allocation.removeTask("task-1");
+
+		assertNull(allocation.get("UAV-1"), "Agent of the removed task should not be allocated");
+		assertNull(allocation.get("UAV-2"), "Agent of the removed task should not be allocated");
+		assertEquals("task-2", allocation.get("UAV-3"), "Agent of another task should stay allocated");
+		assertTrue(allocation.getAgentIds("task-1").isEmpty(), "Removed task should have no agents");
+	}
+
+	@Test
+	@DisplayName("Should keep the task's agents in step with the allocation")
+	void matchesBruteForce()
+	{
+		AllocationIndex.Allocation allocation = new AllocationIndex().getCommitted();
+		Map<String, String> expected = new HashMap<>();
+		Random random = new Random(1);
+		for (int i = 0; i < 5000; i++) {
+			String agentId = "UAV-" + random.nextInt(30), taskId = "task-" + random.nextInt(8);
+			int op = random.nextInt(20);
+			if (op < 12) {
+				allocation.put(agentId, taskId);
+				expected.put(agentId, taskId);
+			}
+			else if (op < 18) {
+				allocation.remove(agentId);
+				expected.remove(agentId);
+			}
+			else if (op < 19) {
+				allocation.removeTask(taskId);
+				expected.values().removeIf(taskId::equals);
+			}
+			else {
+				Map<String, String> replacement = new HashMap<>(expected);
+				replacement.remove(agentId);
+				allocation.replace(replacement);
+				expected = replacement;
+			}
+
+			assertEquals(expected, new HashMap<>(allocation), "Allocation should match after change " + i);
+			for (int task = 0; task < 8; task++) {
+				Set<String> agentIds = new HashSet<>();
+				for (Map.Entry<String, String> entry : expected.entrySet())
+					if (entry.getValue().equals("task-" + task))
+						agentIds.add(entry.getKey());
+				assertEquals(agentIds, allocation.getAgentIds("task-" + task), "Agents of task-" + task + " should match after change " + i);
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Should keep each task's agents once each, in the order they were assigned")
+	void assignsAgentsInOrder()
+	{
+		Simulator simulator = new Simulator(true, 1);
+		AllocationIndex allocations = simulator.getState().getAllocations();
+		Task task = simulator.getTaskController().createTask(Task.TASK_WAYPOINT, 50.93, -1.40);
+		Task other = simulator.getTaskController().createTask(Task.TASK_WAYPOINT, 50.94, -1.40);
+		List<Agent> agents = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Agent agent = new AgentVirtual(simulator, "UAV-" + i, new Coordinate(50.93, -1.40), null);
+			simulator.getState().add(agent);
+			agents.add(agent);
+			allocations.assign(agent, task);
+		}
+		allocations.assign(agents.get(2), task);
+		assertEquals(agents, new ArrayList<>(task.getAgents()), "Assigning an agent twice should not add it again");
+
+		allocations.assign(agents.get(1), other);
+		allocations.release(agents.get(3));
+		allocations.assign(agents.get(1), task);
+		assertEquals(Arrays.asList(agents.get(0), agents.get(2), agents.get(4), agents.get(1)), new ArrayList<>(task.getAgents()),
+				"Agents should leave the task when moved or released, and rejoin at the end");
+		assertTrue(other.getAgents().isEmpty(), "Agent should leave the task it was moved from");
+		assertThrows(UnsupportedOperationException.class, () -> task.getAgents().clear(), "Task's agents should not be changed directly");
+		assertThrows(NullPointerException.class, () -> task.clearAgents(null), "Task's agents should only be changed by the allocation index");
+	}
+
+	@Test
+	@DisplayName("Should give copies that can be iterated while the allocation changes")
+	void viewsAreCopies()
+	{
+		AllocationIndex.Allocation allocation = new AllocationIndex().getCommitted();
+		for (int i = 0; i < 10; i++)
+			allocation.put("UAV-" + i, "task-1");
+
+		int count = 0;
+		for (Map.Entry<String, String> entry : allocation.entrySet()) {
+			allocation.remove(entry.getKey());
+			allocation.put(entry.getKey() + "-new", "task-1");
+			count++;
+		}
+		assertEquals(10, count, "Entries should be those before iterating");
+		count = 0;
+		for (String agentId : allocation.getAgentIds("task-1")) {
+			allocation.remove(agentId);
+			count++;
+		}
+		assertEquals(10, count, "Agent ids should be those before iterating");
+		assertEquals(0, allocation.size(), "Every change made while iterating should be applied");
+
+		allocation.put("UAV-1", "task-1");
+		Set<String> agentIds = allocation.getAgentIds("task-1");
+		assertThrows(UnsupportedOperationException.class, () -> agentIds.add("UAV-2"), "Agent ids should not be changeable");
+		assertThrows(UnsupportedOperationException.class, () -> allocation.entrySet().clear(), "Entries should not be changeable");
+	}
+
+}
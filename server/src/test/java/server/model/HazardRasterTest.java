@@ -0,0 +1,182 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class HazardRasterTest {
+
+	//Decay rate of hits where no hazard was found.
+	private static final double DECAY_RATE = 0.001;
+	//Rounding in the repeated subtraction can leave a hit whose weight should be 0 just above it for a step.
+	private static final double ROUNDING = 1e-9;
+	private static final int ROW = 509300;
+	private static final int COL = -14000;
+
+	@Test
+	@DisplayName("Should expire hits at the same step as subtracting the decay from every hit")
+	void matchesSubtraction()
+	{
+		HazardRaster raster = new HazardRaster(DECAY_RATE);
+		//Weight of each hit cell, decayed the way every hit used to be.
+		Map<Long, Double> expected = new HashMap<>();
+		Random random = new Random(1);
+		for (int tick = 0; tick < 3000; tick++) {
+			for (int i = 0; i < 5; i++) {
+				int row = ROW + random.nextInt(40), col = COL + random.nextInt(40);
+				raster.put(toDegrees(row), toDegrees(col));
+				expected.put(key(row, col), 1.0);
+			}
+			//Mostly single steps, with the odd catch up of several at once.
+			int steps = random.nextInt(20) == 0 ? 1 + random.nextInt(300) : 1;
+			raster.decay(steps);
+			expected.replaceAll((key, weight) -> weight - DECAY_RATE * steps);
+			expected.values().removeIf(weight -> weight < 0);
+
+			Map<Long, Float> found = new HashMap<>();
+			raster.forEachIn(toDegrees(ROW - 1), toDegrees(ROW + 41), toDegrees(COL - 1), toDegrees(COL + 41), false,
+					(lat, lng, weight) -> found.put(key(toCell(lat), toCell(lng)), weight));
+			for (Map.Entry<Long, Double> entry : expected.entrySet()) {
+				if (entry.getValue() < ROUNDING)
+					continue;
+				assertTrue(found.containsKey(entry.getKey()), "Hit with weight " + entry.getValue() + " should be covered after tick " + tick);
+				assertEquals(entry.getValue(), found.get(entry.getKey()), 1e-6, "Weight should match after tick " + tick);
+			}
+			for (Long key : found.keySet())
+				assertTrue(expected.containsKey(key), "Expired hit should not be covered after tick " + tick);
+			assertEquals(found.size(), raster.getCoveredCells(), "Covered cell count should match the covered cells after tick " + tick);
+		}
+	}
+
+	@Test
+	@DisplayName("Should expire a hit after the steps its weight lasts")
+	void expiresAfterLifetime()
+	{
+		HazardRaster raster = new HazardRaster(DECAY_RATE);
+		raster.put(toDegrees(ROW), toDegrees(COL));
+		raster.decay(999);
+		assertEquals(1, raster.getCoveredCells(), "Hit should still be covered before its weight reaches 0");
+		raster.decay(1);
+		assertEquals(0, raster.getCoveredCells(), "Hit should expire once its weight reaches 0");
+		assertEquals(1, raster.getExploredCells(), "Expired hit should still count as explored");
+	}
+
+	@Test
+	@DisplayName("Should keep hits that don't decay")
+	void keepsHitsWithoutDecay()
+	{
+		HazardRaster raster = new HazardRaster(0);
+		raster.put(toDegrees(ROW), toDegrees(COL));
+		raster.decay(100000);
+		assertEquals(1, raster.getCoveredCells(), "Hit should never expire");
+	}
+
+	@Test
+	@DisplayName("Should only allocate tiles where cells have been hit")
+	void allocatesTilesOnHit()
+	{
+		HazardRaster raster = new HazardRaster(0);
+		assertEquals(0, raster.getTileCount(), "New raster should have no tiles");
+		raster.put(toDegrees(ROW), toDegrees(COL));
+		raster.put(toDegrees(ROW + 1), toDegrees(COL + 1));
+		assertEquals(1, raster.getTileCount(), "Nearby hits should share a tile");
+		raster.put(toDegrees(ROW + 1000), toDegrees(COL));
+		assertEquals(2, raster.getTileCount(), "A distant hit should allocate a new tile");
+		assertEquals(3, raster.getExploredCells(), "Each hit cell should be explored");
+	}
+
+	@Test
+	@DisplayName("Should count explored area and the explored percentage of the extent")
+	void countsExploredArea()
+	{
+		HazardRaster raster = new HazardRaster(DECAY_RATE);
+		raster.put(toDegrees(ROW), toDegrees(COL));
+		raster.put(toDegrees(ROW), toDegrees(COL));
+		double cellArea = raster.getExploredArea();
+		assertEquals(1, raster.getExploredCells(), "Hitting a cell again should not explore more");
+		assertEquals(11.1 * 11.1 * Math.cos(Math.toRadians(toDegrees(ROW))), cellArea, 1, "A cell should be about 10m square");
+
+		raster.put(toDegrees(ROW + 100), toDegrees(COL));
+		raster.setExtent(toDegrees(ROW), toDegrees(COL), 50);
+		assertEquals(100 * cellArea / (Math.PI * 50 * 50), raster.getExploredPercentage(), 1e-3,
+				"Only the cell inside the extent should count towards the percentage");
+		raster.put(toDegrees(ROW + 1), toDegrees(COL));
+		assertEquals(200 * cellArea / (Math.PI * 50 * 50), raster.getExploredPercentage(), 1e-3,
+				"Cells hit after the extent is set should count towards the percentage");
+
+		raster.decay(2000);
+		assertEquals(0, raster.getCoveredCells(), "All hits should have expired");
+		assertEquals(3, raster.getExploredCells(), "Expired cells should still be explored");
+		raster.setExtent(0, 0, -1);
+		assertEquals(-1, raster.getExploredPercentage(), 0, "Without an extent there should be no percentage");
+	}
+
+	@Test
+	@DisplayName("Should only change the version of an area when cells in it change")
+	void versionsAreas()
+	{
+		HazardRaster raster = new HazardRaster(0);
+		raster.put(toDegrees(ROW), toDegrees(COL));
+		String near = raster.getVersion(toDegrees(ROW - 10), toDegrees(ROW + 10), toDegrees(COL - 10), toDegrees(COL + 10), false);
+		String far = raster.getVersion(toDegrees(ROW + 990), toDegrees(ROW + 1010), toDegrees(COL - 10), toDegrees(COL + 10), false);
+
+		raster.put(toDegrees(ROW), toDegrees(COL));
+		assertEquals(near, raster.getVersion(toDegrees(ROW - 10), toDegrees(ROW + 10), toDegrees(COL - 10), toDegrees(COL + 10), false),
+				"Hitting a covered cell again should not change the version");
+		raster.put(toDegrees(ROW + 1000), toDegrees(COL));
+		assertEquals(near, raster.getVersion(toDegrees(ROW - 10), toDegrees(ROW + 10), toDegrees(COL - 10), toDegrees(COL + 10), false),
+				"A hit elsewhere should not change the version");
+		assertNotEquals(far, raster.getVersion(toDegrees(ROW + 990), toDegrees(ROW + 1010), toDegrees(COL - 10), toDegrees(COL + 10), false),
+				"A hit in the area should change its version");
+		assertNotEquals(new HazardRaster(0).getVersion(0, 1, 0, 1, false), new HazardRaster(0).getVersion(0, 1, 0, 1, false),
+				"Versions of different rasters should never match");
+	}
+
+	@Test
+	@DisplayName("Should hold the same hits off heap as on heap")
+	void offHeapMatchesOnHeap()
+	{
+		HazardRaster onHeap = new HazardRaster(DECAY_RATE);
+		HazardRaster offHeap = new HazardRaster(DECAY_RATE);
+		offHeap.setOffHeap(true);
+		Random random = new Random(2);
+		for (int tick = 0; tick < 500; tick++) {
+			int row = ROW + random.nextInt(200), col = COL + random.nextInt(200);
+			onHeap.put(toDegrees(row), toDegrees(col));
+			offHeap.put(toDegrees(row), toDegrees(col));
+			onHeap.decay(1);
+			offHeap.decay(1);
+		}
+		Map<Long, Float> expected = new HashMap<>();
+		onHeap.forEachIn(toDegrees(ROW), toDegrees(ROW + 200), toDegrees(COL), toDegrees(COL + 200), false,
+				(lat, lng, weight) -> expected.put(key(toCell(lat), toCell(lng)), weight));
+		Map<Long, Float> found = new HashMap<>();
+		offHeap.forEachIn(toDegrees(ROW), toDegrees(ROW + 200), toDegrees(COL), toDegrees(COL + 200), false,
+				(lat, lng, weight) -> found.put(key(toCell(lat), toCell(lng)), weight));
+		assertEquals(expected, found, "Off heap raster should hold the same hits");
+		assertEquals(onHeap.getExploredArea(), offHeap.getExploredArea(), "Off heap raster should explore the same area");
+	}
+
+	private static double toDegrees(int cell)
+	{
+		return cell / 10000.0;
+	}
+
+	private static int toCell(double degrees)
+	{
+		return (int) Math.round(degrees * 10000);
+	}
+
+	private static long key(int row, int col)
+	{
+		return ((long) row << 32) | (col & 0xFFFFFFFFL);
+	}
+
+}
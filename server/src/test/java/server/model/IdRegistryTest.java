@@ -0,0 +1,118 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class IdRegistryTest {
+
+	private static class Item extends IdObject {
+		private Item(String id)
+		{
+			super(id);
+		}
+	}
+
+	@Test
+	@DisplayName("Should find objects by id")
+	void findsById()
+	{
+		IdRegistry<Item> registry = new IdRegistry<>();
+		Item a = new Item("a"), b = new Item("b");
+		registry.add(a);
+		registry.add(b);
+		assertSame(a, registry.get("a"), "Object should be found by its id");
+		assertSame(b, registry.get("b"), "Object should be found by its id");
+		assertNull(registry.get("c"), "Unknown id should find nothing");
+		assertNull(registry.get(null), "Null id should find nothing");
+		assertTrue(registry.contains(a), "Added object should be contained");
+		assertFalse(registry.contains(new Item("a")), "A different object with the same id should not be contained");
+	}
+
+	@Test
+	@DisplayName("Should iterate in the order objects were added")
+	void keepsInsertionOrder()
+	{
+		IdRegistry<Item> registry = new IdRegistry<>();
+		List<Item> expected = new ArrayList<>();
+		for (String id : Arrays.asList("z", "a", "m", "b", "y")) {
+			Item item = new Item(id);
+			registry.add(item);
+			expected.add(item);
+		}
+		registry.remove(expected.remove(2));
+		Item readded = new Item("m");
+		registry.add(readded);
+		expected.add(readded);
+		assertEquals(expected, new ArrayList<>(registry), "Objects should be iterated in the order they were added");
+	}
+
+	@Test
+	@DisplayName("Should reject a second object with the same id")
+	void rejectsDuplicateIds()
+	{
+		IdRegistry<Item> registry = new IdRegistry<>();
+		Item first = new Item("a");
+		registry.add(first);
+		assertThrows(RuntimeException.class, () -> registry.add(new Item("a")), "Duplicate id should throw");
+		assertEquals(1, registry.size(), "Duplicate should not be added");
+		assertSame(first, registry.get("a"), "First object should be kept");
+	}
+
+	@Test
+	@DisplayName("Should remove objects from both the id and order maps")
+	void removesFromBothMaps()
+	{
+		IdRegistry<Item> registry = new IdRegistry<>();
+		Item a = new Item("a"), b = new Item("b"), c = new Item("c");
+		registry.add(a);
+		registry.add(b);
+		registry.add(c);
+
+		assertTrue(registry.remove(new Item("a")), "Removing by id should remove the object with that id");
+		assertFalse(registry.remove(new Item("a")), "Removing again should find nothing");
+		for (Iterator<Item> it = registry.iterator(); it.hasNext(); )
+			if (it.next() == b)
+				it.remove();
+		assertNull(registry.get("b"), "Object removed through the iterator should not be found by id");
+		assertEquals(Arrays.asList(c), new ArrayList<>(registry), "Only the remaining object should be iterated");
+		assertEquals(1, registry.size(), "Size should count the remaining object");
+
+		registry.clear();
+		assertTrue(registry.isEmpty(), "Registry should be empty after clearing");
+		assertFalse(registry.iterator().hasNext(), "Nothing should be iterated after clearing");
+	}
+
+	@Test
+	@DisplayName("Should not throw when changed while iterating")
+	void iteratesWhileChanging()
+	{
+		IdRegistry<Item> registry = new IdRegistry<>();
+		for (int i = 0; i < 100; i++)
+			registry.add(new Item("item-" + i));
+		int seen = 0, removed = 0;
+		for (Item item : registry) {
+			seen++;
+			if (!item.getId().startsWith("item-"))
+				continue;
+			registry.remove(item);
+			registry.add(new Item("new-" + removed++));
+		}
+		assertEquals(100, removed, "Every object there before iterating should be seen");
+		assertEquals(100, registry.size(), "Every change made while iterating should be applied");
+		assertTrue(seen >= 100 && seen <= 200, "Objects added while iterating may or may not be seen, but only once");
+		assertEquals("new-0", registry.iterator().next().getId(), "Objects added while iterating should follow the order they were added");
+	}
+
+}
@@ -0,0 +1,169 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+class RouteTest {
+
+	@Test
+	@DisplayName("Should keep the points in order as the ring wraps around")
+	void wrapsRing()
+	{
+		Route route = new Route();
+		List<Coordinate> expected = new ArrayList<>();
+		for (int i = 0; i < 4; i++)
+			add(route, expected, point(i));
+		//Moving on and adding a goal each time walks the ring round its array several times.
+		for (int i = 4; i < 20; i++) {
+			assertEquals(expected.remove(0), route.remove(0), "Next point should be removed");
+			add(route, expected, point(i));
+			assertEquals(expected, route, "Points should keep their order after wrapping " + i);
+		}
+		route.add(0, point(-1));
+		expected.add(0, point(-1));
+		route.add(2, point(-2));
+		expected.add(2, point(-2));
+		route.remove(3);
+		expected.remove(3);
+		assertEquals(expected, route, "Points should keep their order when added or removed in the middle of a wrapped ring");
+	}
+
+	@Test
+	@DisplayName("Should match a list under any changes")
+	void matchesList()
+	{
+		Random random = new Random(1);
+		Route route = new Route();
+		List<Coordinate> expected = new ArrayList<>();
+		Route.Path path = new Route.Path(Arrays.asList(point(100), point(101), point(102), point(103), point(104)));
+		for (int i = 0; i < 5000; i++) {
+			int op = random.nextInt(20);
+			if (op < 6)
+				add(route, expected, point(i));
+			else if (op < 8) {
+				int index = random.nextInt(expected.size() + 1);
+				route.add(index, point(i));
+				expected.add(index, point(i));
+			}
+			else if (op < 12 && !expected.isEmpty())
+				assertEquals(expected.remove(0), route.remove(0), "First point should be removed at change " + i);
+			else if (op < 14 && !expected.isEmpty()) {
+				int index = random.nextInt(expected.size());
+				assertEquals(expected.remove(index), route.remove(index), "Point should be removed at change " + i);
+			}
+			else if (op < 16 && !expected.isEmpty()) {
+				int index = random.nextInt(expected.size());
+				assertEquals(expected.set(index, point(i)), route.set(index, point(i)), "Point should be replaced at change " + i);
+			}
+			else if (op < 17) {
+				int start = random.nextInt(path.size());
+				route.follow(path, start);
+				expected.clear();
+				for (int j = 0; j < path.size(); j++)
+					expected.add(path.get((start + j) % path.size()));
+			}
+			else if (op < 18) {
+				Route other = new Route();
+				other.replace(expected);
+				route.replace(other);
+			}
+			else if (op < 19 && expected.size() > 20) {
+				route.clear();
+				expected.clear();
+			}
+			assertEquals(expected, route, "Route should match after change " + i);
+		}
+		assertEquals(new Route.Path(Arrays.asList(point(100), point(101), point(102), point(103), point(104))), path,
+				"Followed path should never be changed");
+	}
+
+	@Test
+	@DisplayName("Should copy a followed path before changing it")
+	void copiesFollowedPath()
+	{
+		Route.Path path = new Route.Path(Arrays.asList(point(0), point(1), point(2), point(3)));
+		Route route = new Route();
+		route.follow(path, 2);
+		assertTrue(route.isFollowing(path, 2), "Route should be following the path from the start point");
+		assertFalse(route.isFollowing(path, 1), "Route should not be following the path from another point");
+		assertEquals(Arrays.asList(point(2), point(3), point(0), point(1)), route, "Route should go round the path from the start point");
+
+		Route other = new Route();
+		other.follow(path, 0);
+		route.remove(0);
+		assertFalse(route.isFollowing(path, 2), "Route should no longer be following the path once moved on");
+		route.set(0, point(9));
+		route.add(point(8));
+		assertEquals(Arrays.asList(point(9), point(0), point(1), point(8)), route, "Route should be changed");
+		assertEquals(Arrays.asList(point(0), point(1), point(2), point(3)), path, "Path should not be changed");
+		assertEquals(path, other, "Other routes following the path should not be changed");
+		assertTrue(other.isFollowing(path, 0), "Other routes should still be following the path");
+	}
+
+	@Test
+	@DisplayName("Should copy a route it was replaced with before changing it")
+	void copiesReplacedRoute()
+	{
+		Route original = new Route();
+		original.replace(Arrays.asList(point(0), point(1), point(2)));
+		Route copy = new Route();
+		copy.replace(original);
+		assertEquals(original, copy, "Replaced route should have the same points");
+
+		copy.set(1, point(9));
+		copy.add(0, point(8));
+		assertEquals(Arrays.asList(point(0), point(1), point(2)), original, "Changing the copy should not change the original");
+		original.remove(1);
+		original.add(point(7));
+		assertEquals(Arrays.asList(point(8), point(0), point(9), point(2)), copy, "Changing the original should not change the copy");
+		assertEquals(Arrays.asList(point(0), point(2), point(7)), original, "Original should be changed");
+	}
+
+	@Test
+	@DisplayName("Should increase the version on every change")
+	void versionsChanges()
+	{
+		Route route = new Route();
+		long version = route.getVersion();
+		route.add(point(0));
+		assertTrue(route.getVersion() > version, "Adding should change the version");
+		version = route.getVersion();
+		route.set(0, point(0));
+		assertEquals(version, route.getVersion(), "Setting a point to where it already is should not change the version");
+		route.set(0, point(1));
+		assertTrue(route.getVersion() > version, "Setting should change the version");
+		version = route.getVersion();
+		route.follow(new Route.Path(Arrays.asList(point(0), point(1))), 1);
+		assertTrue(route.getVersion() > version, "Following should change the version");
+		version = route.getVersion();
+		route.remove(0);
+		assertTrue(route.getVersion() > version, "Removing should change the version");
+		version = route.getVersion();
+		route.replace(Arrays.asList(point(3)));
+		assertTrue(route.getVersion() > version, "Replacing should change the version");
+		version = route.getVersion();
+		route.clear();
+		assertTrue(route.getVersion() > version, "Clearing should change the version");
+	}
+
+	private static void add(Route route, List<Coordinate> expected, Coordinate coordinate)
+	{
+		route.add(coordinate);
+		expected.add(coordinate);
+	}
+
+	private static Coordinate point(int i)
+	{
+		return new Coordinate(50 + i * 0.001, -1 - i * 0.001);
+	}
+
+}
@@ -0,0 +1,179 @@
+package server.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.Simulator;
+
+class SpatialHashGridTest {
+
+	private static final double LAT = 50.93;
+	private static final double LNG = -1.40;
+	private static final double CELL_SIZE = 50;
+
+	@Test
+	@DisplayName("Should find the same points within a radius as checking every point")
+	void queriesRadius()
+	{
+		Random random = new Random(1);
+		double[] latitude = new double[500];
+		double[] longitude = new double[500];
+		scatter(random, latitude, longitude, 0.01);
+		SpatialHashGrid grid = new SpatialHashGrid(CELL_SIZE);
+		grid.build(latitude, longitude, latitude.length);
+
+		for (int q = 0; q < 50; q++) {
+			double lat = LAT + random.nextDouble() * 0.01;
+			double lng = LNG + random.nextDouble() * 0.01;
+			for (double radius : new double[] {5, 50, 120}) {
+				assertEquals(withinRadius(latitude, longitude, lat, lng, radius), found(grid.query(lat, lng, radius)),
+						"Points within " + radius + "m of query " + q + " should match");
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Should find the same k nearest points as sorting every point by distance")
+	void findsNearest()
+	{
+		Random random = new Random(2);
+		double[] latitude = new double[300];
+		double[] longitude = new double[300];
+		//Most points clustered, a few far away so the search has to widen well beyond the first rings.
+		scatter(random, latitude, longitude, 0.005);
+		for (int i = 0; i < 5; i++) {
+			latitude[i] = LAT + 0.5 * (i + 1);
+			longitude[i] = LNG - 0.3 * i;
+		}
+		SpatialHashGrid grid = new SpatialHashGrid(CELL_SIZE);
+		grid.build(latitude, longitude, latitude.length);
+
+		for (int q = 0; q < 50; q++) {
+			double lat = LAT + random.nextDouble() * 0.005;
+			double lng = LNG + random.nextDouble() * 0.005;
+			for (int k : new int[] {1, 5, 40})
+				assertEquals(nearest(latitude, longitude, latitude.length, lat, lng, k), toList(grid.nearest(lat, lng, k)),
+						k + " nearest points to query " + q + " should match");
+		}
+		double lat = LAT + 3;
+		assertEquals(nearest(latitude, longitude, latitude.length, lat, LNG, 3), toList(grid.nearest(lat, LNG, 3)),
+				"Nearest points to a query far from every point should match");
+		assertEquals(latitude.length, grid.nearest(LAT, LNG, latitude.length + 10).length, "Every point should be found when k is more than the points");
+		assertEquals(0, grid.nearest(LAT, LNG, 0).length, "No points should be found for k of 0");
+	}
+
+	@Test
+	@DisplayName("Should keep finding the right points as points are moved between cells")
+	void updatesPoints()
+	{
+		Random random = new Random(3);
+		double[] latitude = new double[200];
+		double[] longitude = new double[200];
+		scatter(random, latitude, longitude, 0.005);
+		SpatialHashGrid grid = new SpatialHashGrid(CELL_SIZE);
+		grid.build(latitude, longitude, latitude.length);
+
+		for (int move = 0; move < 500; move++) {
+			int i = random.nextInt(latitude.length);
+			latitude[i] += (random.nextDouble() - 0.5) * 0.002;
+			longitude[i] += (random.nextDouble() - 0.5) * 0.002;
+			grid.update(i);
+			if (move % 50 == 0) {
+				double lat = LAT + random.nextDouble() * 0.005;
+				double lng = LNG + random.nextDouble() * 0.005;
+				assertEquals(withinRadius(latitude, longitude, lat, lng, 80), found(grid.query(lat, lng, 80)),
+						"Points within the radius should match after move " + move);
+				assertEquals(nearest(latitude, longitude, latitude.length, lat, lng, 10), toList(grid.nearest(lat, lng, 10)),
+						"Nearest points should match after move " + move);
+			}
+		}
+	}
+
+	@Test
+	@DisplayName("Should sense the same flocking neighbours as checking the distance to every other agent")
+	void sensesNeighbours()
+	{
+		Random random = new Random(4);
+		Simulator simulator = new Simulator(true, 1);
+		Sensor sensor = new Sensor(simulator);
+		Agent[] agents = new Agent[400];
+		for (int i = 0; i < agents.length; i++)
+			agents[i] = new AgentVirtual(simulator, "UAV-" + i,
+					new Coordinate(LAT + random.nextDouble() * 0.004, LNG + random.nextDouble() * 0.006), sensor);
+		sensor.getBuffer().sync(agents, LocalFrame.NONE);
+
+		for (Agent agent : agents) {
+			Set<Agent> expected = new HashSet<>();
+			for (Agent other : agents)
+				if (other != agent && agent.getCoordinate().getDistance(other.getCoordinate()) <= 50.0)
+					expected.add(other);
+			Sensor.Neighbours neighbours = sensor.senseNeighbours(agent, 50.0);
+			Set<Agent> sensed = new HashSet<>();
+			for (int n = 0; n < neighbours.size(); n++)
+				sensed.add(agents[neighbours.getIndex(n)]);
+			assertEquals(expected, sensed, "Neighbours of " + agent.getId() + " should match");
+
+			List<Agent> nearest = Arrays.stream(agents)
+					.filter(other -> other != agent)
+					.sorted(Comparator.comparingDouble(other -> agent.getCoordinate().getDistance(other.getCoordinate())))
+					.limit(6)
+					.collect(Collectors.toList());
+			assertEquals(nearest, sensor.senseNearestNeighbours(agent, 6), "Nearest neighbours of " + agent.getId() + " should match");
+		}
+	}
+
+	private static void scatter(Random random, double[] latitude, double[] longitude, double spread)
+	{
+		for (int i = 0; i < latitude.length; i++) {
+			latitude[i] = LAT + random.nextDouble() * spread;
+			longitude[i] = LNG + random.nextDouble() * spread;
+		}
+	}
+
+	private static Set<Integer> withinRadius(double[] latitude, double[] longitude, double lat, double lng, double radius)
+	{
+		Set<Integer> within = new HashSet<>();
+		for (int i = 0; i < latitude.length; i++)
+			if (Coordinate.getDistance(lat, lng, latitude[i], longitude[i]) <= radius)
+				within.add(i);
+		return within;
+	}
+
+	private static List<Integer> nearest(double[] latitude, double[] longitude, int size, double lat, double lng, int k)
+	{
+		return IntStream.range(0, size).boxed()
+				.sorted(Comparator.<Integer>comparingDouble(i -> Coordinate.getDistance(lat, lng, latitude[i], longitude[i]))
+						.thenComparingInt(i -> i))
+				.limit(k)
+				.collect(Collectors.toList());
+	}
+
+	private static Set<Integer> found(SpatialHashGrid.Result result)
+	{
+		Set<Integer> found = new HashSet<>();
+		for (int i = 0; i < result.size(); i++)
+			found.add(result.getIndex(i));
+		return found;
+	}
+
+	private static List<Integer> toList(int[] indices)
+	{
+		List<Integer> list = new ArrayList<>();
+		for (int index : indices)
+			list.add(index);
+		return list;
+	}
+
+}
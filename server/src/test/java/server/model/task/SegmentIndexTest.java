@@ -0,0 +1,120 @@
+package server.model.task;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import server.model.Coordinate;
+import server.model.Route;
+
+class SegmentIndexTest {
+
+	private static final double LAT = 50.93;
+	private static final double LNG = -1.40;
+
+	@Test
+	@DisplayName("Should find the same nearest distance as checking every edge")
+	void matchesBruteForce()
+	{
+		Random random = new Random(1);
+		List<Coordinate> points = new ArrayList<>();
+		for (int i = 0; i < 300; i++)
+			points.add(new Coordinate(LAT + random.nextDouble() * 0.02, LNG + random.nextDouble() * 0.03));
+		checkQueries(points, random, 0.04);
+	}
+
+	@Test
+	@DisplayName("Should find the nearest edge of a region sweep")
+	void matchesBruteForceOnSweep()
+	{
+		List<Coordinate> points = new ArrayList<>();
+		for (int row = 0; row < 40; row++) {
+			double lat = LAT + row * 0.0003;
+			points.add(new Coordinate(lat, row % 2 == 0 ? LNG : LNG + 0.02));
+			points.add(new Coordinate(lat, row % 2 == 0 ? LNG + 0.02 : LNG));
+		}
+		checkQueries(points, new Random(2), 0.02);
+	}
+
+	@Test
+	@DisplayName("Should stay small and correct for a long thin route")
+	void boundsThinRoute()
+	{
+		//Almost no area, so sizing cells by area alone would give a huge grid.
+		List<Coordinate> points = new ArrayList<>();
+		for (int i = 0; i < 2000; i++)
+			points.add(new Coordinate(LAT + (i % 2) * 1e-9, LNG + i * 0.0001));
+		long start = System.nanoTime();
+		SegmentIndex index = new SegmentIndex(new Route.Path(points), LAT);
+		assertTrue(System.nanoTime() - start < 1_000_000_000L, "Index should be built quickly");
+		checkQueries(points, index, new Random(3), 0.01);
+	}
+
+	@Test
+	@DisplayName("Should find the nearest edge from positions far outside the route")
+	void findsFromFarAway()
+	{
+		List<Coordinate> points = new ArrayList<>();
+		for (int i = 0; i < 50; i++)
+			points.add(new Coordinate(LAT + (i % 5) * 0.001, LNG + (i / 5) * 0.001));
+		SegmentIndex index = new SegmentIndex(new Route.Path(points), LAT);
+		double[] result = new double[3];
+		for (Coordinate position : new Coordinate[] {new Coordinate(LAT + 1, LNG), new Coordinate(LAT - 1, LNG - 2),
+				new Coordinate(LAT + 0.002, LNG + 5)}) {
+			int edge = index.nearest(position.getLatitude(), position.getLongitude(), result);
+			assertTrue(edge != -1, "An edge should be found");
+			assertEquals(bruteForce(points, position), result[2], 1e-3, "Distance from " + position + " should match checking every edge");
+		}
+	}
+
+	@Test
+	@DisplayName("Should find nothing for a route without edges")
+	void emptyRoute()
+	{
+		double[] result = new double[3];
+		assertEquals(-1, new SegmentIndex(new Route.Path(Collections.emptyList()), LAT).nearest(LAT, LNG, result), "No edge should be found");
+		assertEquals(-1, new SegmentIndex(new Route.Path(Collections.singletonList(new Coordinate(LAT, LNG))), LAT).nearest(LAT, LNG, result),
+				"No edge should be found");
+	}
+
+	private static void checkQueries(List<Coordinate> points, Random random, double spread)
+	{
+		checkQueries(points, new SegmentIndex(new Route.Path(points), LAT), random, spread);
+	}
+
+	private static void checkQueries(List<Coordinate> points, SegmentIndex index, Random random, double spread)
+	{
+		double[] result = new double[3];
+		for (int i = 0; i < 500; i++) {
+			Coordinate position = new Coordinate(LAT - spread / 2 + random.nextDouble() * spread * 2,
+					LNG - spread / 2 + random.nextDouble() * spread * 2);
+			int edge = index.nearest(position.getLatitude(), position.getLongitude(), result);
+			assertTrue(edge >= 0 && edge < points.size() - 1, "An edge should be found");
+			assertEquals(bruteForce(points, position), result[2], 1e-3, "Distance from " + position + " should match checking every edge");
+			assertEquals(result[2], position.getDistance(new Coordinate(result[0], result[1])), 1e-6, "Distance should be to the point returned");
+		}
+	}
+
+	/**
+	 * @return Distance in meters from the position to the nearest point on any edge, checking each edge on its own.
+	 */
+	private static double bruteForce(List<Coordinate> points, Coordinate position)
+	{
+		double[] result = new double[3];
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < points.size() - 1; i++) {
+			SegmentIndex edge = new SegmentIndex(new Route.Path(points.subList(i, i + 2)), LAT);
+			edge.nearest(position.getLatitude(), position.getLongitude(), result);
+			best = Math.min(best, result[2]);
+		}
+		return best;
+	}
+
+}
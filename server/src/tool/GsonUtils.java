@@ -5,6 +5,7 @@ package tool;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonSerializer;
 
 import java.io.*;
@@ -31,6 +32,14 @@ public class GsonUtils {
 		return gson.toJson(obj);
 	}
 
+	public static String toJson(JsonElement tree) {
+		return gson.toJson(tree);
+	}
+
+	public static <T> JsonElement toJsonTree(T obj) {
+		return gson.toJsonTree(obj);
+	}
+
 	public static Object fromJson(String json) {
 		return gson.fromJson(json, Object.class);
 	}
@@ -19,12 +19,7 @@ App.Models.State  = Backbone.Model.extend({
         },
 		prov_doc: null,
         allocationUndoAvailable: false,
-        allocationRedoAvailable: false,
-        hazardHits: {
-            '-1': [],
-            '0': [],
-            '1': []
-        }
+        allocationRedoAvailable: false
 	},
     url: function() {
        return "state.json?" + _.time();
@@ -94,9 +89,6 @@ App.Models.State  = Backbone.Model.extend({
     },
     getDroppedAllocation: function() {
 	    return this.get("droppedAllocation");
-    },
-    getHazardHits: function(type) {
-        return this.get("hazardHits")[type];
     },
 	isEdit:function(){
 		return this.get("editMode");
@@ -173,9 +173,7 @@ var MapController = {
         var time = $.fromTime(this.state.getTime());
         $("#game_time").html("Time: " + time);
         this.updateAllocationRendering();
-        MapHazardController.updateHeatmap(-1);
-        MapHazardController.updateHeatmap(0);
-        MapHazardController.updateHeatmap(1);
+        MapHazardController.updateHeatmaps();
     },
     onMapLeftClick: function (event) {
         if (this.views.clickedAgent != null)
@@ -1,7 +1,69 @@
+/**
+ * Map overlay showing one layer of the hazard hit tiles rendered by the server (/tiles/<layer>/<z>/<x>/<y>.png).
+ * Tiles in view are checked again on refresh - the server answers with a 304 for tiles that haven't changed,
+ *  so only changed tiles are downloaded and redrawn.
+ * @param layer - Name of the tile layer.
+ */
+var HazardTileLayer = function (layer) {
+    this.layer = layer;
+    this.tileSize = new google.maps.Size(256, 256);
+    this.tiles = {};
+};
+
+HazardTileLayer.prototype.getTileUrl = function (coord, zoom) {
+    var n = 1 << zoom;
+    //Map wraps around horizontally
+    var x = ((coord.x % n) + n) % n;
+    return "/tiles/" + this.layer + "/" + zoom + "/" + x + "/" + coord.y + ".png";
+};
+
+HazardTileLayer.prototype.getTile = function (coord, zoom, ownerDocument) {
+    var img = ownerDocument.createElement('img');
+    img.style.width = this.tileSize.width + 'px';
+    img.style.height = this.tileSize.height + 'px';
+    if (coord.y < 0 || coord.y >= (1 << zoom))
+        return img;
+    img.tileUrl = this.getTileUrl(coord, zoom);
+    img.src = img.tileUrl;
+    this.tiles[img.tileUrl] = {img: img, etag: null};
+    return img;
+};
+
+HazardTileLayer.prototype.releaseTile = function (img) {
+    var tile = this.tiles[img.tileUrl];
+    if (tile && tile.img === img) {
+        if (tile.objectUrl)
+            URL.revokeObjectURL(tile.objectUrl);
+        delete this.tiles[img.tileUrl];
+    }
+};
+
+HazardTileLayer.prototype.refresh = function () {
+    var self = this;
+    _.each(this.tiles, function (tile, url) {
+        fetch(url, {cache: 'no-cache'}).then(function (response) {
+            var etag = response.headers.get('ETag');
+            if (!response.ok || etag === tile.etag)
+                return;
+            return response.blob().then(function (blob) {
+                //Tile may have been released while loading
+                if (self.tiles[url] !== tile)
+                    return;
+                if (tile.objectUrl)
+                    URL.revokeObjectURL(tile.objectUrl);
+                tile.etag = etag;
+                tile.objectUrl = URL.createObjectURL(blob);
+                tile.img.src = tile.objectUrl;
+            });
+        });
+    });
+};
+
 var MapHazardController = {
     heatmap: {},
-    emptyHeatmap: null,
-    visibleCount: 0,
+    //Ticks between refreshing the visible heatmaps.
+    REFRESH_TICKS: 10,
+    tickCount: 0,
     /**
      * Binds all the methods to use the given context.
      *  This means the methods can be called just using MapAgentController.method() without
@@ -11,7 +73,7 @@ var MapHazardController = {
     bind: function (context) {
         this.bindEvents = _.bind(this.bindEvents, context);
         this.addHeatmap = _.bind(this.addHeatmap, context);
-        this.updateHeatmap = _.bind(this.updateHeatmap, context);
+        this.updateHeatmaps = _.bind(this.updateHeatmaps, context);
         this.setHeatmapVisibility = _.bind(this.setHeatmapVisibility, context)
     },
     bindEvents: function () {
@@ -23,61 +85,36 @@ var MapHazardController = {
             MapHazardController.setHeatmapVisibility(1, $(this).is(":checked"));
         });
 
-        //Add empty heat map - used to give consistent background colour when multiple heatmaps are active.
-        MapHazardController.emptyHeatmap = new HeatmapOverlay(this.map,
-            {
-                // "backgroundColor": '#00000044'
-                "backgroundColor": '#00000010'
-            }
-        );
-
         //Add heatmaps
-        MapHazardController.addHeatmap(this.state.hazards.NONE, 'blue');
-        MapHazardController.addHeatmap(this.state.hazards.FIRE, 'red');
-        MapHazardController.addHeatmap(this.state.hazards.DEBRIS, 'black');
-
-        //Make sure visible count is zero after maps are added and emtpty heatmap is not visible
-        MapHazardController.visibleCount = 0;
-        MapHazardController.emptyHeatmap.container.style.display = "none";
+        MapHazardController.addHeatmap(this.state.hazards.NONE, 'explored');
+        MapHazardController.addHeatmap(this.state.hazards.FIRE, 'fire');
+        MapHazardController.addHeatmap(this.state.hazards.DEBRIS, 'debris');
     },
-    addHeatmap: function (hazardType, colour) {
+    addHeatmap: function (hazardType, layer) {
         if (hazardType in MapHazardController.heatmap)
             console.log("Cannot add heatmap - heatmap already existing for hazard type " + hazardType);
-        else {
-            MapHazardController.heatmap[hazardType] = new HeatmapOverlay(this.map,
-                {
-                    "radius": 0.0005,
-                    // "maxOpacity": 0.4,
-                    "maxOpacity": 0.6,
-                    "scaleRadius": true,
-                    "useLocalExtrema": false,
-                    "gradient": {
-                        '0': 'black',
-                        '1': colour
-                    },
-                    latField: 'latitude',
-                    lngField: 'longitude',
-                    valueField: 'weight'
-                }
-            );
-            MapHazardController.setHeatmapVisibility(hazardType, false);
-        }
+        else
+            MapHazardController.heatmap[hazardType] = new HazardTileLayer(layer);
     },
-    updateHeatmap: function (hazardType) {
-        var data = this.state.getHazardHits(hazardType).map(function(hit) {
-            var hitObj = {};
-            $.extend(hitObj, hit.location, {'weight': hit.weight});
-            return hitObj;
+    /**
+     * Refresh the tiles of the visible heatmaps every REFRESH_TICKS ticks.
+     */
+    updateHeatmaps: function () {
+        MapHazardController.tickCount++;
+        if (MapHazardController.tickCount % MapHazardController.REFRESH_TICKS !== 0)
+            return;
+        var overlays = this.map.overlayMapTypes.getArray();
+        _.each(MapHazardController.heatmap, function (heatmap) {
+            if (overlays.indexOf(heatmap) !== -1)
+                heatmap.refresh();
         });
-        MapHazardController.heatmap[hazardType].setData({data: data, max:1, min:0});
     },
     setHeatmapVisibility: function (hazardType, visible) {
-        MapHazardController.heatmap[hazardType].container.style.display = visible ? "block" : "none";
-
-        MapHazardController.visibleCount += visible ? 1 : -1;
-        if(visible)
-            MapHazardController.emptyHeatmap.container.style.display = "block";
-        else if(MapHazardController.visibleCount === 0)
-            MapHazardController.emptyHeatmap.container.style.display = "none";
+        var heatmap = MapHazardController.heatmap[hazardType];
+        var index = this.map.overlayMapTypes.getArray().indexOf(heatmap);
+        if (visible && index === -1)
+            this.map.overlayMapTypes.push(heatmap);
+        else if (!visible && index !== -1)
+            this.map.overlayMapTypes.removeAt(index);
     }
 };
@@ -55,9 +55,6 @@ $LAB.setOptions({
     //Ros
     .script("lib/ros/eventemitter2.min.js")
     .script("lib/ros/roslib.min.js")
-    //Heatmap
-    .script("lib/heatmap/heatmap.js")
-    .script("lib/heatmap/gmaps-heatmap.js")
 
     // ----- Add base functions -----
     .script("app/base.js")